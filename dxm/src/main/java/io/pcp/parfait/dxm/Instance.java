@@ -21,6 +21,7 @@ package io.pcp.parfait.dxm;
 
 
 import java.nio.ByteBuffer;
+import java.util.Collection;
 
 abstract class Instance implements PcpId, PcpOffset, MmvWritable {
     protected final String name;
@@ -54,6 +55,12 @@ abstract class Instance implements PcpId, PcpOffset, MmvWritable {
         return id;
     }
 
+    /**
+     * Adds the strings this instance's entry refers to, if any.
+     */
+    void collectStrings(Collection<PcpString> strings) {
+    }
+
     @Override
     public abstract void writeToMmv(ByteBuffer byteBuffer);
 
@@ -23,7 +23,7 @@ import java.util.Collection;
 import java.util.Set;
 
 class InstanceDomain implements PcpId, PcpOffset, MmvWritable {
-    private static final int INSTANCE_DOMAIN_LENGTH = 32;
+    static final int INSTANCE_DOMAIN_LENGTH = 32;
 
     private final String name;
     private final int id;
@@ -76,21 +76,40 @@ class InstanceDomain implements PcpId, PcpOffset, MmvWritable {
         return instanceStore.all();
     }
 
+    void removeInstance(Instance instance) {
+        instanceStore.remove(instance);
+    }
+
     void setHelpText(PcpString shortHelpText, PcpString longHelpText) {
         this.shortHelpText = shortHelpText;
         this.longHelpText = longHelpText;
         
     }
 
+    /**
+     * Adds the strings this domain's entry refers to (any of which may be null).
+     */
+    void collectStrings(Collection<PcpString> strings) {
+        strings.add(shortHelpText);
+        strings.add(longHelpText);
+    }
+
     @Override
     public void writeToMmv(ByteBuffer byteBuffer) {
-        byteBuffer.position(offset);
-        writeInstanceDomainSection(byteBuffer);
+        writeEntryToMmv(byteBuffer);
         for (Instance instance : getInstances()) {
             instance.writeToMmv(byteBuffer);
         }
     }
 
+    /**
+     * Writes only this domain's own entry, leaving its instances to be written separately.
+     */
+    void writeEntryToMmv(ByteBuffer byteBuffer) {
+        byteBuffer.position(offset);
+        writeInstanceDomainSection(byteBuffer);
+    }
+
     private void writeInstanceDomainSection(ByteBuffer dataFileBuffer) {
         dataFileBuffer.putInt(id);
         dataFileBuffer.putInt(getInstanceCount());
@@ -31,7 +31,7 @@ final class InstanceV1 extends Instance {
      * Java String length)
      */
     static final int INSTANCE_NAME_LIMIT = 63;
-    private static final int INSTANCE_LENGTH = 80;
+    static final int INSTANCE_LENGTH = 80;
 
     InstanceV1(InstanceDomain domain, String name, int id) {
         super(domain, name, id);
@@ -20,11 +20,12 @@ import io.pcp.parfait.dxm.PcpMmvWriter.Store;
 import io.pcp.parfait.dxm.PcpString.PcpStringStore;
 
 import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.Set;
 
 final class InstanceV2 extends Instance {
 
-    private static final int INSTANCE_LENGTH = 24;
+    static final int INSTANCE_LENGTH = 24;
     private PcpString nameAsString;
 
     InstanceV2(InstanceDomain domain, String name, int id, PcpString nameAsString) {
@@ -41,6 +42,11 @@ final class InstanceV2 extends Instance {
         byteBuffer.putLong(getStringOffset(nameAsString));
     }
 
+    @Override
+    void collectStrings(Collection<PcpString> strings) {
+        strings.add(nameAsString);
+    }
+
     private long getStringOffset(PcpString text) {
         if (text == null) {
             return 0;
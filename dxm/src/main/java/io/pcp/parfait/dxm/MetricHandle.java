@@ -0,0 +1,54 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.dxm;
+
+import io.pcp.parfait.dxm.types.TypeHandler;
+
+/**
+ * A pre-resolved reference to a single metric value added to a {@link PcpWriter}, allowing updates
+ * without looking the metric up by name each time. The primitive setters write the value straight
+ * into the metric's PCP type (converting as a Java cast would), bypassing the metric's
+ * {@link TypeHandler} and so avoiding boxing; use {@link #set(Object)} for values needing the handler's
+ * own conversion.
+ * <p>
+ * As with {@link PcpWriter#updateMetric(MetricName, Object)}, updates made before the writer is
+ * started become the value written at start time, and updates made through a handle obtained before
+ * the writer was {@link PcpWriter#reset() reset} are ignored.
+ * </p>
+ */
+public interface MetricHandle {
+
+    /**
+     * @return the name of the metric this handle updates
+     */
+    MetricName getName();
+
+    /**
+     * Updates the metric value, converting it with the metric's {@link TypeHandler}.
+     *
+     * @param value
+     *            the new value (must be convertible by the {@link TypeHandler} used when adding the
+     *            metric)
+     */
+    void set(Object value);
+
+    void set(long value);
+
+    void set(int value);
+
+    void set(double value);
+}
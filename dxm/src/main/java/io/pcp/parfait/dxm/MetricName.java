@@ -24,6 +24,7 @@ public final class MetricName {
     private static final String VALID_METRIC_NAME = "\\A((_ID_)(\\._ID_)*)(\\[(_ID_)\\])?((\\._ID_)*)\\z"
             .replace("_ID_", IDENTIFIER_SECTION);
     private static final Pattern METRIC_PATTERN = Pattern.compile(VALID_METRIC_NAME);
+    private static final Pattern INSTANCE_PATTERN = Pattern.compile(IDENTIFIER_SECTION);
     private static final int METRIC_PREFIX_INDEX = 1;
     private static final int METRIC_INSTANCE_INDEX = 5;
     private static final int METRIC_SUFFIX_INDEX = 6;
@@ -64,6 +65,19 @@ public final class MetricName {
                 .group(METRIC_INSTANCE_INDEX));
     }
 
+    /**
+     * @return the name of the given instance of this metric, which must not name an instance already
+     */
+    public MetricName withInstance(String instance) {
+        if (hasInstance()) {
+            throw new IllegalStateException(String.format("metric name '%s' already has an instance", this));
+        }
+        if (!INSTANCE_PATTERN.matcher(instance).matches()) {
+            throw new IllegalArgumentException(String.format("invalid instance name '%s'", instance));
+        }
+        return new MetricName(prefix, suffix, instance);
+    }
+
     @Override
     public int hashCode() {
         final int prime = 191;
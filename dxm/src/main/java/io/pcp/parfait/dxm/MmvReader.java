@@ -0,0 +1,325 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.dxm;
+
+import static io.pcp.parfait.dxm.PcpMmvWriter.PCP_CHARSET;
+import static io.pcp.parfait.dxm.PcpString.STRING_BLOCK_LENGTH;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import io.pcp.parfait.dxm.MmvSnapshot.IndomEntry;
+import io.pcp.parfait.dxm.MmvSnapshot.InstanceEntry;
+import io.pcp.parfait.dxm.MmvSnapshot.MetricEntry;
+import io.pcp.parfait.dxm.MmvSnapshot.ValueEntry;
+import io.pcp.parfait.dxm.semantics.Semantics;
+import io.pcp.parfait.dxm.types.MmvMetricType;
+
+/**
+ * Reads MMV files (version 1 or 2) back in, without needing PCP installed. Like the MMV PMDA, it only
+ * reads a file while the two generation numbers in its header agree and are non-zero. If either
+ * generation has changed by the time the read finishes, the read is thrown away. Reads use absolute
+ * gets only, so one reader can be shared between threads.
+ */
+public final class MmvReader {
+    private static final byte[] TAG = "MMV\0".getBytes(PCP_CHARSET);
+    private static final int HEADER_LENGTH = 40;
+    private static final int TOC_LENGTH = 16;
+    private static final int GENERATION1_OFFSET = 8;
+    private static final int GENERATION2_OFFSET = 16;
+
+    private static final int TOC_INSTANCE_DOMAINS = 1;
+    private static final int TOC_INSTANCES = 2;
+    private static final int TOC_METRICS = 3;
+    private static final int TOC_VALUES = 4;
+    private static final int TOC_STRINGS = 5;
+
+    private static final int NAME_BLOCK_LENGTH = 64;
+
+    private final ByteBuffer buffer;
+
+    public MmvReader(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate().order(buffer.order());
+    }
+
+    /**
+     * Maps an MMV file read-only, in the platform's byte order (as written by
+     * {@link FileByteBufferFactory}). The mapping is of the file as it is now; a writer that is
+     * restarted replaces the file, so open it again to follow.
+     */
+    public static MmvReader open(File file) throws IOException {
+        RandomAccessFile mmvFile = new RandomAccessFile(file, "r");
+        try {
+            ByteBuffer mapped = mmvFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mmvFile.length());
+            return new MmvReader(mapped.order(ByteOrder.nativeOrder()));
+        } finally {
+            mmvFile.close();
+        }
+    }
+
+    /**
+     * @return the file's generation, or 0 if the file is not ready to be read (its generations
+     *         disagree, or it has not been written yet)
+     */
+    public long getGeneration() {
+        if (buffer.capacity() < HEADER_LENGTH) {
+            return 0;
+        }
+        long generation = buffer.getLong(GENERATION1_OFFSET);
+        return generation == buffer.getLong(GENERATION2_OFFSET) ? generation : 0;
+    }
+
+    /**
+     * Reads the whole file at its current generation.
+     *
+     * @throws GenerationMismatchException
+     *             if the file was not ready, or was rewritten during the read
+     * @throws IllegalStateException
+     *             if the file is not a well-formed MMV file
+     */
+    public MmvSnapshot read() {
+        long generation = getGeneration();
+        if (generation == 0) {
+            throw new GenerationMismatchException("File is not ready; its generations disagree");
+        }
+        MmvSnapshot snapshot;
+        try {
+            snapshot = parse(generation);
+        } catch (RuntimeException e) {
+            // Anything may go wrong parsing a file that changed under us; that's a skipped read
+            checkGeneration(generation);
+            throw e;
+        }
+        checkGeneration(generation);
+        return snapshot;
+    }
+
+    private void checkGeneration(long generation) {
+        long generation1 = buffer.getLong(GENERATION1_OFFSET);
+        long generation2 = buffer.getLong(GENERATION2_OFFSET);
+        if (generation1 != generation || generation2 != generation) {
+            throw new GenerationMismatchException("File changed from generation " + generation
+                    + " to " + generation1 + "/" + generation2 + " while being read");
+        }
+    }
+
+    private MmvSnapshot parse(long generation) {
+        for (int i = 0; i < TAG.length; i++) {
+            Preconditions.checkState(buffer.get(i) == TAG[i], "Not an MMV file");
+        }
+        int version = buffer.getInt(4);
+        Preconditions.checkState(version == 1 || version == 2, "Unsupported MMV version %s", version);
+        int tocCount = buffer.getInt(24);
+        checkBounds(HEADER_LENGTH, tocCount, TOC_LENGTH);
+
+        int[] counts = new int[TOC_STRINGS + 1];
+        int[] offsets = new int[TOC_STRINGS + 1];
+        for (int toc = 0; toc < tocCount; toc++) {
+            int tocOffset = HEADER_LENGTH + toc * TOC_LENGTH;
+            int type = buffer.getInt(tocOffset);
+            Preconditions.checkState(type >= TOC_INSTANCE_DOMAINS && type <= TOC_STRINGS,
+                    "Unknown TOC type %s", type);
+            counts[type] = buffer.getInt(tocOffset + 4);
+            offsets[type] = toOffset(buffer.getLong(tocOffset + 8));
+        }
+
+        int instanceLength = version == 1 ? InstanceV1.INSTANCE_LENGTH : InstanceV2.INSTANCE_LENGTH;
+        int metricLength = version == 1 ? PcpMetricInfoV1.METRIC_LENGTH : PcpMetricInfoV2.METRIC_LENGTH;
+        checkBounds(offsets[TOC_INSTANCE_DOMAINS], counts[TOC_INSTANCE_DOMAINS], InstanceDomain.INSTANCE_DOMAIN_LENGTH);
+        checkBounds(offsets[TOC_INSTANCES], counts[TOC_INSTANCES], instanceLength);
+        checkBounds(offsets[TOC_METRICS], counts[TOC_METRICS], metricLength);
+        checkBounds(offsets[TOC_VALUES], counts[TOC_VALUES], PcpValueInfo.VALUE_LENGTH);
+        checkBounds(offsets[TOC_STRINGS], counts[TOC_STRINGS], STRING_BLOCK_LENGTH);
+
+        Map<Integer, Integer> indomSerials = new HashMap<Integer, Integer>();
+        Map<Integer, List<InstanceEntry>> indomInstances = new HashMap<Integer, List<InstanceEntry>>();
+        for (int i = 0; i < counts[TOC_INSTANCE_DOMAINS]; i++) {
+            int entry = offsets[TOC_INSTANCE_DOMAINS] + i * InstanceDomain.INSTANCE_DOMAIN_LENGTH;
+            indomSerials.put(entry, buffer.getInt(entry));
+            indomInstances.put(entry, new ArrayList<InstanceEntry>());
+        }
+
+        Map<Integer, InstanceEntry> instances = new HashMap<Integer, InstanceEntry>();
+        for (int i = 0; i < counts[TOC_INSTANCES]; i++) {
+            int entry = offsets[TOC_INSTANCES] + i * instanceLength;
+            int indom = toOffset(buffer.getLong(entry));
+            Preconditions.checkState(indomSerials.containsKey(indom),
+                    "Instance at %s refers to unknown instance domain at %s", entry, indom);
+            String name = version == 1 ? readName(entry + 16, NAME_BLOCK_LENGTH)
+                    : readString(buffer.getLong(entry + 16));
+            InstanceEntry instance = new InstanceEntry(indomSerials.get(indom), buffer.getInt(entry + 12), name);
+            instances.put(entry, instance);
+            indomInstances.get(indom).add(instance);
+        }
+
+        List<IndomEntry> instanceDomains = new ArrayList<IndomEntry>();
+        for (int i = 0; i < counts[TOC_INSTANCE_DOMAINS]; i++) {
+            int entry = offsets[TOC_INSTANCE_DOMAINS] + i * InstanceDomain.INSTANCE_DOMAIN_LENGTH;
+            List<InstanceEntry> domainInstances = indomInstances.get(entry);
+            Preconditions.checkState(buffer.getInt(entry + 4) == domainInstances.size(),
+                    "Instance domain at %s claims %s instances but has %s", entry, buffer.getInt(entry + 4),
+                    domainInstances.size());
+            instanceDomains.add(new IndomEntry(buffer.getInt(entry), readString(buffer.getLong(entry + 16)),
+                    readString(buffer.getLong(entry + 24)), domainInstances));
+        }
+
+        Map<Integer, MetricEntry> metricsByOffset = new HashMap<Integer, MetricEntry>();
+        List<MetricEntry> metrics = new ArrayList<MetricEntry>();
+        for (int i = 0; i < counts[TOC_METRICS]; i++) {
+            int entry = offsets[TOC_METRICS] + i * metricLength;
+            String name;
+            int fields;
+            if (version == 1) {
+                name = readName(entry, NAME_BLOCK_LENGTH);
+                fields = entry + NAME_BLOCK_LENGTH;
+            } else {
+                name = readString(buffer.getLong(entry));
+                fields = entry + 8;
+            }
+            MetricEntry metric = new MetricEntry(name, buffer.getInt(fields), metricType(buffer.getInt(fields + 4)),
+                    semantics(buffer.getInt(fields + 8)), buffer.getInt(fields + 12), buffer.getInt(fields + 16),
+                    readString(buffer.getLong(fields + 24)), readString(buffer.getLong(fields + 32)));
+            metricsByOffset.put(entry, metric);
+            metrics.add(metric);
+        }
+
+        List<ValueEntry> values = new ArrayList<ValueEntry>();
+        for (int i = 0; i < counts[TOC_VALUES]; i++) {
+            int entry = offsets[TOC_VALUES] + i * PcpValueInfo.VALUE_LENGTH;
+            MetricEntry metric = metricsByOffset.get(toOffset(buffer.getLong(entry + 16)));
+            Preconditions.checkState(metric != null, "Value at %s refers to an unknown metric", entry);
+            long instanceOffset = buffer.getLong(entry + 24);
+            InstanceEntry instance = null;
+            if (instanceOffset != 0) {
+                instance = instances.get(toOffset(instanceOffset));
+                Preconditions.checkState(instance != null, "Value at %s refers to an unknown instance", entry);
+            }
+            values.add(new ValueEntry(metric, instance, readValue(entry, metric.getType())));
+        }
+
+        List<String> strings = new ArrayList<String>();
+        for (int i = 0; i < counts[TOC_STRINGS]; i++) {
+            strings.add(readName(offsets[TOC_STRINGS] + i * STRING_BLOCK_LENGTH, STRING_BLOCK_LENGTH));
+        }
+
+        return new MmvSnapshot(version, generation, buffer.getInt(28), buffer.getInt(32), buffer.getInt(36),
+                instanceDomains, metrics, values, strings);
+    }
+
+    private Object readValue(int entry, MmvMetricType type) {
+        switch (type) {
+        case I32:
+            return buffer.getInt(entry);
+        case U32:
+            return buffer.getInt(entry) & 0xFFFFFFFFL;
+        case I64:
+        case U64:
+            return buffer.getLong(entry);
+        case FLOAT:
+            return buffer.getFloat(entry);
+        case DOUBLE:
+            return buffer.getDouble(entry);
+        case STRING:
+            // The value holds the string's length, and the "extra" word after it the string's offset
+            return readString(buffer.getLong(entry + 8));
+        default:
+            throw new IllegalStateException("Value at " + entry + " has unsupported type " + type);
+        }
+    }
+
+    private void checkBounds(int start, int count, int entryLength) {
+        Preconditions.checkState(count >= 0 && start >= 0
+                && (long) start + (long) count * entryLength <= buffer.capacity(),
+                "%s entries of %s bytes at %s overrun the file", count, entryLength, start);
+    }
+
+    private int toOffset(long offset) {
+        Preconditions.checkState(offset >= 0 && offset < buffer.capacity(), "Offset %s is outside the file", offset);
+        return (int) offset;
+    }
+
+    /**
+     * @return the string block at this offset, or null for a zero (absent) offset
+     */
+    private String readString(long offset) {
+        if (offset == 0) {
+            return null;
+        }
+        checkBounds(toOffset(offset), 1, STRING_BLOCK_LENGTH);
+        return readName((int) offset, STRING_BLOCK_LENGTH);
+    }
+
+    /**
+     * Reads a null-terminated string from a fixed-size block.
+     */
+    private String readName(int offset, int blockLength) {
+        for (int length = 0; length < blockLength; length++) {
+            if (buffer.get(offset + length) == 0) {
+                byte[] bytes = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    bytes[i] = buffer.get(offset + i);
+                }
+                return new String(bytes, PCP_CHARSET);
+            }
+        }
+        throw new IllegalStateException("Unterminated string at " + offset);
+    }
+
+    private static MmvMetricType metricType(int identifier) {
+        for (MmvMetricType type : MmvMetricType.values()) {
+            if (type.getIdentifier() == identifier) {
+                return type;
+            }
+        }
+        throw new IllegalStateException("Unknown metric type " + identifier);
+    }
+
+    private static Semantics semantics(int pcpValue) {
+        for (Semantics semantics : Semantics.values()) {
+            if (semantics.getPcpValue() == pcpValue) {
+                return semantics;
+            }
+        }
+        throw new IllegalStateException("Unknown semantics " + pcpValue);
+    }
+
+    @Override
+    public String toString() {
+        return "MmvReader[buffer=" + buffer + ']';
+    }
+
+    /**
+     * Thrown when a file cannot be read because it is part-way through being (re)written: its two
+     * generation numbers disagreed, or changed while it was being read. Try again later.
+     */
+    public static class GenerationMismatchException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        GenerationMismatchException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.dxm;
+
+import static tech.units.indriya.AbstractUnit.ONE;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import io.pcp.parfait.dxm.MmvReader.GenerationMismatchException;
+import io.pcp.parfait.dxm.MmvSnapshot.ValueEntry;
+import io.pcp.parfait.dxm.semantics.Semantics;
+import io.pcp.parfait.dxm.types.MmvMetricType;
+
+/**
+ * Stands in for the PCP MMV PMDA when stress-testing a writer: reader threads read the MMV file
+ * back to back, as fast as they can, while the application updates it. Each read is one of:
+ * <ul>
+ * <li>consistent;</li>
+ * <li>a generation mismatch, skipped (as the PMDA would) because the file was being rewritten;</li>
+ * <li>torn: the generations held steady throughout, yet the file failed to parse or held a value
+ * rejected by the {@link #setValueValidator(Predicate) value validator}.</li>
+ * </ul>
+ * Writers which store self-checking values (see {@link #mirror(int)} and
+ * {@link #mirroredValues()}) let the validator spot values caught half-written. Run {@link #main}
+ * for a ready-made stress test of a {@link PcpMmvWriter}.
+ */
+public class MmvReaderStandIn {
+    private final Supplier<ByteBuffer> source;
+    private volatile Predicate<ValueEntry> valueValidator = value -> true;
+    private volatile int readerThreads = 1;
+
+    /**
+     * @param source
+     *            supplies the file's current buffer on every read (e.g.
+     *            {@link InMemoryByteBufferFactory#getAllocatedBuffer()}, which changes whenever the
+     *            writer restarts); null while there is no file yet
+     */
+    public MmvReaderStandIn(Supplier<ByteBuffer> source) {
+        this.source = Preconditions.checkNotNull(source);
+    }
+
+    public void setValueValidator(Predicate<ValueEntry> valueValidator) {
+        this.valueValidator = Preconditions.checkNotNull(valueValidator);
+    }
+
+    public void setReaderThreads(int readerThreads) {
+        Preconditions.checkArgument(readerThreads > 0, "Need at least one reader thread");
+        this.readerThreads = readerThreads;
+    }
+
+    /**
+     * Reads the file continuously from every reader thread for the given time.
+     */
+    public Report run(Duration duration) throws InterruptedException {
+        LongAdder consistent = new LongAdder();
+        LongAdder mismatched = new LongAdder();
+        LongAdder torn = new LongAdder();
+        AtomicReference<String> firstTear = new AtomicReference<String>();
+        long start = System.nanoTime();
+        long deadline = start + duration.toNanos();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < readerThreads; i++) {
+            Thread thread = new Thread(() -> {
+                ByteBuffer buffer = null;
+                MmvReader reader = null;
+                while (System.nanoTime() < deadline) {
+                    ByteBuffer current = source.get();
+                    if (current == null) {
+                        mismatched.increment();
+                        continue;
+                    }
+                    if (current != buffer) {
+                        buffer = current;
+                        reader = new MmvReader(current);
+                    }
+                    try {
+                        String tear = findTornValue(reader.read());
+                        if (tear == null) {
+                            consistent.increment();
+                        } else {
+                            torn.increment();
+                            firstTear.compareAndSet(null, tear);
+                        }
+                    } catch (GenerationMismatchException e) {
+                        mismatched.increment();
+                    } catch (RuntimeException e) {
+                        torn.increment();
+                        firstTear.compareAndSet(null, e.toString());
+                    }
+                }
+            }, "MmvReaderStandIn-reader-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return new Report(consistent.sum(), mismatched.sum(), torn.sum(), firstTear.get(),
+                Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private String findTornValue(MmvSnapshot snapshot) {
+        Predicate<ValueEntry> validator = valueValidator;
+        for (ValueEntry value : snapshot.getValues()) {
+            if (!validator.test(value)) {
+                return value.toString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a 64-bit value holding <code>value</code> in both halves, so that a read catching it
+     *         half-written is recognisable
+     */
+    public static long mirror(int value) {
+        return ((long) value << 32) | (value & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return a string of this many copies of one character, which is likewise recognisable when
+     *         caught half-overwritten by another
+     */
+    public static String mirror(char character, int length) {
+        return Strings.repeat(String.valueOf(character), length);
+    }
+
+    /**
+     * @return a validator accepting 64-bit values whose two halves match and strings made of a single
+     *         repeated character; other values are always accepted
+     */
+    public static Predicate<ValueEntry> mirroredValues() {
+        return entry -> {
+            Object value = entry.getValue();
+            MmvMetricType type = entry.getMetric().getType();
+            if (type == MmvMetricType.I64 || type == MmvMetricType.U64) {
+                long bits = (Long) value;
+                return (bits >>> 32) == (bits & 0xFFFFFFFFL);
+            }
+            if (value instanceof String) {
+                String text = (String) value;
+                return text.isEmpty() || text.equals(mirror(text.charAt(0), text.length()));
+            }
+            return true;
+        };
+    }
+
+    /**
+     * The outcome of a {@link MmvReaderStandIn#run(Duration)}.
+     */
+    public static final class Report {
+        private final long consistentReads;
+        private final long generationMismatches;
+        private final long tornReads;
+        private final String firstTornRead;
+        private final Duration elapsed;
+
+        Report(long consistentReads, long generationMismatches, long tornReads, String firstTornRead,
+                Duration elapsed) {
+            this.consistentReads = consistentReads;
+            this.generationMismatches = generationMismatches;
+            this.tornReads = tornReads;
+            this.firstTornRead = firstTornRead;
+            this.elapsed = elapsed;
+        }
+
+        public long getConsistentReads() {
+            return consistentReads;
+        }
+
+        public long getGenerationMismatches() {
+            return generationMismatches;
+        }
+
+        public long getTornReads() {
+            return tornReads;
+        }
+
+        /**
+         * @return a description of the first torn read seen, or null if there were none
+         */
+        public String getFirstTornRead() {
+            return firstTornRead;
+        }
+
+        public long getReads() {
+            return consistentReads + generationMismatches + tornReads;
+        }
+
+        public Duration getElapsed() {
+            return elapsed;
+        }
+
+        public double getReadsPerSecond() {
+            return getReads() * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsed.toNanos());
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d reads in %d ms (%.0f/s): %d consistent, %d generation mismatches, %d torn%s",
+                    getReads(), elapsed.toMillis(), getReadsPerSecond(), consistentReads, generationMismatches,
+                    tornReads, firstTornRead == null ? "" : " (first: " + firstTornRead + ")");
+        }
+    }
+
+    /**
+     * Stress-tests an in-memory {@link PcpMmvWriter}, printing a {@link Report}. Arguments (all
+     * optional): writer threads, reader threads, seconds, and the writer's locking mode (global,
+     * perMetric or lockFree).
+     */
+    public static void main(String[] args) throws Exception {
+        int writerThreads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int readerThreads = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        String lockMode = args.length > 3 ? args[3] : "perMetric";
+
+        InMemoryByteBufferFactory byteBufferFactory = new InMemoryByteBufferFactory();
+        PcpMmvWriter writer = new PcpMmvWriter(byteBufferFactory, IdentifierSourceSet.DEFAULT_SET);
+        writer.setPerMetricLock("perMetric".equals(lockMode));
+        writer.setLockFreeNumericUpdates("lockFree".equals(lockMode));
+        int metrics = writerThreads * 2;
+        for (int i = 0; i < writerThreads; i++) {
+            writer.addMetric(MetricName.parse("standin.counter" + i), Semantics.COUNTER, ONE, mirror(0));
+            writer.addMetric(MetricName.parse("standin.text" + i), Semantics.DISCRETE, ONE, mirror('a', 32));
+        }
+        writer.start();
+
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int i = 0; i < writerThreads; i++) {
+            MetricName counter = MetricName.parse("standin.counter" + i);
+            MetricName text = MetricName.parse("standin.text" + i);
+            Thread thread = new Thread(() -> {
+                for (int value = 0; !Thread.currentThread().isInterrupted(); value++) {
+                    writer.updateMetric(counter, mirror(value));
+                    writer.updateMetric(text, mirror((char) ('a' + (value & 15)), 32));
+                }
+            }, "MmvReaderStandIn-writer-" + i);
+            thread.setDaemon(true);
+            writers.add(thread);
+            thread.start();
+        }
+
+        MmvReaderStandIn standIn = new MmvReaderStandIn(byteBufferFactory::getAllocatedBuffer);
+        standIn.setReaderThreads(readerThreads);
+        standIn.setValueValidator(mirroredValues());
+        Report report = standIn.run(Duration.ofSeconds(seconds));
+        for (Thread thread : writers) {
+            thread.interrupt();
+        }
+        System.out.println(metrics + " metrics, " + writerThreads + " writers (" + lockMode + "), "
+                + readerThreads + " readers: " + report);
+    }
+}
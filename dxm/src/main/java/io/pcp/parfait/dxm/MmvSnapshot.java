@@ -0,0 +1,294 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.dxm;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.pcp.parfait.dxm.semantics.Semantics;
+import io.pcp.parfait.dxm.types.MmvMetricType;
+
+/**
+ * The contents of an MMV file as read by an {@link MmvReader} at a single generation.
+ */
+public final class MmvSnapshot {
+    private final int version;
+    private final long generation;
+    private final int flags;
+    private final int processIdentifier;
+    private final int clusterIdentifier;
+    private final List<IndomEntry> instanceDomains;
+    private final List<MetricEntry> metrics;
+    private final List<ValueEntry> values;
+    private final List<String> strings;
+    private final Map<String, ValueEntry> valuesByName = new HashMap<String, ValueEntry>();
+
+    MmvSnapshot(int version, long generation, int flags, int processIdentifier, int clusterIdentifier,
+            List<IndomEntry> instanceDomains, List<MetricEntry> metrics, List<ValueEntry> values,
+            List<String> strings) {
+        this.version = version;
+        this.generation = generation;
+        this.flags = flags;
+        this.processIdentifier = processIdentifier;
+        this.clusterIdentifier = clusterIdentifier;
+        this.instanceDomains = Collections.unmodifiableList(instanceDomains);
+        this.metrics = Collections.unmodifiableList(metrics);
+        this.values = Collections.unmodifiableList(values);
+        this.strings = Collections.unmodifiableList(strings);
+        for (ValueEntry value : values) {
+            valuesByName.put(key(value.getMetric().getName(), value.getInstanceName()), value);
+        }
+    }
+
+    private static String key(String metricName, String instanceName) {
+        return instanceName == null ? metricName : metricName + '\0' + instanceName;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public int getProcessIdentifier() {
+        return processIdentifier;
+    }
+
+    public int getClusterIdentifier() {
+        return clusterIdentifier;
+    }
+
+    public List<IndomEntry> getInstanceDomains() {
+        return instanceDomains;
+    }
+
+    public List<MetricEntry> getMetrics() {
+        return metrics;
+    }
+
+    public List<ValueEntry> getValues() {
+        return values;
+    }
+
+    /**
+     * @return every string in the file's string section, in file order
+     */
+    public List<String> getStrings() {
+        return strings;
+    }
+
+    /**
+     * @return the value of the singular metric with this name (e.g. <code>sheep.jumps</code>), or
+     *         null if there is none
+     */
+    public ValueEntry getValue(String metricName) {
+        return valuesByName.get(key(metricName, null));
+    }
+
+    /**
+     * @return the value of the given instance of the metric (e.g. <code>sheep.jumps</code> and
+     *         <code>baabaablack</code>), or null if there is none
+     */
+    public ValueEntry getValue(String metricName, String instanceName) {
+        return valuesByName.get(key(metricName, instanceName));
+    }
+
+    @Override
+    public String toString() {
+        return "MmvSnapshot[version=" + version + ", generation=" + generation + ", values=" + values + ']';
+    }
+
+    public static final class IndomEntry {
+        private final int serial;
+        private final String shortHelpText;
+        private final String longHelpText;
+        private final List<InstanceEntry> instances;
+
+        IndomEntry(int serial, String shortHelpText, String longHelpText, List<InstanceEntry> instances) {
+            this.serial = serial;
+            this.shortHelpText = shortHelpText;
+            this.longHelpText = longHelpText;
+            this.instances = Collections.unmodifiableList(instances);
+        }
+
+        public int getSerial() {
+            return serial;
+        }
+
+        public String getShortHelpText() {
+            return shortHelpText;
+        }
+
+        public String getLongHelpText() {
+            return longHelpText;
+        }
+
+        public List<InstanceEntry> getInstances() {
+            return instances;
+        }
+
+        @Override
+        public String toString() {
+            return "indom " + serial + " " + instances;
+        }
+    }
+
+    public static final class InstanceEntry {
+        private final int indomSerial;
+        private final int id;
+        private final String name;
+
+        InstanceEntry(int indomSerial, int id, String name) {
+            this.indomSerial = indomSerial;
+            this.id = id;
+            this.name = name;
+        }
+
+        public int getIndomSerial() {
+            return indomSerial;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + id + ")";
+        }
+    }
+
+    public static final class MetricEntry {
+        private final String name;
+        private final int item;
+        private final MmvMetricType type;
+        private final Semantics semantics;
+        private final int dimensions;
+        private final int indomSerial;
+        private final String shortHelpText;
+        private final String longHelpText;
+
+        MetricEntry(String name, int item, MmvMetricType type, Semantics semantics, int dimensions,
+                int indomSerial, String shortHelpText, String longHelpText) {
+            this.name = name;
+            this.item = item;
+            this.type = type;
+            this.semantics = semantics;
+            this.dimensions = dimensions;
+            this.indomSerial = indomSerial;
+            this.shortHelpText = shortHelpText;
+            this.longHelpText = longHelpText;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getItem() {
+            return item;
+        }
+
+        public MmvMetricType getType() {
+            return type;
+        }
+
+        public Semantics getSemantics() {
+            return semantics;
+        }
+
+        /**
+         * @return the packed PCP units word, as produced by
+         *         {@link io.pcp.parfait.dxm.semantics.UnitMapping#getDimensions(javax.measure.Unit, String)}
+         */
+        public int getDimensions() {
+            return dimensions;
+        }
+
+        /**
+         * @return the serial of the metric's instance domain, or -1 for a singular metric
+         */
+        public int getIndomSerial() {
+            return indomSerial;
+        }
+
+        public String getShortHelpText() {
+            return shortHelpText;
+        }
+
+        public String getLongHelpText() {
+            return longHelpText;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + item + ", " + type.getDescription() + ")";
+        }
+    }
+
+    public static final class ValueEntry {
+        private final MetricEntry metric;
+        private final InstanceEntry instance;
+        private final Object value;
+
+        ValueEntry(MetricEntry metric, InstanceEntry instance, Object value) {
+            this.metric = metric;
+            this.instance = instance;
+            this.value = value;
+        }
+
+        public MetricEntry getMetric() {
+            return metric;
+        }
+
+        /**
+         * @return the instance this value is for, or null for a singular metric
+         */
+        public InstanceEntry getInstance() {
+            return instance;
+        }
+
+        public String getInstanceName() {
+            return instance == null ? null : instance.getName();
+        }
+
+        /**
+         * @return the value as an {@link Integer} (32-bit signed), {@link Long} (32-bit unsigned and
+         *         both 64-bit types, the latter as raw bits), {@link Float}, {@link Double} or
+         *         {@link String}, according to the metric's type
+         */
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return metric.getName() + (instance == null ? "" : "[" + instance.getName() + "]") + "=" + value;
+        }
+    }
+}
@@ -51,10 +51,20 @@ public enum MmvVersion {
         return mmvVersionFactory.createMetricNameValidator();
     }
 
+    int getMetricLength() {
+        return mmvVersionFactory.getMetricLength();
+    }
+
+    int getInstanceLength() {
+        return mmvVersionFactory.getInstanceLength();
+    }
+
     interface MmvVersionFactory {
         Store<PcpMetricInfo> createMetricInfoStore(IdentifierSourceSet identifierSourceSet, PcpStringStore stringStore);
         Store<InstanceDomain> createInstanceDomainStore(IdentifierSourceSet identifierSourceSet, PcpStringStore stringStore);
         MetricNameValidator createMetricNameValidator();
+        int getMetricLength();
+        int getInstanceLength();
     }
 
     private static class MmvVersion1Factory implements MmvVersionFactory {
@@ -74,6 +84,16 @@ public enum MmvVersion {
         public MetricNameValidator createMetricNameValidator() {
             return new MetricNameValidator(METRIC_NAME_LIMIT, INSTANCE_NAME_LIMIT);
         }
+
+        @Override
+        public int getMetricLength() {
+            return PcpMetricInfoV1.METRIC_LENGTH;
+        }
+
+        @Override
+        public int getInstanceLength() {
+            return InstanceV1.INSTANCE_LENGTH;
+        }
     }
 
     private static class MmvVersion2Factory implements MmvVersionFactory {
@@ -94,5 +114,15 @@ public enum MmvVersion {
         public MetricNameValidator createMetricNameValidator() {
             return new MetricNameValidator(STRING_BLOCK_LIMIT, STRING_BLOCK_LIMIT);
         }
+
+        @Override
+        public int getMetricLength() {
+            return PcpMetricInfoV2.METRIC_LENGTH;
+        }
+
+        @Override
+        public int getInstanceLength() {
+            return InstanceV2.INSTANCE_LENGTH;
+        }
     }
 }
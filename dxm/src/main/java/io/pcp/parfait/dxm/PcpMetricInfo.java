@@ -21,6 +21,7 @@ import io.pcp.parfait.dxm.types.TypeHandler;
 
 import javax.measure.Unit;
 import java.nio.ByteBuffer;
+import java.util.Collection;
 
 abstract class PcpMetricInfo implements PcpId, PcpOffset, MmvWritable {
     static final int DEFAULT_INSTANCE_DOMAIN_ID = -1;
@@ -113,6 +114,14 @@ abstract class PcpMetricInfo implements PcpId, PcpOffset, MmvWritable {
         return (shortHelpText != null || longHelpText != null);
     }
 
+    /**
+     * Adds the strings this metric's entry refers to (any of which may be null).
+     */
+    void collectStrings(Collection<PcpString> strings) {
+        strings.add(shortHelpText);
+        strings.add(longHelpText);
+    }
+
     @Override
     public abstract void writeToMmv(ByteBuffer byteBuffer);
 
@@ -33,7 +33,7 @@ final class PcpMetricInfoV1 extends PcpMetricInfo {
     static final int METRIC_NAME_LIMIT = 63;
 
 
-    private static final int METRIC_LENGTH = 104;
+    static final int METRIC_LENGTH = 104;
 
     private PcpMetricInfoV1(String metricName, int id) {
         super(metricName, id);
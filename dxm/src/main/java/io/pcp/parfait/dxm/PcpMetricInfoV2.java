@@ -21,10 +21,11 @@ import io.pcp.parfait.dxm.PcpString.PcpStringStore;
 import io.pcp.parfait.dxm.semantics.UnitMapping;
 
 import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.Set;
 
 final class PcpMetricInfoV2 extends PcpMetricInfo {
-    private static final int METRIC_LENGTH = 48;
+    static final int METRIC_LENGTH = 48;
     private PcpString nameAsPcpString;
 
     PcpMetricInfoV2(String metricName, int id, PcpString nameAsPcpString) {
@@ -52,6 +53,12 @@ final class PcpMetricInfoV2 extends PcpMetricInfo {
         byteBuffer.putLong(getStringOffset(longHelpText));
     }
 
+    @Override
+    void collectStrings(Collection<PcpString> strings) {
+        super.collectStrings(strings);
+        strings.add(nameAsPcpString);
+    }
+
     @Override
     public int byteSize() {
         return METRIC_LENGTH;
@@ -16,7 +16,6 @@
 
 package io.pcp.parfait.dxm;
 
-import static com.google.common.collect.Maps.newConcurrentMap;
 import static io.pcp.parfait.dxm.MmvVersion.MMV_VERSION1;
 import static io.pcp.parfait.dxm.PcpString.STRING_BLOCK_LENGTH;
 import static io.pcp.parfait.dxm.PcpString.STRING_BLOCK_LIMIT;
@@ -37,17 +36,26 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.GregorianCalendar;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import javax.measure.Unit;
 
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Monitor;
 import io.pcp.parfait.dxm.PcpString.PcpStringStore;
 import io.pcp.parfait.dxm.semantics.Semantics;
@@ -57,6 +65,8 @@ import io.pcp.parfait.dxm.types.MmvMetricType;
 import io.pcp.parfait.dxm.types.TypeHandler;
 import com.google.common.base.Preconditions;
 import net.jcip.annotations.GuardedBy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * <p>
@@ -79,6 +89,12 @@ import net.jcip.annotations.GuardedBy;
  * updating metric values <em>before</em> it's started.
  * </p>
  * <p>
+ * The exception to this is when {@link #setIncrementalHeadroom(int) incremental headroom} has been
+ * reserved: metrics added after {@link #start()} are then appended to the running file in place,
+ * bumping its generation so the agent picks them up, and the file is only re-laid out from scratch
+ * when the reserved space runs out.
+ * </p>
+ * <p>
  * This class currently has a few important limitations:
  * </p>
  * <ul>
@@ -89,6 +105,8 @@ import net.jcip.annotations.GuardedBy;
  * @author Cowan
  */
 public class PcpMmvWriter implements PcpWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(PcpMmvWriter.class);
+
     private static enum TocType {
         INSTANCE_DOMAINS(1),
         INSTANCES(2),
@@ -118,6 +136,22 @@ public class PcpMmvWriter implements PcpWriter {
         }
     }
 
+    /**
+     * How the values section of the file is ordered; see {@link PcpMmvWriter#setValueLayout(ValueLayout)}.
+     */
+    public static enum ValueLayout {
+        /**
+         * Values are packed back to back, in no particular order.
+         */
+        PACKED,
+        /**
+         * The values section starts on a cache line, and each hot value is followed by a constant
+         * (or failing that, cold) value so that no two hot values share a cache line; the rest are
+         * packed densely after them.
+         */
+        CACHE_LINE_ISOLATED
+    }
+
     private enum State {
         STOPPED,
         STARTING,
@@ -130,6 +164,18 @@ public class PcpMmvWriter implements PcpWriter {
 
     private static final int HEADER_LENGTH = 40;
     private static final int TOC_LENGTH = 16;
+    private static final int GENERATION1_OFFSET = 8;
+    private static final int GENERATION2_OFFSET = 16;
+    /**
+     * Spare strings reserved per unit of headroom: one-off help text pairs plus, for v2 files, the
+     * out-of-line metric and instance names.
+     */
+    private static final int SPARE_STRINGS_PER_METRIC = 3;
+    /**
+     * Entries written per task when the file's sections are serialised in parallel.
+     */
+    private static final int SERIALIZATION_CHUNK_SIZE = 4096;
+    private static final int CACHE_LINE_LENGTH = 64;
 
     /**
      * The charset used for PCP metrics names and String values.
@@ -166,11 +212,20 @@ public class PcpMmvWriter implements PcpWriter {
     private final PcpStringStore stringStore = new PcpStringStore();
     private volatile State state = State.STOPPED;
     private final Monitor stateMonitor = new Monitor();
-    private final Monitor.Guard isStarted = stateMonitor.newGuard(() -> state == State.STARTED);
     private final Monitor.Guard isStopped = stateMonitor.newGuard(() -> state == State.STOPPED);
-    private volatile Duration maxWaitStart = Duration.ofSeconds(10);
+    /**
+     * Metrics updated while the writer was starting, each holding its latest value until
+     * {@link #writeStagedValues()} writes it out.
+     */
+    private final ConcurrentLinkedQueue<PcpValueInfo> stagedValues = new ConcurrentLinkedQueue<PcpValueInfo>();
+    /**
+     * Staged values not yet written; while there are any, further updates are staged too so that they
+     * can't be overtaken by older staged values.
+     */
+    private final AtomicInteger stagedValueCount = new AtomicInteger();
+    private final AtomicBoolean writingStagedValues = new AtomicBoolean();
     private volatile boolean usePerMetricLock = true;
-    private final Map<PcpValueInfo,ByteBuffer> perMetricByteBuffers = newConcurrentMap();
+    private volatile boolean useLockFreeNumericUpdates = false;
     private final Object globalLock = new Object();
     @GuardedBy("itself")
     private volatile ByteBuffer dataFileBuffer = null;
@@ -180,6 +235,27 @@ public class PcpMmvWriter implements PcpWriter {
     private volatile int processIdentifier = 0;
     private volatile int clusterIdentifier = 0;
     private volatile Set<MmvFlag> flags = DEFAULT_FLAGS; 
+    private volatile int incrementalHeadroom = 0;
+    private volatile boolean parallelSerialization = false;
+    private volatile ValueLayout valueLayout = ValueLayout.PACKED;
+    private volatile Predicate<MetricName> hotMetrics = name -> false;
+    private volatile double hotUpdateRate = 0;
+    private volatile long hotDetectionWindowNanos = TimeUnit.SECONDS.toNanos(1);
+    private volatile boolean countingUpdates = false;
+    /**
+     * Metrics found to be updated at least {@link #hotUpdateRate} times a second, remembered across
+     * {@link #reset()} so that they're still hot once re-added.
+     */
+    private final Set<MetricName> detectedHotMetrics = ConcurrentHashMap.newKeySet();
+
+    @GuardedBy("this")
+    private final Map<TocType, Section> sections = new EnumMap<TocType, Section>(TocType.class);
+    @GuardedBy("this")
+    private InstanceDomain tailInstanceDomain;
+    @GuardedBy("this")
+    private int stringsLaidOut;
+    @GuardedBy("globalLock")
+    private long generation;
     
     /**
      * A new PcpMmvWriter using a simple default {@link IdentifierSourceSet}.
@@ -283,21 +359,21 @@ public class PcpMmvWriter implements PcpWriter {
         return new File(mmvDir, name);
     }
 
-    public final void addMetric(MetricName name, Semantics semantics, Unit<?> unit, Object initialValue) {
+    public final MetricHandle addMetric(MetricName name, Semantics semantics, Unit<?> unit, Object initialValue) {
         TypeHandler<?> handler = typeHandlers.get(initialValue.getClass());
         if (handler == null) {
             throw new IllegalArgumentException("No default handler registered for type "
                     + initialValue.getClass());
         }
-        addMetricInfo(name, semantics, unit, initialValue, handler);
+        return new ValueHandle(addMetricInfo(name, semantics, unit, initialValue, handler));
 
     }
 
-    public final <T> void addMetric(MetricName name, Semantics semantics, Unit<?> unit, T initialValue, TypeHandler<T> pcpType) {
+    public final <T> MetricHandle addMetric(MetricName name, Semantics semantics, Unit<?> unit, T initialValue, TypeHandler<T> pcpType) {
         if (pcpType == null) {
             throw new IllegalArgumentException("PCP Type handler must not be null");
         }
-        addMetricInfo(name, semantics, unit, initialValue, pcpType);
+        return new ValueHandle(addMetricInfo(name, semantics, unit, initialValue, pcpType));
     }
 
     /*
@@ -318,13 +394,14 @@ public class PcpMmvWriter implements PcpWriter {
      * @see io.pcp.parfait.pcp.PcpWriter#updateMetric(java.lang.String, java.lang.Object)
      */
     public final void updateMetric(MetricName name, Object value) {
-        // If another thread has called start() we need to wait until the writer has completely started before
-        // proceeding to update the metric value. This is to avoid a race condition where start() has already written
-        // the old metric value, but has not yet finished writing all of the values, when the metric is updated. The
-        // implementation here is a little complicated to avoid taking a lock on the happy paths.
-        if (state == State.STARTED) {
+        // If another thread is in start() the value is staged rather than written, and start() writes it once it
+        // has finished. This is to avoid a race condition where start() has already written the old metric value,
+        // but has not yet finished writing all of the values, when the metric is updated; staging it means the
+        // updating thread never has to wait for start(). The implementation here is a little complicated to avoid
+        // taking a lock on the happy paths.
+        if (isWritingDirectly()) {
             doUpdateMetric(name, value);
-        } else if (stateMonitor.enterIf(isStopped)) {
+        } else if (state == State.STOPPED && stateMonitor.enterIf(isStopped)) {
             // In this case, the writer has not been started yet, but it's possible the monitorable has already been
             // added back to the writer. If it has, we need to update the initial value so that it gets written
             // correctly when the writer is started. If it's not present, then we don't need to do anything because the
@@ -332,15 +409,92 @@ public class PcpMmvWriter implements PcpWriter {
             try {
                 PcpValueInfo info = metricData.get(name);
                 if (info != null) {
-                    info.setInitialValue(value);
+                    setUnstartedValue(info, value);
                 }
             } finally {
                 stateMonitor.leave();
             }
-        } else if (stateMonitor.enterWhenUninterruptibly(isStarted, maxWaitStart)) {
-            // Leave the monitor immediately because we only care about being notified about the state change
-            stateMonitor.leave();
-            doUpdateMetric(name, value);
+        } else {
+            PcpValueInfo info = metricData.get(name);
+            if (info == null) {
+                throw new IllegalArgumentException("Metric " + name
+                        + " was not added before initialising the writer");
+            }
+            stageValue(info, value);
+        }
+    }
+
+    /**
+     * Slow path for updates through a {@link MetricHandle} when the writer is not (yet) started; mirrors
+     * {@link #updateMetric(MetricName, Object)}, but ignores handles left over from before a reset.
+     */
+    private void updateUnstartedMetric(PcpValueInfo info, Object value) {
+        if (state == State.STOPPED && stateMonitor.enterIf(isStopped)) {
+            try {
+                if (metricData.get(info.getMetricName()) == info) {
+                    setUnstartedValue(info, value);
+                }
+            } finally {
+                stateMonitor.leave();
+            }
+        } else {
+            stageValue(info, value);
+        }
+    }
+
+    private void setUnstartedValue(PcpValueInfo info, Object value) {
+        info.setInitialValue(value);
+        // Anything staged by an earlier, failed start() is older than this
+        info.takeStagedValue();
+    }
+
+    /**
+     * @return whether updates can go straight to the file: the writer's started and has no staged
+     *         values still to write
+     */
+    private boolean isWritingDirectly() {
+        return state == State.STARTED && stagedValueCount.get() == 0;
+    }
+
+    /**
+     * Stages a value to be written once the writer has started, without waiting for it; only the
+     * latest value staged for each metric is kept.
+     */
+    private void stageValue(PcpValueInfo info, Object value) {
+        if (info.stageValue(value)) {
+            stagedValueCount.incrementAndGet();
+            stagedValues.add(info);
+        }
+        // start() may have finished, and written out the staged values, since we checked the state
+        if (state == State.STARTED) {
+            writeStagedValues();
+        }
+    }
+
+    /**
+     * Writes out staged values. Only one thread writes them at a time, so each metric's staged values
+     * are written in the order they were staged; a thread which finds another already at it leaves its
+     * value to that thread, which checks for more before it stops.
+     */
+    private void writeStagedValues() {
+        while (!stagedValues.isEmpty() && writingStagedValues.compareAndSet(false, true)) {
+            try {
+                PcpValueInfo info;
+                while ((info = stagedValues.poll()) != null) {
+                    try {
+                        Object value = info.takeStagedValue();
+                        if (value != null) {
+                            updateValue(info, value);
+                        }
+                    } catch (RuntimeException e) {
+                        LOG.warn("Unable to write staged value of " + info.getMetricName(), e);
+                    } finally {
+                        stagedValueCount.decrementAndGet();
+                    }
+                }
+            } finally {
+                writingStagedValues.set(false);
+            }
         }
     }
 
@@ -361,12 +515,12 @@ public class PcpMmvWriter implements PcpWriter {
         updateState(State.STARTING);
 
         try {
-            initialiseOffsets();
+            Layout layout = initialiseOffsets();
 
-            dataFileBuffer = byteBufferFactory.build(getBufferLength());
+            dataFileBuffer = byteBufferFactory.build(layout.length);
             synchronized (globalLock) {
-                populateDataBuffer(dataFileBuffer, metricData.values());
-                preparePerMetricBufferSlices();
+                populateDataBuffer(dataFileBuffer, layout);
+                preparePerMetricBufferSlices(layout.values);
             }
         } catch (IOException | RuntimeException e) {
             updateState(State.STOPPED);
@@ -374,46 +528,126 @@ public class PcpMmvWriter implements PcpWriter {
         }
 
         updateState(State.STARTED);
+        writeStagedValues();
     }
 
     @Override
     public void reset() {
         updateState(State.STOPPED);
+        detectHotValues(metricData.values(), System.nanoTime());
+        // Handles, and values staged or in flight, may outlive the reset; leave them nothing to write to
+        for (PcpValueInfo info : metricData.values()) {
+            info.setValueBuffer(null);
+        }
         metricData.clear();
-        perMetricByteBuffers.clear();
         instanceDomainStore.clear();
         metricInfoStore.clear();
         stringStore.clear();
     }
 
     @Override
-    public final void setInstanceDomainHelpText(String instanceDomain, String shortHelpText, String longHelpText) {
+    public boolean canAddMetricsWhileStarted() {
+        return incrementalHeadroom > 0;
+    }
+
+    @Override
+    public boolean canRemoveMetrics() {
+        return true;
+    }
+
+    /**
+     * Removes the metrics, along with any metric descriptors, instances, instance domains and strings
+     * that only they were using, so their ids and file slots can be reused. A started file is then
+     * compacted by re-laying it out once for the whole batch; handles for the removed metrics
+     * silently stop writing.
+     */
+    @Override
+    public synchronized void removeMetrics(Collection<MetricName> names) {
+        List<PcpValueInfo> removed = new ArrayList<PcpValueInfo>();
+        synchronized (globalLock) {
+            for (MetricName name : names) {
+                PcpValueInfo info = metricData.remove(name);
+                if (info != null) {
+                    info.setValueBuffer(null);
+                    removed.add(info);
+                }
+            }
+        }
+        if (removed.isEmpty()) {
+            return;
+        }
+
+        Set<PcpMetricInfo> liveMetrics = Sets.newIdentityHashSet();
+        Set<Instance> liveInstances = Sets.newIdentityHashSet();
+        for (PcpValueInfo info : metricData.values()) {
+            liveMetrics.add(info.getMetricInfo());
+            liveInstances.add(info.getInstance());
+        }
+        Set<PcpString> deadStrings = Sets.newIdentityHashSet();
+        for (PcpValueInfo info : removed) {
+            if (info.getLargeValue() != null) {
+                deadStrings.add(info.getLargeValue());
+            }
+            PcpMetricInfo metricInfo = info.getMetricInfo();
+            if (!liveMetrics.contains(metricInfo) && metricInfoStore.remove(metricInfo)) {
+                metricInfo.collectStrings(deadStrings);
+            }
+            Instance instance = info.getInstance();
+            if (instance != null && !liveInstances.contains(instance)) {
+                InstanceDomain domain = instance.instanceDomain;
+                domain.removeInstance(instance);
+                instance.collectStrings(deadStrings);
+                if (domain.getInstances().isEmpty() && instanceDomainStore.remove(domain)) {
+                    domain.collectStrings(deadStrings);
+                }
+            }
+        }
+        deadStrings.remove(null);
+        stringStore.removeAll(deadStrings);
+
+        if (state == State.STARTED) {
+            relayout();
+        }
+    }
+
+    @Override
+    public final synchronized void setInstanceDomainHelpText(String instanceDomain, String shortHelpText, String longHelpText) {
         InstanceDomain domain = getInstanceDomain(instanceDomain);
         domain.setHelpText(stringStore.createPcpString(shortHelpText), stringStore.createPcpString(longHelpText));
+        if (isAppendingInPlace() && domain.getOffset() != 0) {
+            appendInPlace(null, domain, null, null);
+        }
     }
 
     @Override
-    public final void setMetricHelpText(String metricName, String shortHelpText, String longHelpText) {
+    public final synchronized void setMetricHelpText(String metricName, String shortHelpText, String longHelpText) {
         PcpMetricInfo info = getMetricInfo(metricName);
         if (!info.hasHelpText()) {
             info.setHelpText(stringStore.createPcpString(shortHelpText), stringStore.createPcpString(longHelpText));
+            if (isAppendingInPlace() && info.getOffset() != 0) {
+                appendInPlace(info, null, null, null);
+            }
         }
     }
 
-    private void preparePerMetricBufferSlices() {
-        for (PcpValueInfo info : metricData.values()) {
-            TypeHandler<?> rawHandler = info.getTypeHandler();
-            int bufferPosition = rawHandler.requiresLargeStorage() ? info.getLargeValue()
-                    .getOffset() : info.getOffset();
-            // need to position the original buffer first, as the sliced buffer starts from there
-            dataFileBuffer.position(bufferPosition);
-            ByteBuffer metricByteBufferSlice = dataFileBuffer.slice();
-            metricByteBufferSlice.limit(rawHandler.getDataLength());
-            perMetricByteBuffers.put(info, metricByteBufferSlice);
-            metricByteBufferSlice.order(dataFileBuffer.order());
+    private void preparePerMetricBufferSlices(Collection<PcpValueInfo> valueInfos) {
+        for (PcpValueInfo info : valueInfos) {
+            preparePerMetricBufferSlice(info);
         }
     }
 
+    private void preparePerMetricBufferSlice(PcpValueInfo info) {
+        TypeHandler<?> rawHandler = info.getTypeHandler();
+        int bufferPosition = rawHandler.requiresLargeStorage() ? info.getLargeValue()
+                .getOffset() : info.getOffset();
+        // need to position the original buffer first, as the sliced buffer starts from there
+        dataFileBuffer.position(bufferPosition);
+        ByteBuffer metricByteBufferSlice = dataFileBuffer.slice();
+        metricByteBufferSlice.limit(rawHandler.getDataLength());
+        metricByteBufferSlice.order(dataFileBuffer.order());
+        info.setValueBuffer(metricByteBufferSlice);
+    }
+
 
     public void setClusterIdentifier(int clusterIdentifier) {
         Preconditions.checkArgument((clusterIdentifier & 0xFFFFF000)==0, "ClusterIdentifier can only be a 12bit value");
@@ -430,20 +664,108 @@ public class PcpMmvWriter implements PcpWriter {
         this.usePerMetricLock = usePerMetricLock;
     }
 
+    /**
+     * Writes 4- and 8-byte numeric values (and booleans) with a single absolute store into the value's
+     * slot, taking no lock at all; the MMV agent only ever reads whole aligned values, so there is
+     * nothing for a lock to protect. String and other large values, and values rendered by custom
+     * {@link TypeHandler}s, still use the per-metric or global lock.
+     */
+    public void setLockFreeNumericUpdates(boolean useLockFreeNumericUpdates) {
+        Preconditions.checkState(state == State.STOPPED, "Cannot change use of lock-free updates when started");
+        this.useLockFreeNumericUpdates = useLockFreeNumericUpdates;
+    }
+
     public void setFlags(Set<MmvFlag> flags) {
         this.flags = EnumSet.copyOf(flags);
     }
 
     /**
-     * Sets the maximum amount of time to wait for the writer to start when attempting to update a metric.
+     * Reserves room in the file for roughly this many further metric values (along with their
+     * metrics, instances, instance domains and strings) so that metrics added after {@link #start()}
+     * can be appended in place rather than forcing the whole file to be rebuilt. A headroom of 0
+     * (the default) keeps the file exactly sized and disallows adding metrics once started.
      *
-     * @param maxWaitStart the maximum amount of time to wait
+     * @param headroom the number of spare entries to reserve per section
+     */
+    public void setIncrementalHeadroom(int headroom) {
+        Preconditions.checkArgument(headroom >= 0, "Incremental headroom cannot be negative");
+        Preconditions.checkState(state == State.STOPPED, "Cannot change incremental headroom when started");
+        this.incrementalHeadroom = headroom;
+    }
+
+    /**
+     * Serialises the disjoint sections of the file (instance domains, instances, metrics, values and
+     * strings) in chunks on the common fork-join pool during {@link #start()}, instead of entirely on
+     * the starting thread. The file produced is identical either way; this only pays off for files
+     * holding tens of thousands of metrics.
      */
+    public void setParallelSerialization(boolean parallelSerialization) {
+        Preconditions.checkState(state == State.STOPPED, "Cannot change parallel serialization when started");
+        this.parallelSerialization = parallelSerialization;
+    }
+
+    /**
+     * Chooses how values are ordered in the file. With {@link ValueLayout#CACHE_LINE_ISOLATED}, values
+     * updated heavily from different cores no longer share a cache line (and so stop invalidating each
+     * other's copies of it on every write); values are hot if their metrics match
+     * {@link #setHotMetrics(Predicate)} or are detected as such (see {@link #setHotUpdateRate(double)}).
+     * MMV files hold their values as one contiguous array, so there's no room for padding as such;
+     * hot values are instead spaced out with values that are seldom or never written. Takes effect
+     * from the next {@link #start()}.
+     */
+    public void setValueLayout(ValueLayout valueLayout) {
+        Preconditions.checkState(state == State.STOPPED, "Cannot change the value layout when started");
+        this.valueLayout = Preconditions.checkNotNull(valueLayout);
+        updateCountingUpdates();
+    }
+
+    /**
+     * Flags metrics as hot, for the {@link ValueLayout#CACHE_LINE_ISOLATED} value layout.
+     */
+    public void setHotMetrics(Predicate<MetricName> hotMetrics) {
+        this.hotMetrics = Preconditions.checkNotNull(hotMetrics);
+    }
+
+    /**
+     * Counts updates to each metric so that, for the {@link ValueLayout#CACHE_LINE_ISOLATED} value
+     * layout, metrics updated at least this many times a second are treated as hot, and metrics not
+     * updated at all as constant, from the next time the file is laid out (by {@link #start()}, which
+     * a dynamic monitoring view calls whenever metrics are added). A rate of 0 (the default) disables
+     * counting.
+     *
+     * @param updatesPerSecond the update rate from which a metric is hot
+     */
+    public void setHotUpdateRate(double updatesPerSecond) {
+        Preconditions.checkArgument(updatesPerSecond >= 0, "Hot update rate cannot be negative");
+        this.hotUpdateRate = updatesPerSecond;
+        updateCountingUpdates();
+    }
+
+    /**
+     * Sets how long a metric's updates must have been counted before its update rate is trusted.
+     */
+    void setHotDetectionWindow(Duration window) {
+        this.hotDetectionWindowNanos = window.toNanos();
+    }
+
+    private void updateCountingUpdates() {
+        countingUpdates = valueLayout == ValueLayout.CACHE_LINE_ISOLATED && hotUpdateRate > 0;
+    }
+
+    /**
+     * Formerly set the maximum amount of time to wait for the writer to start when attempting to update a
+     * metric. Updates made while the writer is starting are now staged and written once it has started, so
+     * nothing waits and this has no effect.
+     *
+     * @param maxWaitStart ignored
+     * @deprecated updates no longer wait for the writer to start
+     */
+    @Deprecated
     public void setMaxWaitStart(Duration maxWaitStart) {
-        this.maxWaitStart = Preconditions.checkNotNull(maxWaitStart, "maxWaitStart cannot be null");
+        Preconditions.checkNotNull(maxWaitStart, "maxWaitStart cannot be null");
     }
 
-    private synchronized void addMetricInfo(MetricName name, Semantics semantics, Unit<?> unit,
+    private synchronized PcpValueInfo addMetricInfo(MetricName name, Semantics semantics, Unit<?> unit,
                                             Object initialValue, TypeHandler<?> pcpType) {
         if (metricData.containsKey(name)) {
             throw new IllegalArgumentException("Metric " + name
@@ -464,7 +786,131 @@ public class PcpMmvWriter implements PcpWriter {
         metricInfo.setSemantics(semantics);
 
         PcpValueInfo info = new PcpValueInfo(name, metricInfo, instance, initialValue,  stringStore);
-        metricData.put(name, info);
+        if (isAppendingInPlace()) {
+            appendInPlace(metricInfo, domain, instance, info);
+        } else {
+            metricData.put(name, info);
+        }
+        return info;
+    }
+
+    private boolean isAppendingInPlace() {
+        return state == State.STARTED && incrementalHeadroom > 0;
+    }
+
+    /**
+     * Writes any not-yet-laid-out pieces of a metric (and any strings created since the last layout)
+     * into the reserved headroom of the running file, then bumps the generation so the agent reloads
+     * it. Entries are identified as new by still having a zero offset. If any section has run out of
+     * room, falls back to re-laying out the whole file via {@link #start()}.
+     */
+    private synchronized void appendInPlace(PcpMetricInfo metricInfo, InstanceDomain domain, Instance instance,
+            PcpValueInfo valueInfo) {
+        Section instanceDomainSection = sections.get(TocType.INSTANCE_DOMAINS);
+        Section instanceSection = sections.get(TocType.INSTANCES);
+        Section metricSection = sections.get(TocType.METRICS);
+        Section valueSection = sections.get(TocType.VALUES);
+        Section stringSection = sections.get(TocType.STRINGS);
+
+        List<PcpString> newStrings = stringStore.getStringsAfter(stringsLaidOut);
+        boolean newDomain = domain != null && domain.getOffset() == 0;
+        boolean newInstance = instance != null && instance.getOffset() == 0;
+        boolean newMetric = metricInfo != null && metricInfo.getOffset() == 0;
+        // An indom's instances must be contiguous, so only the last domain in the section can grow in place
+        boolean repackInstances = newInstance && !newDomain && domain != tailInstanceDomain;
+
+        boolean fits = stringSection.hasRoomFor(getByteSizeTotalFor(newStrings))
+                && (!newDomain || instanceDomainSection.hasRoomFor(domain.byteSize()))
+                && (!newInstance || (repackInstances ? instanceSection.hasRoomForAll(getInstances())
+                        : instanceSection.hasRoomFor(instance.byteSize())))
+                && (!newMetric || metricSection.hasRoomFor(metricInfo.byteSize()))
+                && (valueInfo == null || valueSection.hasRoomFor(valueInfo.byteSize()));
+        if (!fits) {
+            if (valueInfo != null) {
+                metricData.put(valueInfo.getMetricName(), valueInfo);
+            }
+            relayout();
+            return;
+        }
+
+        synchronized (globalLock) {
+            // Readers skip the file while the generations disagree
+            dataFileBuffer.putLong(GENERATION2_OFFSET, 0);
+
+            for (PcpString string : newStrings) {
+                stringSection.append(string);
+                string.writeToMmv(dataFileBuffer);
+            }
+            stringsLaidOut += newStrings.size();
+
+            if (newDomain) {
+                instanceDomainSection.append(domain);
+            }
+            if (repackInstances) {
+                repackInstances(instanceSection, domain);
+            } else if (newInstance) {
+                instanceSection.append(instance);
+            }
+            if (newInstance) {
+                tailInstanceDomain = domain;
+            }
+            if (newMetric) {
+                metricSection.append(metricInfo);
+            }
+            if (valueInfo != null) {
+                valueSection.append(valueInfo);
+            }
+
+            if (repackInstances) {
+                for (InstanceDomain laidOut : getInstanceDomains()) {
+                    if (laidOut.getOffset() != 0) {
+                        laidOut.writeToMmv(dataFileBuffer);
+                    }
+                }
+                for (PcpValueInfo laidOut : getValueInfos()) {
+                    laidOut.writeReferencesToMmv(dataFileBuffer);
+                }
+            } else if (domain != null && !domain.getInstances().isEmpty()) {
+                domain.writeToMmv(dataFileBuffer);
+            }
+            if (metricInfo != null) {
+                metricInfo.writeToMmv(dataFileBuffer);
+            }
+            if (valueInfo != null) {
+                valueInfo.writeToMmv(dataFileBuffer);
+                preparePerMetricBufferSlice(valueInfo);
+                metricData.put(valueInfo.getMetricName(), valueInfo);
+            }
+            for (Section section : sections.values()) {
+                section.writeToc(dataFileBuffer);
+            }
+
+            generation = Math.max(generation + 1, System.currentTimeMillis() / 1000);
+            dataFileBuffer.putLong(GENERATION1_OFFSET, generation);
+            dataFileBuffer.putLong(GENERATION2_OFFSET, generation);
+        }
+    }
+
+    private void repackInstances(Section instanceSection, InstanceDomain growingDomain) {
+        instanceSection.clear();
+        for (InstanceDomain domain : getInstanceDomains()) {
+            if (domain != growingDomain) {
+                for (Instance instance : domain.getInstances()) {
+                    instanceSection.append(instance);
+                }
+            }
+        }
+        for (Instance instance : growingDomain.getInstances()) {
+            instanceSection.append(instance);
+        }
+    }
+
+    private void relayout() {
+        try {
+            start();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to re-layout " + this, e);
+        }
     }
 
     private PcpMetricInfo getMetricInfo(String name) {
@@ -497,7 +943,7 @@ public class PcpMmvWriter implements PcpWriter {
         return metricData.values();
     }
 
-    private Collection<PcpString> getStrings() {
+    private List<PcpString> getStrings() {
         return stringStore.getStrings();
     }
 
@@ -506,6 +952,9 @@ public class PcpMmvWriter implements PcpWriter {
         @SuppressWarnings("rawtypes")
         TypeHandler rawHandler = info.getTypeHandler();
 
+        if (useLockFreeNumericUpdates && writeValueLockFree(info, value, rawHandler)) {
+            return;
+        }
         if (usePerMetricLock) {
             writeValueWithLockPerMetric(info, value, rawHandler);
         } else {
@@ -513,9 +962,94 @@ public class PcpMmvWriter implements PcpWriter {
         }
     }
 
+    /**
+     * Stores values rendered by the default numeric and boolean handlers directly into the value's
+     * slot, as those handlers' conversions are known; anything else is left to the locked paths.
+     *
+     * @return whether the value was handled
+     */
+    private boolean writeValueLockFree(PcpValueInfo info, Object value, TypeHandler<?> rawHandler) {
+        if (value instanceof Number) {
+            Number number = (Number) value;
+            if (rawHandler == DefaultTypeHandlers.NUMBER_AS_LONG) {
+                storeLong(info, number.longValue());
+            } else if (rawHandler == DefaultTypeHandlers.NUMBER_AS_INTEGER) {
+                storeInt(info, number.intValue());
+            } else if (rawHandler == DefaultTypeHandlers.NUMBER_AS_DOUBLE) {
+                storeLong(info, Double.doubleToRawLongBits(number.doubleValue()));
+            } else if (rawHandler == DefaultTypeHandlers.NUMBER_AS_FLOAT) {
+                storeInt(info, Float.floatToRawIntBits(number.floatValue()));
+            } else {
+                return false;
+            }
+            return true;
+        }
+        if (value instanceof AtomicBoolean && rawHandler == DefaultTypeHandlers.ATOMIC_BOOLEAN_AS_INT) {
+            storeInt(info, ((AtomicBoolean) value).get() ? 1 : 0);
+            return true;
+        }
+        if (value instanceof Boolean && rawHandler == DefaultTypeHandlers.BOOLEAN_AS_INT) {
+            storeInt(info, ((Boolean) value) ? 1 : 0);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stores a 4-byte value at the start of the value's slot, either as a single absolute store with no
+     * locking or under whichever lock is configured.
+     */
+    private void storeInt(PcpValueInfo info, int value) {
+        ByteBuffer valueBuffer = info.getValueBuffer();
+        if (valueBuffer == null) {
+            return;
+        }
+        if (countingUpdates) {
+            info.countUpdate();
+        }
+        if (useLockFreeNumericUpdates) {
+            valueBuffer.putInt(0, value);
+        } else if (usePerMetricLock) {
+            synchronized (valueBuffer) {
+                valueBuffer.putInt(0, value);
+            }
+        } else {
+            synchronized (globalLock) {
+                dataFileBuffer.putInt(info.getOffset(), value);
+            }
+        }
+    }
+
+    /**
+     * @see #storeInt(PcpValueInfo, int)
+     */
+    private void storeLong(PcpValueInfo info, long value) {
+        ByteBuffer valueBuffer = info.getValueBuffer();
+        if (valueBuffer == null) {
+            return;
+        }
+        if (countingUpdates) {
+            info.countUpdate();
+        }
+        if (useLockFreeNumericUpdates) {
+            valueBuffer.putLong(0, value);
+        } else if (usePerMetricLock) {
+            synchronized (valueBuffer) {
+                valueBuffer.putLong(0, value);
+            }
+        } else {
+            synchronized (globalLock) {
+                dataFileBuffer.putLong(info.getOffset(), value);
+            }
+        }
+    }
+
     private void writeValueWithLockPerMetric(PcpValueInfo info, Object value, TypeHandler rawHandler) {
-        ByteBuffer perMetricByteBuffer = perMetricByteBuffers.get(info);
+        ByteBuffer perMetricByteBuffer = info.getValueBuffer();
         if (perMetricByteBuffer != null) {
+            if (countingUpdates) {
+                info.countUpdate();
+            }
             synchronized (perMetricByteBuffer) {
                 perMetricByteBuffer.position(0);
                 rawHandler.putBytes(perMetricByteBuffer, value);
@@ -525,14 +1059,20 @@ public class PcpMmvWriter implements PcpWriter {
 
     private void writeValueWithGlobalLock(PcpValueInfo info, Object value, TypeHandler rawHandler) {
         synchronized (globalLock) {
+            if (info.getValueBuffer() == null) {
+                // Removed, or not yet laid out
+                return;
+            }
+            if (countingUpdates) {
+                info.countUpdate();
+            }
             dataFileBuffer.position(rawHandler.requiresLargeStorage() ? info.getLargeValue()
                     .getOffset() : info.getOffset());
             rawHandler.putBytes(dataFileBuffer, value);
         }
     }
 
-    private void populateDataBuffer(ByteBuffer dataFileBuffer, Collection<PcpValueInfo> valueInfos)
-            throws IOException {
+    private void populateDataBuffer(ByteBuffer dataFileBuffer, Layout layout) {
 
         // Automatically cleanup the file if this is a mapping where we
         // mandate PID checking from the MMV PMDA (MMV_FLAG_PROCESS) and
@@ -544,72 +1084,65 @@ public class PcpMmvWriter implements PcpWriter {
         dataFileBuffer.position(0);
         dataFileBuffer.put(TAG);
         dataFileBuffer.putInt(mmvVersion.getVersion());
-        long generation = System.currentTimeMillis() / 1000;
+        generation = System.currentTimeMillis() / 1000;
         dataFileBuffer.putLong(generation);
         int gen2Offset = dataFileBuffer.position();
         // Generation 2 will be filled in later, once the file's ready
         dataFileBuffer.putLong(0);
         // 2 TOC blocks, 3 if there are instances
-        dataFileBuffer.putInt(tocCount());
+        dataFileBuffer.putInt(layout.tocCount);
         dataFileBuffer.putInt(getFlagMask());
         dataFileBuffer.putInt(getProcessIdentifier());
         dataFileBuffer.putInt(clusterIdentifier);
 
-        Collection<? extends MmvWritable> instanceDomains = getInstanceDomains();
-        Collection<? extends MmvWritable> instances = getInstances();
-        Collection<? extends MmvWritable> metrics = getMetricInfos();
-        Collection<? extends MmvWritable> strings = getStrings();
-
-        int tocBlockIndex = 0;
-
-        if (!instanceDomains.isEmpty()) {
-            dataFileBuffer.position(getTocOffset(tocBlockIndex++));
-            writeToc(dataFileBuffer, TocType.INSTANCE_DOMAINS, instanceDomains.size(),
-                    instanceDomains.iterator().next().getOffset());
+        for (Section section : layout.sections) {
+            section.writeToc(dataFileBuffer);
         }
 
-        if (!instances.isEmpty()) {
-            dataFileBuffer.position(getTocOffset(tocBlockIndex++));
-            writeToc(dataFileBuffer, TocType.INSTANCES, instances.size(), instances.iterator()
-                    .next().getOffset());
-        }
-
-        dataFileBuffer.position(getTocOffset(tocBlockIndex++));
-
-        int metricsFirstEntryOffset = metrics.isEmpty() ? 0 : metrics.iterator().next().getOffset();
-        int valuesFirstEntryOffset = valueInfos.isEmpty() ? 0 : valueInfos.iterator().next().getOffset();
-
-
-        writeToc(dataFileBuffer, TocType.METRICS, metrics.size(), metricsFirstEntryOffset);
-        dataFileBuffer.position(getTocOffset(tocBlockIndex++));
-        writeToc(dataFileBuffer, TocType.VALUES, valueInfos.size(), valuesFirstEntryOffset);
+        // Every entry sits in its own slot, except that a large value writes its initial value into
+        // its string's slot as well; strings go in a second pass so that, as ever, they win
+        List<Consumer<ByteBuffer>> entries = new ArrayList<Consumer<ByteBuffer>>();
+        addChunks(entries, layout.instanceDomains, InstanceDomain::writeEntryToMmv);
+        addChunks(entries, layout.instances, Instance::writeToMmv);
+        addChunks(entries, layout.metrics, PcpMetricInfo::writeToMmv);
+        addChunks(entries, layout.values, PcpValueInfo::writeToMmv);
+        writeChunks(dataFileBuffer, entries);
 
+        List<Consumer<ByteBuffer>> strings = new ArrayList<Consumer<ByteBuffer>>();
+        addChunks(strings, layout.strings, PcpString::writeToMmv);
+        writeChunks(dataFileBuffer, strings);
 
-        if (!getStrings().isEmpty()) {
-            dataFileBuffer.position(getTocOffset(tocBlockIndex++));
-            writeToc(dataFileBuffer, TocType.STRINGS, strings.size(),
-                    strings.iterator().next().getOffset());
-        }
-
-        for (MmvWritable instanceDomain : instanceDomains) {
-            instanceDomain.writeToMmv(dataFileBuffer);
-        }
-
-        for (MmvWritable info : metrics) {
-            info.writeToMmv(dataFileBuffer);
-        }
+        // Once it's set up, let the agent know
+        dataFileBuffer.position(gen2Offset);
+        dataFileBuffer.putLong(generation);
+    }
 
-        for (MmvWritable info : valueInfos) {
-            info.writeToMmv(dataFileBuffer);
+    private static <T> void addChunks(List<Consumer<ByteBuffer>> chunks, List<T> entries,
+            BiConsumer<? super T, ByteBuffer> writer) {
+        for (int from = 0; from < entries.size(); from += SERIALIZATION_CHUNK_SIZE) {
+            List<T> chunk = entries.subList(from, Math.min(entries.size(), from + SERIALIZATION_CHUNK_SIZE));
+            chunks.add(buffer -> {
+                for (T entry : chunk) {
+                    writer.accept(entry, buffer);
+                }
+            });
         }
+    }
 
-        for (MmvWritable string : strings) {
-            string.writeToMmv(dataFileBuffer);
+    /**
+     * Writes chunks whose entries occupy disjoint parts of the file, on the common fork-join pool
+     * if {@link #setParallelSerialization(boolean) parallel serialization} is on; each task gets its
+     * own view of the buffer so that none of them disturb another's position.
+     */
+    private void writeChunks(ByteBuffer dataFileBuffer, List<Consumer<ByteBuffer>> chunks) {
+        if (parallelSerialization && chunks.size() > 1) {
+            chunks.parallelStream().forEach(
+                    chunk -> chunk.accept(dataFileBuffer.duplicate().order(dataFileBuffer.order())));
+        } else {
+            for (Consumer<ByteBuffer> chunk : chunks) {
+                chunk.accept(dataFileBuffer);
+            }
         }
-
-        // Once it's set up, let the agent know
-        dataFileBuffer.position(gen2Offset);
-        dataFileBuffer.putLong(generation);
     }
 
     private int getFlagMask() {
@@ -620,16 +1153,7 @@ public class PcpMmvWriter implements PcpWriter {
         return flagMask;
     }
 
-    private int getBufferLength() {
-        return HEADER_LENGTH + (TOC_LENGTH * tocCount())
-                + getByteSizeTotalFor(getInstanceDomains())
-                + getByteSizeTotalFor(getInstances())
-                + getByteSizeTotalFor(getMetricInfos())
-                + getByteSizeTotalFor(getValueInfos())
-                + getByteSizeTotalFor(getStrings());
-    }
-
-    private int getByteSizeTotalFor(Collection<? extends PcpOffset> offsettables) {
+    private static int getByteSizeTotalFor(Collection<? extends PcpOffset> offsettables) {
         int bytes = 0;
         for(PcpOffset offsetable : offsettables) {
             bytes += offsetable.byteSize();
@@ -637,25 +1161,6 @@ public class PcpMmvWriter implements PcpWriter {
         return bytes;
     }
 
-    /**
-     * Writes out a PCP MMV table-of-contents block.
-     * 
-     * @param dataFileBuffer
-     *            ByteBuffer positioned at the correct offset in the file for the block
-     * @param tocType
-     *            the type of TOC block to write
-     * @param entryCount
-     *            the number of blocks of type tocType to be found in the file
-     * @param firstEntryOffset
-     *            the offset of the first tocType block, relative to start of the file
-     */
-    private void writeToc(ByteBuffer dataFileBuffer, TocType tocType, int entryCount,
-            int firstEntryOffset) {
-        dataFileBuffer.putInt(tocType.identifier);
-        dataFileBuffer.putInt(entryCount);
-        dataFileBuffer.putLong(firstEntryOffset);
-    }
-
     /**
      * Calculates the file offset of a given PCP MMV TOC block
      * 
@@ -667,30 +1172,143 @@ public class PcpMmvWriter implements PcpWriter {
         return HEADER_LENGTH + (tocIndex * TOC_LENGTH);
     }
 
-    private synchronized void initialiseOffsets() {
-        int nextOffset = HEADER_LENGTH + (TOC_LENGTH * tocCount());
+    /**
+     * Lays out every section of the file, reserving any incremental headroom after each one. Each
+     * store is read, and each instance domain flattened, exactly once; the resulting snapshot is all
+     * that {@link #populateDataBuffer(ByteBuffer, Layout)} then needs.
+     *
+     * @return the layout, including the total length of the file
+     */
+    private synchronized Layout initialiseOffsets() {
+        boolean reserving = incrementalHeadroom > 0;
+        Collection<PcpValueInfo> valueInfos = getValueInfos();
+        boolean isolating = valueLayout == ValueLayout.CACHE_LINE_ISOLATED;
+        Layout layout = new Layout(getMetricInfos(), isolating ? isolateHotValues(valueInfos) : valueInfos,
+                getStrings());
+        for (InstanceDomain domain : getInstanceDomains()) {
+            Collection<Instance> instances = domain.getInstances();
+            if (!instances.isEmpty()) {
+                layout.instanceDomains.add(domain);
+                layout.instances.addAll(instances);
+            }
+        }
+        layout.tocCount = tocCount(!layout.instances.isEmpty(), !layout.strings.isEmpty());
+
+        sections.clear();
+        int tocIndex = 0;
+        int nextOffset = HEADER_LENGTH + (TOC_LENGTH * layout.tocCount);
+        if (reserving || !layout.instances.isEmpty()) {
+            nextOffset = layoutSection(TocType.INSTANCE_DOMAINS, tocIndex++, layout.instanceDomains,
+                    InstanceDomain.INSTANCE_DOMAIN_LENGTH, nextOffset);
+            nextOffset = layoutSection(TocType.INSTANCES, tocIndex++, layout.instances,
+                    mmvVersion.getInstanceLength(), nextOffset);
+        }
+        nextOffset = layoutSection(TocType.METRICS, tocIndex++, layout.metrics,
+                mmvVersion.getMetricLength(), nextOffset);
+        if (isolating) {
+            nextOffset = (nextOffset + CACHE_LINE_LENGTH - 1) / CACHE_LINE_LENGTH * CACHE_LINE_LENGTH;
+        }
+        nextOffset = layoutSection(TocType.VALUES, tocIndex++, layout.values,
+                PcpValueInfo.VALUE_LENGTH, nextOffset);
+        if (reserving || !layout.strings.isEmpty()) {
+            nextOffset = layoutSection(TocType.STRINGS, tocIndex, layout.strings,
+                    SPARE_STRINGS_PER_METRIC * STRING_BLOCK_LENGTH, nextOffset);
+        }
+        layout.sections.addAll(sections.values());
+        layout.length = nextOffset;
+
+        tailInstanceDomain = layout.instanceDomains.isEmpty() ? null
+                : layout.instanceDomains.get(layout.instanceDomains.size() - 1);
+        stringsLaidOut = sections.containsKey(TocType.STRINGS) ? sections.get(TocType.STRINGS).count : 0;
+        return layout;
+    }
+
+    /**
+     * Orders values for the {@link ValueLayout#CACHE_LINE_ISOLATED} layout. As values are half a cache
+     * line long, following each hot value with one that's never written leaves it a line to itself
+     * (bar reads); only once those run out do hot values get cold, and then hot, neighbours.
+     */
+    private List<PcpValueInfo> isolateHotValues(Collection<PcpValueInfo> valueInfos) {
+        long now = System.nanoTime();
+        List<PcpValueInfo> hot = new ArrayList<PcpValueInfo>();
+        List<PcpValueInfo> constant = new ArrayList<PcpValueInfo>();
+        List<PcpValueInfo> cold = new ArrayList<PcpValueInfo>();
+        for (PcpValueInfo info : valueInfos) {
+            // Going by its semantics until a metric's been watched long enough to tell from its updates
+            boolean isConstant = (countingUpdates && now - info.getCountingSince() >= hotDetectionWindowNanos)
+                    ? info.getUpdateCount() == 0
+                    : info.getMetricInfo().getSemantics() == Semantics.DISCRETE;
+            detectHotValue(info, now);
+            MetricName name = info.getMetricName();
+            if (hotMetrics.test(name) || detectedHotMetrics.contains(name)) {
+                hot.add(info);
+            } else if (isConstant) {
+                constant.add(info);
+            } else {
+                cold.add(info);
+            }
+        }
 
-        nextOffset = initializeOffsets(getInstanceDomains(), nextOffset);
-        nextOffset = initializeOffsets(getInstances(), nextOffset);
-        nextOffset = initializeOffsets(getMetricInfos(), nextOffset);
-        nextOffset = initializeOffsets(getValueInfos(), nextOffset);
-        initializeOffsets(getStrings(), nextOffset);
+        List<PcpValueInfo> neighbours = new ArrayList<PcpValueInfo>(constant);
+        neighbours.addAll(cold);
+        List<PcpValueInfo> ordered = new ArrayList<PcpValueInfo>(valueInfos.size());
+        int next = 0;
+        for (PcpValueInfo info : hot) {
+            ordered.add(info);
+            if (next < neighbours.size()) {
+                ordered.add(neighbours.get(next++));
+            }
+        }
+        ordered.addAll(neighbours.subList(next, neighbours.size()));
+        return ordered;
+    }
+
+    private void detectHotValues(Collection<PcpValueInfo> valueInfos, long now) {
+        if (countingUpdates) {
+            for (PcpValueInfo info : valueInfos) {
+                detectHotValue(info, now);
+            }
+        }
     }
 
-	private int initializeOffsets(Collection<? extends PcpOffset> offsettables, int nextOffset) {
+    /**
+     * Decides whether a metric is hot from its update rate, once updates to it have been counted for
+     * long enough to go on; a metric re-added after a {@link #reset()} starts counting afresh, but
+     * keeps the verdict reached before.
+     */
+    private void detectHotValue(PcpValueInfo info, long now) {
+        long elapsed = now - info.getCountingSince();
+        if (!countingUpdates || elapsed < hotDetectionWindowNanos || elapsed <= 0) {
+            return;
+        }
+        if (info.getUpdateCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed >= hotUpdateRate) {
+            detectedHotMetrics.add(info.getMetricName());
+        } else {
+            detectedHotMetrics.remove(info.getMetricName());
+        }
+        info.restartUpdateCount(now);
+    }
+
+    private int layoutSection(TocType tocType, int tocIndex, Collection<? extends PcpOffset> offsettables,
+            int spareEntryLength, int start) {
+        Section section = new Section(tocType, getTocOffset(tocIndex), start);
         for (PcpOffset offsettable : offsettables) {
-            offsettable.setOffset(nextOffset);
-            nextOffset += offsettable.byteSize();
+            section.append(offsettable);
         }
-        return nextOffset;
+        sections.put(tocType, section);
+        return section.reserve(incrementalHeadroom * spareEntryLength);
     }
 
-    private int tocCount() {
+    private int tocCount(boolean hasInstances, boolean hasStrings) {
+        if (incrementalHeadroom > 0) {
+            // Every section is present up front so that any of them can be filled in later
+            return TocType.values().length;
+        }
         int tocCount = 2; // metrics + values
-        if (!getInstances().isEmpty()) {
+        if (hasInstances) {
             tocCount += 2;
         }
-        if (!getStrings().isEmpty()) {
+        if (hasStrings) {
             tocCount++;
         }
         return tocCount;
@@ -800,6 +1418,169 @@ public class PcpMmvWriter implements PcpWriter {
         // Values will be reflected in the agent immediately
     }
 
+    /**
+     * Writes primitive values straight into the value's slot, using the PCP type of the metric at the
+     * time it was added.
+     */
+    private final class ValueHandle implements MetricHandle {
+        private final PcpValueInfo info;
+        private final MmvMetricType metricType;
+
+        ValueHandle(PcpValueInfo info) {
+            this.info = info;
+            this.metricType = info.getTypeHandler().getMetricType();
+        }
+
+        @Override
+        public MetricName getName() {
+            return info.getMetricName();
+        }
+
+        @Override
+        public void set(Object value) {
+            if (isWritingDirectly()) {
+                updateValue(info, value);
+            } else {
+                updateUnstartedMetric(info, value);
+            }
+        }
+
+        @Override
+        public void set(long value) {
+            if (!isWritingDirectly() || info.getValueBuffer() == null) {
+                set((Object) value);
+                return;
+            }
+            switch (metricType) {
+                case I32:
+                case U32:
+                    storeInt(info, (int) value);
+                    break;
+                case I64:
+                case U64:
+                    storeLong(info, value);
+                    break;
+                case FLOAT:
+                case DOUBLE:
+                    set((double) value);
+                    break;
+                default:
+                    set(String.valueOf(value));
+            }
+        }
+
+        @Override
+        public void set(int value) {
+            set((long) value);
+        }
+
+        @Override
+        public void set(double value) {
+            if (!isWritingDirectly() || info.getValueBuffer() == null) {
+                set((Object) value);
+                return;
+            }
+            switch (metricType) {
+                case FLOAT:
+                    storeInt(info, Float.floatToRawIntBits((float) value));
+                    break;
+                case DOUBLE:
+                    storeLong(info, Double.doubleToRawLongBits(value));
+                    break;
+                case I32:
+                case U32:
+                case I64:
+                case U64:
+                    set((long) value);
+                    break;
+                default:
+                    set(String.valueOf(value));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "MetricHandle[" + info.getMetricName() + ']';
+        }
+    }
+
+    /**
+     * A contiguous run of same-typed entries in the file, along with its table-of-contents block and
+     * any space reserved after it for later appends.
+     */
+    private static final class Section {
+        private final TocType tocType;
+        private final int tocOffset;
+        private final int start;
+        private int next;
+        private int limit;
+        private int count;
+
+        Section(TocType tocType, int tocOffset, int start) {
+            this.tocType = tocType;
+            this.tocOffset = tocOffset;
+            this.start = start;
+            this.next = start;
+            this.limit = start;
+        }
+
+        void append(PcpOffset entry) {
+            entry.setOffset(next);
+            next += entry.byteSize();
+            count++;
+        }
+
+        int reserve(int spareBytes) {
+            limit = next + spareBytes;
+            return limit;
+        }
+
+        boolean hasRoomFor(int bytes) {
+            return next + bytes <= limit;
+        }
+
+        boolean hasRoomForAll(Collection<? extends PcpOffset> entries) {
+            return start + getByteSizeTotalFor(entries) <= limit;
+        }
+
+        void clear() {
+            next = start;
+            count = 0;
+        }
+
+        /**
+         * Writes out this section's PCP MMV table-of-contents block: type, entry count and the offset
+         * of the first entry (0 while the section is empty).
+         */
+        void writeToc(ByteBuffer dataFileBuffer) {
+            dataFileBuffer.position(tocOffset);
+            dataFileBuffer.putInt(tocType.identifier);
+            dataFileBuffer.putInt(count);
+            dataFileBuffer.putLong(count == 0 ? 0 : start);
+        }
+    }
+
+    /**
+     * A snapshot of everything being laid out in the file, gathered once so that each section can
+     * be laid out and then written without going back to the stores.
+     */
+    private static final class Layout {
+        private final List<InstanceDomain> instanceDomains = new ArrayList<InstanceDomain>();
+        private final List<Instance> instances = new ArrayList<Instance>();
+        private final List<PcpMetricInfo> metrics;
+        private final List<PcpValueInfo> values;
+        private final List<PcpString> strings;
+        private final List<Section> sections = new ArrayList<Section>();
+        private int tocCount;
+        private int length;
+
+        Layout(Collection<PcpMetricInfo> metrics, Collection<PcpValueInfo> values, List<PcpString> strings) {
+            this.metrics = new ArrayList<PcpMetricInfo>(metrics);
+            this.values = new ArrayList<PcpValueInfo>(values);
+            this.strings = strings;
+        }
+    }
+
     static abstract class Store<T extends PcpId> {
         private final Map<String, T> byName = new LinkedHashMap<String, T>();
         private final Map<Integer, T> byId = new LinkedHashMap<Integer, T>();
@@ -829,6 +1610,18 @@ public class PcpMmvWriter implements PcpWriter {
             return byName.size();
         }
 
+        /**
+         * @return whether the value was present
+         */
+        synchronized boolean remove(T value) {
+            if (byId.get(value.getId()) != value) {
+                return false;
+            }
+            byId.remove(value.getId());
+            byName.values().remove(value);
+            return true;
+        }
+
         synchronized void clear() {
             byId.clear();
             byName.clear();
@@ -21,10 +21,12 @@ package io.pcp.parfait.dxm;
 
 
 import com.google.common.base.Preconditions;
+import net.jcip.annotations.GuardedBy;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.List;
 
 import static io.pcp.parfait.dxm.PcpMmvWriter.PCP_CHARSET;
 
@@ -66,22 +68,46 @@ final class PcpString implements PcpOffset,MmvWritable {
     }
 
     static class PcpStringStore {
-        private final Collection<PcpString> stringInfo = new CopyOnWriteArrayList<PcpString>();
+        // Not copy-on-write: every metric and instance of an MMV v2 file has a name string, so
+        // copying the list on each add would make registering n metrics O(n^2)
+        @GuardedBy("this")
+        private final List<PcpString> stringInfo = new ArrayList<PcpString>();
 
         PcpString createPcpString(String text) {
             if (text == null) {
                 return null;
             }
             PcpString string = new PcpString(text);
-            stringInfo.add(string);
+            synchronized (this) {
+                stringInfo.add(string);
+            }
             return string;
         }
 
-        Collection<PcpString> getStrings() {
-            return stringInfo;
+        /**
+         * @return a snapshot of the strings in this store, in creation order
+         */
+        synchronized List<PcpString> getStrings() {
+            return new ArrayList<PcpString>(stringInfo);
+        }
+
+        /**
+         * @return the strings created after the first <code>count</code> strings in this store, in
+         *         creation order
+         */
+        synchronized List<PcpString> getStringsAfter(int count) {
+            int size = stringInfo.size();
+            if (count >= size) {
+                return new ArrayList<PcpString>();
+            }
+            return new ArrayList<PcpString>(stringInfo.subList(count, size));
+        }
+
+        synchronized void removeAll(Collection<PcpString> strings) {
+            stringInfo.removeAll(strings);
         }
 
-        void clear() {
+        synchronized void clear() {
             stringInfo.clear();
         }
     }
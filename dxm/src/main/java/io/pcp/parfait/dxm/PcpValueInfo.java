@@ -23,13 +23,15 @@ import io.pcp.parfait.dxm.PcpString.PcpStringStore;
 import io.pcp.parfait.dxm.types.TypeHandler;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import static io.pcp.parfait.dxm.PcpMmvWriter.DATA_VALUE_LENGTH;
 import static io.pcp.parfait.dxm.PcpString.STRING_BLOCK_LIMIT;
 
 public final class PcpValueInfo implements PcpOffset,MmvWritable {
 
-    private static final int VALUE_LENGTH = 32;
+    static final int VALUE_LENGTH = 32;
 
 	private final MetricName metricName;
 	private volatile Object initialValue;
@@ -37,6 +39,12 @@ public final class PcpValueInfo implements PcpOffset,MmvWritable {
 	private final Instance instance;
 	private final PcpString largeValue;
 	private int offset;
+	private volatile ByteBuffer valueBuffer;
+	private final AtomicReference<Object> stagedValue = new AtomicReference<Object>();
+	// Striped, as the values worth counting are the ones written from many cores at once; a plain
+	// shared field would bounce its cache line between them just as the values themselves would
+	private final LongAdder updateCount = new LongAdder();
+	private long countingSince = System.nanoTime();
 
     PcpValueInfo(MetricName metricName, PcpMetricInfo metricInfo, Instance instance, 
     		Object initialValue, PcpStringStore stringStore) {
@@ -82,6 +90,42 @@ public final class PcpValueInfo implements PcpOffset,MmvWritable {
         this.initialValue = initialValue;
     }
 
+    void countUpdate() {
+        updateCount.increment();
+    }
+
+    long getUpdateCount() {
+        return updateCount.sum();
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} from which updates have been counted
+     */
+    long getCountingSince() {
+        return countingSince;
+    }
+
+    void restartUpdateCount(long now) {
+        updateCount.reset();
+        countingSince = now;
+    }
+
+    /**
+     * Holds a value to be written once the writer has (re)started, replacing any still waiting.
+     *
+     * @return whether no value was already waiting
+     */
+    boolean stageValue(Object value) {
+        return stagedValue.getAndSet(value) == null;
+    }
+
+    /**
+     * @return the value waiting to be written, if any, which is no longer waiting
+     */
+    Object takeStagedValue() {
+        return stagedValue.getAndSet(null);
+    }
+
     private int getInstanceOffset() {
         return instance == null ? 0 : instance.getOffset();
     }
@@ -94,6 +138,26 @@ public final class PcpValueInfo implements PcpOffset,MmvWritable {
         return largeValue;
     }
 
+    PcpMetricInfo getMetricInfo() {
+        return metricInfo;
+    }
+
+    Instance getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return a slice of the started file covering just this value's data, or null if this value is
+     *         not currently part of a started file
+     */
+    ByteBuffer getValueBuffer() {
+        return valueBuffer;
+    }
+
+    void setValueBuffer(ByteBuffer valueBuffer) {
+        this.valueBuffer = valueBuffer;
+    }
+
     @Override
     public void writeToMmv(ByteBuffer byteBuffer) {
         byteBuffer.position(offset);
@@ -101,6 +165,16 @@ public final class PcpValueInfo implements PcpOffset,MmvWritable {
 
     }
 
+    /**
+     * Rewrites only the descriptor and instance offsets of this value, leaving the live value itself
+     * untouched; used when the entries it refers to have been moved within a started file.
+     */
+    void writeReferencesToMmv(ByteBuffer byteBuffer) {
+        byteBuffer.position(offset + DATA_VALUE_LENGTH);
+        byteBuffer.putLong(getDescriptorOffset());
+        byteBuffer.putLong(getInstanceOffset());
+    }
+
     @SuppressWarnings({ "unchecked", "rawtypes" })
     private void writeValueSection(ByteBuffer dataFileBuffer) {
         int originalPosition = dataFileBuffer.position();
@@ -22,6 +22,7 @@ import io.pcp.parfait.dxm.types.TypeHandler;
 import javax.measure.Unit;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Collection;
 
 public interface PcpWriter {
     /**
@@ -37,13 +38,14 @@ public interface PcpWriter {
      *            the unit used to measure the metric.
      * @param initialValue
      *            the 'default' value to write into the file at initialisation time
+     * @return a handle through which the metric can be updated without further lookups
      * @throws IllegalArgumentException
      *             if the name is too long, the metric name has already been added, or this is no
      *             type handler registered for the runtime class of the initial value
      * @throws IllegalStateException
      *             if this writer has already been started, finalising the file layout
      */
-    public abstract void addMetric(MetricName name, Semantics semantics, Unit<?> unit,
+    public abstract MetricHandle addMetric(MetricName name, Semantics semantics, Unit<?> unit,
             Object initialValue);
 
 	/**
@@ -62,12 +64,13 @@ public interface PcpWriter {
 	 * @param pcpType
 	 *            the type converter to use to render the initial value (and all subsequent values)
 	 *            to the PCP stream
+	 * @return a handle through which the metric can be updated without further lookups
 	 * @throws IllegalArgumentException
 	 *             if the name is too long or the metric name has already been added
 	 * @throws IllegalStateException
 	 *             if this writer has already been started, finalising the file layout
 	 */
-    public abstract <T> void addMetric(MetricName name, Semantics semantics, Unit<?> unit,
+    public abstract <T> MetricHandle addMetric(MetricName name, Semantics semantics, Unit<?> unit,
             T initialValue, TypeHandler<T> pcpType);
 
 	/**
@@ -131,6 +134,34 @@ public interface PcpWriter {
      */
     public void setMetricHelpText(String metricName, String shortHelpText, String longHelpText);
 
+    /**
+     * @return whether metrics may still be added (and their help text set) after {@link #start()}
+     *         has been called, without restarting the writer
+     */
+    public default boolean canAddMetricsWhileStarted() {
+        return false;
+    }
+
+    /**
+     * @return whether {@link #removeMetrics(Collection)} is supported
+     */
+    public default boolean canRemoveMetrics() {
+        return false;
+    }
+
+    /**
+     * Removes previously added metrics, reclaiming the space they used. Names which were never
+     * added are ignored.
+     *
+     * @param names
+     *            the metrics to remove
+     * @throws UnsupportedOperationException
+     *             if this writer {@link #canRemoveMetrics() cannot remove metrics}
+     */
+    public default void removeMetrics(Collection<MetricName> names) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot remove metrics");
+    }
+
     /**
      * Prepares this object such that it can be restarted by invoking the {@link #start()} method
      * again.
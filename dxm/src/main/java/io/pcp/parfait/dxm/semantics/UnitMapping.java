@@ -22,6 +22,10 @@ import static tech.units.indriya.AbstractUnit.ONE;
 import static tech.units.indriya.function.AbstractConverter.IDENTITY;
 import static tech.units.indriya.unit.Units.SECOND;
 
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import javax.measure.quantity.Dimensionless;
 import javax.measure.Unit;
 
@@ -35,6 +39,12 @@ import tech.units.indriya.unit.UnitDimension;
 
 public final class UnitMapping {
     private static final Logger LOG = LoggerFactory.getLogger(UnitMapping.class);
+    /**
+     * Units already looked up; matching a unit functionally means unit arithmetic against every
+     * candidate mapping, which otherwise dominates writing out the descriptors of a large file.
+     */
+    private static final ConcurrentMap<Unit<?>, Optional<UnitMapping>> FOUND_MAPPINGS =
+            new ConcurrentHashMap<Unit<?>, Optional<UnitMapping>>();
 
     private final Unit<?> unit;
     private final PcpDimensionSet dimensionSet;
@@ -56,6 +66,10 @@ public final class UnitMapping {
     }
 
     public static UnitMapping findUnitMapping(Unit<?> unit) {
+        return FOUND_MAPPINGS.computeIfAbsent(unit, u -> Optional.ofNullable(searchUnitMappings(u))).orElse(null);
+    }
+
+    private static UnitMapping searchUnitMappings(Unit<?> unit) {
         UnitMapping approximateMatch = null;
 
         for (PcpDimensionSet dimensionSet : PcpDimensionSet.values()) {
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.dxm;
+
+import io.pcp.parfait.dxm.semantics.Semantics;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static tech.units.indriya.AbstractUnit.ONE;
+
+public class MetricHandleTest {
+
+    private static final int VALUES_TOC_OFFSET = 40 + 16 + 8;
+
+    private InMemoryByteBufferFactory byteBufferFactory;
+    private PcpMmvWriter writer;
+
+    @Before
+    public void setUp() {
+        byteBufferFactory = new InMemoryByteBufferFactory();
+        writer = new PcpMmvWriter(byteBufferFactory, IdentifierSourceSet.DEFAULT_SET);
+    }
+
+    @Test
+    public void shouldWriteLongsIntoTheValueSlot() throws Exception {
+        MetricHandle handle = writer.addMetric(MetricName.parse("sheep.jumps"), Semantics.COUNTER, ONE, 1L);
+        writer.start();
+
+        handle.set(12345678901234L);
+
+        assertEquals(12345678901234L, buffer().getLong(firstValueOffset()));
+    }
+
+    @Test
+    public void shouldConvertToThePcpTypeOfTheMetric() throws Exception {
+        MetricHandle handle = writer.addMetric(MetricName.parse("sheep.legs"), Semantics.INSTANT, ONE, 4);
+        writer.start();
+
+        handle.set(3.0);
+
+        assertEquals(3, buffer().getInt(firstValueOffset()));
+    }
+
+    @Test
+    public void shouldWriteDoubles() throws Exception {
+        MetricHandle handle = writer.addMetric(MetricName.parse("sheep.wool"), Semantics.INSTANT, ONE, 0.5);
+        writer.start();
+
+        handle.set(0.75);
+
+        assertEquals(0.75, buffer().getDouble(firstValueOffset()), 0);
+    }
+
+    @Test
+    public void shouldWriteThroughTheGlobalLock() throws Exception {
+        writer.setPerMetricLock(false);
+        MetricHandle handle = writer.addMetric(MetricName.parse("sheep.jumps"), Semantics.COUNTER, ONE, 1L);
+        writer.start();
+
+        handle.set(42L);
+
+        assertEquals(42L, buffer().getLong(firstValueOffset()));
+    }
+
+    @Test
+    public void shouldWriteWithoutLocksWhenLockFreeUpdatesAreEnabled() throws Exception {
+        writer.setLockFreeNumericUpdates(true);
+        MetricHandle handle = writer.addMetric(MetricName.parse("sheep.jumps"), Semantics.COUNTER, ONE, 1L);
+        writer.start();
+
+        handle.set(42L);
+
+        assertEquals(42L, buffer().getLong(firstValueOffset()));
+    }
+
+    @Test
+    public void shouldWriteBoxedNumbersWithoutLocksWhenLockFreeUpdatesAreEnabled() throws Exception {
+        writer.setLockFreeNumericUpdates(true);
+        MetricName name = MetricName.parse("sheep.wool");
+        writer.addMetric(name, Semantics.INSTANT, ONE, 0.5f);
+        writer.start();
+
+        writer.updateMetric(name, 0.25f);
+
+        assertEquals(0.25f, buffer().getFloat(firstValueOffset()), 0);
+    }
+
+    @Test
+    public void shouldUseValuesSetBeforeStartAsTheInitialValue() throws Exception {
+        MetricHandle handle = writer.addMetric(MetricName.parse("sheep.jumps"), Semantics.COUNTER, ONE, 1L);
+
+        handle.set(7L);
+        writer.start();
+
+        assertEquals(7L, buffer().getLong(firstValueOffset()));
+    }
+
+    @Test
+    public void shouldIgnoreHandlesObtainedBeforeAReset() throws Exception {
+        MetricHandle staleHandle = writer.addMetric(MetricName.parse("sheep.jumps"), Semantics.COUNTER, ONE, 1L);
+        writer.start();
+        writer.reset();
+        writer.addMetric(MetricName.parse("sheep.jumps"), Semantics.COUNTER, ONE, 2L);
+        writer.start();
+
+        staleHandle.set(99L);
+
+        assertEquals(2L, buffer().getLong(firstValueOffset()));
+    }
+
+    @Test
+    public void shouldNotWriteThroughHandlesObtainedBeforeAResetIntoTheOldFile() throws Exception {
+        MetricHandle staleHandle = writer.addMetric(MetricName.parse("sheep.jumps"), Semantics.COUNTER, ONE, 1L);
+        writer.start();
+        ByteBuffer oldBuffer = buffer();
+        int oldValueOffset = firstValueOffset();
+        writer.reset();
+
+        staleHandle.set(99L);
+        writer.addMetric(MetricName.parse("sheep.jumps"), Semantics.COUNTER, ONE, 2L);
+        writer.start();
+        staleHandle.set(98L);
+
+        assertEquals(1L, oldBuffer.getLong(oldValueOffset));
+    }
+
+    @Test
+    public void shouldNotWriteThroughHandlesObtainedBeforeAResetWithLockFreeUpdates() throws Exception {
+        writer.setLockFreeNumericUpdates(true);
+        MetricHandle staleHandle = writer.addMetric(MetricName.parse("sheep.jumps"), Semantics.COUNTER, ONE, 1L);
+        writer.start();
+        ByteBuffer oldBuffer = buffer();
+        int oldValueOffset = firstValueOffset();
+        writer.reset();
+        writer.addMetric(MetricName.parse("sheep.jumps"), Semantics.COUNTER, ONE, 2L);
+        writer.start();
+
+        staleHandle.set(99L);
+
+        assertEquals(1L, oldBuffer.getLong(oldValueOffset));
+        assertEquals(2L, buffer().getLong(firstValueOffset()));
+    }
+
+    private ByteBuffer buffer() {
+        return byteBufferFactory.getAllocatedBuffer();
+    }
+
+    private int firstValueOffset() {
+        return (int) buffer().getLong(VALUES_TOC_OFFSET);
+    }
+}
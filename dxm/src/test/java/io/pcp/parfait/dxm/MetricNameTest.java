@@ -71,6 +71,23 @@ public class MetricNameTest {
 		assertMetricNameMatches(MetricName.parse("a._b_"), "a._b_", null, "a._b_");
 	}
 
+	@Test
+	public void testWithInstanceMatchesParsedInstance() {
+		MetricName name = MetricName.parse("a.b").withInstance("x");
+		assertMetricNameMatches(name, "a.b", "x", "a.b");
+		assertEquals(MetricName.parse("a.b[x]"), name);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCannotAddInvalidInstance() {
+		MetricName.parse("a.b").withInstance("x]");
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCannotAddSecondInstance() {
+		MetricName.parse("a[x].b").withInstance("y");
+	}
+
 	private void assertMetricNameMatches(MetricName parsedName, String expectedMetric,
 			String expectedInstance, String expectedInstanceDomain) {
 		assertEquals(expectedMetric, parsedName.getMetric());
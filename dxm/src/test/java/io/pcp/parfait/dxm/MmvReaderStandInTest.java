@@ -0,0 +1,103 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.dxm;
+
+import io.pcp.parfait.dxm.MmvReaderStandIn.Report;
+import io.pcp.parfait.dxm.semantics.Semantics;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static tech.units.indriya.AbstractUnit.ONE;
+
+public class MmvReaderStandInTest {
+
+    private InMemoryByteBufferFactory byteBufferFactory;
+    private PcpMmvWriter writer;
+    private MmvReaderStandIn standIn;
+
+    @Before
+    public void setUp() throws Exception {
+        byteBufferFactory = new InMemoryByteBufferFactory();
+        writer = new PcpMmvWriter(byteBufferFactory, IdentifierSourceSet.DEFAULT_SET);
+        writer.addMetric(MetricName.parse("sheep.jumps"), Semantics.COUNTER, ONE, MmvReaderStandIn.mirror(1));
+        writer.addMetric(MetricName.parse("sheep.name"), Semantics.DISCRETE, ONE, MmvReaderStandIn.mirror('b', 8));
+        standIn = new MmvReaderStandIn(byteBufferFactory::getAllocatedBuffer);
+        standIn.setValueValidator(MmvReaderStandIn.mirroredValues());
+    }
+
+    @Test
+    public void shouldCountConsistentReadsOfAQuietFile() throws Exception {
+        writer.start();
+
+        Report report = standIn.run(Duration.ofMillis(50));
+
+        assertTrue(report.getConsistentReads() > 0);
+        assertEquals(0, report.getGenerationMismatches());
+        assertEquals(0, report.getTornReads());
+        assertEquals(report.getConsistentReads(), report.getReads());
+    }
+
+    @Test
+    public void shouldCountReadsOfAFileBeingRewrittenAsGenerationMismatches() throws Exception {
+        writer.start();
+        byteBufferFactory.getAllocatedBuffer().putLong(16, 0);
+
+        Report report = standIn.run(Duration.ofMillis(50));
+
+        assertTrue(report.getGenerationMismatches() > 0);
+        assertEquals(report.getGenerationMismatches(), report.getReads());
+    }
+
+    @Test
+    public void shouldCountReadsBeforeTheFileExistsAsGenerationMismatches() throws Exception {
+        Report report = standIn.run(Duration.ofMillis(20));
+
+        assertEquals(report.getGenerationMismatches(), report.getReads());
+    }
+
+    @Test
+    public void shouldReportValuesRejectedByTheValidatorAsTorn() throws Exception {
+        writer.start();
+        // As if a reader had caught only one half of the value being written
+        writer.updateMetric(MetricName.parse("sheep.jumps"), (2L << 32) | 1);
+
+        Report report = standIn.run(Duration.ofMillis(50));
+
+        assertTrue(report.getTornReads() > 0);
+        assertEquals(0, report.getConsistentReads());
+        assertEquals("sheep.jumps=" + ((2L << 32) | 1), report.getFirstTornRead());
+    }
+
+    @Test
+    public void mirroredValuesShouldAcceptWholeValues() throws Exception {
+        writer.start();
+        writer.updateMetric(MetricName.parse("sheep.jumps"), MmvReaderStandIn.mirror(-7));
+        writer.updateMetric(MetricName.parse("sheep.name"), MmvReaderStandIn.mirror('z', 20));
+
+        for (MmvSnapshot.ValueEntry value : new MmvReader(byteBufferFactory.getAllocatedBuffer()).read().getValues()) {
+            assertTrue(value.toString(), MmvReaderStandIn.mirroredValues().test(value));
+        }
+        writer.updateMetric(MetricName.parse("sheep.name"), "bbbbz");
+        assertFalse(MmvReaderStandIn.mirroredValues().test(
+                new MmvReader(byteBufferFactory.getAllocatedBuffer()).read().getValue("sheep.name")));
+    }
+}
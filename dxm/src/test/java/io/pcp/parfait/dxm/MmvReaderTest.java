@@ -0,0 +1,152 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.dxm;
+
+import io.pcp.parfait.dxm.MmvReader.GenerationMismatchException;
+import io.pcp.parfait.dxm.MmvSnapshot.IndomEntry;
+import io.pcp.parfait.dxm.MmvSnapshot.MetricEntry;
+import io.pcp.parfait.dxm.MmvSnapshot.ValueEntry;
+import io.pcp.parfait.dxm.semantics.Semantics;
+import io.pcp.parfait.dxm.types.MmvMetricType;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static tech.units.indriya.AbstractUnit.ONE;
+
+public class MmvReaderTest {
+
+    private InMemoryByteBufferFactory byteBufferFactory;
+
+    @Before
+    public void setUp() {
+        byteBufferFactory = new InMemoryByteBufferFactory();
+    }
+
+    @Test
+    public void shouldReadBackAVersion1File() throws Exception {
+        PcpMmvWriter writer = startWriter(MmvVersion.MMV_VERSION1);
+
+        MmvSnapshot snapshot = read();
+
+        assertEquals(1, snapshot.getVersion());
+        assertReadBack(writer, snapshot);
+    }
+
+    @Test
+    public void shouldReadBackAVersion2File() throws Exception {
+        PcpMmvWriter writer = startWriter(MmvVersion.MMV_VERSION2);
+
+        MmvSnapshot snapshot = read();
+
+        assertEquals(2, snapshot.getVersion());
+        assertReadBack(writer, snapshot);
+    }
+
+    @Test
+    public void shouldSeeUpdatedValues() throws Exception {
+        PcpMmvWriter writer = startWriter(MmvVersion.MMV_VERSION2);
+
+        writer.updateMetric(MetricName.parse("sheep[limpy].jumps"), 11);
+        writer.updateMetric(MetricName.parse("cow.name"), "buttercup");
+
+        MmvSnapshot snapshot = read();
+        assertEquals(11, snapshot.getValue("sheep.jumps", "limpy").getValue());
+        assertEquals("buttercup", snapshot.getValue("cow.name").getValue());
+    }
+
+    @Test(expected = GenerationMismatchException.class)
+    public void shouldRefuseAFileWhoseGenerationsDisagree() throws Exception {
+        startWriter(MmvVersion.MMV_VERSION1);
+        buffer().putLong(16, 0);
+
+        read();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectSomethingThatIsNotAnMmvFile() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.putLong(8, 1);
+        buffer.putLong(16, 1);
+
+        new MmvReader(buffer).read();
+    }
+
+    @Test
+    public void shouldReportTheAgreedGeneration() throws Exception {
+        startWriter(MmvVersion.MMV_VERSION1);
+        MmvReader reader = new MmvReader(buffer());
+
+        assertEquals(buffer().getLong(8), reader.getGeneration());
+        buffer().putLong(16, 0);
+        assertEquals(0, reader.getGeneration());
+    }
+
+    private PcpMmvWriter startWriter(MmvVersion mmvVersion) throws Exception {
+        PcpMmvWriter writer = new PcpMmvWriter(byteBufferFactory, IdentifierSourceSet.DEFAULT_SET, mmvVersion);
+        writer.setProcessIdentifier(1234);
+        writer.setClusterIdentifier(56);
+        writer.addMetric(MetricName.parse("sheep[baabaablack].jumps"), Semantics.COUNTER, ONE, 7);
+        writer.addMetric(MetricName.parse("sheep[limpy].jumps"), Semantics.COUNTER, ONE, 3);
+        writer.addMetric(MetricName.parse("sheep.naps"), Semantics.INSTANT, ONE, 12345678901L);
+        writer.addMetric(MetricName.parse("sheep.weight"), Semantics.INSTANT, ONE, 1.5d);
+        writer.addMetric(MetricName.parse("cow.name"), Semantics.DISCRETE, ONE, "daisy");
+        writer.setMetricHelpText("sheep.naps", "Naps", "Naps taken by the sheep");
+        writer.setInstanceDomainHelpText("sheep", "Sheep", "The flock");
+        writer.start();
+        return writer;
+    }
+
+    private void assertReadBack(PcpMmvWriter writer, MmvSnapshot snapshot) {
+        assertEquals(buffer().getLong(8), snapshot.getGeneration());
+        assertEquals(1234, snapshot.getProcessIdentifier());
+        assertEquals(56, snapshot.getClusterIdentifier());
+        assertEquals(5, snapshot.getValues().size());
+
+        assertEquals(7, snapshot.getValue("sheep.jumps", "baabaablack").getValue());
+        assertEquals(3, snapshot.getValue("sheep.jumps", "limpy").getValue());
+        assertEquals(12345678901L, snapshot.getValue("sheep.naps").getValue());
+        assertEquals(1.5d, snapshot.getValue("sheep.weight").getValue());
+        assertEquals("daisy", snapshot.getValue("cow.name").getValue());
+        assertNull(snapshot.getValue("sheep.jumps"));
+
+        MetricEntry naps = snapshot.getValue("sheep.naps").getMetric();
+        assertEquals(MmvMetricType.I64, naps.getType());
+        assertEquals(Semantics.INSTANT, naps.getSemantics());
+        assertEquals("Naps", naps.getShortHelpText());
+        assertEquals("Naps taken by the sheep", naps.getLongHelpText());
+        assertEquals(-1, naps.getIndomSerial());
+
+        IndomEntry sheep = snapshot.getInstanceDomains().get(0);
+        assertEquals(2, sheep.getInstances().size());
+        assertEquals("The flock", sheep.getLongHelpText());
+        ValueEntry limpy = snapshot.getValue("sheep.jumps", "limpy");
+        assertEquals(sheep.getSerial(), limpy.getMetric().getIndomSerial());
+        assertEquals(sheep.getSerial(), limpy.getInstance().getIndomSerial());
+    }
+
+    private MmvSnapshot read() {
+        return new MmvReader(buffer()).read();
+    }
+
+    private ByteBuffer buffer() {
+        return byteBufferFactory.getAllocatedBuffer();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.dxm;
+
+import io.pcp.parfait.dxm.semantics.Semantics;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static tech.units.indriya.AbstractUnit.ONE;
+
+public class PcpMmvWriterCompactionTest {
+
+    private static final int HEADER_LENGTH = 40;
+    private static final int TOC_LENGTH = 16;
+    private static final int INSTANCES_TOC = 1;
+    private static final int METRICS_TOC = 2;
+    private static final int VALUES_TOC = 3;
+    private static final int STRINGS_TOC = 4;
+
+    private InMemoryByteBufferFactory byteBufferFactory;
+
+    @Before
+    public void setUp() {
+        byteBufferFactory = new InMemoryByteBufferFactory();
+    }
+
+    @Test
+    public void shouldShrinkAStartedFileWhenMetricsAreRemoved() throws Exception {
+        PcpMmvWriter writer = new PcpMmvWriter(byteBufferFactory, IdentifierSourceSet.DEFAULT_SET);
+        writer.addMetric(MetricName.parse("sheep.jumps"), Semantics.COUNTER, ONE, 1);
+        writer.addMetric(MetricName.parse("sheep.naps"), Semantics.COUNTER, ONE, 2);
+        writer.start();
+        int originalLength = buffer().capacity();
+
+        writer.removeMetrics(Collections.singleton(MetricName.parse("sheep.naps")));
+
+        assertEquals(2, byteBufferFactory.getNumAllocations());
+        assertTrue(buffer().capacity() < originalLength);
+        assertEquals(1, buffer().getInt(HEADER_LENGTH + 4));
+        assertEquals(1, buffer().getInt(HEADER_LENGTH + TOC_LENGTH + 4));
+        assertEquals(buffer().getLong(8), buffer().getLong(16));
+    }
+
+    @Test
+    public void shouldReclaimInstancesAndStringsOnlyUsedByRemovedMetrics() throws Exception {
+        PcpMmvWriter writer = new PcpMmvWriter(byteBufferFactory, IdentifierSourceSet.DEFAULT_SET,
+                MmvVersion.MMV_VERSION2);
+        writer.addMetric(MetricName.parse("sheep[baabaablack].jumps"), Semantics.COUNTER, ONE, 1);
+        writer.addMetric(MetricName.parse("sheep[limpy].jumps"), Semantics.COUNTER, ONE, 1);
+        writer.start();
+        // the metric name plus both instance names
+        assertEquals(3, tocCount(STRINGS_TOC));
+
+        writer.removeMetrics(Collections.singleton(MetricName.parse("sheep[limpy].jumps")));
+
+        assertEquals(1, tocCount(INSTANCES_TOC));
+        assertEquals(1, tocCount(METRICS_TOC));
+        assertEquals(1, tocCount(VALUES_TOC));
+        assertEquals(2, tocCount(STRINGS_TOC));
+    }
+
+    @Test
+    public void shouldStopWritingThroughHandlesOfRemovedMetrics() throws Exception {
+        PcpMmvWriter writer = new PcpMmvWriter(byteBufferFactory, IdentifierSourceSet.DEFAULT_SET);
+        writer.setPerMetricLock(false);
+        writer.addMetric(MetricName.parse("sheep.jumps"), Semantics.COUNTER, ONE, 1);
+        MetricHandle naps = writer.addMetric(MetricName.parse("sheep.naps"), Semantics.COUNTER, ONE, 2);
+        writer.start();
+
+        writer.removeMetrics(Collections.singleton(MetricName.parse("sheep.naps")));
+        naps.set(99);
+
+        int valueOffset = (int) buffer().getLong(HEADER_LENGTH + TOC_LENGTH + 8);
+        assertEquals(1, buffer().getInt(valueOffset));
+    }
+
+    @Test
+    public void shouldLeaveRemovedMetricsOutOfTheNextStart() throws Exception {
+        PcpMmvWriter writer = new PcpMmvWriter(byteBufferFactory, IdentifierSourceSet.DEFAULT_SET);
+        writer.addMetric(MetricName.parse("sheep.jumps"), Semantics.COUNTER, ONE, 1);
+        writer.addMetric(MetricName.parse("sheep.naps"), Semantics.COUNTER, ONE, 2);
+
+        writer.removeMetrics(Collections.singleton(MetricName.parse("sheep.naps")));
+        writer.addMetric(MetricName.parse("sheep.naps"), Semantics.COUNTER, ONE, 3);
+        writer.start();
+
+        assertEquals(1, byteBufferFactory.getNumAllocations());
+        assertEquals(2, buffer().getInt(HEADER_LENGTH + 4));
+    }
+
+    private ByteBuffer buffer() {
+        return byteBufferFactory.getAllocatedBuffer();
+    }
+
+    private int tocCount(int tocIndex) {
+        return buffer().getInt(HEADER_LENGTH + tocIndex * TOC_LENGTH + 4);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.dxm;
+
+import io.pcp.parfait.dxm.semantics.Semantics;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static tech.units.indriya.AbstractUnit.ONE;
+
+public class PcpMmvWriterIncrementalTest {
+
+    private static final int HEADER_LENGTH = 40;
+    private static final int TOC_LENGTH = 16;
+    private static final int INSTANCE_DOMAINS_TOC = 0;
+    private static final int INSTANCES_TOC = 1;
+    private static final int METRICS_TOC = 2;
+    private static final int VALUES_TOC = 3;
+
+    private InMemoryByteBufferFactory byteBufferFactory;
+    private PcpMmvWriter writer;
+
+    @Before
+    public void setUp() {
+        byteBufferFactory = new InMemoryByteBufferFactory();
+        writer = new PcpMmvWriter(byteBufferFactory, IdentifierSourceSet.DEFAULT_SET);
+        writer.setIncrementalHeadroom(4);
+    }
+
+    @Test
+    public void shouldAppendAMetricToAStartedFileInPlace() throws Exception {
+        writer.addMetric(MetricName.parse("sheep.jumps"), Semantics.COUNTER, ONE, 1);
+        writer.start();
+        long initialGeneration = buffer().getLong(8);
+
+        writer.addMetric(MetricName.parse("sheep.naps"), Semantics.COUNTER, ONE, 2);
+        writer.updateMetric(MetricName.parse("sheep.naps"), 7);
+
+        assertEquals(1, byteBufferFactory.getNumAllocations());
+        assertEquals(2, tocCount(METRICS_TOC));
+        assertEquals(2, tocCount(VALUES_TOC));
+        assertEquals(7, buffer().getInt(tocFirstOffset(VALUES_TOC) + PcpValueInfo.VALUE_LENGTH));
+        assertTrue(buffer().getLong(8) > initialGeneration);
+        assertEquals(buffer().getLong(8), buffer().getLong(16));
+    }
+
+    @Test
+    public void shouldKeepInstancesContiguousWhenAnEarlierInstanceDomainGrows() throws Exception {
+        writer.addMetric(MetricName.parse("sheep[baabaablack].jumps"), Semantics.COUNTER, ONE, 1);
+        writer.addMetric(MetricName.parse("cow[daisy].moos"), Semantics.COUNTER, ONE, 1);
+        writer.start();
+
+        writer.addMetric(MetricName.parse("sheep[limpy].jumps"), Semantics.COUNTER, ONE, 1);
+
+        assertEquals(1, byteBufferFactory.getNumAllocations());
+        assertEquals(2, tocCount(INSTANCE_DOMAINS_TOC));
+        assertEquals(3, tocCount(INSTANCES_TOC));
+
+        int sheepDomainOffset = tocFirstOffset(INSTANCE_DOMAINS_TOC);
+        int sheepInstanceCount = buffer().getInt(sheepDomainOffset + 4);
+        long firstSheepInstance = buffer().getLong(sheepDomainOffset + 8);
+        assertEquals(2, sheepInstanceCount);
+
+        int limpyValueOffset = tocFirstOffset(VALUES_TOC) + 2 * PcpValueInfo.VALUE_LENGTH;
+        long limpyInstanceOffset = buffer().getLong(limpyValueOffset + 24);
+        assertEquals(firstSheepInstance + InstanceV1.INSTANCE_LENGTH, limpyInstanceOffset);
+        assertEquals(sheepDomainOffset, buffer().getLong((int) limpyInstanceOffset));
+    }
+
+    @Test
+    public void shouldRelayoutTheWholeFileOnceHeadroomIsExhausted() throws Exception {
+        writer.setIncrementalHeadroom(1);
+        writer.addMetric(MetricName.parse("sheep.jumps"), Semantics.COUNTER, ONE, 1);
+        writer.start();
+
+        writer.addMetric(MetricName.parse("sheep.naps"), Semantics.COUNTER, ONE, 2);
+        writer.addMetric(MetricName.parse("sheep.bleats"), Semantics.COUNTER, ONE, 3);
+        writer.updateMetric(MetricName.parse("sheep.bleats"), 9);
+
+        assertEquals(2, byteBufferFactory.getNumAllocations());
+        assertEquals(3, tocCount(METRICS_TOC));
+        assertEquals(3, tocCount(VALUES_TOC));
+        assertEquals(9, buffer().getInt(tocFirstOffset(VALUES_TOC) + 2 * PcpValueInfo.VALUE_LENGTH));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotAllowHeadroomToChangeOnceStarted() throws Exception {
+        writer.start();
+        writer.setIncrementalHeadroom(8);
+    }
+
+    private ByteBuffer buffer() {
+        return byteBufferFactory.getAllocatedBuffer();
+    }
+
+    private int tocCount(int tocIndex) {
+        return buffer().getInt(HEADER_LENGTH + tocIndex * TOC_LENGTH + 4);
+    }
+
+    private int tocFirstOffset(int tocIndex) {
+        return (int) buffer().getLong(HEADER_LENGTH + tocIndex * TOC_LENGTH + 8);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.dxm;
+
+import io.pcp.parfait.dxm.semantics.Semantics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static tech.units.indriya.AbstractUnit.ONE;
+
+public class PcpMmvWriterRestartTest {
+
+    private static final MetricName JUMPS = MetricName.parse("sheep.jumps");
+    private static final MetricName NAPS = MetricName.parse("sheep.naps");
+
+    private BlockingByteBufferFactory byteBufferFactory;
+    private PcpMmvWriter writer;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        byteBufferFactory = new BlockingByteBufferFactory();
+        writer = new PcpMmvWriter(byteBufferFactory, IdentifierSourceSet.DEFAULT_SET);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        byteBufferFactory.release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldNotWaitForARestartToUpdateAMetric() throws Exception {
+        MetricHandle naps = writer.addMetric(NAPS, Semantics.COUNTER, ONE, 1L);
+        writer.addMetric(JUMPS, Semantics.COUNTER, ONE, 1);
+        writer.start();
+        Future<?> restart = restartInBackground();
+
+        writer.updateMetric(JUMPS, 5);
+        writer.updateMetric(JUMPS, 6);
+        naps.set(9L);
+
+        byteBufferFactory.release.countDown();
+        restart.get(10, TimeUnit.SECONDS);
+        MmvSnapshot snapshot = new MmvReader(byteBufferFactory.lastBuffer).read();
+        assertEquals(6, snapshot.getValue("sheep.jumps").getValue());
+        assertEquals(9L, snapshot.getValue("sheep.naps").getValue());
+    }
+
+    @Test
+    public void shouldWriteUpdatesDirectlyOnceRestarted() throws Exception {
+        writer.addMetric(JUMPS, Semantics.COUNTER, ONE, 1);
+        writer.start();
+        Future<?> restart = restartInBackground();
+        writer.updateMetric(JUMPS, 5);
+        byteBufferFactory.release.countDown();
+        restart.get(10, TimeUnit.SECONDS);
+
+        writer.updateMetric(JUMPS, 7);
+
+        assertEquals(7, new MmvReader(byteBufferFactory.lastBuffer).read().getValue("sheep.jumps").getValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUpdatesToUnknownMetricsDuringARestart() throws Exception {
+        writer.addMetric(JUMPS, Semantics.COUNTER, ONE, 1);
+        writer.start();
+        restartInBackground();
+
+        writer.updateMetric(NAPS, 5);
+    }
+
+    private Future<?> restartInBackground() throws InterruptedException {
+        byteBufferFactory.blocking = true;
+        Future<?> restart = executor.submit(() -> {
+            writer.start();
+            return null;
+        });
+        byteBufferFactory.building.await(10, TimeUnit.SECONDS);
+        return restart;
+    }
+
+    /**
+     * Holds up start() part way through, once {@link #blocking}, until released.
+     */
+    private static class BlockingByteBufferFactory implements ByteBufferFactory {
+        private final CountDownLatch building = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile boolean blocking;
+        private volatile ByteBuffer lastBuffer;
+
+        @Override
+        public ByteBuffer build(int length) throws IOException {
+            if (blocking) {
+                building.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            lastBuffer = ByteBuffer.allocate(length);
+            return lastBuffer;
+        }
+    }
+}
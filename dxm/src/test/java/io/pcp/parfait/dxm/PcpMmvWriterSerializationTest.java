@@ -0,0 +1,77 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.dxm;
+
+import io.pcp.parfait.dxm.semantics.Semantics;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static tech.units.indriya.AbstractUnit.ONE;
+
+public class PcpMmvWriterSerializationTest {
+
+    private static final int GENERATION1_OFFSET = 8;
+    private static final int GENERATION2_OFFSET = 16;
+
+    @Test
+    public void shouldWriteTheSameFileWhenSerializingInParallel() throws Exception {
+        ByteBuffer serial = startWriter(MmvVersion.MMV_VERSION2, false);
+        ByteBuffer parallel = startWriter(MmvVersion.MMV_VERSION2, true);
+
+        assertEquals(parallel.getLong(GENERATION1_OFFSET), parallel.getLong(GENERATION2_OFFSET));
+        assertArrayEquals(withoutGenerations(serial), withoutGenerations(parallel));
+    }
+
+    @Test
+    public void shouldWriteTheSameVersion1FileWhenSerializingInParallel() throws Exception {
+        ByteBuffer serial = startWriter(MmvVersion.MMV_VERSION1, false);
+        ByteBuffer parallel = startWriter(MmvVersion.MMV_VERSION1, true);
+
+        assertArrayEquals(withoutGenerations(serial), withoutGenerations(parallel));
+    }
+
+    private ByteBuffer startWriter(MmvVersion mmvVersion, boolean parallelSerialization) throws Exception {
+        InMemoryByteBufferFactory byteBufferFactory = new InMemoryByteBufferFactory();
+        PcpMmvWriter writer = new PcpMmvWriter(byteBufferFactory, IdentifierSourceSet.DEFAULT_SET, mmvVersion);
+        writer.setProcessIdentifier(1234);
+        writer.setParallelSerialization(parallelSerialization);
+        // Enough instances and values to span several serialization chunks
+        for (int i = 0; i < 5000; i++) {
+            writer.addMetric(MetricName.parse("sheep[sheep" + i + "].jumps"), Semantics.COUNTER, ONE, i);
+        }
+        for (int i = 0; i < 100; i++) {
+            writer.addMetric(MetricName.parse("cow[cow" + i + "].name"), Semantics.DISCRETE, ONE, "daisy" + i);
+        }
+        writer.setMetricHelpText("sheep.jumps", "Jumps", "Jumps per sheep");
+        writer.start();
+        return byteBufferFactory.getAllocatedBuffer();
+    }
+
+    private static byte[] withoutGenerations(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.capacity()];
+        ByteBuffer copy = buffer.duplicate();
+        copy.position(0);
+        copy.get(bytes);
+        for (int i = GENERATION1_OFFSET; i < GENERATION2_OFFSET + 8; i++) {
+            bytes[i] = 0;
+        }
+        return bytes;
+    }
+}
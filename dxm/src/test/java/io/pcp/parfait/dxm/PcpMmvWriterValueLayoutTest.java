@@ -0,0 +1,118 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.dxm;
+
+import io.pcp.parfait.dxm.PcpMmvWriter.ValueLayout;
+import io.pcp.parfait.dxm.semantics.Semantics;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static tech.units.indriya.AbstractUnit.ONE;
+
+public class PcpMmvWriterValueLayoutTest {
+
+    private static final int HEADER_LENGTH = 40;
+    private static final int TOC_LENGTH = 16;
+    private static final int VALUES_TOC = 1;
+
+    private InMemoryByteBufferFactory byteBufferFactory;
+    private PcpMmvWriter writer;
+
+    @Before
+    public void setUp() {
+        byteBufferFactory = new InMemoryByteBufferFactory();
+        writer = new PcpMmvWriter(byteBufferFactory, IdentifierSourceSet.DEFAULT_SET);
+    }
+
+    @Test
+    public void shouldGiveEachFlaggedHotValueACacheLineToItself() throws Exception {
+        writer.setValueLayout(ValueLayout.CACHE_LINE_ISOLATED);
+        writer.setHotMetrics(name -> name.getMetric().startsWith("cows.hot"));
+        addFarm();
+        writer.start();
+
+        assertEquals(0, valuesOffset() % 64);
+        List<String> names = valueNames();
+        for (int line = 0; line < 3; line++) {
+            assertTrue(names.get(2 * line).startsWith("cows.hot"));
+            // Constants are the best neighbours, as they're never written
+            assertTrue(names.get(2 * line + 1).startsWith("cows.name"));
+        }
+        assertEquals("cows.moos", names.get(6));
+        assertEquals(7, snapshot().getValue("cows.moos").getValue());
+    }
+
+    @Test
+    public void shouldDetectHotValuesFromTheirUpdateRate() throws Exception {
+        writer.setValueLayout(ValueLayout.CACHE_LINE_ISOLATED);
+        writer.setHotUpdateRate(10);
+        writer.setHotDetectionWindow(Duration.ofMillis(200));
+        addFarm();
+        writer.start();
+
+        for (int i = 0; i < 100; i++) {
+            writer.updateMetric(MetricName.parse("cows.moos"), i);
+        }
+        Thread.sleep(250);
+        writer.start();
+        assertEquals("cows.moos", valueNames().get(0));
+
+        // The verdict survives a dynamic monitoring view's reset and restart
+        writer.reset();
+        addFarm();
+        writer.start();
+        assertEquals("cows.moos", valueNames().get(0));
+        assertTrue(valueNames().indexOf("cows.hot0") > 0);
+    }
+
+    private void addFarm() {
+        writer.addMetric(MetricName.parse("cows.hot0"), Semantics.COUNTER, ONE, 1);
+        writer.addMetric(MetricName.parse("cows.name0"), Semantics.DISCRETE, ONE, 2);
+        writer.addMetric(MetricName.parse("cows.hot1"), Semantics.COUNTER, ONE, 3);
+        writer.addMetric(MetricName.parse("cows.name1"), Semantics.DISCRETE, ONE, 4);
+        writer.addMetric(MetricName.parse("cows.moos"), Semantics.COUNTER, ONE, 7);
+        writer.addMetric(MetricName.parse("cows.hot2"), Semantics.COUNTER, ONE, 5);
+        writer.addMetric(MetricName.parse("cows.name2"), Semantics.DISCRETE, ONE, 6);
+    }
+
+    private List<String> valueNames() {
+        List<String> names = new ArrayList<String>();
+        for (MmvSnapshot.ValueEntry value : snapshot().getValues()) {
+            names.add(value.getMetric().getName());
+        }
+        return names;
+    }
+
+    private MmvSnapshot snapshot() {
+        return new MmvReader(buffer()).read();
+    }
+
+    private long valuesOffset() {
+        return buffer().getLong(HEADER_LENGTH + VALUES_TOC * TOC_LENGTH + 8);
+    }
+
+    private ByteBuffer buffer() {
+        return byteBufferFactory.getAllocatedBuffer();
+    }
+}
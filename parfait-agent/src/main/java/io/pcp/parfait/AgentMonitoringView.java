@@ -19,7 +19,6 @@ package io.pcp.parfait;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
-import com.google.common.base.Supplier;
 
 import io.pcp.parfait.DynamicMonitoringView;
 import io.pcp.parfait.dxm.IdentifierSourceSet;
@@ -28,12 +27,10 @@ import io.pcp.parfait.Monitorable;
 import io.pcp.parfait.MonitorableRegistry;
 import io.pcp.parfait.MonitoredConstant;
 import io.pcp.parfait.MonitoredValue;
-import io.pcp.parfait.PollingMonitoredValue;
 import io.pcp.parfait.pcp.PcpMonitorBridge;
 import io.pcp.parfait.ValueSemantics;
 
 import java.io.IOException;
-import java.time.Duration;
 import java.util.EnumSet;
 
 import javax.management.AttributeNotFoundException;
@@ -59,12 +56,14 @@ class AgentMonitoringView {
     private MonitorableRegistry registry = MonitorableRegistry.DEFAULT_REGISTRY;
 
     private final MBeanServerConnection server;
+    private final MBeanAttributePoller poller;
     private final Long interval;
     private final String name;
 
 
     public AgentMonitoringView(MBeanServerConnection server) {
         this.server = server;
+        this.poller = new MBeanAttributePoller(server);
         this.name = MonitoringViewProperties.getName();
         this.interval = MonitoringViewProperties.getInterval();
     }
@@ -74,7 +73,6 @@ class AgentMonitoringView {
         writer = new PcpMmvWriter(name, IdentifierSourceSet.DEFAULT_SET);
         writer.setClusterIdentifier(MonitoringViewProperties.getCluster());
         writer.setFlags(EnumSet.of(PcpMmvWriter.MmvFlag.MMV_FLAG_PROCESS));
-        writer.setMaxWaitStart(Duration.ofMillis(MonitoringViewProperties.getWriterWait()));
 
         DynamicMonitoringView view;
         view = new DynamicMonitoringView(registry, 
@@ -115,27 +113,14 @@ class AgentMonitoringView {
         if (semantics == ValueSemantics.CONSTANT)
             return new MonitoredConstant<T>(metric, text, this.registry,
                             getAttributeValue(mBeanName, attributeName, compositeDataItem));
-        return new PollingMonitoredValue<T>(metric, text, this.registry,
-                        (int)(long)this.interval, new Supplier<T>() {
-                            public T get() {
-                                return getAttributeValue(mBeanName, attributeName, compositeDataItem);
-                            }
-                        }, semantics, specification.getUnits());
+        // Polled in one batch with every other attribute of the same MBean
+        return poller.poll(metric, text, this.registry, (int)(long)this.interval,
+                        mBeanName, attributeName, compositeDataItem, semantics,
+                        specification.getUnits());
     }
 
-    @SuppressWarnings("unchecked")
     protected <T> T getAttributeValue(ObjectName mBeanName, String attributeName, String compositeDataItem) {
-        try {
-            if (!Strings.isNullOrEmpty(compositeDataItem)) {
-                logger.trace(this.name + " get: " + compositeDataItem);
-                CompositeData data = (CompositeData) server.getAttribute(mBeanName, attributeName);
-                return (T) data.get(compositeDataItem);
-            } else {
-                return (T) server.getAttribute(mBeanName, attributeName);
-            }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        return poller.getAttributeValue(mBeanName, attributeName, compositeDataItem);
     }
 
     private String registerBeanName(String beanName) {
@@ -192,7 +192,9 @@ public class MonitoringViewProperties {
      * The maximum number of milliseconds to wait for PcpMmvWriter to start when attempting to update a metric.
      *
      * @return maximum number of milliseconds to wait
+     * @deprecated PcpMmvWriter no longer makes updates wait for it to start
      */
+    @Deprecated
     public static long getWriterWait() {
         return Long.parseLong(System.getProperty(PARFAIT_WRITER_WAIT));
     }
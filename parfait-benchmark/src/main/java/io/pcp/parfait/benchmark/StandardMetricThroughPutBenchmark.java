@@ -46,19 +46,23 @@ public class StandardMetricThroughPutBenchmark {
 
     private static final int CLUSTER_IDENTIFIER = 123;
 
+    enum LockMode {
+        GLOBAL_LOCK, PER_METRIC_LOCK, LOCK_FREE
+    }
+
     private final boolean startPcp ;
-    private final boolean usePerMetricLock;
+    private final LockMode lockMode;
     private final int numThreads;
     private final int iterations;
     private final int numCounters;
     private final ExecutorService executorService;
 
-    public StandardMetricThroughPutBenchmark(int numThreads, int numCounters, int iterations, boolean startPcp, boolean usePerMetricLock) {
+    public StandardMetricThroughPutBenchmark(int numThreads, int numCounters, int iterations, boolean startPcp, LockMode lockMode) {
         this.numThreads = numThreads;
         this.numCounters = numCounters;
         this.iterations = iterations;
         this.startPcp = startPcp;
-        this.usePerMetricLock = usePerMetricLock;
+        this.lockMode = lockMode;
         this.executorService = Executors.newFixedThreadPool(this.numThreads);
     }
 
@@ -71,7 +75,8 @@ public class StandardMetricThroughPutBenchmark {
 
 
         final PcpMmvWriter mmvWriter = new PcpMmvWriter("parfait-microbenchmark-" + StandardMetricThroughPutBenchmark.class.getSimpleName() + ".mmv", IdentifierSourceSet.DEFAULT_SET);
-        mmvWriter.setPerMetricLock(usePerMetricLock);
+        mmvWriter.setPerMetricLock(lockMode == LockMode.PER_METRIC_LOCK);
+        mmvWriter.setLockFreeNumericUpdates(lockMode == LockMode.LOCK_FREE);
 
         mmvWriter.setClusterIdentifier(CLUSTER_IDENTIFIER);
 
@@ -123,7 +128,7 @@ public class StandardMetricThroughPutBenchmark {
         numberFormat.setMinimumFractionDigits(2);
         String incrementRateString = StringUtils.leftPad(numberFormat.format(incrementRate), 15);
 
-        System.out.printf("pcpStarted: %s\tperMetricLock: %s\tincrementRate(/sec): %s\t blockedCount: %d\t blockedTime: %d\n", startPcp, usePerMetricLock, incrementRateString, totalBlockedCount, totalBlockedTime);
+        System.out.printf("pcpStarted: %s\tlockMode: %-15s\tincrementRate(/sec): %s\t blockedCount: %d\t blockedTime: %d\n", startPcp, lockMode, incrementRateString, totalBlockedCount, totalBlockedTime);
     }
 
     private double computeTotalCounterIncrements(List<MonitoredCounter> counters) {
@@ -158,14 +163,16 @@ public class StandardMetricThroughPutBenchmark {
         System.out.printf("Thread Contention Supported: %s, Enabled by default: %s\n", threadMXBean.isThreadContentionMonitoringSupported(), threadMXBean.isThreadContentionMonitoringEnabled());
         System.out.printf("numThreads: %d, numCounters=%d, iterations=%d\n", numThreads, numCounters, iterations);
 
-        new StandardMetricThroughPutBenchmark(numThreads, numCounters, iterations, false, false).runBenchmark();
-        new StandardMetricThroughPutBenchmark(numThreads, numCounters, iterations, true, false).runBenchmark();
-        new StandardMetricThroughPutBenchmark(numThreads, numCounters, iterations, true, true).runBenchmark();
+        new StandardMetricThroughPutBenchmark(numThreads, numCounters, iterations, false, LockMode.GLOBAL_LOCK).runBenchmark();
+        new StandardMetricThroughPutBenchmark(numThreads, numCounters, iterations, true, LockMode.GLOBAL_LOCK).runBenchmark();
+        new StandardMetricThroughPutBenchmark(numThreads, numCounters, iterations, true, LockMode.PER_METRIC_LOCK).runBenchmark();
+        new StandardMetricThroughPutBenchmark(numThreads, numCounters, iterations, true, LockMode.LOCK_FREE).runBenchmark();
 
         // now do it all again reverse, in case there's any JVM warmup issues unfairly treating the first/last runs
-        new StandardMetricThroughPutBenchmark(numThreads, numCounters, iterations, true, true).runBenchmark();
-        new StandardMetricThroughPutBenchmark(numThreads, numCounters, iterations, true, false).runBenchmark();
-        new StandardMetricThroughPutBenchmark(numThreads, numCounters, iterations, false, false).runBenchmark();
+        new StandardMetricThroughPutBenchmark(numThreads, numCounters, iterations, true, LockMode.LOCK_FREE).runBenchmark();
+        new StandardMetricThroughPutBenchmark(numThreads, numCounters, iterations, true, LockMode.PER_METRIC_LOCK).runBenchmark();
+        new StandardMetricThroughPutBenchmark(numThreads, numCounters, iterations, true, LockMode.GLOBAL_LOCK).runBenchmark();
+        new StandardMetricThroughPutBenchmark(numThreads, numCounters, iterations, false, LockMode.GLOBAL_LOCK).runBenchmark();
     }
 
 }
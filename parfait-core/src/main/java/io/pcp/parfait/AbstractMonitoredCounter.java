@@ -0,0 +1,56 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait;
+
+import java.util.function.LongSupplier;
+import javax.measure.Unit;
+
+/**
+ * Base class for long-valued, monotonically increasing {@link Counter}s which can be monitored,
+ * whatever they keep their count in. Subclasses must {@link #registerSelf(MonitorableRegistry)
+ * register themselves} once their own state is initialised.
+ *
+ * @see MonitoredCounter
+ * @see StripedMonitoredCounter
+ */
+public abstract class AbstractMonitoredCounter extends AbstractMonitorable<Long> implements Counter, LongSupplier {
+
+    protected AbstractMonitoredCounter(String name, String description, Unit<?> unit) {
+        super(name, description, Long.class, unit, ValueSemantics.MONOTONICALLY_INCREASING);
+    }
+
+    @Override
+    public Long get() {
+        return getAsLong();
+    }
+
+    /**
+     * @return the current value, without boxing it
+     */
+    @Override
+    public abstract long getAsLong();
+
+    /**
+     * <p>Reset the counter to a specific value. This is <em>not</em> the typical use of a counter;
+     * its value is typically monotonically increasing, and should not roam freely, making
+     * {@link #inc(long)} the more common usage </p>
+     * <p>Use this method in the case of a 'reset' or similar functionality, or in the case where
+     * values are being extracted from a monotonically-increasing source and we need to use
+     * that source's value verbatim.</p>
+     */
+    public abstract void set(long newValue);
+}
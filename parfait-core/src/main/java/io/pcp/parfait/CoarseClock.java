@@ -0,0 +1,92 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.function.LongSupplier;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A millisecond clock which is only as precise as its granularity: a single background thread
+ * refreshes a shared volatile timestamp, so reading the time is a plain volatile read rather than a
+ * call to {@link System#currentTimeMillis()}. Intended for hot paths, such as
+ * {@link ConcurrentTimeWindowCounter}, whose bucketing is far coarser than the clock.
+ */
+@ThreadSafe
+public final class CoarseClock implements LongSupplier {
+    /**
+     * The granularity in ms of the {@link #getShared() shared} clock.
+     */
+    public static final long DEFAULT_GRANULARITY = 10L;
+
+    private volatile long now = System.currentTimeMillis();
+    private final Timer timer;
+    private final boolean shared;
+
+    /**
+     * Starts a clock of its own, whose thread runs until it is {@link #shutdown() shut down}.
+     */
+    public CoarseClock(long granularity) {
+        this(granularity, false);
+    }
+
+    private CoarseClock(long granularity, boolean shared) {
+        Preconditions.checkArgument(granularity > 0, "granularity must be positive");
+        this.shared = shared;
+        this.timer = new Timer("CoarseClock", true);
+        timer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                now = System.currentTimeMillis();
+            }
+        }, granularity, granularity);
+    }
+
+    /**
+     * @return the clock shared by all users not needing a specific granularity; its thread is only
+     *         started on first use
+     */
+    public static CoarseClock getShared() {
+        return SharedHolder.SHARED_CLOCK;
+    }
+
+    /**
+     * @return the current time in ms, up to one granularity stale
+     */
+    @Override
+    public long getAsLong() {
+        return now;
+    }
+
+    /**
+     * Stops the thread refreshing this clock, which then stops advancing. The {@link #getShared()
+     * shared} clock has other users, so is left running.
+     */
+    public void shutdown() {
+        if (!shared) {
+            timer.cancel();
+        }
+    }
+
+    private static final class SharedHolder {
+        static final CoarseClock SHARED_CLOCK = new CoarseClock(DEFAULT_GRANULARITY, true);
+    }
+}
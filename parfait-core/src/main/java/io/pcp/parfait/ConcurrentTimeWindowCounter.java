@@ -0,0 +1,122 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * <p>
+ * A {@link TimeWindowCounter} for counters incremented concurrently by many threads. Increments
+ * take no lock: each bucket accumulates into striped cells (see {@link LongAdder}) and is tagged
+ * with the tick (the number of resolutions elapsed since the counter was created) it counts for.
+ * Moving into a bucket last used for an earlier tick swaps in a fresh bucket with a single CAS, and
+ * {@link #get()} ignores buckets whose tick has fallen out of the window rather than clearing them.
+ * An increment therefore costs the same however long the counter has been idle (where a
+ * TimeWindowCounter first clears every bucket skipped since), while each read visits every bucket.
+ * </p>
+ * <p>
+ * Time is read from a {@link CoarseClock} rather than the system clock. As well as the
+ * understatement inherent in bucketing (see TimeWindowCounter), an increment racing with the
+ * rollover of its bucket may be lost.
+ * </p>
+ */
+@ThreadSafe
+public class ConcurrentTimeWindowCounter implements WindowedCounter {
+	private final AtomicReferenceArray<Bucket> buckets;
+	private final LongSupplier clock;
+	private final TimeWindow window;
+	private final long origin;
+
+	public ConcurrentTimeWindowCounter(TimeWindow window) {
+		this(window, CoarseClock.getShared());
+	}
+
+	public ConcurrentTimeWindowCounter(TimeWindow window, LongSupplier clock) {
+		this.window = window;
+		this.clock = clock;
+		this.origin = clock.getAsLong();
+		this.buckets = new AtomicReferenceArray<Bucket>(window.getBuckets());
+		for (int i = 0; i < buckets.length(); i++) {
+			buckets.set(i, new Bucket(i - buckets.length()));
+		}
+	}
+
+	@Override
+	public void inc(long increment) {
+		long tick = currentTick();
+		int index = (int) (tick % buckets.length());
+		Bucket bucket = buckets.get(index);
+		if (bucket.tick < tick) {
+			Bucket fresh = new Bucket(tick);
+			bucket = buckets.compareAndSet(index, bucket, fresh) ? fresh : buckets.get(index);
+		}
+		bucket.cells.add(increment);
+	}
+
+	@Override
+	public void inc() {
+		inc(1L);
+	}
+
+	@Override
+	public Long get() {
+		long oldestTick = currentTick() - buckets.length();
+		long total = 0L;
+		for (int i = 0; i < buckets.length(); i++) {
+			Bucket bucket = buckets.get(i);
+			if (bucket.tick > oldestTick) {
+				total += bucket.cells.sum();
+			}
+		}
+		return total;
+	}
+
+	private long currentTick() {
+		return Math.max(0L, clock.getAsLong() - origin) / window.getResolution();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("last %s=%s", window.getName(), get());
+	}
+
+	@VisibleForTesting
+	String counterState() {
+		long oldestTick = currentTick() - buckets.length();
+		StringBuilder state = new StringBuilder("[");
+		for (int i = 0; i < buckets.length(); i++) {
+			Bucket bucket = buckets.get(i);
+			state.append(i == 0 ? "" : ", ").append(bucket.tick > oldestTick ? bucket.cells.sum() : 0L);
+		}
+		return state.append(']').toString();
+	}
+
+	private static final class Bucket {
+		private final long tick;
+		private final LongAdder cells = new LongAdder();
+
+		Bucket(long tick) {
+			this.tick = tick;
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.WeakHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Periodically publishes the values of {@link StripedMonitoredCounter}s and
+ * {@link MonitoredHistogram}s to their attached {@link Monitor}s, as those deliberately never notify
+ * from their update path. A single sweeper (and its single thread) is shared between any number of
+ * counters; counters are only weakly held, so discarded counters are dropped from the sweep.
+ */
+public class CounterSweeper {
+    private static final Logger LOG = LoggerFactory.getLogger(CounterSweeper.class);
+
+    /**
+     * The default sweep interval in ms; comfortably inside the default PCP sampling interval.
+     */
+    public static final long DEFAULT_SWEEP_INTERVAL = 500L;
+
+    /**
+     * The minimum time in ms that may be specified as a sweep interval.
+     */
+    private static final long MIN_SWEEP_INTERVAL = 10L;
+
+    private final Set<Sweepable> counters = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<Sweepable, Boolean>()));
+
+    public CounterSweeper(long sweepInterval) {
+        this(new TimerScheduler(new Timer("CounterSweeper", true)), sweepInterval);
+    }
+
+    CounterSweeper(Scheduler scheduler, long sweepInterval) {
+        Preconditions.checkArgument(sweepInterval >= MIN_SWEEP_INTERVAL, "sweepInterval is too short.");
+        scheduler.schedule(new SweepTask(), sweepInterval);
+    }
+
+    /**
+     * @return the sweeper shared by all counters not given one explicitly; its thread is only
+     *         started on first use
+     */
+    public static CounterSweeper getDefault() {
+        return DefaultHolder.DEFAULT_SWEEPER;
+    }
+
+    void register(Sweepable counter) {
+        counters.add(counter);
+    }
+
+    /**
+     * Publishes the current value of every counter which has changed since it was last published.
+     */
+    public void sweep() {
+        List<Sweepable> snapshot;
+        synchronized (counters) {
+            snapshot = new ArrayList<Sweepable>(counters);
+        }
+        for (Sweepable counter : snapshot) {
+            try {
+                counter.publish();
+            } catch (RuntimeException e) {
+                LOG.error("Error publishing counter " + counter.getName() + "; will retry next sweep", e);
+            }
+        }
+    }
+
+    private class SweepTask extends TimerTask {
+        @Override
+        public void run() {
+            sweep();
+        }
+    }
+
+    private static final class DefaultHolder {
+        static final CounterSweeper DEFAULT_SWEEPER = new CounterSweeper(DEFAULT_SWEEP_INTERVAL);
+    }
+}
@@ -17,8 +17,10 @@
 package io.pcp.parfait;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import java.util.Collection;
+import java.util.Set;
 
 public class DynamicMonitoringView {
 
@@ -27,6 +29,7 @@ public class DynamicMonitoringView {
     private final MonitoringView monitoringView;
     private final MonitorableRegistry monitorableRegistry;
     private Collection<Monitorable<?>> previouslySeenMonitorables = Lists.newArrayList();
+    private long previouslySeenVersion;
     private QuiescentRegistryListener quiescentRegistryListener;
 
     public DynamicMonitoringView(MonitoringView monitoringView) {
@@ -48,18 +51,73 @@ public class DynamicMonitoringView {
     }
 
     public void start() {
-        previouslySeenMonitorables = monitorableRegistry.getMonitorables();
+        MonitorableRegistry.Snapshot snapshot = monitorableRegistry.getSnapshot();
+        previouslySeenMonitorables = snapshot.getMonitorables();
+        previouslySeenVersion = snapshot.getVersion();
         monitoringView.startMonitoring(previouslySeenMonitorables);
+        listenForNewMonitorables();
+    }
+
+    private void listenForNewMonitorables() {
         this.quiescentRegistryListener = new QuiescentRegistryListener(new Runnable() {
             @Override
             public void run() {
-                stop();
-                start();
+                catchUp();
             }
         }, quietPeriodInMillis);
         monitorableRegistry.addRegistryListener(quiescentRegistryListener);
     }
 
+    /**
+     * Brings the wrapped view up to date with the registry once it has gone quiet, restarting the
+     * view if the changes can't be applied in place.
+     */
+    void catchUp() {
+        if (!applyChanges()) {
+            stop();
+            start();
+        }
+    }
+
+    /**
+     * Hands only the Monitorables registered or unregistered since the view last caught up to the
+     * view, if it is able to apply them without a restart.
+     *
+     * @return whether the changes were applied; if not, the view still reflects the previous version
+     */
+    private boolean applyChanges() {
+        if (!(monitoringView instanceof IncrementalMonitoringView) || !monitoringView.isRunning()) {
+            return false;
+        }
+        IncrementalMonitoringView incrementalView = (IncrementalMonitoringView) monitoringView;
+        MonitorableRegistry.Snapshot snapshot = monitorableRegistry.getSnapshot();
+        Set<Monitorable<?>> removed = Sets.newIdentityHashSet();
+        removed.addAll(snapshot.getRemovedSince(previouslySeenVersion));
+        if (!snapshot.canReportChangesSince(previouslySeenVersion)) {
+            return false;
+        }
+        Collection<Monitorable<?>> added = snapshot.getAddedSince(previouslySeenVersion);
+        if (!removed.isEmpty() && !incrementalView.removeMonitorables(removed)) {
+            return false;
+        }
+        Collection<Monitorable<?>> allSeen = Lists.newArrayList();
+        for (Monitorable<?> monitorable : previouslySeenMonitorables) {
+            if (!removed.contains(monitorable)) {
+                allSeen.add(monitorable);
+            }
+        }
+        previouslySeenMonitorables = allSeen;
+        previouslySeenVersion = snapshot.getVersion();
+        if (!added.isEmpty() && !incrementalView.addMonitorables(added)) {
+            return false;
+        }
+        monitorableRegistry.removeRegistryListener(quiescentRegistryListener);
+        this.quiescentRegistryListener.stop();
+        allSeen.addAll(added);
+        listenForNewMonitorables();
+        return true;
+    }
+
     public void stop() {
         monitorableRegistry.removeRegistryListener(quiescentRegistryListener);
         this.quiescentRegistryListener.stop();
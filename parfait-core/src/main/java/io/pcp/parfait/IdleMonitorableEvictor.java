@@ -0,0 +1,150 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Periodically {@link MonitorableRegistry#unregister(String) unregisters} Monitorables whose value
+ * has not changed for a given time to live, so that registries holding short-lived metrics (per
+ * connection, per tenant and so on) only carry the live ones. Values are sampled from a background
+ * thread rather than tracked on update, so idle detection costs nothing on the update path; a
+ * Monitorable which is re-registered after eviction simply starts a fresh period.
+ * <p>
+ * Only Monitorables accepted by the supplied predicate are considered, as most metrics (constants,
+ * rarely-changing gauges) should never be evicted.
+ */
+public class IdleMonitorableEvictor {
+    private static final Logger LOG = LoggerFactory.getLogger(IdleMonitorableEvictor.class);
+
+    /**
+     * The minimum time in ms that may be specified as a time to live.
+     */
+    private static final long MIN_TIME_TO_LIVE = 1000L;
+
+    private final MonitorableRegistry registry;
+    private final long timeToLive;
+    private final Predicate<? super Monitorable<?>> evictable;
+    private final Supplier<Long> clock;
+    private final Map<String, LastChange> lastChanges = Maps.newHashMap();
+    private final TimerTask sweepTask = new SweepTask();
+    private final Scheduler scheduler;
+    private final Timer timer;
+
+    public IdleMonitorableEvictor(MonitorableRegistry registry, long timeToLive,
+            Predicate<? super Monitorable<?>> evictable) {
+        this(registry, timeToLive, evictable, new SystemTimePoller(), new Timer("IdleMonitorableEvictor", true));
+    }
+
+    private IdleMonitorableEvictor(MonitorableRegistry registry, long timeToLive,
+            Predicate<? super Monitorable<?>> evictable, Supplier<Long> clock, Timer timer) {
+        this(registry, timeToLive, evictable, clock, new TimerScheduler(timer), timer);
+    }
+
+    IdleMonitorableEvictor(MonitorableRegistry registry, long timeToLive,
+            Predicate<? super Monitorable<?>> evictable, Supplier<Long> clock, Scheduler scheduler) {
+        this(registry, timeToLive, evictable, clock, scheduler, null);
+    }
+
+    private IdleMonitorableEvictor(MonitorableRegistry registry, long timeToLive,
+            Predicate<? super Monitorable<?>> evictable, Supplier<Long> clock, Scheduler scheduler, Timer timer) {
+        Preconditions.checkArgument(timeToLive >= MIN_TIME_TO_LIVE, "timeToLive is too short.");
+        this.registry = Preconditions.checkNotNull(registry);
+        this.timeToLive = timeToLive;
+        this.evictable = Preconditions.checkNotNull(evictable);
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.timer = timer;
+        scheduler.schedule(sweepTask, timeToLive / 2);
+    }
+
+    /**
+     * Samples every evictable Monitorable, unregistering those unchanged for at least the time to
+     * live.
+     */
+    public synchronized void sweep() {
+        long now = clock.get();
+        Set<String> seen = Sets.newHashSet();
+        for (Monitorable<?> monitorable : registry.getMonitorables()) {
+            if (!evictable.test(monitorable)) {
+                continue;
+            }
+            String name = monitorable.getName();
+            Object value = monitorable.get();
+            LastChange lastChange = lastChanges.get(name);
+            if (lastChange == null || lastChange.monitorable != monitorable
+                    || !Objects.equals(lastChange.value, value)) {
+                lastChanges.put(name, new LastChange(monitorable, value, now));
+                seen.add(name);
+            } else if (now - lastChange.time >= timeToLive) {
+                LOG.debug("Unregistering " + name + ", idle since " + lastChange.time);
+                // Leaves alone anything registered afresh under the name since it was sampled
+                registry.unregister(monitorable);
+            } else {
+                seen.add(name);
+            }
+        }
+        lastChanges.keySet().retainAll(seen);
+    }
+
+    /**
+     * Stops sweeping, along with the evictor's own thread if it has one; Monitorables already
+     * evicted stay unregistered.
+     */
+    public void stop() {
+        scheduler.unschedule(sweepTask);
+        if (timer != null) {
+            timer.cancel();
+        }
+    }
+
+    private static final class LastChange {
+        private final Monitorable<?> monitorable;
+        private final Object value;
+        private final long time;
+
+        LastChange(Monitorable<?> monitorable, Object value, long time) {
+            this.monitorable = monitorable;
+            this.value = value;
+            this.time = time;
+        }
+    }
+
+    private class SweepTask extends TimerTask {
+        @Override
+        public void run() {
+            try {
+                sweep();
+            } catch (RuntimeException e) {
+                LOG.error("Error evicting idle Monitorables; will retry next sweep", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait;
+
+import java.util.Collection;
+
+/**
+ * A {@link MonitoringView} which can take on additional Monitorables (and possibly drop some) while
+ * it is running, rather than needing to be stopped and restarted with the complete set.
+ */
+public interface IncrementalMonitoringView extends MonitoringView {
+
+    /**
+     * Begins monitoring the given Monitorables in addition to those this view was started with.
+     * Views may decline (for example if they are not running, or their output destination cannot
+     * grow in place), in which case the caller should fall back to a full stop/start cycle.
+     *
+     * @param monitorables the new metrics to start monitoring
+     * @return whether the Monitorables were added; if false, none of them are being monitored
+     */
+    boolean addMonitorables(Collection<Monitorable<?>> monitorables);
+
+    /**
+     * Stops monitoring the given Monitorables, leaving the rest untouched. Monitorables this view
+     * is not monitoring are ignored. Views which cannot shrink in place decline by default.
+     *
+     * @param monitorables the metrics to stop monitoring
+     * @return whether the Monitorables were removed; if false, nothing has changed
+     */
+    default boolean removeMonitorables(Collection<Monitorable<?>> monitorables) {
+        return false;
+    }
+}
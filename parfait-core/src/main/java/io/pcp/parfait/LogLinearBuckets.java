@@ -0,0 +1,153 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait;
+
+import static javax.measure.MetricPrefix.NANO;
+import static tech.units.indriya.unit.Units.SECOND;
+
+import java.util.Arrays;
+
+import javax.measure.Unit;
+import javax.measure.quantity.Time;
+
+import com.google.common.base.Preconditions;
+import net.jcip.annotations.Immutable;
+
+/**
+ * <p>
+ * A fixed set of log-linear histogram buckets: each power of ten from the lowest bound upwards is
+ * split linearly into the nine buckets 1x, 2x, ... 9x, so that bucket widths grow with the values
+ * they hold and relative error is bounded at every scale. Every bucket includes its upper bound
+ * (as in "less than or equal to"), and a final overflow bucket catches everything above the
+ * highest bound.
+ * </p>
+ * <p>
+ * The bounds are the same for any histogram created with the same layout, so bucket counts may be
+ * summed across threads, processes or hosts to get the combined distribution.
+ * </p>
+ */
+@Immutable
+public final class LogLinearBuckets {
+    private static final int SUB_BUCKETS_PER_DECADE = 9;
+    private static final Unit<Time> NANOSECONDS = NANO(SECOND);
+    private static final long NANOS_PER_MICRO = 1000L;
+    private static final long NANOS_PER_MILLI = 1000L * NANOS_PER_MICRO;
+    private static final long NANOS_PER_SECOND = 1000L * NANOS_PER_MILLI;
+    /**
+     * Time histograms cover from a microsecond...
+     */
+    private static final long LOWEST_TIME_BOUND_NANOS = NANOS_PER_MICRO;
+    /**
+     * ...up to 100 seconds.
+     */
+    private static final long HIGHEST_TIME_BOUND_NANOS = 100L * NANOS_PER_SECOND;
+    private static final int DEFAULT_DECADES = 10;
+
+    private final long[] upperBounds;
+
+    /**
+     * @param lowestUpperBound
+     *            the upper bound of the first bucket
+     * @param decades
+     *            the number of powers of ten to cover, so that the highest bound (before the
+     *            overflow bucket) is lowestUpperBound * 10^decades
+     */
+    public LogLinearBuckets(long lowestUpperBound, int decades) {
+        Preconditions.checkArgument(lowestUpperBound > 0, "lowestUpperBound must be positive");
+        Preconditions.checkArgument(decades > 0, "decades must be positive");
+        upperBounds = new long[decades * SUB_BUCKETS_PER_DECADE + 1];
+        long scale = lowestUpperBound;
+        int index = 0;
+        for (int decade = 0; decade < decades; decade++) {
+            for (int multiple = 1; multiple <= SUB_BUCKETS_PER_DECADE; multiple++) {
+                upperBounds[index++] = Math.multiplyExact(scale, multiple);
+            }
+            scale = Math.multiplyExact(scale, 10L);
+        }
+        upperBounds[index] = scale;
+    }
+
+    /**
+     * @return a layout suitable for values in the given unit: times are bucketed from 1&micro;s up
+     *         to 100s whatever unit they're measured in; anything else from 1 up to 10^10
+     */
+    public static LogLinearBuckets forUnit(Unit<?> unit) {
+        if (unit.isCompatible(NANOSECONDS)) {
+            long nanosPerUnit = nanosPerUnit(unit);
+            long lowest = Math.max(1L, LOWEST_TIME_BOUND_NANOS / nanosPerUnit);
+            long highest = Math.max(lowest * 10L, HIGHEST_TIME_BOUND_NANOS / nanosPerUnit);
+            return new LogLinearBuckets(lowest, (int) Math.round(Math.log10((double) highest / lowest)));
+        }
+        return new LogLinearBuckets(1L, DEFAULT_DECADES);
+    }
+
+    /**
+     * @return the number of buckets, including the overflow bucket
+     */
+    public int getBucketCount() {
+        return upperBounds.length + 1;
+    }
+
+    /**
+     * @return the index of the bucket which the given value falls into
+     */
+    public int indexOf(long value) {
+        int index = Arrays.binarySearch(upperBounds, value);
+        return index >= 0 ? index : -(index + 1);
+    }
+
+    /**
+     * @return the inclusive upper bound of the given bucket, or {@link Long#MAX_VALUE} for the
+     *         overflow bucket
+     */
+    public long getUpperBound(int bucket) {
+        return bucket < upperBounds.length ? upperBounds[bucket] : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return a label for the given bucket suitable for use as a PCP instance name, such as
+     *         "le_20ms" for a time bucket or "le_500" for any other, and "le_inf" for the overflow
+     *         bucket; as the "le" suggests, whatever is labelled this way should count every value
+     *         up to and including the bound, not just those in this bucket
+     */
+    public String getLabel(int bucket, Unit<?> unit) {
+        if (bucket >= upperBounds.length) {
+            return "le_inf";
+        }
+        long bound = upperBounds[bucket];
+        if (unit.isCompatible(NANOSECONDS)) {
+            return "le_" + formatNanos(bound * nanosPerUnit(unit));
+        }
+        return "le_" + bound;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long nanosPerUnit(Unit<?> unit) {
+        return Math.max(1L, Math.round(((Unit<Time>) unit).getConverterTo(NANOSECONDS).convert(1.0d)));
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos % NANOS_PER_SECOND == 0) {
+            return (nanos / NANOS_PER_SECOND) + "s";
+        } else if (nanos % NANOS_PER_MILLI == 0) {
+            return (nanos / NANOS_PER_MILLI) + "ms";
+        } else if (nanos % NANOS_PER_MICRO == 0) {
+            return (nanos / NANOS_PER_MICRO) + "us";
+        }
+        return nanos + "ns";
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.measure.Unit;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+
+/**
+ * Polls MBean attributes in batches. All the attributes polled from one MBean at one update interval
+ * are fetched with a single {@link MBeanServerConnection#getAttributes(ObjectName, String[])} call
+ * per tick, and a {@link CompositeData} attribute is fetched once however many of its items are
+ * being monitored. Over a remote JMX connection this turns one round trip per metric per tick into
+ * one per MBean.
+ * <p>
+ * Attributes which cannot be read on a given tick (getAttributes silently leaves them out) simply
+ * keep their previous value.
+ * <p>
+ * Batching only spans attributes polled through the same poller, so everything polling one
+ * connection should share one: {@link #acquire(MBeanServerConnection)} hands out a poller per
+ * connection, shared until the last of its users {@link #release() releases} it. A poller created
+ * directly instead belongs to its creator, who should {@link #shutdown() shut it down} once done
+ * so that neither it nor the connection are kept alive by the scheduler.
+ */
+@ThreadSafe
+public class MBeanAttributePoller {
+    private static final Logger LOG = LoggerFactory.getLogger("parfait.polling");
+
+    /**
+     * The minimum time in ms that may be specified as an updateInterval.
+     */
+    private static final int MIN_UPDATE_INTERVAL = 250;
+
+    private static final Map<MBeanServerConnection, MBeanAttributePoller> SHARED_POLLERS =
+            new HashMap<MBeanServerConnection, MBeanAttributePoller>();
+
+    private final MBeanServerConnection server;
+    private final Scheduler scheduler;
+    private final ConcurrentMap<BatchKey, Batch> batches = new ConcurrentHashMap<BatchKey, Batch>();
+    @GuardedBy("batches")
+    private boolean shutDown;
+    @GuardedBy("SHARED_POLLERS")
+    private int sharedUsers;
+
+    public MBeanAttributePoller(MBeanServerConnection server) {
+        this(server, PollingMonitoredValue.getSharedScheduler());
+    }
+
+    MBeanAttributePoller(MBeanServerConnection server, Scheduler scheduler) {
+        this.server = Preconditions.checkNotNull(server);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return the poller shared by everything polling the given connection, which the caller must
+     *         {@link #release()} once it no longer needs it
+     */
+    public static MBeanAttributePoller acquire(MBeanServerConnection server) {
+        synchronized (SHARED_POLLERS) {
+            MBeanAttributePoller poller = SHARED_POLLERS.computeIfAbsent(server, MBeanAttributePoller::new);
+            poller.sharedUsers++;
+            return poller;
+        }
+    }
+
+    /**
+     * Hands back a poller obtained from {@link #acquire(MBeanServerConnection)}; once every user
+     * has released it, it is shut down and forgotten, so the next user of its connection gets a new
+     * one.
+     */
+    public void release() {
+        synchronized (SHARED_POLLERS) {
+            Preconditions.checkState(sharedUsers > 0, "Poller is not acquired");
+            if (--sharedUsers > 0) {
+                return;
+            }
+            SHARED_POLLERS.remove(server, this);
+        }
+        shutdown();
+    }
+
+    /**
+     * Creates and registers a Monitorable tracking an MBean attribute (or one item of a
+     * {@link CompositeData} attribute), updated along with the other attributes of the same MBean
+     * polled at the same interval.
+     *
+     * @param compositeDataItem
+     *            the item to extract from a CompositeData attribute, or null/empty to monitor the
+     *            attribute itself
+     */
+    public <T> Monitorable<T> poll(String name, String description, MonitorableRegistry registry,
+            int updateInterval, ObjectName mBeanName, String attributeName, String compositeDataItem,
+            ValueSemantics semantics, Unit<?> unit) {
+        Preconditions.checkState(updateInterval >= MIN_UPDATE_INTERVAL, "updateInterval is too short.");
+        T initialValue = getAttributeValue(mBeanName, attributeName, compositeDataItem);
+        PolledAttribute<T> value = new PolledAttribute<T>(name, description, registry, initialValue, unit,
+                semantics, attributeName, Strings.emptyToNull(compositeDataItem));
+        synchronized (batches) {
+            Preconditions.checkState(!shutDown, "Poller has been shut down");
+            batches.computeIfAbsent(new BatchKey(mBeanName, updateInterval), this::startBatch).add(value);
+        }
+        return value;
+    }
+
+    /**
+     * Reads a single attribute (or CompositeData item) immediately.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getAttributeValue(ObjectName mBeanName, String attributeName, String compositeDataItem) {
+        try {
+            Object value = server.getAttribute(mBeanName, attributeName);
+            if (!Strings.isNullOrEmpty(compositeDataItem)) {
+                return (T) ((CompositeData) value).get(compositeDataItem);
+            }
+            return (T) value;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Stops updating a Monitorable returned by {@link #poll}, which keeps its last value; its
+     * MBean's batch is removed from the scheduler once it has no attributes left to poll.
+     */
+    public void stopPolling(Monitorable<?> value) {
+        synchronized (batches) {
+            for (Map.Entry<BatchKey, Batch> entry : batches.entrySet()) {
+                Batch batch = entry.getValue();
+                if (batch.remove(value) && batch.isEmpty()) {
+                    stopBatch(batch);
+                    batches.remove(entry.getKey());
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops polling, removing every batch from the scheduler. The Monitorables already handed out
+     * keep their last values.
+     */
+    public void shutdown() {
+        synchronized (batches) {
+            shutDown = true;
+            for (Batch batch : batches.values()) {
+                stopBatch(batch);
+            }
+            batches.clear();
+        }
+    }
+
+    private void stopBatch(Batch batch) {
+        scheduler.unschedule(batch);
+        batch.stop();
+    }
+
+    private Batch startBatch(BatchKey key) {
+        Batch batch = new Batch(server, key.mBeanName);
+        scheduler.schedule(batch, key.updateInterval);
+        return batch;
+    }
+
+    /**
+     * Every attribute polled from one MBean at one interval.
+     */
+    private static final class Batch extends TimerTask {
+        private volatile MBeanServerConnection server;
+        private final ObjectName mBeanName;
+        private final List<PolledAttribute<?>> values = new CopyOnWriteArrayList<PolledAttribute<?>>();
+        private volatile String[] attributeNames = new String[0];
+
+        Batch(MBeanServerConnection server, ObjectName mBeanName) {
+            this.server = server;
+            this.mBeanName = mBeanName;
+        }
+
+        synchronized void stop() {
+            // Should a run already be under way, let it finish without the connection
+            server = null;
+            values.clear();
+            attributeNames = new String[0];
+        }
+
+        synchronized boolean remove(Monitorable<?> value) {
+            if (!values.remove(value)) {
+                return false;
+            }
+            String[] names = new String[0];
+            for (PolledAttribute<?> remaining : values) {
+                names = withAttribute(names, remaining.attributeName);
+            }
+            attributeNames = names;
+            return true;
+        }
+
+        boolean isEmpty() {
+            return values.isEmpty();
+        }
+
+        synchronized void add(PolledAttribute<?> value) {
+            values.add(value);
+            attributeNames = withAttribute(attributeNames, value.attributeName);
+        }
+
+        private static String[] withAttribute(String[] attributeNames, String attributeName) {
+            for (String name : attributeNames) {
+                if (name.equals(attributeName)) {
+                    return attributeNames;
+                }
+            }
+            String[] names = new String[attributeNames.length + 1];
+            System.arraycopy(attributeNames, 0, names, 0, attributeNames.length);
+            names[attributeNames.length] = attributeName;
+            return names;
+        }
+
+        @Override
+        public void run() {
+            MBeanServerConnection connection = server;
+            if (connection == null) {
+                return;
+            }
+            AttributeList attributes;
+            try {
+                attributes = connection.getAttributes(mBeanName, attributeNames);
+            } catch (Exception e) {
+                LOG.error("Error polling attributes of " + mBeanName + "; will rerun next cycle", e);
+                return;
+            }
+            Map<String, Object> byName = Maps.newHashMapWithExpectedSize(attributes.size());
+            for (Attribute attribute : attributes.asList()) {
+                byName.put(attribute.getName(), attribute.getValue());
+            }
+            for (PolledAttribute<?> value : values) {
+                try {
+                    value.update(byName.get(value.attributeName));
+                } catch (RuntimeException e) {
+                    LOG.error("Error updating " + value.getName() + " from " + mBeanName, e);
+                }
+            }
+        }
+    }
+
+    private static final class PolledAttribute<T> extends SettableValue<T> {
+        private final String attributeName;
+        private final String compositeDataItem;
+
+        PolledAttribute(String name, String description, MonitorableRegistry registry, T initialValue,
+                Unit<?> unit, ValueSemantics semantics, String attributeName, String compositeDataItem) {
+            super(name, description, registry, initialValue, unit, semantics);
+            this.attributeName = attributeName;
+            this.compositeDataItem = compositeDataItem;
+        }
+
+        @SuppressWarnings("unchecked")
+        void update(Object attributeValue) {
+            Object newValue = attributeValue;
+            if (newValue != null && compositeDataItem != null) {
+                newValue = ((CompositeData) newValue).get(compositeDataItem);
+            }
+            if (newValue != null) {
+                set((T) newValue);
+            }
+        }
+    }
+
+    private static final class BatchKey {
+        private final ObjectName mBeanName;
+        private final int updateInterval;
+
+        BatchKey(ObjectName mBeanName, int updateInterval) {
+            this.mBeanName = mBeanName;
+            this.updateInterval = updateInterval;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof BatchKey)) {
+                return false;
+            }
+            BatchKey that = (BatchKey) other;
+            return mBeanName.equals(that.mBeanName) && updateInterval == that.updateInterval;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mBeanName, updateInterval);
+        }
+    }
+}
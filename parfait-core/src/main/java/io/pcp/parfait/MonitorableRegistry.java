@@ -19,13 +19,18 @@ package io.pcp.parfait;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.NavigableMap;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
 
 /**
  * A collection of Monitorables to be monitored by a given output source (or
@@ -35,8 +40,19 @@ import com.google.common.collect.ImmutableList;
  * the MonitorableRegistryListener interface can be used for clients interested in state changes
  * to be made aware of when new Monitorables are added, such as objects that wish
  * to serialize state to external stores. (ie... A PCPmmvWriter.. say..)
+ * <p>
+ * Every change to the registry bumps its version. Readers never block: {@link #getSnapshot()}
+ * hands out a {@link Snapshot} which is only rebuilt after the registry has changed, and
+ * which can report the Monitorables added or {@link #unregister(String) removed} since an earlier
+ * version.
  */
+@ThreadSafe
 public class MonitorableRegistry {
+    /**
+     * How many removals are remembered for {@link Snapshot#getRemovedSince(long)}.
+     */
+    static final int MAX_RETAINED_REMOVALS = 16384;
+
     private static final ConcurrentMap<String, MonitorableRegistry> NAMED_INSTANCES = new ConcurrentHashMap<String, MonitorableRegistry>();
 
     /**
@@ -47,13 +63,35 @@ public class MonitorableRegistry {
     public static MonitorableRegistry DEFAULT_REGISTRY = new MonitorableRegistry();
 
     /**
-     * This is a TreeMap so that the Monitorables are maintained in alphabetical
+     * This is a sorted map so that the Monitorables are maintained in alphabetical
      * order for convenience.
      */
-    private final Map<String, Monitorable<?>> monitorables = new TreeMap<String, Monitorable<?>>();
+    private final ConcurrentSkipListMap<String, Monitorable<?>> monitorables = new ConcurrentSkipListMap<String, Monitorable<?>>();
+
+    /**
+     * Every current registration, keyed by the version of the registry it produced.
+     */
+    private final ConcurrentSkipListMap<Long, Monitorable<?>> registrations = new ConcurrentSkipListMap<Long, Monitorable<?>>();
+    private final Map<String, Long> registrationVersions = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * The most recent removals, keyed by the version of the registry they produced; bounded so that
+     * churning registries do not grow without limit.
+     */
+    private final ConcurrentSkipListMap<Long, Monitorable<?>> removals = new ConcurrentSkipListMap<Long, Monitorable<?>>();
+    private volatile long forgottenRemovalsVersion;
 
     private final List<MonitorableRegistryListener> registryListeners = new CopyOnWriteArrayList<MonitorableRegistryListener>();
 
+    private final Object writeLock = new Object();
+
+    /**
+     * Only written while holding writeLock.
+     */
+    private volatile long version;
+
+    private volatile Snapshot snapshot = new Snapshot(0L, ImmutableList.<Monitorable<?>>of(), this);
+
     /**
      * Informs this MonitorableRegistry of a new {@link Monitorable}; that
      * Monitorable will be added to the registry, assuming no Monitorable with
@@ -63,16 +101,46 @@ public class MonitorableRegistry {
      *             if the name of the provided monitorable has already been
      *             registered
      */
-    public synchronized <T> void register(Monitorable<T> monitorable) {
-        if (monitorables.containsKey(monitorable.getName())) {
-            throw new UnsupportedOperationException(
-                    "There is already an instance of the Monitorable [" + monitorable.getName()
-                    + "] registered.");
+    public <T> void register(Monitorable<T> monitorable) {
+        synchronized (writeLock) {
+            checkNotRegistered(monitorable);
+            add(monitorable);
         }
-        monitorables.put(monitorable.getName(), monitorable);
         notifyListenersOfNewMonitorable(monitorable);
     }
 
+    /**
+     * Registers a batch of {@link Monitorable Monitorables} as a single change: either all of them
+     * are added or, if any name is already registered (or repeated within the batch), none are.
+     * Listeners are told of the whole batch at once, via
+     * {@link MonitorableRegistryListener#monitorablesAdded(Collection)}.
+     *
+     * @throws UnsupportedOperationException
+     *             if the name of any of the provided monitorables has already been registered
+     */
+    public void registerAll(Collection<? extends Monitorable<?>> batch) {
+        List<Monitorable<?>> added = ImmutableList.copyOf(batch);
+        if (added.isEmpty()) {
+            return;
+        }
+        synchronized (writeLock) {
+            Set<String> names = Sets.newHashSet();
+            for (Monitorable<?> monitorable : added) {
+                checkNotRegistered(monitorable);
+                if (!names.add(monitorable.getName())) {
+                    throw new UnsupportedOperationException(
+                            "The Monitorable [" + monitorable.getName() + "] appears more than once in the batch.");
+                }
+            }
+            for (Monitorable<?> monitorable : added) {
+                add(monitorable);
+            }
+        }
+        for (MonitorableRegistryListener listener : registryListeners) {
+            listener.monitorablesAdded(added);
+        }
+    }
+
     /**
      * Registers the monitorable if it does not already exist, but otherwise returns an already registered
      * Monitorable with the same name, Semantics and UNnit definition.  This method is useful when objects
@@ -83,20 +151,108 @@ public class MonitorableRegistry {
      * is thrown.
      *
      */
-    @SuppressWarnings("unchecked")
-    public synchronized <T> T registerOrReuse(Monitorable<T> monitorable) {
-        String name = monitorable.getName();
-        if (monitorables.containsKey(name)) {
-            Monitorable<?> existingMonitorableWithSameName = monitorables.get(name);
-            if (monitorable.getSemantics().equals(existingMonitorableWithSameName.getSemantics()) && monitorable.getUnit().equals(existingMonitorableWithSameName.getUnit())) {
-                return (T) existingMonitorableWithSameName;
-            } else {
-                throw new IllegalArgumentException(String.format("Cannot reuse the same name %s for a monitorable with different Semantics or Unit: requested=%s, existing=%s", name, monitorable, existingMonitorableWithSameName));
+    public <T> T registerOrReuse(Monitorable<T> monitorable) {
+        Monitorable<?> existing = monitorables.get(monitorable.getName());
+        if (existing == null) {
+            synchronized (writeLock) {
+                existing = monitorables.get(monitorable.getName());
+                if (existing == null) {
+                    add(monitorable);
+                }
             }
-        } else {
-            monitorables.put(name, monitorable);
+        }
+        if (existing == null) {
             notifyListenersOfNewMonitorable(monitorable);
-            return (T) monitorable;
+            return reuse(monitorable);
+        }
+        return reuse(monitorable, existing);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T reuse(Monitorable<T> monitorable) {
+        return (T) monitorable;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T reuse(Monitorable<T> monitorable, Monitorable<?> existingMonitorableWithSameName) {
+        if (monitorable.getSemantics().equals(existingMonitorableWithSameName.getSemantics()) && monitorable.getUnit().equals(existingMonitorableWithSameName.getUnit())) {
+            return (T) existingMonitorableWithSameName;
+        } else {
+            throw new IllegalArgumentException(String.format("Cannot reuse the same name %s for a monitorable with different Semantics or Unit: requested=%s, existing=%s", monitorable.getName(), monitorable, existingMonitorableWithSameName));
+        }
+    }
+
+    @GuardedBy("writeLock")
+    private void checkNotRegistered(Monitorable<?> monitorable) {
+        if (monitorables.containsKey(monitorable.getName())) {
+            throw new UnsupportedOperationException(
+                    "There is already an instance of the Monitorable [" + monitorable.getName()
+                    + "] registered.");
+        }
+    }
+
+    @GuardedBy("writeLock")
+    private void add(Monitorable<?> monitorable) {
+        long next = version + 1;
+        monitorables.put(monitorable.getName(), monitorable);
+        registrations.put(next, monitorable);
+        registrationVersions.put(monitorable.getName(), next);
+        version = next;
+    }
+
+    /**
+     * Removes the {@link Monitorable} registered under the given name, if any. The Monitorable
+     * itself is untouched; it simply stops being offered to new views, and views kept up to date
+     * through {@link #getSnapshot()} (such as {@link DynamicMonitoringView}) stop monitoring it.
+     *
+     * @return the removed Monitorable, or null if nothing was registered under that name
+     */
+    public Monitorable<?> unregister(String name) {
+        Monitorable<?> removed;
+        synchronized (writeLock) {
+            removed = monitorables.remove(name);
+            if (removed == null) {
+                return null;
+            }
+            recordRemoval(removed);
+        }
+        notifyListenersOfRemovedMonitorable(removed);
+        return removed;
+    }
+
+    /**
+     * Removes the given {@link Monitorable}, but only if it is still the one registered under its
+     * name, so that one registered afresh under the same name in the meantime is left alone.
+     *
+     * @return whether the Monitorable was removed
+     */
+    public boolean unregister(Monitorable<?> monitorable) {
+        synchronized (writeLock) {
+            if (!monitorables.remove(monitorable.getName(), monitorable)) {
+                return false;
+            }
+            recordRemoval(monitorable);
+        }
+        notifyListenersOfRemovedMonitorable(monitorable);
+        return true;
+    }
+
+    @GuardedBy("writeLock")
+    private void recordRemoval(Monitorable<?> removed) {
+        long next = version + 1;
+        registrations.remove(registrationVersions.remove(removed.getName()));
+        removals.put(next, removed);
+        if (removals.size() > MAX_RETAINED_REMOVALS) {
+            // published before the removal goes, so readers which miss it know it is missing
+            forgottenRemovalsVersion = removals.firstKey();
+            removals.pollFirstEntry();
+        }
+        version = next;
+    }
+
+    private void notifyListenersOfRemovedMonitorable(Monitorable<?> monitorable) {
+        for (MonitorableRegistryListener listener : registryListeners) {
+            listener.monitorableRemoved(monitorable);
         }
     }
 
@@ -111,8 +267,96 @@ public class MonitorableRegistry {
      * @return a list of all Monitorables which are registered with this
      *         MonitorableRegistry.
      */
-    public synchronized Collection<Monitorable<?>> getMonitorables() {
-        return ImmutableList.copyOf(monitorables.values());
+    public Collection<Monitorable<?>> getMonitorables() {
+        return getSnapshot().getMonitorables();
+    }
+
+    /**
+     * @return the number of changes made to this registry so far
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return an immutable view of the registry as of its current version; repeated calls return
+     *         the same Snapshot until the registry next changes
+     */
+    public Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current.getVersion() == version) {
+            return current;
+        }
+        synchronized (writeLock) {
+            if (snapshot.getVersion() != version) {
+                snapshot = new Snapshot(version, ImmutableList.copyOf(monitorables.values()), this);
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * The Monitorables registered with a {@link MonitorableRegistry} as of a particular version.
+     * Changes since an earlier version are read from the registry when asked for, bounded by this
+     * snapshot's version, so taking a snapshot costs nothing per change; the registry only
+     * remembers current registrations and its most recent removals, though, so those answers are
+     * as of the time they are asked.
+     */
+    @ThreadSafe
+    public static final class Snapshot {
+        private final long version;
+        private final List<Monitorable<?>> monitorables;
+        private final MonitorableRegistry registry;
+
+        Snapshot(long version, List<Monitorable<?>> monitorables, MonitorableRegistry registry) {
+            this.version = version;
+            this.monitorables = monitorables;
+            this.registry = registry;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return every registered Monitorable, in alphabetical order of name
+         */
+        public List<Monitorable<?>> getMonitorables() {
+            return monitorables;
+        }
+
+        /**
+         * @return the Monitorables registered after the given version, up to and including this
+         *         snapshot's version, in order of registration; any unregistered since (even after
+         *         this snapshot was taken) are omitted
+         */
+        public List<Monitorable<?>> getAddedSince(long sinceVersion) {
+            return changesSince(registry.registrations, sinceVersion);
+        }
+
+        /**
+         * @return the Monitorables unregistered after the given version, up to and including this
+         *         snapshot's version, in order of removal; only complete if
+         *         {@link #canReportChangesSince(long)} still holds once this returns
+         */
+        public List<Monitorable<?>> getRemovedSince(long sinceVersion) {
+            return changesSince(registry.removals, sinceVersion);
+        }
+
+        /**
+         * @return whether the registry still remembers every removal made since the given version;
+         *         if not, callers must work from {@link #getMonitorables()} instead
+         */
+        public boolean canReportChangesSince(long sinceVersion) {
+            return sinceVersion >= registry.forgottenRemovalsVersion;
+        }
+
+        private List<Monitorable<?>> changesSince(NavigableMap<Long, Monitorable<?>> changes, long sinceVersion) {
+            if (sinceVersion >= version) {
+                return ImmutableList.of();
+            }
+            return ImmutableList.copyOf(changes.subMap(sinceVersion, false, version, true).values());
+        }
     }
 
     /*
@@ -16,6 +16,26 @@
 
 package io.pcp.parfait;
 
+import java.util.Collection;
+
 public interface MonitorableRegistryListener {
     void monitorableAdded(Monitorable<?> monitorable);
+
+    /**
+     * Called once for a batch registered through
+     * {@link MonitorableRegistry#registerAll(Collection)}; by default, treated as a series of
+     * single additions.
+     */
+    default void monitorablesAdded(Collection<Monitorable<?>> monitorables) {
+        for (Monitorable<?> monitorable : monitorables) {
+            monitorableAdded(monitorable);
+        }
+    }
+
+    /**
+     * Called after a Monitorable is {@link MonitorableRegistry#unregister(String) unregistered};
+     * ignored by default.
+     */
+    default void monitorableRemoved(Monitorable<?> monitorable) {
+    }
 }
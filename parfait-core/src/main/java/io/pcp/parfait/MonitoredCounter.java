@@ -32,7 +32,7 @@ import javax.measure.Unit;
  * the number of JMS messages sent or Garbage collections completed. Note that this class explicitly provides an atomic increment
  * operation only. Values must not decrement or be set to an arbitrary value.
  */
-public class MonitoredCounter extends AbstractMonitorable<Long> implements Counter {
+public class MonitoredCounter extends AbstractMonitoredCounter {
     private final AtomicLong value = new AtomicLong(0L);
 
     /**
@@ -66,12 +66,12 @@ public class MonitoredCounter extends AbstractMonitorable<Long> implements Count
      */
     public MonitoredCounter(String name, String description, MonitorableRegistry registry,
             Unit<?> unit) {
-        super(name, description, Long.class, unit, ValueSemantics.MONOTONICALLY_INCREASING);
+        super(name, description, unit);
         registerSelf(registry);
     }
 
     @Override
-    public Long get() {
+    public long getAsLong() {
         return value.get();
     }
 
@@ -83,6 +83,7 @@ public class MonitoredCounter extends AbstractMonitorable<Long> implements Count
      * values are being extracted from a monotonically-increasing source and we need to use
      * that source's value verbatim.</p>
      */
+    @Override
     public void set(long newValue) {
         value.set(newValue);
         notifyMonitors();
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.measure.Unit;
+
+import com.google.common.base.Preconditions;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * <p>
+ * A {@link Monitorable} distribution of recorded values, kept as counts in a fixed set of
+ * {@link LogLinearBuckets} along with the count and sum of all values recorded; like counters, the
+ * counts only ever grow. Each bucket,
+ * the count and the sum are striped (see {@link LongAdder}), so recording a value is a bucket
+ * lookup and two uncontended additions, and allocates nothing.
+ * </p>
+ * <p>
+ * Like {@link StripedMonitoredCounter}, recording never notifies attached {@link Monitor}s; a
+ * {@link CounterSweeper} periodically notifies them if anything has been recorded since the last
+ * sweep.
+ * </p>
+ * <p>
+ * The value of the Monitorable itself, for views with no notion of a distribution, is the total
+ * count; views which understand histograms (such as the PCP bridge, which exports each histogram
+ * as one instance domain of buckets plus "count" and "sum") read the buckets directly. As the
+ * bucket bounds are fixed for a given layout, the bucket counts of histograms from different
+ * processes or hosts can simply be added together.
+ * </p>
+ */
+@ThreadSafe
+public class MonitoredHistogram extends AbstractMonitorable<Long> implements LongSupplier, Sweepable {
+    private final LogLinearBuckets buckets;
+    private final LongAdder[] bucketCounts;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private volatile long lastPublishedCount;
+    private volatile long lastPublishedSum;
+
+    /**
+     * Creates a new MonitoredHistogram against the given registry with buckets suited to the
+     * given unit (see {@link LogLinearBuckets#forUnit(Unit)}), published by the
+     * {@link CounterSweeper#getDefault() default sweeper}.
+     */
+    public MonitoredHistogram(String name, String description, MonitorableRegistry registry, Unit<?> unit) {
+        this(name, description, registry, unit, LogLinearBuckets.forUnit(unit), CounterSweeper.getDefault());
+    }
+
+    public MonitoredHistogram(String name, String description, MonitorableRegistry registry, Unit<?> unit,
+            LogLinearBuckets buckets, CounterSweeper sweeper) {
+        super(name, description, Long.class, unit, ValueSemantics.MONOTONICALLY_INCREASING);
+        this.buckets = Preconditions.checkNotNull(buckets);
+        this.bucketCounts = new LongAdder[buckets.getBucketCount()];
+        for (int i = 0; i < bucketCounts.length; i++) {
+            bucketCounts[i] = new LongAdder();
+        }
+        registerSelf(registry);
+        sweeper.register(this);
+    }
+
+    /**
+     * Records a single value, in this histogram's unit.
+     */
+    public void record(long value) {
+        bucketCounts[buckets.indexOf(value)].increment();
+        count.increment();
+        sum.add(value);
+    }
+
+    public LogLinearBuckets getBuckets() {
+        return buckets;
+    }
+
+    /**
+     * @return the number of values recorded in the given bucket so far, i.e. those above the
+     *         previous bucket's bound and no greater than this one's
+     */
+    public long getBucketCount(int bucket) {
+        return bucketCounts[bucket].sum();
+    }
+
+    /**
+     * @return the number of values recorded so far
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the sum of all values recorded so far
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    @Override
+    public Long get() {
+        return getAsLong();
+    }
+
+    @Override
+    public long getAsLong() {
+        return getCount();
+    }
+
+    @Override
+    public void publish() {
+        long currentCount = count.sum();
+        long currentSum = sum.sum();
+        if (currentCount != lastPublishedCount || currentSum != lastPublishedSum) {
+            lastPublishedCount = currentCount;
+            lastPublishedSum = currentSum;
+            notifyMonitors();
+        }
+    }
+}
@@ -19,7 +19,6 @@ package io.pcp.parfait;
 import static tech.units.indriya.AbstractUnit.ONE;
 
 import java.util.List;
-import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -45,10 +44,13 @@ public class PollingMonitoredValue<T> extends SettableValue<T> {
 	 */
 	private static final int MIN_UPDATE_INTERVAL = 250;
 
-	private static final Timer POLLING_TIMER = new Timer(
-			"PollingMonitoredValue-poller", true);
-	private static Scheduler SHARED_TIMER_SCHEDULER = new TimerScheduler(
-			POLLING_TIMER);
+	/**
+	 * The number of polls which may run at once in the shared scheduler.
+	 */
+	private static final int SHARED_POLLING_THREADS = 4;
+
+	private static final PollingScheduler SHARED_POLLING_SCHEDULER = new PollingScheduler(
+			"PollingMonitoredValue-poller", SHARED_POLLING_THREADS);
 
     private final Supplier<T> poller;
 
@@ -81,7 +83,7 @@ public class PollingMonitoredValue<T> extends SettableValue<T> {
      */
     public PollingMonitoredValue(String name, String description, MonitorableRegistry registry, int updateInterval,
             Supplier<T> poller, ValueSemantics semantics, Unit<?> unit) {
-    	this(name, description, registry, updateInterval, poller, semantics, unit, SHARED_TIMER_SCHEDULER);
+    	this(name, description, registry, updateInterval, poller, semantics, unit, SHARED_POLLING_SCHEDULER);
     }
 
 	/**
@@ -101,7 +103,7 @@ public class PollingMonitoredValue<T> extends SettableValue<T> {
 				"updateInterval is too short.");
 		TimerTask task = new PollerTask();
 		SCHEDULED_TASKS.add(task);
-		scheduler.schedule(new PollerTask(), updateInterval);
+		scheduler.schedule(task, updateInterval);
 	}
 
     @Override
@@ -121,6 +123,15 @@ public class PollingMonitoredValue<T> extends SettableValue<T> {
         }
     }
     
+	/**
+	 * @return the scheduler used by all PollingMonitoredValues not given one
+	 *         explicitly, e.g. to {@link PollingScheduler#exportMetrics export
+	 *         its metrics}
+	 */
+	public static PollingScheduler getSharedScheduler() {
+		return SHARED_POLLING_SCHEDULER;
+	}
+
 	@VisibleForTesting
 	static void runAllTasks() {
 		for (TimerTask task : SCHEDULED_TASKS) {
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait;
+
+import static javax.measure.MetricPrefix.MILLI;
+import static tech.units.indriya.AbstractUnit.ONE;
+import static tech.units.indriya.unit.Units.SECOND;
+
+import java.util.List;
+import java.util.Random;
+import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link Scheduler} for pollers which keeps a slow poller from delaying the others. A single
+ * ticker thread fires one tick per distinct polling rate, and each tick hands its pollers to a
+ * bounded pool of worker threads. Each rate's ticks start at a random phase (up to a maximum
+ * jitter) so that rates which are multiples of each other do not all fire at once.
+ * <p>
+ * A poller is given until its next tick to finish; if it is still running then, or the tick itself
+ * fell a whole period behind, that run is skipped (and counted as an overrun) rather than queued
+ * behind it, so missed runs never bunch together. A run still going at its next tick is also
+ * interrupted (and counted), so that a poller blocked in an interruptible call gives its worker
+ * back; one which ignores interrupts keeps holding its worker, and once every worker is held that
+ * way nothing else is polled, which shows up as a growing rejected count. Polls which could not be
+ * queued because every worker was busy and the queue full are counted as rejected. These counts,
+ * along with the total time polls spent waiting to start, can be exported with
+ * {@link #exportMetrics(MonitorableRegistry, String, int)}.
+ * <p>
+ * Tasks run until they are {@link #unschedule(TimerTask) unscheduled} or the scheduler is
+ * {@link #shutdown() shut down}; as a {@link TimerTask}'s cancellation can't be observed from
+ * outside a {@link java.util.Timer}, cancelling the task itself has no effect.
+ */
+@ThreadSafe
+public class PollingScheduler implements Scheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(PollingScheduler.class);
+
+    /**
+     * The default maximum random delay in ms before the first tick at each rate.
+     */
+    public static final long DEFAULT_MAX_JITTER = 1000L;
+
+    private static final int QUEUED_POLLS_PER_WORKER = 1024;
+
+    private final ScheduledExecutorService ticker;
+    private final Executor workers;
+    private final LongSupplier clock;
+    private final Random random;
+    private final long maxJitter;
+    private final ConcurrentMap<Long, TickGroup> groups = new ConcurrentHashMap<Long, TickGroup>();
+
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong overruns = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong interrupted = new AtomicLong();
+    private final AtomicLong totalLag = new AtomicLong();
+
+    /**
+     * @param name
+     *            the prefix for the names of this scheduler's (daemon) threads
+     * @param workerThreads
+     *            the maximum number of polls which may run at once
+     */
+    public PollingScheduler(String name, int workerThreads) {
+        this(new ScheduledThreadPoolExecutor(1, daemonThreads(name + "-ticker")),
+                new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<Runnable>(workerThreads * QUEUED_POLLS_PER_WORKER),
+                        daemonThreads(name + "-worker")),
+                System::currentTimeMillis, new Random(), DEFAULT_MAX_JITTER);
+    }
+
+    PollingScheduler(ScheduledExecutorService ticker, Executor workers, LongSupplier clock, Random random,
+            long maxJitter) {
+        Preconditions.checkArgument(maxJitter >= 0, "maxJitter cannot be negative");
+        this.ticker = ticker;
+        this.workers = workers;
+        this.clock = clock;
+        this.random = random;
+        this.maxJitter = maxJitter;
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @Override
+    public void schedule(TimerTask task, long rate) {
+        schedule(task, rate, rate);
+    }
+
+    /**
+     * Adds the task to the tick for its rate. Only the first task at a given rate determines when
+     * that tick starts, so later tasks at the same rate ignore their delay.
+     */
+    @Override
+    public void schedule(TimerTask task, long delay, long rate) {
+        Preconditions.checkArgument(rate > 0, "rate must be positive");
+        groups.compute(rate, (r, group) -> {
+            TickGroup members = (group == null) ? startGroup(r, delay) : group;
+            members.add(task);
+            return members;
+        });
+    }
+
+    /**
+     * Removes the task from its tick, stopping the tick altogether once no task is left at its rate.
+     * A run already in progress is allowed to finish.
+     */
+    @Override
+    public void unschedule(TimerTask task) {
+        for (Long rate : groups.keySet()) {
+            groups.computeIfPresent(rate, (r, group) -> {
+                if (group.remove(task) && group.isEmpty()) {
+                    group.stop();
+                    return null;
+                }
+                return group;
+            });
+        }
+    }
+
+    private TickGroup startGroup(long rate, long delay) {
+        long jitter = maxJitter == 0 ? 0 : (long) (random.nextDouble() * Math.min(maxJitter, rate));
+        long initialDelay = delay + jitter;
+        final TickGroup group = new TickGroup(rate, clock.getAsLong() + initialDelay);
+        group.future = ticker.scheduleAtFixedRate(() -> {
+            try {
+                group.tick();
+            } catch (RuntimeException e) {
+                LOG.error("Error dispatching pollers at rate " + group.rate + "ms", e);
+            }
+        }, initialDelay, rate, TimeUnit.MILLISECONDS);
+        return group;
+    }
+
+    @VisibleForTesting
+    boolean isTicking(long rate) {
+        return groups.containsKey(rate);
+    }
+
+    @VisibleForTesting
+    void tick(long rate) {
+        groups.get(rate).tick();
+    }
+
+    /**
+     * @return the number of polls run so far
+     */
+    public long getPollCount() {
+        return polls.get();
+    }
+
+    /**
+     * @return the number of polls skipped because the previous run was still going, or the tick
+     *         fell a whole period behind
+     */
+    public long getOverrunCount() {
+        return overruns.get();
+    }
+
+    /**
+     * @return the number of polls dropped because the worker pool and its queue were full
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the number of polls interrupted because they were still running at their next tick
+     */
+    public long getInterruptedCount() {
+        return interrupted.get();
+    }
+
+    /**
+     * @return the total time in ms between when polls were due and when they started
+     */
+    public long getTotalLag() {
+        return totalLag.get();
+    }
+
+    /**
+     * Registers the poll, overrun, rejection, interruption and lag counts of this scheduler as
+     * Monitorables named <code>prefix.polls</code>, <code>prefix.overruns</code>,
+     * <code>prefix.rejected</code>, <code>prefix.interrupted</code> and
+     * <code>prefix.lag.total</code>, themselves polled by this scheduler.
+     */
+    public void exportMetrics(MonitorableRegistry registry, String prefix, int updateInterval) {
+        new PollingMonitoredValue<Long>(prefix + ".polls", "Polls run", registry, updateInterval,
+                this::getPollCount, ValueSemantics.MONOTONICALLY_INCREASING, ONE, this);
+        new PollingMonitoredValue<Long>(prefix + ".overruns",
+                "Polls skipped as the previous run or the tick was late", registry, updateInterval,
+                this::getOverrunCount, ValueSemantics.MONOTONICALLY_INCREASING, ONE, this);
+        new PollingMonitoredValue<Long>(prefix + ".rejected", "Polls dropped as every worker was busy",
+                registry, updateInterval, this::getRejectedCount, ValueSemantics.MONOTONICALLY_INCREASING,
+                ONE, this);
+        new PollingMonitoredValue<Long>(prefix + ".interrupted",
+                "Polls interrupted as they were still running at their next tick", registry, updateInterval,
+                this::getInterruptedCount, ValueSemantics.MONOTONICALLY_INCREASING, ONE, this);
+        new PollingMonitoredValue<Long>(prefix + ".lag.total", "Total time polls waited to start",
+                registry, updateInterval, this::getTotalLag, ValueSemantics.MONOTONICALLY_INCREASING,
+                MILLI(SECOND), this);
+    }
+
+    /**
+     * Stops ticking; polls already running are allowed to finish.
+     */
+    public void shutdown() {
+        ticker.shutdownNow();
+        if (workers instanceof ThreadPoolExecutor) {
+            ((ThreadPoolExecutor) workers).shutdown();
+        }
+    }
+
+    /**
+     * All the tasks polled at one rate.
+     */
+    private final class TickGroup {
+        private final long rate;
+        private final long firstTick;
+        private final List<Poll> members = new CopyOnWriteArrayList<Poll>();
+        private volatile ScheduledFuture<?> future;
+        private long lastSlot = -1;
+
+        TickGroup(long rate, long firstTick) {
+            this.rate = rate;
+            this.firstTick = firstTick;
+        }
+
+        void add(TimerTask task) {
+            members.add(new Poll(task));
+        }
+
+        boolean remove(TimerTask task) {
+            return members.removeIf(poll -> poll.task == task);
+        }
+
+        boolean isEmpty() {
+            return members.isEmpty();
+        }
+
+        void stop() {
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+
+        /**
+         * Works out which tick this is from the clock, rather than by counting, so that the
+         * back-to-back catch-up runs a fixed-rate ticker makes after a stall are recognised and
+         * dropped, and the ticks they stand for are counted as overruns instead.
+         */
+        synchronized void tick() {
+            long now = clock.getAsLong();
+            long slot = Math.max(0L, (now - firstTick + rate / 2) / rate);
+            if (slot <= lastSlot) {
+                return;
+            }
+            long missed = slot - lastSlot - 1;
+            if (missed > 0) {
+                overruns.addAndGet(missed * members.size());
+            }
+            lastSlot = slot;
+            long due = firstTick + slot * rate;
+            for (Poll poll : members) {
+                poll.dispatch(due);
+            }
+        }
+    }
+
+    /**
+     * A single task, run at most once at a time.
+     */
+    private final class Poll {
+        private final TimerTask task;
+        private final AtomicBoolean inFlight = new AtomicBoolean();
+        // The worker running the task, only ever interrupted while it still is
+        private Thread runner;
+
+        Poll(TimerTask task) {
+            this.task = task;
+        }
+
+        void dispatch(final long due) {
+            if (!inFlight.compareAndSet(false, true)) {
+                overruns.incrementAndGet();
+                interruptRunner();
+                return;
+            }
+            try {
+                workers.execute(() -> run(due));
+            } catch (RejectedExecutionException e) {
+                inFlight.set(false);
+                rejected.incrementAndGet();
+            }
+        }
+
+        private synchronized void interruptRunner() {
+            if (runner != null) {
+                interrupted.incrementAndGet();
+                runner.interrupt();
+            }
+        }
+
+        private void run(long due) {
+            synchronized (this) {
+                runner = Thread.currentThread();
+            }
+            try {
+                totalLag.addAndGet(Math.max(0L, clock.getAsLong() - due));
+                polls.incrementAndGet();
+                task.run();
+            } catch (RuntimeException e) {
+                LOG.error("Error running poller " + task, e);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                }
+                // Don't let an interrupt meant for this run leak into the worker's next one
+                Thread.interrupted();
+                inFlight.set(false);
+            }
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package io.pcp.parfait;
 
+import java.util.Collection;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -63,6 +64,16 @@ public class QuiescentRegistryListener implements MonitorableRegistryListener {
         this.lastTimeMonitorableAdded = clock.get();
     }
 
+    @Override
+    public void monitorablesAdded(Collection<Monitorable<?>> monitorables) {
+        this.lastTimeMonitorableAdded = clock.get();
+    }
+
+    @Override
+    public void monitorableRemoved(Monitorable<?> monitorable) {
+        this.lastTimeMonitorableAdded = clock.get();
+    }
+
     public void stop(){
     }
 }
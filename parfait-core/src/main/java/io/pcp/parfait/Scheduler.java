@@ -22,4 +22,9 @@ interface Scheduler {
 	public void schedule(TimerTask task, long rate);
 
 	public void schedule(TimerTask timerTask, long delay, long rate);
+
+	/**
+	 * Stops running a previously scheduled task; does nothing if it isn't scheduled.
+	 */
+	public void unschedule(TimerTask task);
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait;
+
+import static tech.units.indriya.AbstractUnit.ONE;
+
+import java.util.concurrent.atomic.LongAdder;
+import javax.measure.Unit;
+
+/**
+ * A counter for heavily contended values, otherwise like a {@link MonitoredCounter}. Increments are spread over striped
+ * cells (see {@link LongAdder}) rather than a single atomic value, and never notify attached
+ * {@link Monitor}s; instead a shared {@link CounterSweeper} periodically sums the cells and notifies
+ * monitors if the total has changed since the last sweep. Monitors therefore see values up to one
+ * sweep interval late, and see only the latest of any intermediate values.
+ */
+public class StripedMonitoredCounter extends AbstractMonitoredCounter implements Sweepable {
+    private final LongAdder cells = new LongAdder();
+    private volatile long lastPublished;
+
+    /**
+     * Creates a new StripedMonitoredCounter against the given registry with no unit semantics,
+     * published by the {@link CounterSweeper#getDefault() default sweeper}.
+     */
+    public StripedMonitoredCounter(String name, String description, MonitorableRegistry registry) {
+        this(name, description, registry, ONE);
+    }
+
+    /**
+     * Creates a new StripedMonitoredCounter against the given registry with the given unit
+     * semantics, published by the {@link CounterSweeper#getDefault() default sweeper}.
+     */
+    public StripedMonitoredCounter(String name, String description, MonitorableRegistry registry,
+            Unit<?> unit) {
+        this(name, description, registry, unit, CounterSweeper.getDefault());
+    }
+
+    public StripedMonitoredCounter(String name, String description, MonitorableRegistry registry,
+            Unit<?> unit, CounterSweeper sweeper) {
+        super(name, description, unit);
+        registerSelf(registry);
+        sweeper.register(this);
+    }
+
+    @Override
+    public long getAsLong() {
+        return cells.sum();
+    }
+
+    /**
+     * Resets the counter to a specific value and notifies monitors immediately. Increments racing
+     * with this call may be lost.
+     */
+    @Override
+    public void set(long newValue) {
+        cells.reset();
+        cells.add(newValue);
+        publish();
+    }
+
+    @Override
+    public void inc(long value) {
+        cells.add(value);
+    }
+
+    @Override
+    public void inc() {
+        cells.increment();
+    }
+
+    @Override
+    public void publish() {
+        long value = cells.sum();
+        if (value != lastPublished) {
+            lastPublished = value;
+            notifyMonitors();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait;
+
+/**
+ * A {@link Monitorable} whose updates don't notify its {@link Monitor}s, relying instead on a
+ * {@link CounterSweeper} to publish its value periodically.
+ */
+interface Sweepable {
+    String getName();
+
+    /**
+     * Notifies monitors of the current value if it has changed since last published.
+     */
+    void publish();
+}
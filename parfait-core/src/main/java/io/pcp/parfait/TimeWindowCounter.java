@@ -44,7 +44,7 @@ import com.google.common.base.Supplier;
  * </p>
  */
 @ThreadSafe
-public class TimeWindowCounter implements Counter {
+public class TimeWindowCounter implements WindowedCounter {
 	@GuardedBy("lock")
 	private long overallValue;
 	@GuardedBy("lock")
@@ -100,6 +100,7 @@ public class TimeWindowCounter implements Counter {
 		}
 	}
 
+	@Override
 	public Long get() {
 		synchronized (lock) {
 			cleanState();
@@ -17,6 +17,7 @@
 package io.pcp.parfait;
 
 import java.util.List;
+import java.util.function.LongSupplier;
 
 import javax.measure.Unit;
 
@@ -32,12 +33,16 @@ import com.google.common.collect.Lists;
  * TimeWindows}, and in turn produce {@link PollingMonitoredValue
  * PollingMonitoredValues} which watch those TimeWindowCounters. Can either
  * create the TimeWindowCounters from scratch, or 'copy' an existing
- * MonitoredCounter.
+ * MonitoredCounter. Builders created with
+ * {@link #concurrent(MonitorableRegistry, TimeWindow...)} produce
+ * {@link ConcurrentTimeWindowCounter ConcurrentTimeWindowCounters} instead,
+ * for counters incremented heavily from many threads.
  */
 @ThreadSafe
 public class TimeWindowCounterBuilder {
 	private final List<TimeWindow> timeWindows;
 	private final Supplier<Long> timeSource;
+	private final LongSupplier concurrentClock;
 	private final MonitorableRegistry registry;
 
 	public TimeWindowCounterBuilder(MonitorableRegistry registry,
@@ -47,11 +52,33 @@ public class TimeWindowCounterBuilder {
 
 	TimeWindowCounterBuilder(Supplier<Long> timeSource,
 			MonitorableRegistry registry, TimeWindow... windows) {
+		this(timeSource, null, registry, windows);
+	}
+
+	private TimeWindowCounterBuilder(Supplier<Long> timeSource,
+			LongSupplier concurrentClock, MonitorableRegistry registry,
+			TimeWindow... windows) {
 		this.registry = registry;
 		this.timeSource = timeSource;
+		this.concurrentClock = concurrentClock;
 		this.timeWindows = ImmutableList.copyOf(windows);
 	}
 
+	/**
+	 * Creates a builder whose counters are lock-free
+	 * {@link ConcurrentTimeWindowCounter ConcurrentTimeWindowCounters} reading
+	 * the shared {@link CoarseClock}.
+	 */
+	public static TimeWindowCounterBuilder concurrent(
+			MonitorableRegistry registry, TimeWindow... windows) {
+		return concurrent(CoarseClock.getShared(), registry, windows);
+	}
+
+	static TimeWindowCounterBuilder concurrent(LongSupplier clock,
+			MonitorableRegistry registry, TimeWindow... windows) {
+		return new TimeWindowCounterBuilder(null, clock, registry, windows);
+	}
+
 	/**
 	 * Builds a new {@link CompositeCounter}, comprised of TimeWindowCounters,
 	 * and registers {@link PollingMonitoredValue}s to detect changes in their
@@ -78,8 +105,7 @@ public class TimeWindowCounterBuilder {
 			String baseDescription, Unit<?> unit) {
 		List<Counter> counters = Lists.newArrayList();
 		for (TimeWindow timeWindow : timeWindows) {
-			final TimeWindowCounter value = new TimeWindowCounter(timeWindow,
-					timeSource);
+			final WindowedCounter counter = newCounter(timeWindow);
 
 			String name = String
 					.format("%s.%s", baseName, timeWindow.getName());
@@ -89,15 +115,22 @@ public class TimeWindowCounterBuilder {
 					timeWindow.getResolution(), new Supplier<Long>() {
 						@Override
 						public Long get() {
-							return value.get();
+							return counter.get();
 						}
 					}, ValueSemantics.FREE_RUNNING, unit);
 
-			counters.add(value);
+			counters.add(counter);
 		}
 		return counters;
 	}
 
+	private WindowedCounter newCounter(TimeWindow timeWindow) {
+		if (concurrentClock != null) {
+			return new ConcurrentTimeWindowCounter(timeWindow, concurrentClock);
+		}
+		return new TimeWindowCounter(timeWindow, timeSource);
+	}
+
 	/**
 	 * Creates a new CompositeCounter wrapping TimeWindowCounters (and creating
 	 * PollingMonitoredValues), using the supplied counter's name,
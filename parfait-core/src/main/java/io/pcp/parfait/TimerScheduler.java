@@ -37,4 +37,10 @@ public class TimerScheduler implements Scheduler {
 		timer.scheduleAtFixedRate(timerTask, delay, rate);
 	}
 
+	@Override
+	public void unschedule(TimerTask task) {
+		task.cancel();
+		timer.purge();
+	}
+
 }
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.timing;
+
+import static tech.units.indriya.AbstractUnit.ONE;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import io.pcp.parfait.MonitorableRegistry;
+import io.pcp.parfait.PollingMonitoredValue;
+import io.pcp.parfait.ValueSemantics;
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link StepMeasurementSink} which takes the work of handling measurements off the timed
+ * thread. Each call copies the step's event path, the events it forwarded to and its raw metric
+ * values into one of a fixed number of preallocated slots; a background consumer thread then
+ * drains the slots in batches, rebuilds equivalent {@link StepMeasurements} and passes them on to
+ * the delegate (e.g. a {@link LoggerSink}, which does all its formatting on the consumer thread).
+ * <p>
+ * Slots are claimed without locking, so any number of timed threads may publish at once. When
+ * every slot is full the {@link OverflowPolicy} decides whether the measurement is dropped
+ * (counted by {@link #getDroppedCount()}) or the timed thread waits for the consumer to catch up.
+ * </p>
+ * <p>
+ * Once the slots have grown to fit the deepest event trees seen, publishing allocates nothing.
+ * </p>
+ */
+@ThreadSafe
+public class AsyncMeasurementSink implements StepMeasurementSink {
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncMeasurementSink.class);
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    private static final long IDLE_WAIT_NANOS = 1000000L;
+    private static final long FULL_WAIT_NANOS = 50000L;
+
+    /**
+     * What a timed thread does when there is no free slot for its measurement.
+     */
+    public enum OverflowPolicy {
+        /** Discard the measurement and carry on; the timed thread never waits. */
+        DROP,
+        /** Wait for the consumer to free a slot; no measurement is lost while the sink is running. */
+        BLOCK
+    }
+
+    private final StepMeasurementSink delegate;
+    private final OverflowPolicy policy;
+    private final StepRecord[] slots;
+    /**
+     * The position each slot is ready for: a slot at index {@code position & mask} may be
+     * written by the producer claiming {@code position} once its sequence equals
+     * {@code position}, and read by the consumer once it equals {@code position + 1}.
+     */
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile long forwarded;
+
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile boolean running;
+    private volatile Thread consumer;
+
+    public AsyncMeasurementSink(StepMeasurementSink delegate) {
+        this(delegate, DEFAULT_CAPACITY, OverflowPolicy.DROP);
+    }
+
+    /**
+     * @param capacity
+     *            the number of slots; rounded up to a power of two
+     */
+    public AsyncMeasurementSink(StepMeasurementSink delegate, int capacity, OverflowPolicy policy) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        this.delegate = Preconditions.checkNotNull(delegate);
+        this.policy = Preconditions.checkNotNull(policy);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.slots = new StepRecord[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new StepRecord();
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Sets the most measurements the consumer hands to the delegate before checking whether it
+     * has been shut down.
+     */
+    public void setBatchSize(int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be positive");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Starts the background consumer. Measurements published beforehand wait in their slots, and
+     * are dropped when there is no free slot regardless of the {@link OverflowPolicy}, since
+     * nothing would free one.
+     */
+    public synchronized void start() {
+        Preconditions.checkState(consumer == null, "Sink has already been started");
+        running = true;
+        Thread thread = new Thread(this::consume, "AsyncMeasurementSink-consumer");
+        thread.setDaemon(true);
+        consumer = thread;
+        thread.start();
+    }
+
+    /**
+     * Stops the consumer once it has forwarded everything published so far. Blocked publishers
+     * are released, and later measurements are dropped.
+     */
+    public synchronized void shutdown() throws InterruptedException {
+        running = false;
+        Thread thread = consumer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            thread.join();
+        }
+    }
+
+    /**
+     * @return false, as measurements are copied during the call, and the delegate handed
+     *         measurements rebuilt from the copies
+     */
+    @Override
+    public boolean retainsMeasurements() {
+        return false;
+    }
+
+    @Override
+    public void handle(StepMeasurements measurements, int level) {
+        for (;;) {
+            long position = tail.get();
+            int index = (int) (position & mask);
+            long available = sequences.get(index) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index].copy(measurements, level);
+                    sequences.lazySet(index, position + 1);
+                    return;
+                }
+            } else if (available < 0) {
+                if (policy == OverflowPolicy.DROP || !running) {
+                    dropped.increment();
+                    return;
+                }
+                LockSupport.parkNanos(this, FULL_WAIT_NANOS);
+            }
+        }
+    }
+
+    private void consume() {
+        while (running) {
+            if (drain(batchSize) == 0) {
+                LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+            }
+        }
+        while (drain(batchSize) > 0) {
+            // Forward whatever was published before shutdown
+        }
+    }
+
+    /**
+     * Forwards up to the given number of published measurements to the delegate, in order.
+     * Called only by the consumer thread (or, before it is started, by tests).
+     *
+     * @return the number of measurements forwarded
+     */
+    int drain(int limit) {
+        long position = head;
+        int count = 0;
+        while (count < limit) {
+            int index = (int) (position & mask);
+            if (sequences.get(index) != position + 1) {
+                break;
+            }
+            StepMeasurements rebuilt = slots[index].rebuild();
+            int level = slots[index].getLevel();
+            slots[index].release();
+            sequences.lazySet(index, position + mask + 1);
+            position++;
+            count++;
+            head = position;
+            try {
+                delegate.handle(rebuilt, level);
+            } catch (RuntimeException e) {
+                failed.increment();
+                LOG.warn("Measurement sink " + delegate + " failed", e);
+            }
+        }
+        if (count > 0) {
+            forwarded += count;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of measurements discarded because no slot was free
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return the number of measurements handed to the delegate
+     */
+    public long getForwardedCount() {
+        return forwarded;
+    }
+
+    /**
+     * @return the number of measurements for which the delegate threw an exception
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * @return the number of measurements published (or being published) but not yet forwarded
+     */
+    public long getPendingCount() {
+        return Math.max(0L, tail.get() - head);
+    }
+
+    /**
+     * Registers metrics describing this sink with the given registry, named under the given
+     * prefix and polled every updateInterval milliseconds.
+     */
+    public void exportMetrics(MonitorableRegistry registry, String prefix, int updateInterval) {
+        new PollingMonitoredValue<Long>(prefix + ".forwarded", "Measurements handed to the delegate sink",
+                registry, updateInterval, this::getForwardedCount, ValueSemantics.MONOTONICALLY_INCREASING, ONE);
+        new PollingMonitoredValue<Long>(prefix + ".dropped", "Measurements discarded as every slot was full",
+                registry, updateInterval, this::getDroppedCount, ValueSemantics.MONOTONICALLY_INCREASING, ONE);
+        new PollingMonitoredValue<Long>(prefix + ".failed", "Measurements the delegate sink failed to handle",
+                registry, updateInterval, this::getFailedCount, ValueSemantics.MONOTONICALLY_INCREASING, ONE);
+        new PollingMonitoredValue<Long>(prefix + ".pending", "Measurements waiting to be forwarded",
+                registry, updateInterval, this::getPendingCount, ValueSemantics.FREE_RUNNING, ONE);
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.timing;
+
+import static tech.units.indriya.AbstractUnit.ONE;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.pcp.parfait.MonitorableRegistry;
+import io.pcp.parfait.StripedMonitoredCounter;
+import net.jcip.annotations.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link StepMeasurementSink} which folds every completed step into a trie of the call paths
+ * (back traces) seen, accumulating the invocation count and the own and total value of each
+ * {@link ThreadMetric} in the suite at every node. Each node is exported as one instance of the
+ * instance domain {@code <prefix>.calltree}, named after its path, e.g.
+ * {@code Controller_list/Service_load/Dao_query}, so that where time goes within requests is
+ * continuously available in the style of a flame graph:
+ * <ul>
+ * <li>{@code <prefix>.calltree[path].count} - the number of times the step completed</li>
+ * <li>{@code <prefix>.calltree[path].own.<metric>} - the step's own value of each metric</li>
+ * <li>{@code <prefix>.calltree[path].total.<metric>} - the step's total value of each metric</li>
+ * </ul>
+ * <p>
+ * The trie is bounded: once it holds the maximum number of nodes, or for paths whose instance
+ * name would be too long to export, steps are accumulated in a single {@code _overflow} node
+ * instead. Characters which may not appear in instance names are replaced with underscores.
+ * </p>
+ * <p>
+ * Handling a step for a path already in the trie walks the path from its root without locking or
+ * allocating; counters are {@link StripedMonitoredCounter StripedMonitoredCounters}.
+ * </p>
+ */
+@ThreadSafe
+public class CallTreeSink implements StepMeasurementSink {
+    public static final int DEFAULT_MAX_NODES = 1000;
+    /**
+     * The longest instance name every MMV format version can hold, in bytes.
+     */
+    public static final int DEFAULT_MAX_INSTANCE_NAME_LENGTH = 63;
+    static final String OVERFLOW_INSTANCE = "_overflow";
+
+    private final String prefix;
+    private final MonitorableRegistry registry;
+    private final List<ThreadMetric> metrics;
+    private final int maxNodes;
+    private final int maxInstanceNameLength;
+
+    private final Node root = new Node(null, null, null, null, false);
+    private final AtomicInteger nodeCount = new AtomicInteger();
+    private final AtomicInteger overflowedPathCount = new AtomicInteger();
+    private final Set<String> instanceNames = ConcurrentHashMap.newKeySet();
+    private NodeCounters overflowCounters;
+
+    public CallTreeSink(String prefix, MonitorableRegistry registry, ThreadMetricSuite metricSuite) {
+        this(prefix, registry, metricSuite, DEFAULT_MAX_NODES, DEFAULT_MAX_INSTANCE_NAME_LENGTH);
+    }
+
+    /**
+     * @param maxNodes
+     *            the most call paths exported individually
+     * @param maxInstanceNameLength
+     *            the longest (UTF-8) instance name exported; deeper paths go to the overflow node
+     */
+    public CallTreeSink(String prefix, MonitorableRegistry registry, ThreadMetricSuite metricSuite,
+            int maxNodes, int maxInstanceNameLength) {
+        Preconditions.checkArgument(maxNodes > 0, "maxNodes must be positive");
+        Preconditions.checkArgument(maxInstanceNameLength >= OVERFLOW_INSTANCE.length(),
+                "maxInstanceNameLength is too short");
+        this.prefix = Preconditions.checkNotNull(prefix);
+        this.registry = Preconditions.checkNotNull(registry);
+        this.metrics = metricSuite.metrics();
+        this.maxNodes = maxNodes;
+        this.maxInstanceNameLength = maxInstanceNameLength;
+        // Reserved up front, so a step which cleans up to the same name gets a suffix instead
+        instanceNames.add(OVERFLOW_INSTANCE);
+    }
+
+    @Override
+    public boolean retainsMeasurements() {
+        return false;
+    }
+
+    @Override
+    public void handle(StepMeasurements measurements, int level) {
+        NodeCounters counters = nodeFor(measurements).counters;
+        counters.invocations.inc();
+        for (int i = 0; i < measurements.metricInstanceCount(); i++) {
+            MetricMeasurement metric = measurements.getMetricInstance(i);
+            int index = metrics.indexOf(metric.getMetricSource());
+            if (index >= 0) {
+                counters.ownValues[index].inc(metric.rawOwnTimeValue());
+                counters.totalValues[index].inc(metric.rawTotalValue());
+            }
+        }
+    }
+
+    private Node nodeFor(StepMeasurements step) {
+        Node parent = (step.getParent() == null) ? root : nodeFor(step.getParent());
+        if (parent.overflowed) {
+            return parent;
+        }
+        Node child = parent.findChild(step.getEventName(), step.getAction());
+        return (child != null) ? child : addChild(parent, step.getEventName(), step.getAction());
+    }
+
+    private Node addChild(Node parent, String eventName, String action) {
+        synchronized (parent) {
+            Node child = parent.findChild(eventName, action);
+            if (child != null) {
+                return child;
+            }
+            String path = instancePath(parent, eventName, action);
+            if (path.getBytes(StandardCharsets.UTF_8).length <= maxInstanceNameLength
+                    && nodeCount.incrementAndGet() <= maxNodes) {
+                child = new Node(path, eventName, action, registerCounters(uniqueInstanceName(path)), false);
+            } else {
+                child = new Node(null, eventName, action, overflowCounters(), true);
+                // Remembering where the overflow starts saves repeating this for the same path,
+                // but the placeholders need bounding too, for paths with ever-changing names
+                if (overflowedPathCount.incrementAndGet() > maxNodes) {
+                    return child;
+                }
+            }
+            parent.addChild(child);
+            return child;
+        }
+    }
+
+    private synchronized NodeCounters overflowCounters() {
+        if (overflowCounters == null) {
+            overflowCounters = registerCounters(OVERFLOW_INSTANCE);
+        }
+        return overflowCounters;
+    }
+
+    private String instancePath(Node parent, String eventName, String action) {
+        StringBuilder path = new StringBuilder();
+        if (parent.path != null) {
+            path.append(parent.path).append('/');
+        }
+        appendCleaned(path, eventName);
+        if (action != null && !action.isEmpty()) {
+            appendCleaned(path.append('_'), action);
+        }
+        return path.toString();
+    }
+
+    private static void appendCleaned(StringBuilder builder, String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            builder.append(Character.isLetterOrDigit(c) && c < 128 || c == '_' ? c : '_');
+        }
+    }
+
+    /**
+     * Distinct paths can clean up to the same name (e.g. {@code a:b} and {@code a_b}); later
+     * ones get a numeric suffix.
+     */
+    private String uniqueInstanceName(String path) {
+        String name = path;
+        for (int suffix = 2; !instanceNames.add(name); suffix++) {
+            name = path + "_" + suffix;
+        }
+        return name;
+    }
+
+    private NodeCounters registerCounters(String instance) {
+        String base = prefix + ".calltree[" + instance + "]";
+        NodeCounters counters = new NodeCounters(metrics.size());
+        counters.invocations = new StripedMonitoredCounter(base + ".count",
+                "Number of times the call path completed", registry, ONE);
+        for (int i = 0; i < metrics.size(); i++) {
+            ThreadMetric metric = metrics.get(i);
+            counters.ownValues[i] = new StripedMonitoredCounter(base + ".own." + metric.getCounterSuffix(),
+                    metric.getDescription() + " spent in the call path itself", registry, metric.getUnit());
+            counters.totalValues[i] = new StripedMonitoredCounter(base + ".total." + metric.getCounterSuffix(),
+                    metric.getDescription() + " spent in the call path and everything it called", registry,
+                    metric.getUnit());
+        }
+        return counters;
+    }
+
+    /**
+     * @return the number of call paths exported individually (excluding the overflow node)
+     */
+    public int getNodeCount() {
+        return Math.min(nodeCount.get(), maxNodes);
+    }
+
+    private static final class NodeCounters {
+        private StripedMonitoredCounter invocations;
+        private final StripedMonitoredCounter[] ownValues;
+        private final StripedMonitoredCounter[] totalValues;
+
+        NodeCounters(int metricCount) {
+            ownValues = new StripedMonitoredCounter[metricCount];
+            totalValues = new StripedMonitoredCounter[metricCount];
+        }
+    }
+
+    /**
+     * A call path. Children are kept in a copy-on-write array, scanned without locking and
+     * replaced (under the parent's lock) when a child is added. An overflowed node stands in for
+     * a path (and everything below it) accumulated in the overflow node's counters.
+     */
+    private static final class Node {
+        private final String path;
+        private final String eventName;
+        private final String action;
+        private final NodeCounters counters;
+        private final boolean overflowed;
+        private volatile Node[] children = new Node[0];
+
+        Node(String path, String eventName, String action, NodeCounters counters, boolean overflowed) {
+            this.path = path;
+            this.eventName = eventName;
+            this.action = action;
+            this.counters = counters;
+            this.overflowed = overflowed;
+        }
+
+        Node findChild(String eventName, String action) {
+            Node[] current = children;
+            for (int i = 0; i < current.length; i++) {
+                Node child = current[i];
+                if (Objects.equals(child.eventName, eventName) && Objects.equals(child.action, action)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        void addChild(Node child) {
+            Node[] current = children;
+            Node[] updated = new Node[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = child;
+            children = updated;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.timing;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * <p>
+ * Thread-owned accumulation slots for the counters of every event group a single thread has
+ * timed, so that the request path only ever writes to memory its own thread owns. Each slot is
+ * written by the owning thread alone (an ordered store, with no compare-and-set) and the totals
+ * are periodically folded into the shared {@link EventMetricCounters} by {@link #flush()}, which
+ * applies only the change since the previous flush.
+ * </p>
+ * <p>
+ * Adding is only safe from the owning thread; flushing is safe from any (single) thread at a time.
+ * </p>
+ */
+@ThreadSafe
+class CounterAccumulator {
+    private final WeakReference<Thread> owner;
+    private final Map<EventCounters, Slots> slotsByEventGroup = new ConcurrentHashMap<EventCounters, Slots>();
+
+    CounterAccumulator(Thread owner) {
+        this.owner = new WeakReference<Thread>(owner);
+    }
+
+    /**
+     * @return the slots for the given event group, creating them on first use
+     */
+    Slots slotsFor(EventCounters counters) {
+        Slots slots = slotsByEventGroup.get(counters);
+        if (slots == null) {
+            slots = new Slots(counters);
+            slotsByEventGroup.put(counters, slots);
+        }
+        return slots;
+    }
+
+    /**
+     * Adds everything accumulated since the last flush to the shared counters.
+     */
+    synchronized void flush() {
+        for (Slots slots : slotsByEventGroup.values()) {
+            slots.flush();
+        }
+    }
+
+    /**
+     * @return true once the owning thread has finished, so that nothing more can be accumulated
+     */
+    boolean isAbandoned() {
+        Thread thread = owner.get();
+        return thread == null || !thread.isAlive();
+    }
+
+    /**
+     * The slots for one event group: slot 0 accumulates the invocation count, slot i + 1 the
+     * values of the i'th of the group's {@link EventCounters#getMetricSources() metric sources},
+     * and slot n + i + 1 (of n sources) the number of events that metric was measured for.
+     */
+    static final class Slots {
+        private final EventMetricCounters[] counters;
+        private final AtomicLongArray values;
+        private final long[] flushed;
+
+        private Slots(EventCounters eventCounters) {
+            int sources = eventCounters.getMetricSources().size();
+            counters = new EventMetricCounters[2 * sources + 1];
+            counters[0] = eventCounters.getInvocationCounter();
+            int i = 1;
+            for (ThreadMetric metric : eventCounters.getMetricSources()) {
+                counters[i] = eventCounters.getCounterForMetric(metric);
+                counters[i + sources] = eventCounters.getMeasuredCounterForMetric(metric);
+                i++;
+            }
+            values = new AtomicLongArray(counters.length);
+            flushed = new long[counters.length];
+        }
+
+        void addInvocation() {
+            add(0, 1L);
+        }
+
+        void addMetricValue(int metricIndex, long value) {
+            add(metricIndex + 1, value);
+        }
+
+        void addMeasurement(int metricIndex) {
+            add(metricIndex + 1 + counters.length / 2, 1L);
+        }
+
+        private void add(int slot, long value) {
+            // Only the owning thread writes, so there's no need for an atomic read-modify-write
+            values.lazySet(slot, values.get(slot) + value);
+        }
+
+        private void flush() {
+            for (int i = 0; i < counters.length; i++) {
+                long value = values.get(i);
+                long delta = value - flushed[i];
+                if (delta != 0 && counters[i] != null) {
+                    flushed[i] = value;
+                    counters[i].incrementTotals(delta);
+                }
+            }
+        }
+    }
+}
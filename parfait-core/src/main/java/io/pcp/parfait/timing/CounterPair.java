@@ -16,14 +16,14 @@
 
 package io.pcp.parfait.timing;
 
+import io.pcp.parfait.AbstractMonitoredCounter;
 import io.pcp.parfait.Counter;
-import io.pcp.parfait.MonitoredCounter;
 
 public class CounterPair implements Counter {
-    private final MonitoredCounter primaryCounter;
+    private final AbstractMonitoredCounter primaryCounter;
     private final ThreadCounter threadCounter;
 
-    CounterPair(MonitoredCounter primaryCounter, ThreadCounter threadCounter) {
+    CounterPair(AbstractMonitoredCounter primaryCounter, ThreadCounter threadCounter) {
         this.primaryCounter = primaryCounter;
         this.threadCounter = threadCounter;
     }
@@ -43,12 +43,12 @@ public class CounterPair implements Counter {
         return threadCounter;
     }
 
-    public MonitoredCounter getPrimaryCounter() {
+    public AbstractMonitoredCounter getPrimaryCounter() {
         return primaryCounter;
     }
 
     @Deprecated
-    public MonitoredCounter getMasterCounter() {
+    public AbstractMonitoredCounter getMasterCounter() {
         return getPrimaryCounter();
     }
 }
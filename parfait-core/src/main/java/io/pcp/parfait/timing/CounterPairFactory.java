@@ -23,15 +23,28 @@ import javax.measure.Unit;
 public class CounterPairFactory {
     private final MonitorableRegistry registry;
     private final ThreadMetricSuite metricSuite;
+    private final boolean useStripedCounters;
 
     public CounterPairFactory(MonitorableRegistry registry, ThreadMetricSuite metricSuite) {
+        this(registry, metricSuite, false);
+    }
+
+    /**
+     * @param useStripedCounters
+     *            whether to create the global counters as {@link StripedMonitoredCounter}s, for
+     *            counters incremented by many threads at once
+     */
+    public CounterPairFactory(MonitorableRegistry registry, ThreadMetricSuite metricSuite, boolean useStripedCounters) {
         this.registry = registry;
         this.metricSuite = metricSuite;
+        this.useStripedCounters = useStripedCounters;
     }
 
     public Counter createCounterPair(Unit<?> unit, String globalCounterName, String threadMetricName,
             String threadMetricSuffix, String description) {
-        MonitoredCounter metric = new MonitoredCounter(globalCounterName, description, registry, unit);
+        AbstractMonitoredCounter metric = useStripedCounters
+                ? new StripedMonitoredCounter(globalCounterName, description, registry, unit)
+                : new MonitoredCounter(globalCounterName, description, registry, unit);
         ThreadCounter threadCounter = new ThreadCounter.ThreadMapCounter();
 
         ThreadMetric threadMetric = new ThreadValueMetric(threadMetricName, unit, threadMetricSuffix,
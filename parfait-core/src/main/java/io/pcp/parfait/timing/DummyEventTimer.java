@@ -26,7 +26,7 @@ import io.pcp.parfait.MonitorableRegistry;
  */
 public final class DummyEventTimer extends EventTimer {
     private static final EventMetricCollector DUMMY_EVENT_METRIC_COLLECTOR = new EventMetricCollector(
-            null, Collections.<StepMeasurementSink>emptyList()) {
+            null, Collections.<StepMeasurementSink>emptyList(), new EventMetricCollector.Options()) {
         @Override
         public void startTiming(Object eventGroup, String event) {
             // no-op
@@ -21,11 +21,14 @@ package io.pcp.parfait.timing;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 class EventCounters {
     private final Map<ThreadMetric, EventMetricCounters> metrics = new LinkedHashMap<ThreadMetric, EventMetricCounters>();
+    private final Map<ThreadMetric, EventMetricCounters> measuredCounters = new HashMap<ThreadMetric, EventMetricCounters>();
+    private ThreadMetric[] metricSources = new ThreadMetric[0];
     private final EventMetricCounters invocationCounter;
     private final String eventGroupName;
 
@@ -43,7 +46,19 @@ class EventCounters {
     }
 
     public void addMetric(ThreadMetric metric, EventMetricCounters counter) {
+        addMetric(metric, counter, null);
+    }
+
+    /**
+     * @param measuredCounter
+     *            counts the events for which the metric was measured, or null if it always is
+     */
+    void addMetric(ThreadMetric metric, EventMetricCounters counter, EventMetricCounters measuredCounter) {
         metrics.put(metric, counter);
+        if (measuredCounter != null) {
+            measuredCounters.put(metric, measuredCounter);
+        }
+        metricSources = metrics.keySet().toArray(new ThreadMetric[0]);
     }
 
     Collection<ThreadMetric> getMetricSources() {
@@ -54,6 +69,23 @@ class EventCounters {
         return metrics.get(metric);
     }
 
+    EventMetricCounters getMeasuredCounterForMetric(ThreadMetric metric) {
+        return measuredCounters.get(metric);
+    }
+
+    /**
+     * @return the position of the given metric among the {@link #getMetricSources() metric
+     *         sources}, or -1
+     */
+    int indexOfMetric(ThreadMetric metric) {
+        for (int i = 0; i < metricSources.length; i++) {
+            if (metricSources[i] == metric) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     Integer numberOfTimerCounters() {
         return metrics.values().size();
     }
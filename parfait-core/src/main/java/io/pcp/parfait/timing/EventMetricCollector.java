@@ -16,10 +16,11 @@
 
 package io.pcp.parfait.timing;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * <p>
@@ -27,12 +28,30 @@ import java.util.Map;
  * the process of handling the user request.
  * </p>
  * <p>
+ * Unless a {@link StepMeasurementSink} {@link StepMeasurementSink#retainsMeasurements() retains}
+ * the measurements it is given, the {@link StepMeasurements} handed to the sinks are pooled: every
+ * step of a top-level event takes the next frame from a per-collector pool, and the whole pool is
+ * released for reuse once the top-level event completes. Once the pool has grown to fit the
+ * shape of the requests being timed, timing an event allocates nothing (bar replacing frames
+ * handed out for {@link InProgressSnapshot in-progress snapshots}). Should any sink retain them,
+ * every event gets new frames instead.
+ * </p>
+ * <p>
  * Not thread-safe, should be used only by one thread at a time (obtaining the top-level measurement
- * via {@link #getInProgressMeasurements()} is thread-safe and permitted).
+ * via {@link #getInProgressMeasurements()} is thread-safe and permitted). A frame handed out that
+ * way may still be read after its event completes, so it is retired from the pool rather than
+ * reset for a later event.
  * </p>
  */
 public class EventMetricCollector {
-    private volatile StepMeasurements top = null;
+    /**
+     * The number of frames kept in the pool between top-level events; anything beyond this (from
+     * an unusually wide or deep request) is discarded rather than retained forever.
+     */
+    static final int MAX_RETAINED_FRAMES = 256;
+    private static final int INITIAL_DEPTH = 8;
+
+    private volatile Frame top = null;
 
     private StepMeasurements current = null;
     /**
@@ -40,48 +59,143 @@ public class EventMetricCollector {
      * the top-level event requested by the user.
      */
     private int depth = 0;
-    private Deque<Object> topLevelEvent = new ArrayDeque<Object>();
+    /**
+     * The counters for the event group of each currently-running step, indexed by depth.
+     */
+    private EventCounters[] countersByDepth = new EventCounters[INITIAL_DEPTH];
+
+    private final List<Frame> framePool = new ArrayList<Frame>();
+    private int framesInUse = 0;
+    /**
+     * Whether frames are reused for later events, as no sink keeps hold of them.
+     */
+    private final boolean recyclingFrames;
+
+    /**
+     * Reused for every step boundary when snapshot sampling, otherwise null.
+     */
+    private final ThreadSnapshot snapshot;
+    /**
+     * Where top-level counter increments are accumulated until flushed, or null to increment the
+     * counters directly.
+     */
+    private final CounterAccumulator accumulator;
+    /**
+     * Told whenever this collector's thread starts or finishes a top-level event, or null.
+     */
+    private final ThreadValue.InFlightThreadMap<?> inFlightThreads;
+
+    /**
+     * Decides how much of each top-level event to measure, and is told what measuring it cost, or
+     * null to measure everything.
+     */
+    private final OverheadGovernor governor;
+    /**
+     * The metrics measured during the current top-level event, or null for all of them.
+     */
+    private Set<ThreadMetric> eventMetrics = null;
+    /**
+     * Whether the current top-level event is going unmeasured (beyond being counted) as the
+     * governor is sampling.
+     */
+    private boolean skipping = false;
+    private int eventsSinceSample = 0;
+    private long eventStartNanos;
+    private long overheadNanos;
 
     private final Map<Object, EventCounters> perEventCounters;
     private final List<StepMeasurementSink> sinks;
 
+    /**
+     * @param options
+     *            how the collector measures and counts events; see {@link Options}
+     */
     EventMetricCollector(Map<Object, EventCounters> perEventCounters,
-            List<StepMeasurementSink> measurementSinks) {
+            List<StepMeasurementSink> measurementSinks, Options options) {
+        this.governor = options.governor;
         this.perEventCounters = perEventCounters;
         // Our creator keeps an immutable copy of this so we don't need to defensively clone
         this.sinks = measurementSinks;
+        this.recyclingFrames = noneRetainMeasurements(measurementSinks);
+        this.snapshot = options.snapshotSampling ? new ThreadSnapshot() : null;
+        this.accumulator = options.accumulator;
+        this.inFlightThreads = options.inFlightThreads;
     }
 
     public void startTiming(Object eventGroup, String event) {
-        StepMeasurements newTiming = new StepMeasurements(current, perEventCounters.get(eventGroup).getEventGroupName(),
-                event);
-        for (ThreadMetric metric : perEventCounters.get(eventGroup).getMetricSources()) {
-            newTiming.addMetricInstance(new MetricMeasurement(metric, Thread.currentThread()));
+        long entered = (governor == null) ? 0L : System.nanoTime();
+        EventCounters counters = perEventCounters.get(eventGroup);
+        if (depth == 0 && governor != null) {
+            beginGovernedEvent(entered);
         }
-        current = newTiming;
-        topLevelEvent.addFirst(eventGroup);
+        if (depth == countersByDepth.length) {
+            countersByDepth = Arrays.copyOf(countersByDepth, depth * 2);
+        }
+        countersByDepth[depth] = counters;
         depth++;
+        if (skipping) {
+            return;
+        }
+        Frame frame = nextFrame(counters);
+        StepMeasurements newTiming = frame.measurements;
+        newTiming.reset(current, counters.getEventGroupName(), event);
+        current = newTiming;
         if (top == null) {
-            top = newTiming;
+            top = frame;
+            if (inFlightThreads != null) {
+                inFlightThreads.markInFlight();
+            }
+        }
+        current.startAll(sample(current));
+        if (governor != null) {
+            overheadNanos += System.nanoTime() - entered;
         }
-        current.startAll();
+    }
+
+    private void beginGovernedEvent(long now) {
+        OverheadGovernor.Mode mode = governor.getMode();
+        if (mode == OverheadGovernor.Mode.SAMPLED) {
+            if (++eventsSinceSample < governor.getSamplingInterval()) {
+                skipping = true;
+                return;
+            }
+            eventsSinceSample = 0;
+        }
+        eventMetrics = (mode == OverheadGovernor.Mode.FULL) ? null : governor.getReducedMetrics();
+        eventStartNanos = now;
+        overheadNanos = 0L;
     }
 
     public void stopTiming() {
-        current.stopAll();
+        long entered = (governor == null) ? 0L : System.nanoTime();
+        if (skipping) {
+            depth--;
+            EventCounters counters = countersByDepth[depth];
+            countersByDepth[depth] = null;
+            if (depth == 0) {
+                countInvocation(counters, (accumulator == null) ? null : accumulator.slotsFor(counters));
+                skipping = false;
+            }
+            return;
+        }
+        current.stopAll(sample(current));
         depth--;
-        Object event = topLevelEvent.removeFirst();
+        EventCounters counters = countersByDepth[depth];
+        countersByDepth[depth] = null;
 
-        for (StepMeasurementSink sink : sinks) {
-            sink.handle(current, depth);
+        for (int i = 0; i < sinks.size(); i++) {
+            sinks.get(i).handle(current, depth);
         }
 
-        if (depth == 0 && perEventCounters.containsKey(event)) {
+        if (depth == 0) {
             // We're at the top level, increment our event counters too
-            EventCounters counters = perEventCounters.get(event);
-            for (MetricMeasurement metric : current.getMetricInstances()) {
-                EventMetricCounters counter = counters.getCounterForMetric(metric
-                        .getMetricSource());
+            CounterAccumulator.Slots slots = (accumulator == null) ? null : accumulator.slotsFor(counters);
+            for (int i = 0; i < current.metricInstanceCount(); i++) {
+                MetricMeasurement metric = current.getMetricInstance(i);
+                ThreadMetric source = metric.getMetricSource();
+                // Only some of the group's metrics are measured when governed
+                int index = (eventMetrics == null) ? i : counters.indexOfMetric(source);
+                EventMetricCounters counter = counters.getCounterForMetric(source);
                 if (counter != null) {
                     // We have potential race conditions here in that some metrics (e.g.
                     // SYSTEM_CPU_TIME) cannot be calculated atomically, as they are derived from 2
@@ -92,26 +206,243 @@ public class EventMetricCollector {
                     // total=1000ms, user=810ms (only user has 'ticked' over), system calculated as
                     // 190ms. We spuriously think that the individual request has taken
                     // (190 - 200) = -10ms.
-                    counter.incrementCounters(Math.max(metric.totalValue().getValue().longValue(), 0L));
+                    long value = Math.max(metric.rawTotalValue(), 0L);
+                    if (slots == null) {
+                        counter.incrementCounters(value);
+                    } else {
+                        counter.recordValue(value);
+                        slots.addMetricValue(index, value);
+                    }
+                }
+                if (governor != null) {
+                    countMeasurement(counters.getMeasuredCounterForMetric(source), index, slots);
                 }
             }
-            counters.getInvocationCounter().incrementCounters(1);
+            countInvocation(counters, slots);
         }
         current = current.getParent();
         if (depth == 0) {
             top = null;
+            releaseFrames();
+            if (inFlightThreads != null) {
+                inFlightThreads.markIdle();
+            }
+        }
+        if (governor != null) {
+            long exited = System.nanoTime();
+            overheadNanos += exited - entered;
+            if (depth == 0) {
+                governor.record(overheadNanos, exited - eventStartNanos, exited);
+            }
+        }
+    }
+
+    private void countMeasurement(EventMetricCounters measuredCounter, int index, CounterAccumulator.Slots slots) {
+        if (slots != null) {
+            slots.addMeasurement(index);
+        } else if (measuredCounter != null) {
+            measuredCounter.incrementCounters(1);
+        }
+    }
+
+    private void countInvocation(EventCounters counters, CounterAccumulator.Slots slots) {
+        if (slots == null) {
+            counters.getInvocationCounter().incrementCounters(1);
+        } else {
+            slots.addInvocation();
         }
     }
 
     public void pauseForForward() {
-        current.pauseAll();
+        if (skipping) {
+            return;
+        }
+        long entered = (governor == null) ? 0L : System.nanoTime();
+        current.pauseAll(sample(current));
+        if (governor != null) {
+            overheadNanos += System.nanoTime() - entered;
+        }
     }
 
     public void resumeAfterForward() {
-        current.resumeAll();
+        if (skipping) {
+            return;
+        }
+        long entered = (governor == null) ? 0L : System.nanoTime();
+        current.resumeAll(sample(current));
+        if (governor != null) {
+            overheadNanos += System.nanoTime() - entered;
+        }
+    }
+
+    private static boolean noneRetainMeasurements(List<StepMeasurementSink> sinks) {
+        for (StepMeasurementSink sink : sinks) {
+            if (sink.retainsMeasurements()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ThreadSnapshot sample(StepMeasurements step) {
+        if (snapshot == null || step.getSnapshotSources() == 0) {
+            return null;
+        }
+        snapshot.capture(Thread.currentThread(), step.getSnapshotSources());
+        return snapshot;
     }
 
     final StepMeasurements getInProgressMeasurements() {
-        return top;
+        Frame frame;
+        while ((frame = top) != null) {
+            // Pin the frame before checking it's still in use: either we see it has been released,
+            // or releaseFrames() (which clears top before checking) sees the pin and retires it
+            frame.pinned = true;
+            if (top == frame) {
+                return frame.measurements;
+            }
+        }
+        return null;
+    }
+
+    int getPooledFrameCount() {
+        return framePool.size();
+    }
+
+    private Frame nextFrame(EventCounters counters) {
+        Frame frame;
+        if (framesInUse < framePool.size()) {
+            frame = framePool.get(framesInUse);
+            if (frame == null || !frame.adoptCounters(counters, eventMetrics)) {
+                frame = new Frame(counters, eventMetrics);
+                framePool.set(framesInUse, frame);
+            }
+        } else {
+            frame = new Frame(counters, eventMetrics);
+            framePool.add(frame);
+        }
+        framesInUse++;
+        return frame;
+    }
+
+    private void releaseFrames() {
+        if (!recyclingFrames) {
+            framePool.clear();
+            framesInUse = 0;
+            return;
+        }
+        for (int i = 0; i < framesInUse; i++) {
+            Frame frame = framePool.get(i);
+            if (frame != null && frame.pinned) {
+                // Left to whoever's reading it; nextFrame() makes a new one in its place
+                framePool.set(i, null);
+            }
+        }
+        framesInUse = 0;
+        if (framePool.size() > MAX_RETAINED_FRAMES) {
+            framePool.subList(MAX_RETAINED_FRAMES, framePool.size()).clear();
+        }
+    }
+
+    /**
+     * The optional behaviours of a collector, which by default measures and counts every event
+     * directly.
+     */
+    static final class Options {
+        private boolean snapshotSampling;
+        private CounterAccumulator accumulator;
+        private ThreadValue.InFlightThreadMap<?> inFlightThreads;
+        private OverheadGovernor governor;
+
+        /**
+         * Captures all the {@link SnapshotThreadMetric} values of a step in one
+         * {@link ThreadSnapshot} at each step boundary.
+         */
+        Options snapshotSampling(boolean snapshotSampling) {
+            this.snapshotSampling = snapshotSampling;
+            return this;
+        }
+
+        /**
+         * Accumulates top-level counter increments in the owning thread's slots, if non-null,
+         * rather than applying them directly to the shared counters.
+         */
+        Options accumulator(CounterAccumulator accumulator) {
+            this.accumulator = accumulator;
+            return this;
+        }
+
+        /**
+         * Marks the owning thread as in flight in the given map (the one holding the collector),
+         * if non-null, for the duration of each top-level event.
+         */
+        Options inFlightThreads(ThreadValue.InFlightThreadMap<?> inFlightThreads) {
+            this.inFlightThreads = inFlightThreads;
+            return this;
+        }
+
+        /**
+         * Lets the given governor, if non-null, decide which metrics (if any) are measured for
+         * each top-level event; it is told the time spent in the collector's methods during each.
+         */
+        Options governor(OverheadGovernor governor) {
+            this.governor = governor;
+            return this;
+        }
+    }
+
+    /**
+     * A pooled {@link StepMeasurements}, along with the event group (and the subset of its metric
+     * sources, if not all of them) it was populated for.
+     */
+    private static final class Frame {
+        private EventCounters counters;
+        private Set<ThreadMetric> only;
+        private final StepMeasurements measurements;
+        /**
+         * Set once the frame has been handed to another thread by
+         * {@link EventMetricCollector#getInProgressMeasurements()}.
+         */
+        private volatile boolean pinned;
+
+        Frame(EventCounters counters, Set<ThreadMetric> only) {
+            this.counters = counters;
+            this.only = only;
+            this.measurements = new StepMeasurements(null, null, null);
+            for (ThreadMetric metric : counters.getMetricSources()) {
+                if (only == null || only.contains(metric)) {
+                    measurements.addMetricInstance(new MetricMeasurement(metric, Thread.currentThread()));
+                }
+            }
+        }
+
+        /**
+         * Switches this frame over to another event group (or subset of metrics), provided that
+         * it measures the same metric sources (as all groups of a single {@link EventTimer} do).
+         *
+         * @return false if the frame's measurements don't suit the given event group
+         */
+        boolean adoptCounters(EventCounters newCounters, Set<ThreadMetric> newOnly) {
+            if (newCounters == counters && newOnly == only) {
+                return true;
+            }
+            int i = 0;
+            for (ThreadMetric metric : newCounters.getMetricSources()) {
+                if (newOnly != null && !newOnly.contains(metric)) {
+                    continue;
+                }
+                if (i >= measurements.metricInstanceCount()
+                        || measurements.getMetricInstance(i).getMetricSource() != metric) {
+                    return false;
+                }
+                i++;
+            }
+            if (i != measurements.metricInstanceCount()) {
+                return false;
+            }
+            counters = newCounters;
+            only = newOnly;
+            return true;
+        }
     }
 }
@@ -16,7 +16,8 @@
 
 package io.pcp.parfait.timing;
 
-import io.pcp.parfait.MonitoredCounter;
+import io.pcp.parfait.AbstractMonitoredCounter;
+import io.pcp.parfait.MonitoredHistogram;
 import com.google.common.base.Preconditions;
 
 /**
@@ -26,24 +27,55 @@ import com.google.common.base.Preconditions;
  * EventMetricCounters objects which are measuring the same metric.
  */
 public class EventMetricCounters {
-    private final MonitoredCounter eventSpecificCounter;
-    private final MonitoredCounter totalCounter;
+    private final AbstractMonitoredCounter eventSpecificCounter;
+    private final AbstractMonitoredCounter totalCounter;
+    private final MonitoredHistogram histogram;
 
-    public EventMetricCounters(MonitoredCounter eventSpecificCounter, MonitoredCounter totalCounter) {
+    public EventMetricCounters(AbstractMonitoredCounter eventSpecificCounter, AbstractMonitoredCounter totalCounter) {
+        this(eventSpecificCounter, totalCounter, null);
+    }
+
+    /**
+     * @param histogram
+     *            optional distribution of the individual values, or null
+     */
+    EventMetricCounters(AbstractMonitoredCounter eventSpecificCounter, AbstractMonitoredCounter totalCounter,
+            MonitoredHistogram histogram) {
         this.eventSpecificCounter = Preconditions.checkNotNull(eventSpecificCounter,
                 "Cannot provide null event-specific metric counter");
         this.totalCounter = Preconditions.checkNotNull(totalCounter,
                 "Cannot provide null total metric counter");
+        this.histogram = histogram;
     }
 
     public void incrementCounters(long value) {
+        incrementTotals(value);
+        recordValue(value);
+    }
+
+    /**
+     * Adds to the event-specific and total counters only.
+     */
+    void incrementTotals(long value) {
         eventSpecificCounter.inc(value);
         totalCounter.inc(value);
+    }
 
+    /**
+     * Adds a single event's value to the histogram, if any.
+     */
+    void recordValue(long value) {
+        if (histogram != null) {
+            histogram.record(value);
+        }
     }
 
-    MonitoredCounter getTotalCounter() {
+    AbstractMonitoredCounter getTotalCounter() {
         return totalCounter;
     }
 
+    MonitoredHistogram getHistogram() {
+        return histogram;
+    }
+
 }
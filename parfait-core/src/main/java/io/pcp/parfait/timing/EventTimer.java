@@ -17,11 +17,15 @@
 package io.pcp.parfait.timing;
 
 import java.lang.management.ManagementFactory;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static tech.units.indriya.AbstractUnit.ONE;
 import javax.measure.Unit;
@@ -29,8 +33,12 @@ import javax.measure.Unit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.pcp.parfait.AbstractMonitoredCounter;
 import io.pcp.parfait.MonitorableRegistry;
 import io.pcp.parfait.MonitoredCounter;
+import io.pcp.parfait.MonitoredHistogram;
+import io.pcp.parfait.StripedMonitoredCounter;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import net.jcip.annotations.ThreadSafe;
 
@@ -47,27 +55,33 @@ public class EventTimer {
      */
     private static final Logger LOG = LoggerFactory.getLogger(EventTimer.class);
 
+    /**
+     * How often, in milliseconds, an {@link OverheadGovernor}'s exported metrics are updated.
+     */
+    private static final int OVERHEAD_UPDATE_INTERVAL = 1000;
+
     private final Map<Object, EventCounters> perEventGroupCounters = new ConcurrentHashMap<Object, EventCounters>();
 
     private final List<StepMeasurementSink> stepMeasurementSinks;
 
-    private final ThreadValue<EventMetricCollector> metricCollectors = new ThreadValue.WeakReferenceThreadMap<EventMetricCollector>() {
-        @Override
-        protected EventMetricCollector initialValue() {
-            return new EventMetricCollector(perEventGroupCounters, stepMeasurementSinks);
-        }
-    };
+    private volatile ThreadValue<EventMetricCollector> metricCollectors = newCollectorMap(false);
 
 
     /**
      * Holds the singleton total counters which are used across all events. The key is the
      * metric name
      */
-    private final Map<String, MonitoredCounter> totalCountersAcrossEvents = new HashMap<String, MonitoredCounter>();
+    private final Map<String, AbstractMonitoredCounter> totalCountersAcrossEvents = new HashMap<String, AbstractMonitoredCounter>();
 
     private final ThreadMetricSuite metricSuite;
     private final String prefix;
     private final MonitorableRegistry registry;
+    private volatile boolean useStripedCounters = false;
+    private volatile boolean histogramsEnabled = false;
+    private volatile Duration accumulationFlushInterval;
+    private final List<CounterAccumulator> accumulators = new CopyOnWriteArrayList<CounterAccumulator>();
+    private Timer flushTimer;
+    private volatile OverheadGovernor overheadGovernor;
 
     public EventTimer(String prefix, MonitorableRegistry registry, ThreadMetricSuite metrics,
                       boolean enableCpuCollection, boolean enableContentionCollection) {
@@ -88,6 +102,168 @@ public class EventTimer {
         this.stepMeasurementSinks = ImmutableList.copyOf(stepMeasurementSinks);
     }
 
+    /**
+     * Creates the event and total counters of subsequently registered event groups as
+     * {@link StripedMonitoredCounter}s, which don't contend on a single value (the total counters are
+     * shared by every thread timing any event) at the cost of publishing their values periodically.
+     */
+    public void setUseStripedCounters(boolean useStripedCounters) {
+        this.useStripedCounters = useStripedCounters;
+    }
+
+    /**
+     * Keeps a {@link MonitoredHistogram} of every metric's per-event values for each subsequently
+     * registered event group, alongside the cumulative counters, named
+     * <code>prefix.group.histogram.suffix</code>. In PCP each is exported as an instance domain of
+     * bucket counters, e.g. <code>prefix.logon.histogram.time[le_20ms]</code> counting the events
+     * which took up to 20ms, from which percentiles can be derived over any interval.
+     */
+    public void setHistogramsEnabled(boolean histogramsEnabled) {
+        this.histogramsEnabled = histogramsEnabled;
+    }
+
+    /**
+     * Switches between incrementing the shared event and total counters at the end of every
+     * top-level event (the default, a null interval), and accumulating those increments in slots
+     * owned by each timing thread, which are folded into the shared counters by
+     * {@link #flushAccumulatedCounters()} once per interval from a single background thread. This
+     * takes the contended counters (and the resulting PCP writes) off the request path, at the
+     * cost of their values being up to one interval late. Histograms are still recorded
+     * immediately. Applies to threads which have not yet timed an event: threads which started
+     * accumulating keep doing so, so when switched back to a null interval the background thread
+     * keeps flushing at the last interval until all of them have finished.
+     *
+     * @param interval how often to flush accumulated increments, or null to increment directly
+     */
+    public synchronized void setAccumulationFlushInterval(Duration interval) {
+        Preconditions.checkArgument(interval == null || !interval.isNegative() && !interval.isZero(),
+                "Accumulation flush interval must be positive");
+        this.accumulationFlushInterval = interval;
+        if (interval != null) {
+            cancelFlushTimer();
+            flushTimer = new Timer("EventTimer-flusher", true);
+            flushTimer.scheduleAtFixedRate(new TimerTask() {
+                @Override
+                public void run() {
+                    try {
+                        flushAccumulatedCounters();
+                    } catch (RuntimeException e) {
+                        LOG.error("Unable to flush accumulated event counters", e);
+                    }
+                    stopFlushingIfIdle();
+                }
+            }, interval.toMillis(), interval.toMillis());
+        } else {
+            flushAccumulatedCounters();
+            stopFlushingIfIdle();
+        }
+    }
+
+    /**
+     * Stops the background thread flushing accumulated counters, after a final flush. Threads
+     * which were accumulating go on doing so, and from then on are only published by explicit
+     * calls to {@link #flushAccumulatedCounters()}; new threads increment the counters directly.
+     */
+    public synchronized void stop() {
+        accumulationFlushInterval = null;
+        cancelFlushTimer();
+        flushAccumulatedCounters();
+    }
+
+    private synchronized void stopFlushingIfIdle() {
+        if (accumulationFlushInterval == null && accumulators.isEmpty()) {
+            cancelFlushTimer();
+        }
+    }
+
+    private void cancelFlushTimer() {
+        if (flushTimer != null) {
+            flushTimer.cancel();
+            flushTimer = null;
+        }
+    }
+
+    /**
+     * Keeps each thread's {@link EventMetricCollector} in a {@link ThreadLocal} (see
+     * {@link ThreadValue.InFlightThreadMap}) rather than a weakly-keyed map of every thread which
+     * has ever timed an event, registering a thread for {@link InProgressSnapshot in-progress
+     * snapshots} only while it has a top-level event in progress. This suits servers running
+     * each request on its own short-lived (e.g. virtual) thread. Must be set before any events
+     * are timed.
+     */
+    public synchronized void setInFlightThreadTracking(boolean inFlightThreadTracking) {
+        Preconditions.checkState(metricCollectors.asMap().isEmpty(),
+                "Cannot change thread tracking once events have been timed");
+        metricCollectors = newCollectorMap(inFlightThreadTracking);
+    }
+
+    /**
+     * Keeps the cost of timing events within the given governor's budget, by measuring fewer
+     * metrics or fewer events when it is exceeded. The governor's mode and measured overhead are
+     * exported as <code>prefix.overhead.*</code> metrics. As the <code>count</code> of each event
+     * group then includes events some metrics weren't measured for, each metric gets a
+     * <code>prefix.group.measured.suffix</code> count of the events it was measured for, which is
+     * what its value (and histogram) should be averaged over. Must be set before any event groups
+     * are registered.
+     */
+    public synchronized void setOverheadGovernor(OverheadGovernor governor) {
+        Preconditions.checkState(metricCollectors.asMap().isEmpty(),
+                "Cannot add an overhead governor once events have been timed");
+        Preconditions.checkState(perEventGroupCounters.isEmpty(),
+                "Cannot add an overhead governor once event groups have been registered");
+        Preconditions.checkState(overheadGovernor == null, "An overhead governor is already set");
+        governor.exportMetrics(registry, prefix + ".overhead", OVERHEAD_UPDATE_INTERVAL);
+        this.overheadGovernor = governor;
+    }
+
+    private ThreadValue<EventMetricCollector> newCollectorMap(boolean inFlightThreadTracking) {
+        if (inFlightThreadTracking) {
+            return new ThreadValue.InFlightThreadMap<EventMetricCollector>() {
+                @Override
+                protected EventMetricCollector initialValue() {
+                    return newCollector(this);
+                }
+            };
+        }
+        return new ThreadValue.WeakReferenceThreadMap<EventMetricCollector>() {
+            @Override
+            protected EventMetricCollector initialValue() {
+                return newCollector(null);
+            }
+        };
+    }
+
+    private EventMetricCollector newCollector(ThreadValue.InFlightThreadMap<?> inFlightThreads) {
+        CounterAccumulator accumulator = null;
+        // Registered under the same lock as the flusher is stopped, so it's never left unflushed
+        synchronized (this) {
+            if (accumulationFlushInterval != null) {
+                accumulator = new CounterAccumulator(Thread.currentThread());
+                accumulators.add(accumulator);
+            }
+        }
+        return new EventMetricCollector(perEventGroupCounters, stepMeasurementSinks, new EventMetricCollector.Options()
+                .snapshotSampling(metricSuite.isSnapshotSampling())
+                .accumulator(accumulator)
+                .inFlightThreads(inFlightThreads)
+                .governor(overheadGovernor));
+    }
+
+    /**
+     * Adds every increment accumulated by timing threads since the last flush to the shared
+     * counters, and forgets the accumulators of threads which have finished.
+     */
+    public void flushAccumulatedCounters() {
+        for (CounterAccumulator accumulator : accumulators) {
+            // Check first, so that anything the thread added before finishing is still flushed
+            boolean abandoned = accumulator.isAbandoned();
+            accumulator.flush();
+            if (abandoned) {
+                accumulators.remove(accumulator);
+            }
+        }
+    }
+
     public EventMetricCollector getCollector() {
         return metricCollectors.get();
     }
@@ -108,34 +284,60 @@ public class EventTimer {
 
         for (ThreadMetric metric : metricSuite.metrics()) {
             EventMetricCounters timingCounter = createEventMetricCounters(eventGroup, metric
-                    .getCounterSuffix(), metric.getDescription(), metric.getUnit());
-            counters.addMetric(metric, timingCounter);
+                    .getCounterSuffix(), metric.getDescription(), metric.getUnit(), histogramsEnabled);
+            EventMetricCounters measuredCounter = null;
+            if (overheadGovernor != null) {
+                measuredCounter = createEventMetricCounters(eventGroup, "measured." + metric.getCounterSuffix(),
+                        "Number of times the event was directly triggered and its " + metric.getMetricName()
+                                + " measured", ONE);
+            }
+            counters.addMetric(metric, timingCounter, measuredCounter);
         }
 
         return counters;
     }
 
-    private MonitoredCounter createMetric(String beanName, String metric, String description, Unit<?> unit) {
+    private AbstractMonitoredCounter createMetric(String beanName, String metric, String description, Unit<?> unit) {
         String metricName = getMetricName(beanName, metric);
         String metricDescription = String.format(description, beanName);
         LOG.debug("Created metric: " + metricName + "\t" + metricDescription);
+        return newCounter(metricName, metricDescription, unit);
+    }
+
+    private AbstractMonitoredCounter newCounter(String metricName, String metricDescription, Unit<?> unit) {
+        if (useStripedCounters) {
+            return new StripedMonitoredCounter(metricName, metricDescription, registry, unit);
+        }
         return new MonitoredCounter(metricName, metricDescription, registry, unit);
     }
 
     private EventMetricCounters createEventMetricCounters(String beanName, String metric,
                                                           String metricDescription, Unit<?> unit) {
-        MonitoredCounter metricCounter = createMetric(beanName, metric, metricDescription + " ["
+        return createEventMetricCounters(beanName, metric, metricDescription, unit, false);
+    }
+
+    private EventMetricCounters createEventMetricCounters(String beanName, String metric,
+                                                          String metricDescription, Unit<?> unit,
+                                                          boolean withHistogram) {
+        AbstractMonitoredCounter metricCounter = createMetric(beanName, metric, metricDescription + " ["
                 + beanName + "]", unit);
-        MonitoredCounter totalCounter;
+        AbstractMonitoredCounter totalCounter;
 
         totalCounter = totalCountersAcrossEvents.get(metric);
         if (totalCounter == null) {
-            totalCounter = new MonitoredCounter(getTotalMetricName(metric), metricDescription
-                    + " [TOTAL]", registry, unit);
+            totalCounter = newCounter(getTotalMetricName(metric), metricDescription
+                    + " [TOTAL]", unit);
             totalCountersAcrossEvents.put(metric, totalCounter);
         }
 
-        return new EventMetricCounters(metricCounter, totalCounter);
+        MonitoredHistogram histogram = null;
+        if (withHistogram) {
+            histogram = new MonitoredHistogram(getMetricName(beanName, "histogram." + metric),
+                    String.format("Distribution of " + metricDescription + " [" + beanName + "]", beanName),
+                    registry, unit);
+        }
+
+        return new EventMetricCounters(metricCounter, totalCounter, histogram);
     }
 
     private String getMetricName(String eventGroup, String metric) {
@@ -163,6 +365,14 @@ public class EventTimer {
         return metricSuite;
     }
 
+    int getAccumulatorCount() {
+        return accumulators.size();
+    }
+
+    synchronized boolean isFlushing() {
+        return flushTimer != null;
+    }
+
     Map<Thread, EventMetricCollector> getCollectorThreadMap() {
         return metricCollectors.asMap();
     }
@@ -16,10 +16,11 @@
 
 package io.pcp.parfait.timing;
 
-import java.util.Collection;
+import java.math.BigDecimal;
 import java.util.Map;
 
 import javax.measure.Unit;
+import javax.measure.UnitConverter;
 
 import net.jcip.annotations.ThreadSafe;
 
@@ -32,6 +33,11 @@ import com.google.common.collect.Maps;
 public class LoggerSink implements StepMeasurementSink {
     private final Logger logger;
     private final Map<Unit<?>, Unit<?>> normalizations = Maps.newConcurrentMap();
+    /**
+     * Converters from each metric's own unit to the unit it is logged in, worked out once per unit
+     * rather than per measurement; units which aren't normalized get one that leaves values as they are.
+     */
+    private final Map<Unit<?>, Normalization> converters = Maps.newConcurrentMap();
 
     public LoggerSink() {
         this(LoggerSink.class.getName());
@@ -42,39 +48,79 @@ public class LoggerSink implements StepMeasurementSink {
     }
 
 
+    @Override
+    public boolean retainsMeasurements() {
+        return false;
+    }
+
     @Override
     public void handle(StepMeasurements measurements, int depth) {
-        String depthText = buildDepthString(depth);
-        String metricData = buildMetricDataString(measurements.getMetricInstances());
-        logger.info(String.format("%s\t%s\t%s\t%s", depthText, measurements.getForwardTrace(), measurements
-                .getBackTrace(), metricData));
+        if (!logger.isInfoEnabled()) {
+            return;
+        }
+        StringBuilder builder = new StringBuilder(256);
+        appendDepth(builder, depth).append('\t');
+        measurements.appendForwardTrace(builder).append('\t');
+        measurements.appendBackTrace(builder).append('\t');
+        for (int i = 0; i < measurements.metricInstanceCount(); i++) {
+            appendSingleMetricResult(builder.append('\t'), measurements.getMetricInstance(i));
+        }
+        logger.info(builder.toString());
+    }
 
+    private StringBuilder appendDepth(StringBuilder builder, int depth) {
+        return (depth > 0) ? builder.append("Nested (").append(depth).append(')') : builder.append("Top");
     }
 
-    private String buildDepthString(int depth) {
-        return (depth > 0) ? "Nested (" + depth + ")" : "Top";
+    String buildSingleMetricResult(MetricMeasurement metric) {
+        return appendSingleMetricResult(new StringBuilder(), metric).toString();
     }
 
-    private String buildMetricDataString(Collection<MetricMeasurement> metricInstances) {
-        String result = "";
-        for (MetricMeasurement metric : metricInstances) {
-            result += "\t" + buildSingleMetricResult(metric);
-        }
-        return result;
+    private StringBuilder appendSingleMetricResult(StringBuilder builder, MetricMeasurement metric) {
+        Normalization normalization = normalizationFor(metric.getMetricSource().getUnit());
+        builder.append(metric.getMetricName()).append(": own ");
+        normalization.append(builder, metric.rawOwnTimeValue()).append(", total ");
+        return normalization.append(builder, metric.rawTotalValue());
     }
 
-    @SuppressWarnings({ "unchecked", "rawtypes" })
-    String buildSingleMetricResult(MetricMeasurement metric) {
-    	Unit canonicalUnit = normalizations.get(metric.getMetricSource().getUnit());
-        if (canonicalUnit == null) {
-            canonicalUnit = metric.getMetricSource().getUnit();
+    private Normalization normalizationFor(Unit<?> unit) {
+        Normalization normalization = converters.get(unit);
+        if (normalization == null) {
+            normalization = Normalization.of(unit, normalizations.get(unit));
+            converters.put(unit, normalization);
         }
-        return metric.getMetricName() + ": own " +
-                metric.ownTimeValue().to(canonicalUnit) + ", total " + metric.totalValue().to(canonicalUnit);
+        return normalization;
     }
 
-
     public void normalizeUnits(Unit<?> originalUnit, Unit<?> normalizedUnit) {
         normalizations.put(originalUnit, normalizedUnit);
+        converters.remove(originalUnit);
+    }
+
+    private static final class Normalization {
+        private final UnitConverter converter;
+        private final String unitSuffix;
+
+        private Normalization(UnitConverter converter, Unit<?> unit) {
+            this.converter = converter;
+            this.unitSuffix = " " + unit;
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        static Normalization of(Unit<?> unit, Unit<?> normalizedUnit) {
+            if (normalizedUnit == null || normalizedUnit.equals(unit)) {
+                return new Normalization(null, unit);
+            }
+            return new Normalization(((Unit) unit).getConverterTo(normalizedUnit), normalizedUnit);
+        }
+
+        StringBuilder append(StringBuilder builder, long value) {
+            if (converter == null) {
+                return builder.append(value).append(unitSuffix);
+            }
+            double converted = converter.convert((double) value);
+            return builder.append(BigDecimal.valueOf(converted).stripTrailingZeros().toPlainString())
+                    .append(unitSuffix);
+        }
     }
 }
@@ -36,15 +36,20 @@ import com.google.common.base.Preconditions;
 class MetricMeasurement {
 	private static final Logger LOG = LoggerFactory.getLogger(MetricMeasurement.class);
 	
-    private volatile Long startValue;
-    private Long endValue;
-    private Long lastStartOwnTimeValue;
+    private volatile boolean started;
+    private volatile long startValue;
+    private boolean counting;
+    private boolean stopped;
+    private long endValue;
+    private long lastStartOwnTimeValue;
     private long ownValueSoFar = 0L;
     private final ThreadMetric metricSource;
+    private final SnapshotThreadMetric snapshotMetric;
     private final Thread thread;
 
     public MetricMeasurement(ThreadMetric metricSource, Thread thread) {
         this.metricSource = metricSource;        
+        this.snapshotMetric = (metricSource instanceof SnapshotThreadMetric) ? (SnapshotThreadMetric) metricSource : null;
         this.thread = thread;
         if (metricSource != null && LOG.isDebugEnabled()) {
 	        LOG.debug("Constructor: ThreadMetric ({}, {}, {}), Thread({})",
@@ -54,50 +59,118 @@ class MetricMeasurement {
         }
     }
 
+    /**
+     * Creates an already-stopped measurement holding the given values, e.g. to stand in for one
+     * whose values were copied out before the original was recycled.
+     */
+    static MetricMeasurement recorded(ThreadMetric metricSource, long ownValue, long totalValue) {
+        MetricMeasurement measurement = new MetricMeasurement(metricSource, null);
+        measurement.startValue = 0L;
+        measurement.endValue = totalValue;
+        measurement.ownValueSoFar = ownValue;
+        measurement.stopped = true;
+        return measurement;
+    }
+
     public void startTimer() {
-        Preconditions.checkState(startValue == null, "Can't start running timer");
-        this.startValue = metricSource.getValueForThread(thread);
+        startTimer(null);
+    }
+
+    /**
+     * As {@link #startTimer()}, but reading the value from the given snapshot (if non-null) when
+     * the metric source is a {@link SnapshotThreadMetric}; likewise for the other snapshot-taking
+     * methods below.
+     */
+    void startTimer(ThreadSnapshot snapshot) {
+        Preconditions.checkState(!started, "Can't start running timer");
+        this.startValue = currentValue(snapshot);
         this.lastStartOwnTimeValue = this.startValue;
         this.ownValueSoFar = 0L;
+        this.counting = true;
+        this.started = true;
     }
 
     public void pauseOwnTime() {
-    	Preconditions.checkState(startValue != null, "Can't pause own time while timer is stopped");
-    	Preconditions.checkState(lastStartOwnTimeValue != null, "Can't pause own time while already paused");
-        this.ownValueSoFar += (metricSource.getValueForThread(thread) - lastStartOwnTimeValue);
-        this.lastStartOwnTimeValue = null;
+        pauseOwnTime(null);
+    }
+
+    void pauseOwnTime(ThreadSnapshot snapshot) {
+    	Preconditions.checkState(started, "Can't pause own time while timer is stopped");
+    	Preconditions.checkState(counting, "Can't pause own time while already paused");
+        this.ownValueSoFar += (currentValue(snapshot) - lastStartOwnTimeValue);
+        this.counting = false;
     }
 
     public void resumeOwnTime() {
-    	Preconditions.checkState(startValue != null, "Can't resume own time while timer is stopped");
-    	Preconditions.checkState(lastStartOwnTimeValue == null, "Can't resume own time - already counting");
-    	Preconditions.checkState(endValue == null, "Can't resume own time - stopped");
-        this.lastStartOwnTimeValue = metricSource.getValueForThread(thread);
+        resumeOwnTime(null);
+    }
+
+    void resumeOwnTime(ThreadSnapshot snapshot) {
+    	Preconditions.checkState(started, "Can't resume own time while timer is stopped");
+    	Preconditions.checkState(!counting, "Can't resume own time - already counting");
+    	Preconditions.checkState(!stopped, "Can't resume own time - stopped");
+        this.lastStartOwnTimeValue = currentValue(snapshot);
+        this.counting = true;
     }
 
     public void stopTimer() {
-        pauseOwnTime();
-        endValue = metricSource.getValueForThread(thread);
+        stopTimer(null);
+    }
+
+    void stopTimer(ThreadSnapshot snapshot) {
+        pauseOwnTime(snapshot);
+        endValue = currentValue(snapshot);
+        stopped = true;
+    }
+
+    private long currentValue(ThreadSnapshot snapshot) {
+        if (snapshot != null && snapshotMetric != null) {
+            return snapshotMetric.getValue(snapshot);
+        }
+        return metricSource.getValueForThread(thread);
+    }
+
+    /**
+     * Returns this measurement to its freshly-constructed state so that it can be started again
+     * for a later event on the same thread.
+     */
+    void reset() {
+        started = false;
+        counting = false;
+        stopped = false;
+        ownValueSoFar = 0L;
     }
 
     public Quantity<?> totalValue() {
-    	Preconditions.checkState(endValue != null, "Can't measure time until timer is stopped");
-    	return Quantities.getQuantity(endValue - startValue, metricSource.getUnit());
+    	return Quantities.getQuantity(rawTotalValue(), metricSource.getUnit());
     }
 
     public Quantity<?> ownTimeValue() {
-    	Preconditions.checkState(endValue != null, "Can't measure time until timer is stopped");    	
-        return Quantities.getQuantity(ownValueSoFar, metricSource.getUnit());
+        return Quantities.getQuantity(rawOwnTimeValue(), metricSource.getUnit());
+    }
+
+    /**
+     * @return the total value, in the metric's own unit, without allocating a {@link Quantity}
+     */
+    long rawTotalValue() {
+    	Preconditions.checkState(stopped, "Can't measure time until timer is stopped");
+        return endValue - startValue;
+    }
+
+    /**
+     * @return the own-time value, in the metric's own unit, without allocating a {@link Quantity}
+     */
+    long rawOwnTimeValue() {
+    	Preconditions.checkState(stopped, "Can't measure time until timer is stopped");
+        return ownValueSoFar;
     }
 
     public long inProgressValue() {
-        Long start = startValue;
-        Long snapshot = metricSource.getValueForThread(thread);
-        
-        if (start == null || snapshot == null) {
+        if (!started) {
             return 0;
         }
-        return snapshot - start;
+        long start = startValue;
+        return metricSource.getValueForThread(thread) - start;
     }
 
     public String getMetricName() {
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.timing;
+
+import static tech.units.indriya.AbstractUnit.ONE;
+import static tech.units.indriya.unit.Units.SECOND;
+import static javax.measure.MetricPrefix.NANO;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.pcp.parfait.MonitorableRegistry;
+import io.pcp.parfait.PollingMonitoredValue;
+import io.pcp.parfait.ValueSemantics;
+import net.jcip.annotations.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Keeps the cost of an {@link EventTimer}'s instrumentation within a budget, expressed as a
+ * fraction of the time spent in the events being timed. Each {@link EventMetricCollector} reports
+ * the time it spent in its own start, stop, pause and resume calls for every top-level event,
+ * along with the event's elapsed time. Once per evaluation interval the governor works out the
+ * overhead over that interval and moves between {@link Mode modes}: stepping down a mode when the
+ * overhead is over budget, and back up once it is under half the budget.
+ * <p>
+ * Collectors pick up a new mode at the start of their next top-level event. Install a governor
+ * with {@link EventTimer#setOverheadGovernor(OverheadGovernor)}, which also exports its mode and
+ * measured overhead.
+ * </p>
+ */
+@ThreadSafe
+public class OverheadGovernor {
+    public static final Duration DEFAULT_EVALUATION_INTERVAL = Duration.ofSeconds(10);
+    public static final int DEFAULT_SAMPLING_INTERVAL = 10;
+    /**
+     * How far under budget the overhead must be before stepping back up a mode, so that the
+     * governor doesn't flap between two modes whose overheads straddle the budget.
+     */
+    private static final double RECOVERY_FRACTION = 0.5;
+
+    /**
+     * How much of each top-level event is measured. In every mode each event still adds to its
+     * group's <code>count</code>, but a metric's counters (and histogram) only grow for the events
+     * it was measured for, as counted by its <code>measured</code> counter (see
+     * {@link EventTimer#setOverheadGovernor(OverheadGovernor)}). Averages and percentiles
+     * should therefore be taken over that count rather than the invocation count; they then
+     * describe the measured events, which in {@link #SAMPLED} mode are a sample of the rest.
+     */
+    public enum Mode {
+        /** Every metric of every event is measured. */
+        FULL,
+        /**
+         * Only the reduced metrics (by default, elapsed time) are measured; the others stop
+         * growing along with their <code>measured</code> counts.
+         */
+        REDUCED,
+        /**
+         * Only one in every sampling interval top-level events is measured, using the reduced
+         * metrics; the others are only counted. Values are not scaled up to make up for the
+         * events skipped.
+         */
+        SAMPLED
+    }
+
+    private final double budget;
+    private volatile Set<ThreadMetric> reducedMetrics = ImmutableSet.of(StandardThreadMetrics.CLOCK_TIME);
+    private volatile int samplingInterval = DEFAULT_SAMPLING_INTERVAL;
+    private volatile long evaluationIntervalNanos = DEFAULT_EVALUATION_INTERVAL.toNanos();
+
+    private volatile Mode mode = Mode.FULL;
+    private volatile double lastOverhead;
+    private final AtomicLong nextEvaluation = new AtomicLong(Long.MIN_VALUE);
+    private final LongAdder windowOverhead = new LongAdder();
+    private final LongAdder windowElapsed = new LongAdder();
+    private final LongAdder totalOverhead = new LongAdder();
+    private final LongAdder totalElapsed = new LongAdder();
+
+    /**
+     * @param budget
+     *            the largest acceptable overhead as a fraction of event time, e.g. 0.01 for 1%
+     */
+    public OverheadGovernor(double budget) {
+        Preconditions.checkArgument(budget > 0 && budget < 1, "Budget must be between 0 and 1");
+        this.budget = budget;
+    }
+
+    /**
+     * Sets the metrics measured in {@link Mode#REDUCED} and {@link Mode#SAMPLED} modes; metrics
+     * an event group doesn't measure anyway are ignored.
+     */
+    public void setReducedMetrics(Collection<ThreadMetric> reducedMetrics) {
+        this.reducedMetrics = ImmutableSet.copyOf(reducedMetrics);
+    }
+
+    /**
+     * Sets how many top-level events there are for each one measured in {@link Mode#SAMPLED} mode.
+     */
+    public void setSamplingInterval(int samplingInterval) {
+        Preconditions.checkArgument(samplingInterval > 0, "Sampling interval must be positive");
+        this.samplingInterval = samplingInterval;
+    }
+
+    public void setEvaluationInterval(Duration interval) {
+        Preconditions.checkArgument(!interval.isNegative() && !interval.isZero(),
+                "Evaluation interval must be positive");
+        this.evaluationIntervalNanos = interval.toNanos();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the overhead over the last evaluation interval, as a fraction of event time (allowing
+     *         for the events not measured in {@link Mode#SAMPLED} mode)
+     */
+    public double getOverhead() {
+        return lastOverhead;
+    }
+
+    public double getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return the total time, in nanoseconds, spent in instrumentation of measured events
+     */
+    public long getTotalOverhead() {
+        return totalOverhead.sum();
+    }
+
+    /**
+     * @return the total elapsed time, in nanoseconds, of measured events
+     */
+    public long getTotalElapsed() {
+        return totalElapsed.sum();
+    }
+
+    Set<ThreadMetric> getReducedMetrics() {
+        return reducedMetrics;
+    }
+
+    int getSamplingInterval() {
+        return samplingInterval;
+    }
+
+    /**
+     * Called by a collector at the end of each measured top-level event.
+     *
+     * @param now
+     *            the current {@link System#nanoTime()}
+     */
+    void record(long overheadNanos, long elapsedNanos, long now) {
+        windowOverhead.add(overheadNanos);
+        windowElapsed.add(elapsedNanos);
+        totalOverhead.add(overheadNanos);
+        totalElapsed.add(elapsedNanos);
+        long due = nextEvaluation.get();
+        if (due == Long.MIN_VALUE) {
+            nextEvaluation.compareAndSet(due, now + evaluationIntervalNanos);
+        } else if (now - due >= 0 && nextEvaluation.compareAndSet(due, now + evaluationIntervalNanos)) {
+            evaluate();
+        }
+    }
+
+    /**
+     * Works out the overhead since the last evaluation and changes mode if need be.
+     */
+    synchronized void evaluate() {
+        long overhead = windowOverhead.sumThenReset();
+        long elapsed = windowElapsed.sumThenReset();
+        if (elapsed <= 0) {
+            return;
+        }
+        double measured = (double) overhead / elapsed;
+        double effective = (mode == Mode.SAMPLED) ? measured / samplingInterval : measured;
+        lastOverhead = effective;
+        if (effective > budget) {
+            if (mode != Mode.SAMPLED) {
+                mode = Mode.values()[mode.ordinal() + 1];
+            }
+        } else if (mode == Mode.SAMPLED) {
+            // Every event would cost what the sampled ones do now
+            if (measured < budget * RECOVERY_FRACTION) {
+                mode = Mode.REDUCED;
+            }
+        } else if (mode == Mode.REDUCED && effective < budget * RECOVERY_FRACTION) {
+            mode = Mode.FULL;
+        }
+    }
+
+    /**
+     * Registers metrics describing this governor with the given registry, named under the given
+     * prefix and polled every updateInterval milliseconds.
+     */
+    public void exportMetrics(MonitorableRegistry registry, String prefix, int updateInterval) {
+        new PollingMonitoredValue<Integer>(prefix + ".mode",
+                "Instrumentation mode: 0 (all metrics), 1 (reduced metrics) or 2 (sampled events)",
+                registry, updateInterval, () -> mode.ordinal(), ValueSemantics.FREE_RUNNING, ONE);
+        new PollingMonitoredValue<Double>(prefix + ".fraction",
+                "Instrumentation overhead as a fraction of event time over the last evaluation",
+                registry, updateInterval, this::getOverhead, ValueSemantics.FREE_RUNNING, ONE);
+        new PollingMonitoredValue<Long>(prefix + ".time", "Time spent instrumenting measured events",
+                registry, updateInterval, this::getTotalOverhead, ValueSemantics.MONOTONICALLY_INCREASING,
+                NANO(SECOND));
+        new PollingMonitoredValue<Long>(prefix + ".event.time", "Elapsed time of measured events",
+                registry, updateInterval, this::getTotalElapsed, ValueSemantics.MONOTONICALLY_INCREASING,
+                NANO(SECOND));
+    }
+}
@@ -16,6 +16,8 @@
 
 package io.pcp.parfait.timing;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * <p>
  * A {@link StepMeasurementSink} which collects only a particular fraction of
@@ -26,18 +28,19 @@ package io.pcp.parfait.timing;
  * specified at construction time.
  * </p>
  * <p>
- * Note that this class makes a slight sacrifice of accuracy for performance;
- * interleaving during increment of the internal counters may mean that very
- * slightly more or fewer events than the desired fraction end up being captured
- * in the long term.
+ * The internal counters are updated atomically, so concurrent events are never
+ * lost from the count, and an event is only passed on if no other thread has
+ * taken its place in the sample meanwhile; events arriving together may still
+ * be sampled in a slightly different order than if they had arrived one at a
+ * time.
  * </p>
  * <p>
  * Note also that this class will only pass on 'top-level' events (depth = 0).
  * </p>
  */
 public class SamplingMeasurementSink implements StepMeasurementSink {
-    private volatile long candidateEvents;
-    private volatile long eventsSampled;
+    private final AtomicLong candidateEvents = new AtomicLong();
+    private final AtomicLong eventsSampled = new AtomicLong();
     private final float samplingFraction;
     private final StepMeasurementSink delegate;
 
@@ -46,17 +49,30 @@ public class SamplingMeasurementSink implements StepMeasurementSink {
         this.delegate = delegate;
     }
 
+    /**
+     * @return whether the delegate retains the measurements passed on to it
+     */
+    @Override
+    public boolean retainsMeasurements() {
+        return delegate.retainsMeasurements();
+    }
+
     @Override
     public void handle(StepMeasurements measurements, int level) {
         if (level > 0) {
             return;
         }
-        candidateEvents++;
-        double fractionSampledSoFar = (double) eventsSampled / candidateEvents;
-
-        if (fractionSampledSoFar < samplingFraction) {
-            eventsSampled++;
-            delegate.handle(measurements, level);
+        candidateEvents.incrementAndGet();
+        for (;;) {
+            long sampled = eventsSampled.get();
+            double fractionSampledSoFar = (double) sampled / candidateEvents.get();
+            if (fractionSampledSoFar >= samplingFraction) {
+                return;
+            }
+            if (eventsSampled.compareAndSet(sampled, sampled + 1)) {
+                delegate.handle(measurements, level);
+                return;
+            }
         }
     }
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.timing;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * One of the events retained by a {@link SlowestEventsSink}: its event group, the value of the
+ * ranking metric which earned it a place (in that metric's unit) and the events it forwarded to.
+ */
+@Immutable
+public final class SlowEvent {
+    private final String eventGroup;
+    private final long value;
+    private final String forwardTrace;
+
+    public SlowEvent(String eventGroup, long value, String forwardTrace) {
+        this.eventGroup = eventGroup;
+        this.value = value;
+        this.forwardTrace = forwardTrace;
+    }
+
+    public String getEventGroup() {
+        return eventGroup;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public String getForwardTrace() {
+        return forwardTrace;
+    }
+
+    @Override
+    public String toString() {
+        return eventGroup + "\t" + value + "\t" + forwardTrace;
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.timing;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link StepMeasurementSink} which keeps, for each event group, only the top-level events with
+ * the highest total value of a ranking metric (e.g. the slowest, using wall-clock time, or the
+ * most expensive, using CPU time) seen during the current window. When the window ends the
+ * retained events are passed to the delegate, slowest first, and kept for inspection (e.g. over
+ * JMX) through {@link #getLastWindowEvents()} until the next window ends.
+ * <p>
+ * Each group has a fixed number of slots, replaced using compare-and-set, so concurrent threads
+ * never block one another. Once a group's slots are full an event which ranks no higher than the
+ * lowest retained one is rejected after a single volatile read; only events which earn a place
+ * are copied. Unlike {@link SamplingMeasurementSink}, this keeps exactly the outliers worth
+ * investigating, at a cost bounded by the number of slots.
+ * </p>
+ * <p>
+ * Events completing on another thread while a window ends may be counted towards either window,
+ * or (rarely) neither.
+ * </p>
+ */
+@ThreadSafe
+public class SlowestEventsSink implements StepMeasurementSink {
+    private static final Logger LOG = LoggerFactory.getLogger(SlowestEventsSink.class);
+
+    private final StepMeasurementSink delegate;
+    private final ThreadMetric rankingMetric;
+    private final int eventsPerGroup;
+
+    private volatile ConcurrentMap<String, SlowestEvents> window = new ConcurrentHashMap<String, SlowestEvents>();
+    private volatile List<SlowEvent> lastWindowEvents = Collections.emptyList();
+    private Timer windowTimer;
+
+    /**
+     * @param rankingMetric
+     *            the metric whose total value ranks events; events without a measurement of this
+     *            metric are ignored
+     * @param eventsPerGroup
+     *            the number of events kept for each event group in each window
+     */
+    public SlowestEventsSink(StepMeasurementSink delegate, ThreadMetric rankingMetric, int eventsPerGroup) {
+        Preconditions.checkArgument(eventsPerGroup > 0, "eventsPerGroup must be positive");
+        this.delegate = Preconditions.checkNotNull(delegate);
+        this.rankingMetric = Preconditions.checkNotNull(rankingMetric);
+        this.eventsPerGroup = eventsPerGroup;
+    }
+
+    /**
+     * Ends a window every given interval from a single background thread. With a null interval
+     * (the default) windows end only when {@link #endWindow()} is called.
+     */
+    public synchronized void setWindow(Duration interval) {
+        Preconditions.checkArgument(interval == null || !interval.isNegative() && !interval.isZero(),
+                "Window must be positive");
+        if (windowTimer != null) {
+            windowTimer.cancel();
+            windowTimer = null;
+        }
+        if (interval != null) {
+            windowTimer = new Timer("SlowestEventsSink-window", true);
+            windowTimer.scheduleAtFixedRate(new TimerTask() {
+                @Override
+                public void run() {
+                    try {
+                        endWindow();
+                    } catch (RuntimeException e) {
+                        LOG.error("Unable to end slowest-events window", e);
+                    }
+                }
+            }, interval.toMillis(), interval.toMillis());
+        }
+    }
+
+    /**
+     * @return false, as measurements are copied during the call, and the delegate handed
+     *         measurements rebuilt from the copies
+     */
+    @Override
+    public boolean retainsMeasurements() {
+        return false;
+    }
+
+    @Override
+    public void handle(StepMeasurements measurements, int level) {
+        if (level > 0) {
+            return;
+        }
+        for (int i = 0; i < measurements.metricInstanceCount(); i++) {
+            MetricMeasurement metric = measurements.getMetricInstance(i);
+            if (metric.getMetricSource() == rankingMetric) {
+                offer(measurements, metric.rawTotalValue());
+                return;
+            }
+        }
+    }
+
+    private void offer(StepMeasurements measurements, long value) {
+        String group = measurements.getEventName();
+        ConcurrentMap<String, SlowestEvents> current = window;
+        SlowestEvents events = current.get(group);
+        if (events == null) {
+            SlowestEvents created = new SlowestEvents(eventsPerGroup);
+            events = current.putIfAbsent(group, created);
+            if (events == null) {
+                events = created;
+            }
+        }
+        events.offer(measurements, value);
+    }
+
+    /**
+     * Ends the current window: passes each group's retained events to the delegate, slowest
+     * first, makes them available from {@link #getLastWindowEvents()} and starts a new, empty
+     * window.
+     */
+    public synchronized void endWindow() {
+        Map<String, SlowestEvents> completed = window;
+        window = new ConcurrentHashMap<String, SlowestEvents>();
+        List<SlowEvent> results = new ArrayList<SlowEvent>();
+        for (Map.Entry<String, SlowestEvents> entry : completed.entrySet()) {
+            for (RankedEvent event : entry.getValue().ranked()) {
+                StepMeasurements rebuilt = event.record.rebuild();
+                results.add(new SlowEvent(entry.getKey(), event.value, rebuilt.getForwardTrace()));
+                try {
+                    delegate.handle(rebuilt, 0);
+                } catch (RuntimeException e) {
+                    LOG.warn("Measurement sink " + delegate + " failed", e);
+                }
+            }
+        }
+        lastWindowEvents = Collections.unmodifiableList(results);
+    }
+
+    /**
+     * @return the events retained by the most recently ended window, grouped by event group and
+     *         slowest first within each group
+     */
+    public List<SlowEvent> getLastWindowEvents() {
+        return lastWindowEvents;
+    }
+
+    /**
+     * @return the events retained so far in the current window, in the same order as
+     *         {@link #getLastWindowEvents()}; nothing is passed to the delegate
+     */
+    public List<SlowEvent> getCurrentWindowEvents() {
+        List<SlowEvent> results = new ArrayList<SlowEvent>();
+        for (Map.Entry<String, SlowestEvents> entry : window.entrySet()) {
+            for (RankedEvent event : entry.getValue().ranked()) {
+                results.add(new SlowEvent(entry.getKey(), event.value, event.record.rebuild().getForwardTrace()));
+            }
+        }
+        return results;
+    }
+
+    public ThreadMetric getRankingMetric() {
+        return rankingMetric;
+    }
+
+    public int getEventsPerGroup() {
+        return eventsPerGroup;
+    }
+
+    /**
+     * Stops ending windows in the background, leaving the current window's events unforwarded.
+     */
+    public synchronized void shutdown() {
+        setWindow(null);
+    }
+
+    private static final class RankedEvent {
+        private final long value;
+        private final StepRecord record;
+
+        RankedEvent(long value, StepRecord record) {
+            this.value = value;
+            this.record = record;
+        }
+    }
+
+    /**
+     * A group's slots for one window. The threshold is the lowest value retained once every slot
+     * is full; it only ever rises, so a stale read just lets an event through to the full check.
+     */
+    private static final class SlowestEvents {
+        private final AtomicReferenceArray<RankedEvent> slots;
+        private volatile long threshold = Long.MIN_VALUE;
+
+        SlowestEvents(int size) {
+            slots = new AtomicReferenceArray<RankedEvent>(size);
+        }
+
+        void offer(StepMeasurements measurements, long value) {
+            if (value <= threshold) {
+                return;
+            }
+            RankedEvent candidate = null;
+            for (;;) {
+                int lowestIndex = 0;
+                RankedEvent lowest = slots.get(0);
+                for (int i = 1; lowest != null && i < slots.length(); i++) {
+                    RankedEvent event = slots.get(i);
+                    if (event == null || event.value < lowest.value) {
+                        lowestIndex = i;
+                        lowest = event;
+                    }
+                }
+                if (lowest != null && value <= lowest.value) {
+                    updateThreshold();
+                    return;
+                }
+                if (candidate == null) {
+                    StepRecord record = new StepRecord();
+                    record.copy(measurements, 0);
+                    candidate = new RankedEvent(value, record);
+                }
+                if (slots.compareAndSet(lowestIndex, lowest, candidate)) {
+                    updateThreshold();
+                    return;
+                }
+            }
+        }
+
+        private void updateThreshold() {
+            long lowest = Long.MAX_VALUE;
+            for (int i = 0; i < slots.length(); i++) {
+                RankedEvent event = slots.get(i);
+                if (event == null) {
+                    return;
+                }
+                lowest = Math.min(lowest, event.value);
+            }
+            threshold = lowest;
+        }
+
+        List<RankedEvent> ranked() {
+            List<RankedEvent> events = new ArrayList<RankedEvent>(slots.length());
+            for (int i = 0; i < slots.length(); i++) {
+                RankedEvent event = slots.get(i);
+                if (event != null) {
+                    events.add(event);
+                }
+            }
+            Collections.sort(events, new Comparator<RankedEvent>() {
+                @Override
+                public int compare(RankedEvent first, RankedEvent second) {
+                    return Long.compare(second.value, first.value);
+                }
+            });
+            return events;
+        }
+    }
+}
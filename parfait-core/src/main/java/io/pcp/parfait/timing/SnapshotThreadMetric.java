@@ -0,0 +1,58 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.timing;
+
+import javax.measure.Unit;
+
+/**
+ * A {@link ThreadMetric} whose value can be derived from a {@link ThreadSnapshot}, letting an
+ * {@link EventTimer} whose {@link ThreadMetricSuite} is in
+ * {@link ThreadMetricSuite#setSnapshotSampling(boolean) snapshot sampling} mode read every such
+ * metric from one capture at each step boundary rather than querying the JVM once per metric.
+ */
+public abstract class SnapshotThreadMetric extends AbstractThreadMetric {
+    private final int snapshotSources;
+
+    /**
+     * @param snapshotSources
+     *            the {@link ThreadSnapshot} sources (e.g. {@link ThreadSnapshot#CPU_TIME}) that
+     *            {@link #getValue(ThreadSnapshot)} reads
+     */
+    public SnapshotThreadMetric(String name, Unit<?> unit, String counterSuffix, String description,
+            int snapshotSources) {
+        super(name, unit, counterSuffix, description);
+        this.snapshotSources = snapshotSources;
+    }
+
+    public final int getSnapshotSources() {
+        return snapshotSources;
+    }
+
+    public abstract long getValue(ThreadSnapshot snapshot);
+
+    /**
+     * Reads the value outside snapshot sampling mode. This captures a new {@link ThreadSnapshot}
+     * for every read, so subclasses which can read their sources directly should override it, as
+     * the {@link StandardThreadMetrics} do.
+     */
+    @Override
+    public long getValueForThread(Thread t) {
+        ThreadSnapshot snapshot = new ThreadSnapshot();
+        snapshot.capture(t, snapshotSources);
+        return getValue(snapshot);
+    }
+}
@@ -23,7 +23,6 @@ import static tech.units.indriya.unit.Units.SECOND;
 import static tech.units.indriya.AbstractUnit.ONE;
 
 import com.google.common.collect.ImmutableList;
-import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
 import java.util.Collection;
 
@@ -42,99 +41,122 @@ public class StandardThreadMetrics {
         }
     };
     
-    public static final ThreadMetric TOTAL_CPU_TIME = new AbstractThreadMetric("Total CPU", NANOSECONDS,
-            "cputime", "Total CPU time (in ns) spent executing event") {
+    public static final ThreadMetric TOTAL_CPU_TIME = new SnapshotThreadMetric("Total CPU", NANOSECONDS,
+            "cputime", "Total CPU time (in ns) spent executing event", ThreadSnapshot.CPU_TIME) {
+        @Override
+        public long getValue(ThreadSnapshot snapshot) {
+            return snapshot.getCpuTime();
+        }
+
         @Override
         public long getValueForThread(Thread t) {
-            return ManagementFactory.getThreadMXBean().getThreadCpuTime(t.getId());
+            return ThreadSnapshot.readCpuTime(t);
         }
     };
 
-    public static final ThreadMetric USER_CPU_TIME = new AbstractThreadMetric("User CPU", NANOSECONDS,
-            "utime", "User CPU time (in ns) spent executing event") {
+    public static final ThreadMetric USER_CPU_TIME = new SnapshotThreadMetric("User CPU", NANOSECONDS,
+            "utime", "User CPU time (in ns) spent executing event", ThreadSnapshot.USER_TIME) {
+        @Override
+        public long getValue(ThreadSnapshot snapshot) {
+            return snapshot.getUserTime();
+        }
+
         @Override
         public long getValueForThread(Thread t) {
-            return ManagementFactory.getThreadMXBean().getThreadUserTime(t.getId());
+            return ThreadSnapshot.readUserTime(t);
         }
     };
 
-    public static final ThreadMetric SYSTEM_CPU_TIME = new AbstractThreadMetric("System CPU", NANOSECONDS,
-            "stime", "System CPU time (in ns) spent executing event") {
+    public static final ThreadMetric SYSTEM_CPU_TIME = new SnapshotThreadMetric("System CPU", NANOSECONDS,
+            "stime", "System CPU time (in ns) spent executing event",
+            ThreadSnapshot.CPU_TIME | ThreadSnapshot.USER_TIME) {
+        @Override
+        public long getValue(ThreadSnapshot snapshot) {
+            return snapshot.getCpuTime() - snapshot.getUserTime();
+        }
+
         @Override
         public long getValueForThread(Thread t) {
-            return ManagementFactory.getThreadMXBean().getThreadCpuTime(t.getId())
-                    - ManagementFactory.getThreadMXBean().getThreadUserTime(t.getId());
+            return ThreadSnapshot.readCpuTime(t) - ThreadSnapshot.readUserTime(t);
         }
     };
 
-    public static final ThreadMetric HEAP_BYTES = new AbstractThreadMetric("Heap Bytes", BYTE,
-            "heap", "Amount of Heap (in bytes) used during the event") {
-        @SuppressWarnings("restriction")
-		@Override
+    public static final ThreadMetric HEAP_BYTES = new SnapshotThreadMetric("Heap Bytes", BYTE,
+            "heap", "Amount of Heap (in bytes) used during the event", ThreadSnapshot.ALLOCATED_BYTES) {
+        @Override
+        public long getValue(ThreadSnapshot snapshot) {
+            return snapshot.getAllocatedBytes();
+        }
+
+        @Override
         public long getValueForThread(Thread t) {
-            java.lang.management.ThreadMXBean javaLangThreadMXBean = ManagementFactory.getThreadMXBean();
-            if (javaLangThreadMXBean instanceof com.sun.management.ThreadMXBean) {
-                com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) javaLangThreadMXBean;
-                return sunThreadMXBean.getThreadAllocatedBytes(t.getId());
-            }
-            return 0L;
+            return ThreadSnapshot.readAllocatedBytes(t);
         }
     };
 
-    public static final ThreadMetric BLOCKED_COUNT = new ThreadInfoMetric("Blocked count", ONE,
-            "blocked.count", "Number of times thread entered BLOCKED state during event") {
+    public static final ThreadMetric BLOCKED_COUNT = new SnapshotThreadMetric("Blocked count", ONE,
+            "blocked.count", "Number of times thread entered BLOCKED state during event",
+            ThreadSnapshot.THREAD_INFO) {
         @Override
-        public long getValue(ThreadInfo threadInfo) {
-            return threadInfo.getBlockedCount();
+        public long getValue(ThreadSnapshot snapshot) {
+            return snapshot.getBlockedCount();
         }
-    };
 
-    public static final ThreadMetric BLOCKED_TIME = new ThreadInfoMetric("Blocked time", MILLISECONDS,
-            "blocked.time", "ms spent in BLOCKED state during event") {
         @Override
-        public long getValue(ThreadInfo threadInfo) {
-            return threadInfo.getBlockedTime();
+        public long getValueForThread(Thread t) {
+            ThreadInfo info = ThreadSnapshot.readThreadInfo(t);
+            return (info == null) ? 0L : info.getBlockedCount();
         }
     };
 
-    public static final ThreadMetric WAITED_COUNT = new ThreadInfoMetric("Wait count", ONE,
-            "waited.count",
-            "Number of times thread entered WAITING or TIMED_WAITING state during event") {
+    public static final ThreadMetric BLOCKED_TIME = new SnapshotThreadMetric("Blocked time", MILLISECONDS,
+            "blocked.time", "ms spent in BLOCKED state during event", ThreadSnapshot.THREAD_INFO) {
         @Override
-        public long getValue(ThreadInfo threadInfo) {
-            return threadInfo.getWaitedCount();
+        public long getValue(ThreadSnapshot snapshot) {
+            return snapshot.getBlockedTime();
         }
-    };
 
-    public static final ThreadMetric WAITED_TIME = new ThreadInfoMetric("Wait time", MILLISECONDS,
-            "waited.time", "ms spent in WAITING or TIMED_WAITING state during event") {
         @Override
-        public long getValue(ThreadInfo threadInfo) {
-            return threadInfo.getWaitedTime();
+        public long getValueForThread(Thread t) {
+            ThreadInfo info = ThreadSnapshot.readThreadInfo(t);
+            return (info == null) ? 0L : info.getBlockedTime();
         }
     };
 
-    public static Collection<? extends ThreadMetric> defaults() {
-        // TOTAL_CPU_TIME is not included by default (you can get it from other places)
-        return ImmutableList.of(CLOCK_TIME, TOTAL_CPU_TIME, USER_CPU_TIME, SYSTEM_CPU_TIME, HEAP_BYTES,
-                BLOCKED_COUNT, BLOCKED_TIME, WAITED_COUNT, WAITED_TIME);
-    }
-
-    private static abstract class ThreadInfoMetric extends AbstractThreadMetric {
-        public ThreadInfoMetric(String name, Unit<?> unit, String counterSuffix, String description) {
-            super(name, unit, counterSuffix, description);
+    public static final ThreadMetric WAITED_COUNT = new SnapshotThreadMetric("Wait count", ONE,
+            "waited.count",
+            "Number of times thread entered WAITING or TIMED_WAITING state during event",
+            ThreadSnapshot.THREAD_INFO) {
+        @Override
+        public long getValue(ThreadSnapshot snapshot) {
+            return snapshot.getWaitedCount();
         }
 
         @Override
-        public final long getValueForThread(Thread t) {
-            ThreadInfo info = getThreadInfo(t);
-            return info == null ? 0 : getValue(info);
+        public long getValueForThread(Thread t) {
+            ThreadInfo info = ThreadSnapshot.readThreadInfo(t);
+            return (info == null) ? 0L : info.getWaitedCount();
         }
+    };
 
-        protected abstract long getValue(ThreadInfo threadInfo);
+    public static final ThreadMetric WAITED_TIME = new SnapshotThreadMetric("Wait time", MILLISECONDS,
+            "waited.time", "ms spent in WAITING or TIMED_WAITING state during event",
+            ThreadSnapshot.THREAD_INFO) {
+        @Override
+        public long getValue(ThreadSnapshot snapshot) {
+            return snapshot.getWaitedTime();
+        }
 
-        private static ThreadInfo getThreadInfo(Thread t) {
-            return ManagementFactory.getThreadMXBean().getThreadInfo(t.getId());
+        @Override
+        public long getValueForThread(Thread t) {
+            ThreadInfo info = ThreadSnapshot.readThreadInfo(t);
+            return (info == null) ? 0L : info.getWaitedTime();
         }
+    };
+
+    public static Collection<? extends ThreadMetric> defaults() {
+        // TOTAL_CPU_TIME is not included by default (you can get it from other places)
+        return ImmutableList.of(CLOCK_TIME, TOTAL_CPU_TIME, USER_CPU_TIME, SYSTEM_CPU_TIME, HEAP_BYTES,
+                BLOCKED_COUNT, BLOCKED_TIME, WAITED_COUNT, WAITED_TIME);
     }
 }
@@ -21,4 +21,16 @@ package io.pcp.parfait.timing;
  */
 public interface StepMeasurementSink {
     void handle(StepMeasurements measurements, int level);
+
+    /**
+     * Whether this sink may keep a reference to the {@link StepMeasurements} it is handed once
+     * {@link #handle(StepMeasurements, int)} returns. Only if every sink of an {@link EventTimer}
+     * says not are the measurements recycled for later events, sparing the allocation of new ones
+     * for every step; otherwise each event gets measurements of its own, as ever.
+     *
+     * @return false if the sink extracts everything it needs during the call
+     */
+    default boolean retainsMeasurements() {
+        return true;
+    }
 }
@@ -23,17 +23,17 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 
 public class StepMeasurements {
-    private final StepMeasurements parent;
+    private StepMeasurements parent;
     private final List<StepMeasurements> children = new ArrayList<StepMeasurements>();
     private final List<MetricMeasurement> metricInstances = new ArrayList<MetricMeasurement>();
 
-    private final String eventName;
-    private final String action;
+    private String eventName;
+    private String action;
     private volatile boolean started = false;
+    private int snapshotSources = 0;
 
     public StepMeasurements(StepMeasurements parent,
             String eventName, String action) {
@@ -45,37 +45,90 @@ public class StepMeasurements {
         this.action = action;
     }
 
+    /**
+     * Re-initialises a finished instance for a new step, as though it had just been constructed
+     * with the given arguments. The existing {@link MetricMeasurement MetricMeasurements} are
+     * kept and reset, so a recycled instance must be used for the same metric sources it was
+     * originally populated with.
+     */
+    void reset(StepMeasurements parent, String eventName, String action) {
+        started = false;
+        children.clear();
+        for (int i = 0; i < metricInstances.size(); i++) {
+            metricInstances.get(i).reset();
+        }
+        this.parent = parent;
+        if (parent != null) {
+            parent.addChildExecution(this);
+        }
+        this.eventName = eventName;
+        this.action = action;
+    }
+
     public StepMeasurements getParent() {
         return parent;
     }
 
     public void addMetricInstance(MetricMeasurement metric) {
         metricInstances.add(metric);
+        if (metric.getMetricSource() instanceof SnapshotThreadMetric) {
+            snapshotSources |= ((SnapshotThreadMetric) metric.getMetricSource()).getSnapshotSources();
+        }
+    }
+
+    /**
+     * @return the {@link ThreadSnapshot} sources needed by this step's metrics, or 0 if none of
+     *         them are {@link SnapshotThreadMetric SnapshotThreadMetrics}
+     */
+    int getSnapshotSources() {
+        return snapshotSources;
     }
 
+    // The per-event methods below index into the list rather than using an Iterator so that
+    // timing a step doesn't allocate.
+
     public void startAll() {
-        for (MetricMeasurement metric : metricInstances) {
-            metric.startTimer();
+        startAll(null);
+    }
+
+    public void stopAll() {
+        stopAll(null);
+    }
+
+    public void pauseAll() {
+        pauseAll(null);
+    }
+
+    public void resumeAll() {
+        resumeAll(null);
+    }
+
+    // The snapshot-taking variants read every SnapshotThreadMetric from the given (already
+    // captured) snapshot, if there is one, rather than querying each metric source separately.
+
+    void startAll(ThreadSnapshot snapshot) {
+        for (int i = 0; i < metricInstances.size(); i++) {
+            metricInstances.get(i).startTimer(snapshot);
         }
         started = true;
     }
 
-    public void stopAll() {
+    void stopAll(ThreadSnapshot snapshot) {
         started = false;
-        for (MetricMeasurement metric : metricInstances) {
-            metric.stopTimer();
+        for (int i = 0; i < metricInstances.size(); i++) {
+            metricInstances.get(i).stopTimer(snapshot);
         }
     }
 
-    public void pauseAll() {
-        for (MetricMeasurement metric : metricInstances) {
-            metric.pauseOwnTime();
+    void pauseAll(ThreadSnapshot snapshot) {
+        for (int i = 0; i < metricInstances.size(); i++) {
+            metricInstances.get(i).pauseOwnTime(snapshot);
         }
     }
 
-    public void resumeAll() {
-        for (MetricMeasurement metric : metricInstances) {
-            metric.resumeOwnTime();
+    void resumeAll(ThreadSnapshot snapshot) {
+        for (int i = 0; i < metricInstances.size(); i++) {
+            metricInstances.get(i).resumeOwnTime(snapshot);
         }
     }
 
@@ -84,10 +137,7 @@ public class StepMeasurements {
      *         measurement (including that one as the last element)
      */
     String getBackTrace() {
-        if (parent == null) {
-            return stackTraceElement();
-        }
-        return parent.getBackTrace() + "/" + stackTraceElement();
+        return appendBackTrace(new StringBuilder()).toString();
     }
 
     /**
@@ -95,37 +145,83 @@ public class StepMeasurements {
      *         measurement (including that one as the first element)
      */
     String getForwardTrace() {
-        if (children.isEmpty()) {
-            return stackTraceElement();
-        } else if (children.size() == 1) {
-            return stackTraceElement() + "/" + children.get(0).getForwardTrace();
-        } else {
+        return appendForwardTrace(new StringBuilder()).toString();
+    }
+
+    /**
+     * Appends the {@link #getBackTrace() back trace} to the given builder, without building the
+     * intermediate strings for each ancestor.
+     */
+    StringBuilder appendBackTrace(StringBuilder builder) {
+        if (parent != null) {
+            parent.appendBackTrace(builder).append('/');
+        }
+        return appendStackTraceElement(builder);
+    }
+
+    /**
+     * Appends the {@link #getForwardTrace() forward trace} to the given builder, without building
+     * the intermediate strings for each descendant.
+     */
+    StringBuilder appendForwardTrace(StringBuilder builder) {
+        appendStackTraceElement(builder);
+        if (children.size() == 1) {
+            children.get(0).appendForwardTrace(builder.append('/'));
+        } else if (children.size() > 1) {
             // Handles the 'freak case' where one event may forward directly to MORE than one
             // 'child'. I have no idea if this ever happens, but we might as well handle it.
-            List<String> childTraces = new ArrayList<String>(children.size());
-            for (StepMeasurements child : children) {
-                childTraces.add(child.getForwardTrace());
+            builder.append("/{");
+            for (int i = 0; i < children.size(); i++) {
+                if (i > 0) {
+                    builder.append('|');
+                }
+                children.get(i).appendForwardTrace(builder);
             }
-            return stackTraceElement() + "/{" + Joiner.on('|').join(childTraces) + "}";
+            builder.append('}');
         }
+        return builder;
     }
 
     private void addChildExecution(StepMeasurements newTiming) {
         children.add(newTiming);
     }
 
-    private String stackTraceElement() {
-        return eventName + (Strings.isNullOrEmpty(action) ? "" : ":" + action);
+    private StringBuilder appendStackTraceElement(StringBuilder builder) {
+        builder.append(eventName);
+        if (!Strings.isNullOrEmpty(action)) {
+            builder.append(':').append(action);
+        }
+        return builder;
     }
 
     String getEventName() {
         return eventName;
     }
 
+    String getAction() {
+        return action;
+    }
+
+    int childCount() {
+        return children.size();
+    }
+
+    StepMeasurements getChild(int index) {
+        return children.get(index);
+    }
+
     public Collection<MetricMeasurement> getMetricInstances() {
         return metricInstances;
     }
 
+    int metricInstanceCount() {
+        return metricInstances.size();
+    }
+
+    MetricMeasurement getMetricInstance(int index) {
+        return metricInstances.get(index);
+    }
+
     public Map<ThreadMetric, Long> snapshotValues() {
         if (!started) {
             return Collections.emptyMap();
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.timing;
+
+import java.util.Arrays;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * A copy of a step which outlives the (recycled) {@link StepMeasurements} it was taken from: the
+ * event path leading to it (including the step itself, last), the events it forwarded to (in
+ * pre-order, with the step itself first) and its metric values. The arrays only ever grow, so an
+ * instance which is reused stops allocating once it has seen the largest event tree.
+ */
+@NotThreadSafe
+final class StepRecord {
+    private int level;
+
+    private String[] pathNames = new String[8];
+    private String[] pathActions = new String[8];
+    private int pathLength;
+
+    private String[] treeNames = new String[8];
+    private String[] treeActions = new String[8];
+    private int[] treeParents = new int[8];
+    private int treeSize;
+
+    private ThreadMetric[] sources = new ThreadMetric[4];
+    private long[] ownValues = new long[4];
+    private long[] totalValues = new long[4];
+    private int metricCount;
+
+    void copy(StepMeasurements measurements, int level) {
+        this.level = level;
+        copyPath(measurements);
+        treeSize = 0;
+        copyTree(measurements, -1);
+        copyMetrics(measurements);
+    }
+
+    private void copyPath(StepMeasurements measurements) {
+        int length = 0;
+        for (StepMeasurements step = measurements; step != null; step = step.getParent()) {
+            length++;
+        }
+        if (length > pathNames.length) {
+            pathNames = Arrays.copyOf(pathNames, length * 2);
+            pathActions = Arrays.copyOf(pathActions, length * 2);
+        }
+        int index = length;
+        for (StepMeasurements step = measurements; step != null; step = step.getParent()) {
+            index--;
+            pathNames[index] = step.getEventName();
+            pathActions[index] = step.getAction();
+        }
+        pathLength = length;
+    }
+
+    private void copyTree(StepMeasurements step, int parentIndex) {
+        if (treeSize == treeNames.length) {
+            treeNames = Arrays.copyOf(treeNames, treeSize * 2);
+            treeActions = Arrays.copyOf(treeActions, treeSize * 2);
+            treeParents = Arrays.copyOf(treeParents, treeSize * 2);
+        }
+        int index = treeSize++;
+        treeNames[index] = step.getEventName();
+        treeActions[index] = step.getAction();
+        treeParents[index] = parentIndex;
+        for (int i = 0; i < step.childCount(); i++) {
+            copyTree(step.getChild(i), index);
+        }
+    }
+
+    private void copyMetrics(StepMeasurements measurements) {
+        int count = measurements.metricInstanceCount();
+        if (count > sources.length) {
+            sources = Arrays.copyOf(sources, count);
+            ownValues = Arrays.copyOf(ownValues, count);
+            totalValues = Arrays.copyOf(totalValues, count);
+        }
+        for (int i = 0; i < count; i++) {
+            MetricMeasurement metric = measurements.getMetricInstance(i);
+            sources[i] = metric.getMetricSource();
+            ownValues[i] = metric.rawOwnTimeValue();
+            totalValues[i] = metric.rawTotalValue();
+        }
+        metricCount = count;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return a new {@link StepMeasurements} tree equivalent to the copied one, with stopped
+     *         measurements holding the copied values
+     */
+    StepMeasurements rebuild() {
+        StepMeasurements parent = null;
+        for (int i = 0; i < pathLength - 1; i++) {
+            parent = new StepMeasurements(parent, pathNames[i], pathActions[i]);
+        }
+        StepMeasurements[] tree = new StepMeasurements[treeSize];
+        tree[0] = new StepMeasurements(parent, treeNames[0], treeActions[0]);
+        for (int i = 1; i < treeSize; i++) {
+            tree[i] = new StepMeasurements(tree[treeParents[i]], treeNames[i], treeActions[i]);
+        }
+        for (int i = 0; i < metricCount; i++) {
+            tree[0].addMetricInstance(MetricMeasurement.recorded(sources[i], ownValues[i], totalValues[i]));
+        }
+        return tree[0];
+    }
+
+    /**
+     * Drops the references to event names and metric sources so a slot doesn't keep them alive.
+     */
+    void release() {
+        Arrays.fill(pathNames, 0, pathLength, null);
+        Arrays.fill(pathActions, 0, pathLength, null);
+        Arrays.fill(treeNames, 0, treeSize, null);
+        Arrays.fill(treeActions, 0, treeSize, null);
+        Arrays.fill(sources, 0, metricCount, null);
+    }
+}
@@ -17,6 +17,7 @@
 package io.pcp.parfait.timing;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -42,6 +43,13 @@ import net.jcip.annotations.ThreadSafe;
  * Most methods operate on the context of the calling thread; only
  * {@link #forThread(Thread)} allows cross-thread information retrieval.
  * </p>
+ * <p>
+ * By default contexts are kept in a weakly-keyed map of every thread which has ever used this
+ * class. A context created by {@link #newThreadLocalContext()} instead keeps them in a
+ * {@link ThreadLocal}, and only makes a thread's context visible to other threads while it is
+ * non-empty; this suits large numbers of short-lived (e.g. virtual) threads, as long as each
+ * thread {@link #clear() clears} its context when it finishes its work.
+ * </p>
  * 
  * @author Cowan
  */
@@ -55,6 +63,15 @@ public class ThreadContext {
     };
     private final LoadingCache<Thread, Map<String, Object>> PER_THREAD_CONTEXTS = CacheBuilder.newBuilder().weakKeys().build(NEW_CONTEXT_CREATOR);
 
+    /**
+     * When using thread-local storage, the current thread's context, otherwise null.
+     */
+    private final ThreadLocal<Map<String, Object>> localContext;
+    /**
+     * When using thread-local storage, the non-empty contexts of all threads.
+     */
+    private final Map<Thread, Map<String, Object>> activeContexts = new ConcurrentHashMap<Thread, Map<String, Object>>();
+
     private volatile MdcBridge mdcBridge = new NullMdcBridge();
 
     public ThreadContext() {
@@ -62,8 +79,18 @@ public class ThreadContext {
     }
 
     public ThreadContext(MdcBridge mdcBridge) {
+        this(mdcBridge, false);
+    }
+
+    private ThreadContext(MdcBridge mdcBridge, boolean threadLocalStorage) {
         // TODO should that be a static variable..?
         this.mdcBridge=mdcBridge;
+        this.localContext = threadLocalStorage ? new ThreadLocal<Map<String, Object>>() {
+            @Override
+            protected Map<String, Object> initialValue() {
+                return new ConcurrentHashMap<String, Object>();
+            }
+        } : null;
     }
 
     /**
@@ -71,7 +98,12 @@ public class ThreadContext {
      * same.
      */
     public void put(String key, Object value) {
-        PER_THREAD_CONTEXTS.getUnchecked(Thread.currentThread()).put(key, value);
+        Map<String, Object> context = currentContext();
+        boolean wasEmpty = context.isEmpty();
+        context.put(key, value);
+        if (wasEmpty && localContext != null) {
+            activeContexts.put(Thread.currentThread(), context);
+        }
         mdcBridge.put(key, value);
     }
 
@@ -79,7 +111,9 @@ public class ThreadContext {
      * Removes the given key from the current thread's context and {@link MdcBridge}.
      */
     public void remove(String key) {
-        PER_THREAD_CONTEXTS.getUnchecked(Thread.currentThread()).remove(key);
+        Map<String, Object> context = currentContext();
+        context.remove(key);
+        deactivateIfEmpty(context);
         mdcBridge.remove(key);
     }
 
@@ -88,7 +122,7 @@ public class ThreadContext {
      * value exists)
      */
     public Object get(String key) {
-        return PER_THREAD_CONTEXTS.getUnchecked(Thread.currentThread()).get(key);
+        return currentContext().get(key);
     }
 
     /**
@@ -99,26 +133,53 @@ public class ThreadContext {
            mdcBridge.remove(key);
         }
 
-        PER_THREAD_CONTEXTS.getUnchecked(Thread.currentThread()).clear();
+        Map<String, Object> context = currentContext();
+        context.clear();
+        deactivateIfEmpty(context);
     }
 
     /**
      * Retrieves a copy of the thread context for the given thread
      */
     public Map<String, Object> forThread(Thread t) {
-        return new HashMap<String, Object>(PER_THREAD_CONTEXTS.getUnchecked(t));
+        return new HashMap<String, Object>(contextFor(t));
     }
 
     public Collection<String> allKeys() {
         Set<String> keys = new HashSet<String>();
-        for (Map<String, Object> threadMdc : PER_THREAD_CONTEXTS.asMap().values()) {
+        Collection<Map<String, Object>> contexts = (localContext == null) ? PER_THREAD_CONTEXTS.asMap().values()
+                : activeContexts.values();
+        for (Map<String, Object> threadMdc : contexts) {
             keys.addAll(threadMdc.keySet());
         }
         return keys;
     }
 
     public Object getForThread(Thread thread, String key) {
-        return PER_THREAD_CONTEXTS.getUnchecked(thread).get(key);
+        return contextFor(thread).get(key);
+    }
+
+    private Map<String, Object> currentContext() {
+        if (localContext != null) {
+            return localContext.get();
+        }
+        return PER_THREAD_CONTEXTS.getUnchecked(Thread.currentThread());
+    }
+
+    private Map<String, Object> contextFor(Thread thread) {
+        if (localContext == null) {
+            return PER_THREAD_CONTEXTS.getUnchecked(thread);
+        } else if (thread == Thread.currentThread()) {
+            return localContext.get();
+        }
+        Map<String, Object> context = activeContexts.get(thread);
+        return (context == null) ? Collections.<String, Object>emptyMap() : context;
+    }
+
+    private void deactivateIfEmpty(Map<String, Object> context) {
+        if (localContext != null && context.isEmpty()) {
+            activeContexts.remove(Thread.currentThread());
+        }
     }
 
     /**
@@ -132,6 +193,18 @@ public class ThreadContext {
         return new ThreadContext(new Slf4jMDCBridge());
     }
 
+    /**
+     * Factory methods that create a new ThreadContext keeping each thread's context in a
+     * {@link ThreadLocal}, visible to other threads only while non-empty
+     */
+    public static ThreadContext newThreadLocalContext() {
+        return newThreadLocalContext(new NullMdcBridge());
+    }
+
+    public static ThreadContext newThreadLocalContext(MdcBridge mdcBridge) {
+        return new ThreadContext(mdcBridge, true);
+    }
+
     public interface MdcBridge {
 		void put(String key, Object object);
 
@@ -23,6 +23,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
 
 public class ThreadMetricSuite {
     private final List<ThreadMetric> metrics;
+    private volatile boolean snapshotSampling = false;
     
     private ThreadMetricSuite(Collection<? extends ThreadMetric> metrics) {
         this.metrics = new CopyOnWriteArrayList<ThreadMetric>(metrics);
@@ -40,6 +41,21 @@ public class ThreadMetricSuite {
         return Collections.unmodifiableList(metrics);
     }
 
+    /**
+     * When enabled, an {@link EventTimer} using this suite reads all of its
+     * {@link SnapshotThreadMetric SnapshotThreadMetrics} (which include all the CPU, heap and
+     * blocked/waited {@link StandardThreadMetrics}) from a single {@link ThreadSnapshot} taken at
+     * each start, stop, pause and resume of a step, instead of making separate JVM calls for each
+     * metric. Takes effect for threads which have not yet timed an event.
+     */
+    public void setSnapshotSampling(boolean snapshotSampling) {
+        this.snapshotSampling = snapshotSampling;
+    }
+
+    public boolean isSnapshotSampling() {
+        return snapshotSampling;
+    }
+
     public static ThreadMetricSuite blank() {
         return new ThreadMetricSuite(Collections.<ThreadMetric>emptyList());
     }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.timing;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * <p>
+ * The per-thread values read by the {@link SnapshotThreadMetric SnapshotThreadMetrics}, captured
+ * together in a single pass: one CPU time and one user time call, one allocated-bytes call and a
+ * single {@link ThreadInfo} from which all the blocked/waited counts and times are read.
+ * </p>
+ * <p>
+ * Only the sources asked for are refreshed by {@link #capture(Thread, int)}; the others keep
+ * whatever value they last had. Instances are reused from capture to capture and are not
+ * thread-safe.
+ * </p>
+ */
+public class ThreadSnapshot {
+    public static final int CPU_TIME = 1;
+    public static final int USER_TIME = 1 << 1;
+    public static final int ALLOCATED_BYTES = 1 << 2;
+    public static final int THREAD_INFO = 1 << 3;
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private long cpuTime;
+    private long userTime;
+    private long allocatedBytes;
+    private long blockedCount;
+    private long blockedTime;
+    private long waitedCount;
+    private long waitedTime;
+
+    /**
+     * Reads the given sources (a combination of {@link #CPU_TIME}, {@link #USER_TIME},
+     * {@link #ALLOCATED_BYTES} and {@link #THREAD_INFO}) for the given thread, using the cheaper
+     * current-thread calls where the thread is the calling one.
+     */
+    public void capture(Thread thread, int sources) {
+        if ((sources & CPU_TIME) != 0) {
+            cpuTime = readCpuTime(thread);
+        }
+        if ((sources & USER_TIME) != 0) {
+            userTime = readUserTime(thread);
+        }
+        if ((sources & ALLOCATED_BYTES) != 0) {
+            allocatedBytes = readAllocatedBytes(thread);
+        }
+        if ((sources & THREAD_INFO) != 0) {
+            ThreadInfo info = readThreadInfo(thread);
+            if (info == null) {
+                blockedCount = blockedTime = waitedCount = waitedTime = 0;
+            } else {
+                blockedCount = info.getBlockedCount();
+                blockedTime = info.getBlockedTime();
+                waitedCount = info.getWaitedCount();
+                waitedTime = info.getWaitedTime();
+            }
+        }
+    }
+
+    /*
+     * The single sources, also read directly by the standard metrics when they aren't sampled
+     * from a snapshot
+     */
+
+    static long readCpuTime(Thread thread) {
+        return (thread == Thread.currentThread()) ? THREAD_MX_BEAN.getCurrentThreadCpuTime()
+                : THREAD_MX_BEAN.getThreadCpuTime(thread.getId());
+    }
+
+    static long readUserTime(Thread thread) {
+        return (thread == Thread.currentThread()) ? THREAD_MX_BEAN.getCurrentThreadUserTime()
+                : THREAD_MX_BEAN.getThreadUserTime(thread.getId());
+    }
+
+    @SuppressWarnings("restriction")
+    static long readAllocatedBytes(Thread thread) {
+        if (THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) THREAD_MX_BEAN).getThreadAllocatedBytes(thread.getId());
+        }
+        return 0L;
+    }
+
+    /**
+     * @return the thread's info, or null if it is no longer alive
+     */
+    static ThreadInfo readThreadInfo(Thread thread) {
+        return THREAD_MX_BEAN.getThreadInfo(thread.getId());
+    }
+
+    public long getCpuTime() {
+        return cpuTime;
+    }
+
+    public long getUserTime() {
+        return userTime;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public long getBlockedCount() {
+        return blockedCount;
+    }
+
+    public long getBlockedTime() {
+        return blockedTime;
+    }
+
+    public long getWaitedCount() {
+        return waitedCount;
+    }
+
+    public long getWaitedTime() {
+        return waitedTime;
+    }
+}
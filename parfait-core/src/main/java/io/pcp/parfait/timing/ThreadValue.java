@@ -18,6 +18,7 @@ package io.pcp.parfait.timing;
 
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
@@ -63,6 +64,72 @@ public interface ThreadValue<T> {
         }
     }
 
+    /**
+     * Keeps each thread's value in a {@link ThreadLocal}, so that neither reading nor creating a
+     * value touches any structure shared between threads, and so that values go away with their
+     * threads. This suits large numbers of short-lived threads (such as one virtual thread per
+     * request) better than {@link WeakReferenceThreadMap}, which holds a weak map entry for every
+     * thread which has ever used it.
+     * <p>
+     * Values are only visible across threads, through {@link #getForThread(Thread)} and
+     * {@link #asMap()}, while their thread has marked itself as {@link #markInFlight() in flight}.
+     * </p>
+     */
+    public static class InFlightThreadMap<T> implements ThreadValue<T> {
+        private final ThreadLocal<T> threadLocal = new ThreadLocal<T>() {
+            @Override
+            protected T initialValue() {
+                return InFlightThreadMap.this.initialValue();
+            }
+        };
+        private final Map<Thread, T> inFlight = new ConcurrentHashMap<Thread, T>();
+
+        protected T initialValue() {
+            return null;
+        }
+
+        @Override
+        public final boolean canRetrieveAcrossThreads() {
+            return true;
+        }
+
+        @Override
+        public final T get() {
+            return threadLocal.get();
+        }
+
+        /**
+         * @return the given thread's value if it is the calling thread or is in flight, otherwise
+         *         null
+         */
+        @Override
+        public final T getForThread(Thread thread) {
+            if (thread == Thread.currentThread()) {
+                return threadLocal.get();
+            }
+            return inFlight.get(thread);
+        }
+
+        /**
+         * @return the values of the threads currently in flight
+         */
+        @Override
+        public final Map<Thread, T> asMap() {
+            return Collections.unmodifiableMap(inFlight);
+        }
+
+        /**
+         * Makes the calling thread's value visible to other threads until {@link #markIdle()}.
+         */
+        public final void markInFlight() {
+            inFlight.put(Thread.currentThread(), threadLocal.get());
+        }
+
+        public final void markIdle() {
+            inFlight.remove(Thread.currentThread());
+        }
+    }
+
     public static class WeakReferenceThreadMap<T> implements ThreadValue<T> {
 
         protected final LoadingCache<Thread, T> loadingCache = CacheBuilder.newBuilder().weakKeys().build(new CacheLoader<Thread, T>() {
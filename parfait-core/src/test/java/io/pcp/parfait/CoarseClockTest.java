@@ -0,0 +1,48 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package io.pcp.parfait;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CoarseClockTest {
+
+    @Test
+    public void shouldStopAdvancingOnceShutDown() throws InterruptedException {
+        CoarseClock clock = new CoarseClock(1L);
+        clock.shutdown();
+        Thread.sleep(20);
+        long stopped = clock.getAsLong();
+
+        Thread.sleep(20);
+
+        assertEquals(stopped, clock.getAsLong());
+    }
+
+    @Test
+    public void shouldKeepTheSharedClockRunningWhenShutDown() throws InterruptedException {
+        CoarseClock.getShared().shutdown();
+        long before = CoarseClock.getShared().getAsLong();
+
+        Thread.sleep(10 * CoarseClock.DEFAULT_GRANULARITY);
+
+        assertTrue(CoarseClock.getShared().getAsLong() > before);
+    }
+}
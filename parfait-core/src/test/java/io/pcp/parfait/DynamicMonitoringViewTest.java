@@ -22,31 +22,40 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
 public class DynamicMonitoringViewTest {
 
-    @Mock
-    MonitorableRegistry monitorableRegistry;
+    private final MonitorableRegistry monitorableRegistry = new MonitorableRegistry();
+
+    private final DummyMonitorable foo = new DummyMonitorable("foo");
+
+    private final DummyMonitorable bar = new DummyMonitorable("bar");
 
-    List<Monitorable<?>> monitorables = Collections.<Monitorable<?>>singletonList(new DummyMonitorable("foo"));
+    List<Monitorable<?>> monitorables = Collections.<Monitorable<?>>singletonList(foo);
 
     @Mock
     MonitoringView monitoringView;
 
+    @Mock
+    IncrementalMonitoringView incrementalView;
+
     private DynamicMonitoringView dynamicMonitoringView;
 
     @Before
     public void setUp() {
+        monitorableRegistry.register(foo);
         dynamicMonitoringView = new DynamicMonitoringView(monitorableRegistry, monitoringView, 2000);
-        when(monitorableRegistry.getMonitorables()).thenReturn(monitorables);
     }
 
     @Test
@@ -71,4 +80,67 @@ public class DynamicMonitoringViewTest {
         when(monitoringView.isRunning()).thenReturn(true);
         assertTrue(dynamicMonitoringView.isRunning());
     }
+
+    @Test
+    public void catchingUpShouldRestartAViewWhichCannotChangeInPlace() {
+        dynamicMonitoringView.start();
+        monitorableRegistry.register(bar);
+
+        dynamicMonitoringView.catchUp();
+
+        verify(monitoringView).stopMonitoring(monitorables);
+        verify(monitoringView).startMonitoring(Arrays.<Monitorable<?>>asList(bar, foo));
+    }
+
+    @Test
+    public void catchingUpShouldHandOnlyNewMonitorablesToAnIncrementalView() {
+        dynamicMonitoringView = new DynamicMonitoringView(monitorableRegistry, incrementalView, 2000);
+        when(incrementalView.isRunning()).thenReturn(true);
+        when(incrementalView.addMonitorables(any())).thenReturn(true);
+        dynamicMonitoringView.start();
+        monitorableRegistry.register(bar);
+
+        dynamicMonitoringView.catchUp();
+
+        verify(incrementalView).addMonitorables(Collections.<Monitorable<?>>singletonList(bar));
+        verify(incrementalView, never()).stopMonitoring(any());
+        verify(incrementalView).startMonitoring(monitorables);
+
+        dynamicMonitoringView.stop();
+
+        verify(incrementalView).stopMonitoring(Arrays.<Monitorable<?>>asList(foo, bar));
+    }
+
+    @Test
+    public void catchingUpShouldHandOnlyUnregisteredMonitorablesToAnIncrementalView() {
+        dynamicMonitoringView = new DynamicMonitoringView(monitorableRegistry, incrementalView, 2000);
+        when(incrementalView.isRunning()).thenReturn(true);
+        when(incrementalView.removeMonitorables(any())).thenReturn(true);
+        dynamicMonitoringView.start();
+        monitorableRegistry.unregister(foo);
+
+        dynamicMonitoringView.catchUp();
+
+        verify(incrementalView).removeMonitorables(Collections.<Monitorable<?>>singleton(foo));
+        verify(incrementalView, never()).addMonitorables(any());
+        verify(incrementalView, never()).stopMonitoring(any());
+
+        dynamicMonitoringView.stop();
+
+        verify(incrementalView).stopMonitoring(Collections.<Monitorable<?>>emptyList());
+    }
+
+    @Test
+    public void catchingUpShouldFallBackToARestartWhenAnIncrementalViewDeclines() {
+        dynamicMonitoringView = new DynamicMonitoringView(monitorableRegistry, incrementalView, 2000);
+        when(incrementalView.isRunning()).thenReturn(true);
+        when(incrementalView.addMonitorables(any())).thenReturn(false);
+        dynamicMonitoringView.start();
+        monitorableRegistry.register(bar);
+
+        dynamicMonitoringView.catchUp();
+
+        verify(incrementalView).stopMonitoring(monitorables);
+        verify(incrementalView).startMonitoring(Arrays.<Monitorable<?>>asList(bar, foo));
+    }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static tech.units.indriya.AbstractUnit.ONE;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class IdleMonitorableEvictorTest {
+    private static final long TTL = 60000L;
+
+    private final ManualTimeSupplier clock = new ManualTimeSupplier();
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private MonitorableRegistry registry;
+    private IdleMonitorableEvictor evictor;
+
+    @Before
+    public void setUp() {
+        registry = new MonitorableRegistry();
+        evictor = new IdleMonitorableEvictor(registry, TTL, m -> m.getName().startsWith("connection."), clock,
+                scheduler);
+    }
+
+    @Test
+    public void shouldUnregisterMonitorablesUnchangedForTheTimeToLive() {
+        new MonitoredCounter("connection.1.requests", "", registry, ONE);
+
+        scheduler.runAllScheduledTasks();
+        clock.tick(TTL - 1);
+        scheduler.runAllScheduledTasks();
+        assertTrue(registry.containsMetric("connection.1.requests"));
+
+        clock.tick(1);
+        scheduler.runAllScheduledTasks();
+        assertFalse(registry.containsMetric("connection.1.requests"));
+    }
+
+    @Test
+    public void shouldRestartThePeriodWhenTheValueChanges() {
+        MonitoredCounter counter = new MonitoredCounter("connection.1.requests", "", registry, ONE);
+
+        scheduler.runAllScheduledTasks();
+        clock.tick(TTL - 1);
+        counter.inc();
+        scheduler.runAllScheduledTasks();
+        clock.tick(TTL - 1);
+        scheduler.runAllScheduledTasks();
+
+        assertTrue(registry.containsMetric("connection.1.requests"));
+    }
+
+    @Test
+    public void shouldUnscheduleItsSweepWhenStopped() {
+        evictor.stop();
+
+        assertTrue(scheduler.scheduledRates.isEmpty());
+    }
+
+    @Test
+    public void shouldStopItsOwnThreadWhenStopped() throws InterruptedException {
+        IdleMonitorableEvictor owning = new IdleMonitorableEvictor(registry, TTL, m -> true);
+        assertTrue(isEvictorThreadAlive());
+
+        owning.stop();
+
+        for (int i = 0; i < 500 && isEvictorThreadAlive(); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(isEvictorThreadAlive());
+    }
+
+    @Test
+    public void shouldNeverEvictMonitorablesRejectedByThePredicate() {
+        new MonitoredCounter("requests", "", registry, ONE);
+
+        scheduler.runAllScheduledTasks();
+        clock.tick(TTL * 10);
+        scheduler.runAllScheduledTasks();
+
+        assertEquals(1, registry.getMonitorables().size());
+    }
+
+    private static boolean isEvictorThreadAlive() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("IdleMonitorableEvictor") && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait;
+
+import static javax.measure.MetricPrefix.MILLI;
+import static javax.measure.MetricPrefix.NANO;
+import static org.junit.Assert.assertEquals;
+import static tech.units.indriya.AbstractUnit.ONE;
+import static tech.units.indriya.unit.Units.SECOND;
+
+import org.junit.Test;
+
+public class LogLinearBucketsTest {
+    private final LogLinearBuckets buckets = new LogLinearBuckets(1L, 2);
+
+    @Test
+    public void bucketsIncludeTheirUpperBound() {
+        assertEquals(0, buckets.indexOf(0L));
+        assertEquals(0, buckets.indexOf(1L));
+        assertEquals(1, buckets.indexOf(2L));
+        assertEquals(8, buckets.indexOf(9L));
+        assertEquals(9, buckets.indexOf(10L));
+        assertEquals(10, buckets.indexOf(11L));
+        assertEquals(18, buckets.indexOf(100L));
+    }
+
+    @Test
+    public void valuesAboveTheHighestBoundFallIntoTheOverflowBucket() {
+        assertEquals(20, buckets.getBucketCount());
+        assertEquals(18, buckets.indexOf(100L));
+        assertEquals(buckets.getBucketCount() - 1, buckets.indexOf(101L));
+        assertEquals(Long.MAX_VALUE, buckets.getUpperBound(buckets.getBucketCount() - 1));
+    }
+
+    @Test
+    public void bucketWidthsGrowLinearlyWithinEachDecade() {
+        assertEquals(30L, buckets.getUpperBound(11));
+        assertEquals(90L, buckets.getUpperBound(17));
+    }
+
+    @Test
+    public void timeBucketsCoverOneMicrosecondToOneHundredSecondsInAnyUnit() {
+        LogLinearBuckets nanos = LogLinearBuckets.forUnit(NANO(SECOND));
+        assertEquals("le_1us", nanos.getLabel(0, NANO(SECOND)));
+        assertEquals("le_20ms", nanos.getLabel(nanos.indexOf(20000000L), NANO(SECOND)));
+        assertEquals("le_100s", nanos.getLabel(nanos.getBucketCount() - 2, NANO(SECOND)));
+
+        LogLinearBuckets millis = LogLinearBuckets.forUnit(MILLI(SECOND));
+        assertEquals("le_1ms", millis.getLabel(0, MILLI(SECOND)));
+        assertEquals("le_100s", millis.getLabel(millis.getBucketCount() - 2, MILLI(SECOND)));
+        assertEquals("le_inf", millis.getLabel(millis.getBucketCount() - 1, MILLI(SECOND)));
+    }
+
+    @Test
+    public void otherUnitsAreLabelledWithThePlainBound() {
+        LogLinearBuckets counts = LogLinearBuckets.forUnit(ONE);
+        assertEquals("le_1", counts.getLabel(0, ONE));
+        assertEquals("le_500", counts.getLabel(counts.indexOf(500L), ONE));
+    }
+}
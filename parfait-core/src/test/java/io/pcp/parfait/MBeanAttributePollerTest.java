@@ -0,0 +1,174 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static tech.units.indriya.AbstractUnit.ONE;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MBeanAttributePollerTest {
+    private static final int INTERVAL = 1000;
+
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private MBeanServerConnection server;
+    private MonitorableRegistry registry;
+    private MBeanAttributePoller poller;
+    private ObjectName memory;
+    private CompositeData heap;
+
+    @Before
+    public void setUp() throws Exception {
+        server = mock(MBeanServerConnection.class);
+        registry = new MonitorableRegistry();
+        poller = new MBeanAttributePoller(server, scheduler);
+        memory = new ObjectName("java.lang:type=Memory");
+        heap = mock(CompositeData.class);
+        when(heap.get("used")).thenReturn(1L);
+        when(heap.get("max")).thenReturn(10L);
+        when(server.getAttribute(memory, "HeapMemoryUsage")).thenReturn(heap);
+        when(server.getAttribute(memory, "ObjectPendingFinalizationCount")).thenReturn(0);
+    }
+
+    @Test
+    public void shouldFetchEveryAttributeOfABeanWithOneCallPerTick() throws Exception {
+        Monitorable<Long> used = poll("heap.used", "HeapMemoryUsage", "used");
+        Monitorable<Long> max = poll("heap.max", "HeapMemoryUsage", "max");
+        Monitorable<Integer> pending = poll("pending", "ObjectPendingFinalizationCount", null);
+
+        CompositeData newHeap = mock(CompositeData.class);
+        when(newHeap.get("used")).thenReturn(2L);
+        when(newHeap.get("max")).thenReturn(20L);
+        AttributeList attributes = new AttributeList();
+        attributes.add(new Attribute("HeapMemoryUsage", newHeap));
+        attributes.add(new Attribute("ObjectPendingFinalizationCount", 3));
+        when(server.getAttributes(eq(memory), any(String[].class))).thenReturn(attributes);
+
+        scheduler.runAllScheduledTasks();
+
+        verify(server, times(1)).getAttributes(memory,
+                new String[] { "HeapMemoryUsage", "ObjectPendingFinalizationCount" });
+        assertEquals(1, scheduler.scheduledRates.size());
+        assertEquals(Long.valueOf(2L), used.get());
+        assertEquals(Long.valueOf(20L), max.get());
+        assertEquals(Integer.valueOf(3), pending.get());
+    }
+
+    @Test
+    public void shouldKeepThePreviousValueOfAnAttributeWhichCouldNotBeRead() throws Exception {
+        Monitorable<Integer> pending = poll("pending", "ObjectPendingFinalizationCount", null);
+        when(server.getAttributes(eq(memory), any(String[].class))).thenReturn(new AttributeList());
+
+        scheduler.runAllScheduledTasks();
+
+        assertEquals(Integer.valueOf(0), pending.get());
+    }
+
+    @Test
+    public void shouldPollEachIntervalSeparately() {
+        poll("heap.used", "HeapMemoryUsage", "used");
+        poller.poll("heap.max", "", registry, INTERVAL * 5, memory, "HeapMemoryUsage", "max",
+                ValueSemantics.FREE_RUNNING, ONE);
+
+        assertEquals(2, scheduler.scheduledRates.size());
+    }
+
+    @Test
+    public void shouldStopPollingOnceShutDown() throws Exception {
+        Monitorable<Integer> pending = poll("pending", "ObjectPendingFinalizationCount", null);
+        AttributeList attributes = new AttributeList();
+        attributes.add(new Attribute("ObjectPendingFinalizationCount", 3));
+        when(server.getAttributes(eq(memory), any(String[].class))).thenReturn(attributes);
+
+        poller.shutdown();
+        scheduler.runAllScheduledTasks();
+
+        verify(server, never()).getAttributes(eq(memory), any(String[].class));
+        assertEquals(Integer.valueOf(0), pending.get());
+    }
+
+    @Test
+    public void shouldUnscheduleEveryBatchOnShutdown() {
+        poll("pending", "ObjectPendingFinalizationCount", null);
+        poller.poll("heap.max", "", registry, INTERVAL * 5, memory, "HeapMemoryUsage", "max",
+                ValueSemantics.FREE_RUNNING, ONE);
+
+        poller.shutdown();
+
+        assertEquals(0, scheduler.scheduledRates.size());
+    }
+
+    @Test
+    public void shouldStopPollingASingleAttribute() throws Exception {
+        Monitorable<Long> used = poll("heap.used", "HeapMemoryUsage", "used");
+        Monitorable<Integer> pending = poll("pending", "ObjectPendingFinalizationCount", null);
+        when(server.getAttributes(eq(memory), any(String[].class))).thenReturn(new AttributeList());
+
+        poller.stopPolling(pending);
+        scheduler.runAllScheduledTasks();
+        verify(server, times(1)).getAttributes(memory, new String[] { "HeapMemoryUsage" });
+
+        poller.stopPolling(used);
+        assertEquals(0, scheduler.scheduledRates.size());
+    }
+
+    @Test
+    public void shouldShareOnePollerPerConnectionUntilEveryUserReleasesIt() {
+        MBeanAttributePoller first = MBeanAttributePoller.acquire(server);
+        MBeanAttributePoller second = MBeanAttributePoller.acquire(server);
+        assertSame(first, second);
+        MBeanAttributePoller other = MBeanAttributePoller.acquire(mock(MBeanServerConnection.class));
+        assertNotSame(first, other);
+        other.release();
+
+        first.release();
+        assertSame(first, MBeanAttributePoller.acquire(server));
+        first.release();
+        second.release();
+
+        MBeanAttributePoller third = MBeanAttributePoller.acquire(server);
+        assertNotSame(first, third);
+        third.release();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectNewAttributesOnceShutDown() {
+        poller.shutdown();
+
+        poll("pending", "ObjectPendingFinalizationCount", null);
+    }
+
+    private <T> Monitorable<T> poll(String name, String attribute, String item) {
+        return poller.poll(name, "", registry, INTERVAL, memory, attribute, item, ValueSemantics.FREE_RUNNING, ONE);
+    }
+}
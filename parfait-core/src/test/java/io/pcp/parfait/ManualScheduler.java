@@ -41,4 +41,9 @@ final class ManualScheduler implements Scheduler {
 		schedule(timerTask, rate);
 	}
 
+	@Override
+	public void unschedule(TimerTask task) {
+		scheduledRates.remove(task);
+	}
+
 }
\ No newline at end of file
@@ -16,8 +16,12 @@
 
 package io.pcp.parfait;
 
+import com.google.common.collect.ImmutableList;
+import java.util.Collection;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
@@ -87,6 +91,159 @@ public class MonitorableRegistryTest {
         assertTrue("Should have notified of second new Monitorable added", monitorableRegistryListener.monitorablesAdded == 2);
     }
 
+    @Test
+    public void registerAllNotifiesListenersOnceForTheWholeBatch() {
+        MonitorableRegistry registry = newRegistry();
+        MonitorableRegistryListenerTester listener = new MonitorableRegistryListenerTester();
+        registry.addRegistryListener(listener);
+
+        registry.registerAll(ImmutableList.of(new DummyMonitorable("foo"), new DummyMonitorable("bar"), new DummyMonitorable("baz")));
+
+        assertEquals(1, listener.batchesAdded);
+        assertEquals(0, listener.monitorablesAdded);
+        assertEquals(3, registry.getMonitorables().size());
+    }
+
+    @Test
+    public void registerAllAddsNothingIfAnyNameIsAlreadyRegistered() {
+        MonitorableRegistry registry = newRegistry();
+        registry.register(new DummyMonitorable("bar"));
+        try {
+            registry.registerAll(ImmutableList.of(new DummyMonitorable("foo"), new DummyMonitorable("bar")));
+        } catch (UnsupportedOperationException expected) {
+            assertFalse(registry.containsMetric("foo"));
+            assertEquals(1L, registry.getVersion());
+            return;
+        }
+        throw new AssertionError("Expected the duplicate to be rejected");
+    }
+
+    @Test
+    public void snapshotIsReusedUntilTheRegistryChanges() {
+        MonitorableRegistry registry = newRegistry();
+        registry.register(new DummyMonitorable("foo"));
+        MonitorableRegistry.Snapshot snapshot = registry.getSnapshot();
+        assertSame(snapshot, registry.getSnapshot());
+
+        registry.register(new DummyMonitorable("bar"));
+        MonitorableRegistry.Snapshot next = registry.getSnapshot();
+        assertEquals(2L, next.getVersion());
+        assertEquals(1, snapshot.getMonitorables().size());
+        assertEquals("bar", next.getMonitorables().get(0).getName());
+    }
+
+    @Test
+    public void snapshotReportsMonitorablesAddedSinceAnEarlierVersion() {
+        MonitorableRegistry registry = newRegistry();
+        Monitorable<?> foo = new DummyMonitorable("foo");
+        Monitorable<?> bar = new DummyMonitorable("bar");
+        Monitorable<?> baz = new DummyMonitorable("baz");
+        registry.register(foo);
+        long version = registry.getVersion();
+        registry.registerAll(ImmutableList.of(bar, baz));
+
+        assertEquals(ImmutableList.of(bar, baz), registry.getSnapshot().getAddedSince(version));
+        assertTrue(registry.getSnapshot().getAddedSince(registry.getVersion()).isEmpty());
+    }
+
+    @Test
+    public void unregisterRemovesTheMonitorableAndNotifiesListeners() {
+        MonitorableRegistry registry = newRegistry();
+        MonitorableRegistryListenerTester listener = new MonitorableRegistryListenerTester();
+        registry.addRegistryListener(listener);
+        Monitorable<?> foo = new DummyMonitorable("foo");
+        registry.register(foo);
+
+        assertSame(foo, registry.unregister("foo"));
+
+        assertFalse(registry.containsMetric("foo"));
+        assertEquals(1, listener.monitorablesRemoved);
+        assertEquals(null, registry.unregister("foo"));
+        registry.register(new DummyMonitorable("foo"));
+    }
+
+    @Test
+    public void unregisterByInstanceLeavesAReplacementAlone() {
+        MonitorableRegistry registry = newRegistry();
+        Monitorable<?> original = new DummyMonitorable("foo");
+        registry.register(original);
+        registry.unregister("foo");
+        Monitorable<?> replacement = new DummyMonitorable("foo");
+        registry.register(replacement);
+
+        assertFalse(registry.unregister(original));
+        assertSame(replacement, registry.getMetric("foo"));
+        assertTrue(registry.unregister(replacement));
+        assertFalse(registry.containsMetric("foo"));
+        assertEquals(ImmutableList.of(original, replacement), registry.getSnapshot().getRemovedSince(0L));
+    }
+
+    @Test
+    public void snapshotReportsMonitorablesRemovedSinceAnEarlierVersion() {
+        MonitorableRegistry registry = newRegistry();
+        Monitorable<?> foo = new DummyMonitorable("foo");
+        Monitorable<?> bar = new DummyMonitorable("bar");
+        registry.register(foo);
+        long version = registry.getVersion();
+        registry.register(bar);
+        registry.unregister("foo");
+        registry.unregister("bar");
+
+        MonitorableRegistry.Snapshot snapshot = registry.getSnapshot();
+        assertTrue(snapshot.canReportChangesSince(version));
+        assertEquals(ImmutableList.of(foo, bar), snapshot.getRemovedSince(version));
+        assertTrue(snapshot.getAddedSince(version).isEmpty());
+        assertTrue(snapshot.getMonitorables().isEmpty());
+    }
+
+    @Test
+    public void snapshotCannotReportChangesOlderThanTheRetainedRemovals() {
+        MonitorableRegistry registry = newRegistry();
+        for (int i = 0; i <= MonitorableRegistry.MAX_RETAINED_REMOVALS; i++) {
+            registry.register(new DummyMonitorable("foo"));
+            registry.unregister("foo");
+        }
+        assertFalse(registry.getSnapshot().canReportChangesSince(0L));
+        assertTrue(registry.getSnapshot().canReportChangesSince(registry.getVersion() - 2));
+    }
+
+    @Test
+    public void snapshotOnlyReportsChangesUpToItsVersion() {
+        MonitorableRegistry registry = newRegistry();
+        Monitorable<?> foo = new DummyMonitorable("foo");
+        Monitorable<?> bar = new DummyMonitorable("bar");
+        registry.register(foo);
+        registry.register(bar);
+        registry.unregister("bar");
+        MonitorableRegistry.Snapshot snapshot = registry.getSnapshot();
+
+        registry.register(new DummyMonitorable("baz"));
+        registry.unregister("baz");
+
+        assertEquals(ImmutableList.of(foo), snapshot.getAddedSince(0L));
+        assertEquals(ImmutableList.of(bar), snapshot.getRemovedSince(0L));
+        assertEquals(ImmutableList.of(foo), snapshot.getMonitorables());
+    }
+
+    @Test
+    public void snapshotStopsReportingChangesOnceTheRegistryForgetsThem() {
+        MonitorableRegistry registry = newRegistry();
+        Monitorable<?> foo = new DummyMonitorable("foo");
+        registry.register(foo);
+        registry.register(new DummyMonitorable("bar"));
+        registry.unregister("bar");
+        MonitorableRegistry.Snapshot snapshot = registry.getSnapshot();
+        assertTrue(snapshot.canReportChangesSince(0L));
+
+        for (int i = 0; i <= MonitorableRegistry.MAX_RETAINED_REMOVALS; i++) {
+            registry.register(new DummyMonitorable("baz"));
+            registry.unregister("baz");
+        }
+
+        assertFalse(snapshot.canReportChangesSince(0L));
+        assertEquals(ImmutableList.of(foo), snapshot.getMonitorables());
+    }
+
     private MonitorableRegistry newRegistry() {
         return new MonitorableRegistry();
     }
@@ -94,11 +251,23 @@ public class MonitorableRegistryTest {
     private static class MonitorableRegistryListenerTester implements MonitorableRegistryListener {
 
         private int monitorablesAdded = 0;
+        private int batchesAdded = 0;
+        private int monitorablesRemoved = 0;
 
         @Override
         public void monitorableAdded(Monitorable<?> monitorable){
             monitorablesAdded++;
         }
 
+        @Override
+        public void monitorablesAdded(Collection<Monitorable<?>> monitorables) {
+            batchesAdded++;
+        }
+
+        @Override
+        public void monitorableRemoved(Monitorable<?> monitorable) {
+            monitorablesRemoved++;
+        }
+
     }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static tech.units.indriya.AbstractUnit.ONE;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MonitoredHistogramTest {
+    private ManualScheduler scheduler;
+    private MonitoredHistogram histogram;
+    private Monitor monitor;
+
+    @Before
+    public void setUp() {
+        scheduler = new ManualScheduler();
+        histogram = new MonitoredHistogram("latency", "Latency", new MonitorableRegistry(), ONE,
+                new LogLinearBuckets(1L, 2), new CounterSweeper(scheduler, 100));
+        monitor = mock(Monitor.class);
+        histogram.attachMonitor(monitor);
+    }
+
+    @Test
+    public void recordsValuesIntoTheirBuckets() {
+        histogram.record(1L);
+        histogram.record(2L);
+        histogram.record(2L);
+        histogram.record(35L);
+        histogram.record(1000L);
+
+        LogLinearBuckets buckets = histogram.getBuckets();
+        assertEquals(1L, histogram.getBucketCount(buckets.indexOf(1L)));
+        assertEquals(2L, histogram.getBucketCount(buckets.indexOf(2L)));
+        assertEquals(1L, histogram.getBucketCount(buckets.indexOf(40L)));
+        assertEquals(1L, histogram.getBucketCount(buckets.getBucketCount() - 1));
+    }
+
+    @Test
+    public void tracksTheCountAndSum() {
+        histogram.record(3L);
+        histogram.record(4L);
+        assertEquals(2L, histogram.getCount());
+        assertEquals(7L, histogram.getSum());
+        assertEquals(2L, histogram.get().longValue());
+    }
+
+    @Test
+    public void recordingDoesNotNotifyMonitors() {
+        histogram.record(5L);
+        verifyNoInteractions(monitor);
+    }
+
+    @Test
+    public void sweepNotifiesMonitorsOnlyWhenSomethingWasRecorded() {
+        histogram.record(5L);
+        scheduler.runAllScheduledTasks();
+        scheduler.runAllScheduledTasks();
+        verify(monitor, times(1)).valueChanged(histogram);
+    }
+}
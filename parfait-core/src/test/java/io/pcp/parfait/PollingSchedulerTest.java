@@ -0,0 +1,210 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+import java.util.Random;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class PollingSchedulerTest {
+    private static final long RATE = 1000L;
+
+    private final ManualTimeSupplier clock = new ManualTimeSupplier();
+    private final List<Runnable> queuedPolls = Lists.newArrayList();
+    private final Executor workers = queuedPolls::add;
+    private ScheduledExecutorService ticker;
+    private PollingScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        ticker = mock(ScheduledExecutorService.class);
+        scheduler = new PollingScheduler(ticker, workers, clock::get, new Random(0), 0L);
+    }
+
+    @Test
+    public void tasksSharingARateShouldShareOneTick() {
+        scheduler.schedule(new CountingTask(), RATE);
+        scheduler.schedule(new CountingTask(), RATE);
+        scheduler.schedule(new CountingTask(), 2 * RATE);
+
+        verify(ticker, times(1)).scheduleAtFixedRate(any(Runnable.class), eq(RATE), eq(RATE), eq(TimeUnit.MILLISECONDS));
+        verify(ticker, times(1)).scheduleAtFixedRate(any(Runnable.class), eq(2 * RATE), eq(2 * RATE), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void tickShouldHandEveryTaskToTheWorkers() {
+        CountingTask first = new CountingTask();
+        CountingTask second = new CountingTask();
+        scheduler.schedule(first, RATE);
+        scheduler.schedule(second, RATE);
+
+        clock.tick(RATE);
+        scheduler.tick(RATE);
+        runQueuedPolls();
+
+        assertEquals(1, first.runs.get());
+        assertEquals(1, second.runs.get());
+        assertEquals(2L, scheduler.getPollCount());
+    }
+
+    @Test
+    public void shouldSkipATaskStillRunningFromThePreviousTick() {
+        CountingTask slow = new CountingTask();
+        scheduler.schedule(slow, RATE);
+
+        clock.tick(RATE);
+        scheduler.tick(RATE);
+        clock.tick(RATE);
+        scheduler.tick(RATE);
+        runQueuedPolls();
+
+        assertEquals(1, slow.runs.get());
+        assertEquals(1L, scheduler.getOverrunCount());
+    }
+
+    @Test
+    public void shouldSkipTicksWhichFellAWholePeriodBehind() {
+        CountingTask task = new CountingTask();
+        scheduler.schedule(task, RATE);
+
+        clock.tick(RATE * 3 + 10);
+        scheduler.tick(RATE);
+        scheduler.tick(RATE);
+        scheduler.tick(RATE);
+        runQueuedPolls();
+
+        assertEquals(1, task.runs.get());
+        assertEquals(2L, scheduler.getOverrunCount());
+        assertEquals(10L, scheduler.getTotalLag());
+    }
+
+    @Test
+    public void shouldRecordHowLatePollsStarted() {
+        scheduler.schedule(new CountingTask(), RATE);
+
+        clock.tick(RATE + 5);
+        scheduler.tick(RATE);
+        clock.tick(20);
+        runQueuedPolls();
+
+        assertEquals(25L, scheduler.getTotalLag());
+    }
+
+    @Test
+    public void shouldStopRunningAnUnscheduledTask() {
+        CountingTask kept = new CountingTask();
+        CountingTask removed = new CountingTask();
+        scheduler.schedule(kept, RATE);
+        scheduler.schedule(removed, RATE);
+
+        scheduler.unschedule(removed);
+        clock.tick(RATE);
+        scheduler.tick(RATE);
+        runQueuedPolls();
+
+        assertEquals(1, kept.runs.get());
+        assertEquals(0, removed.runs.get());
+        assertTrue(scheduler.isTicking(RATE));
+    }
+
+    @Test
+    public void shouldStopTickingOnceEveryTaskAtARateIsUnscheduled() {
+        CountingTask task = new CountingTask();
+        scheduler.schedule(task, RATE);
+
+        scheduler.unschedule(task);
+
+        assertFalse(scheduler.isTicking(RATE));
+        scheduler.schedule(task, RATE);
+        assertTrue(scheduler.isTicking(RATE));
+    }
+
+    @Test
+    public void shouldInterruptARunStillGoingAtItsNextTick() throws InterruptedException {
+        PollingScheduler threaded = new PollingScheduler(ticker, runnable -> new Thread(runnable).start(),
+                clock::get, new Random(0), 0L);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        threaded.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        }, RATE);
+
+        clock.tick(RATE);
+        threaded.tick(RATE);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        clock.tick(RATE);
+        threaded.tick(RATE);
+
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertEquals(1L, threaded.getOverrunCount());
+        assertEquals(1L, threaded.getInterruptedCount());
+    }
+
+    @Test
+    public void shouldExportItsOwnMetrics() {
+        MonitorableRegistry registry = new MonitorableRegistry();
+        scheduler.exportMetrics(registry, "parfait.polling", 1000);
+
+        assertTrue(registry.containsMetric("parfait.polling.overruns"));
+        assertTrue(registry.containsMetric("parfait.polling.interrupted"));
+        assertTrue(registry.containsMetric("parfait.polling.lag.total"));
+    }
+
+    private void runQueuedPolls() {
+        List<Runnable> polls = Lists.newArrayList(queuedPolls);
+        queuedPolls.clear();
+        for (Runnable poll : polls) {
+            poll.run();
+        }
+    }
+
+    private static final class CountingTask extends TimerTask {
+        private final AtomicInteger runs = new AtomicInteger();
+
+        @Override
+        public void run() {
+            runs.incrementAndGet();
+        }
+    }
+}
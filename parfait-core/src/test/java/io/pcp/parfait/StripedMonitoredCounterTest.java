@@ -0,0 +1,81 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static tech.units.indriya.AbstractUnit.ONE;
+
+public class StripedMonitoredCounterTest {
+    private ManualScheduler scheduler;
+    private CounterSweeper sweeper;
+    private StripedMonitoredCounter counter;
+    private Monitor monitor;
+
+    @Before
+    public void setUp() {
+        scheduler = new ManualScheduler();
+        sweeper = new CounterSweeper(scheduler, 100);
+        counter = new StripedMonitoredCounter("A", "aaa", new MonitorableRegistry(), ONE, sweeper);
+        monitor = mock(Monitor.class);
+        counter.attachMonitor(monitor);
+    }
+
+    @Test
+    public void incrementsAreSummed() {
+        counter.inc();
+        counter.inc(41L);
+        assertEquals(42L, counter.get().longValue());
+        assertEquals(42L, counter.getAsLong());
+    }
+
+    @Test
+    public void incrementingDoesNotNotifyMonitors() {
+        counter.inc();
+        counter.inc(5L);
+        verifyNoInteractions(monitor);
+    }
+
+    @Test
+    public void sweepNotifiesMonitorsOnceOfChangedValue() {
+        counter.inc();
+        counter.inc();
+        scheduler.runAllScheduledTasks();
+        verify(monitor, times(1)).valueChanged(counter);
+    }
+
+    @Test
+    public void sweepDoesNotNotifyMonitorsOfUnchangedValue() {
+        counter.inc();
+        scheduler.runAllScheduledTasks();
+        scheduler.runAllScheduledTasks();
+        verify(monitor, times(1)).valueChanged(counter);
+    }
+
+    @Test
+    public void settingNotifiesImmediately() {
+        counter.set(1337L);
+        assertEquals(1337L, counter.get().longValue());
+        verify(monitor).valueChanged(counter);
+    }
+}
@@ -61,4 +61,15 @@ public class TimeWindowCounterBuilderTest {
 		PollingMonitoredValue.runAllTasks();
 		assertEquals(Long.valueOf(23L), registry.getMetric("disk.writes.5s").get());
 	}
+
+	@Test
+	public void concurrentBuilderShouldWrapLockFreeCounters() {
+		ManualTimeSupplier timeSource = new ManualTimeSupplier();
+		TimeWindowCounterBuilder concurrentBuilder = TimeWindowCounterBuilder.concurrent(
+				timeSource::get, registry, TimeWindow.of(1000, 5000, "5s"));
+		CompositeCounter wrapped = concurrentBuilder.wrapCounter(template);
+		wrapped.inc(23);
+		PollingMonitoredValue.runAllTasks();
+		assertEquals(Long.valueOf(23L), registry.getMetric("disk.writes.5s").get());
+	}
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.timing;
+
+import static org.junit.Assert.assertEquals;
+import static tech.units.indriya.unit.Units.SECOND;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.pcp.parfait.timing.AsyncMeasurementSink.OverflowPolicy;
+import org.junit.Test;
+
+public class AsyncMeasurementSinkTest {
+    private final RecordingSink recorder = new RecordingSink();
+
+    @Test
+    public void forwardsACopyOfTheStepThatSurvivesItBeingRecycled() {
+        AsyncMeasurementSink sink = new AsyncMeasurementSink(recorder, 4, OverflowPolicy.DROP);
+        StepMeasurements parent = new StepMeasurements(null, "floop", "start");
+        StepMeasurements step = new StepMeasurements(parent, "bloop", null);
+        new StepMeasurements(step, "gloop", null);
+        new StepMeasurements(step, "zloop", "go");
+        step.addMetricInstance(MetricMeasurement.recorded(new DummyThreadMetric(SECOND), 3, 7));
+
+        sink.handle(step, 1);
+        step.reset(null, "recycled", null);
+        step.getMetricInstance(0).reset();
+
+        assertEquals(1, sink.drain(10));
+        assertEquals("1 floop:start/bloop bloop/{gloop|zloop:go} dummy=3/7", recorder.received.get(0));
+        assertEquals(1, sink.getForwardedCount());
+    }
+
+    @Test
+    public void dropsMeasurementsOnceEverySlotIsFull() {
+        AsyncMeasurementSink sink = new AsyncMeasurementSink(recorder, 3, OverflowPolicy.DROP);
+        for (int i = 0; i < 5; i++) {
+            sink.handle(new StepMeasurements(null, "step" + i, null), 0);
+        }
+
+        assertEquals(1, sink.getDroppedCount());
+        assertEquals(4, sink.getPendingCount());
+        assertEquals(4, sink.drain(10));
+        assertEquals("0 step3 step3 ", recorder.received.get(3));
+        assertEquals(0, sink.getPendingCount());
+    }
+
+    @Test
+    public void drainsInBatchesOfTheRequestedSize() {
+        AsyncMeasurementSink sink = new AsyncMeasurementSink(recorder, 8, OverflowPolicy.DROP);
+        for (int i = 0; i < 5; i++) {
+            sink.handle(new StepMeasurements(null, "step" + i, null), 0);
+        }
+
+        assertEquals(2, sink.drain(2));
+        assertEquals(3, sink.drain(10));
+        assertEquals(0, sink.drain(10));
+    }
+
+    @Test
+    public void blockingPolicyLosesNothingWhileTheConsumerRuns() throws InterruptedException {
+        AsyncMeasurementSink sink = new AsyncMeasurementSink(recorder, 2, OverflowPolicy.BLOCK);
+        sink.start();
+        int threads = 4;
+        int perThread = 500;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    sink.handle(new StepMeasurements(null, "step", null), 0);
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await(30, TimeUnit.SECONDS);
+        sink.shutdown();
+
+        assertEquals(0, sink.getDroppedCount());
+        assertEquals(threads * perThread, sink.getForwardedCount());
+        assertEquals(threads * perThread, recorder.received.size());
+    }
+
+    @Test
+    public void keepsForwardingAfterTheDelegateFails() {
+        AsyncMeasurementSink sink = new AsyncMeasurementSink(new StepMeasurementSink() {
+            @Override
+            public void handle(StepMeasurements measurements, int level) {
+                throw new IllegalStateException("boom");
+            }
+        }, 4, OverflowPolicy.DROP);
+        sink.handle(new StepMeasurements(null, "one", null), 0);
+        sink.handle(new StepMeasurements(null, "two", null), 0);
+
+        assertEquals(2, sink.drain(10));
+        assertEquals(2, sink.getFailedCount());
+    }
+
+    private static class RecordingSink implements StepMeasurementSink {
+        private final List<String> received = new CopyOnWriteArrayList<String>();
+
+        @Override
+        public void handle(StepMeasurements measurements, int level) {
+            StringBuilder description = new StringBuilder();
+            description.append(level).append(' ').append(measurements.getBackTrace()).append(' ')
+                    .append(measurements.getForwardTrace()).append(' ');
+            for (int i = 0; i < measurements.metricInstanceCount(); i++) {
+                MetricMeasurement metric = measurements.getMetricInstance(i);
+                description.append(metric.getMetricName()).append('=').append(metric.rawOwnTimeValue())
+                        .append('/').append(metric.rawTotalValue());
+            }
+            received.add(description.toString());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.timing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static tech.units.indriya.unit.Units.SECOND;
+
+import io.pcp.parfait.Monitorable;
+import io.pcp.parfait.MonitorableRegistry;
+import io.pcp.parfait.StripedMonitoredCounter;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CallTreeSinkTest {
+    private final DummyThreadMetric clock = new DummyThreadMetric(SECOND);
+    private MonitorableRegistry registry;
+    private CallTreeSink sink;
+
+    @Before
+    public void setUp() {
+        registry = new MonitorableRegistry();
+        ThreadMetricSuite suite = ThreadMetricSuite.blank();
+        suite.addMetric(clock);
+        sink = new CallTreeSink("app", registry, suite, 3, 40);
+    }
+
+    @Test
+    public void accumulatesOwnAndTotalValuesPerCallPath() {
+        StepMeasurements controller = step(null, "Controller", "list", 2, 10);
+        StepMeasurements service = step(controller, "Service", "load", 3, 8);
+        StepMeasurements dao = step(service, "Dao", "query", 5, 5);
+        sink.handle(dao, 2);
+        sink.handle(service, 1);
+        sink.handle(controller, 0);
+        sink.handle(step(step(null, "Controller", "list", 0, 0), "Service", "load", 1, 4), 1);
+
+        assertEquals(2L, value("app.calltree[Controller_list/Service_load].count"));
+        assertEquals(4L, value("app.calltree[Controller_list/Service_load].own.dummy.value"));
+        assertEquals(12L, value("app.calltree[Controller_list/Service_load].total.dummy.value"));
+        assertEquals(5L, value("app.calltree[Controller_list/Service_load/Dao_query].own.dummy.value"));
+        assertEquals(10L, value("app.calltree[Controller_list].total.dummy.value"));
+        assertEquals(3, sink.getNodeCount());
+    }
+
+    @Test
+    public void foldsPathsBeyondTheBoundsIntoTheOverflowNode() {
+        sink.handle(step(null, "a", null, 1, 1), 0);
+        sink.handle(step(null, "b", null, 1, 1), 0);
+        sink.handle(step(null, "c", null, 1, 1), 0);
+        StepMeasurements d = step(null, "d", null, 1, 1);
+        sink.handle(step(d, "e", null, 2, 2), 1);
+        sink.handle(d, 0);
+        sink.handle(step(step(null, "a", null, 0, 0), "thisNameMakesThePathLongerThanTheLimit", null, 4, 4), 1);
+
+        assertEquals(3L, value("app.calltree[_overflow].count"));
+        assertEquals(7L, value("app.calltree[_overflow].own.dummy.value"));
+        assertFalse(registry.getMonitorables().stream().anyMatch(m -> m.getName().contains("[d")));
+        assertEquals(3, sink.getNodeCount());
+    }
+
+    @Test
+    public void cleansAndDisambiguatesInstanceNames() {
+        sink.handle(step(null, "a:b", null, 1, 1), 0);
+        sink.handle(step(null, "a", "b", 1, 1), 0);
+
+        assertEquals(1L, value("app.calltree[a_b].count"));
+        assertEquals(1L, value("app.calltree[a_b_2].count"));
+    }
+
+    @Test
+    public void keepsPathsNamedLikeTheOverflowNodeApartFromIt() {
+        sink.handle(step(null, "_overflow", null, 1, 1), 0);
+        sink.handle(step(null, "b", null, 1, 1), 0);
+        sink.handle(step(null, "c", null, 1, 1), 0);
+        sink.handle(step(null, "d", null, 2, 2), 0);
+
+        assertEquals(1L, value("app.calltree[_overflow_2].count"));
+        assertEquals(1L, value("app.calltree[_overflow].count"));
+        assertEquals(2L, value("app.calltree[_overflow].own.dummy.value"));
+    }
+
+    private long value(String name) {
+        for (Monitorable<?> monitorable : registry.getMonitorables()) {
+            if (monitorable.getName().equals(name)) {
+                StripedMonitoredCounter counter = (StripedMonitoredCounter) monitorable;
+                counter.publish();
+                return counter.get();
+            }
+        }
+        throw new AssertionError("No metric " + name);
+    }
+
+    private StepMeasurements step(StepMeasurements parent, String event, String action, long own, long total) {
+        StepMeasurements step = new StepMeasurements(parent, event, action);
+        step.addMetricInstance(MetricMeasurement.recorded(clock, own, total));
+        return step;
+    }
+}
@@ -17,13 +17,20 @@
 package io.pcp.parfait.timing;
 
 import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.List;
 import java.util.Map;
 
 import com.google.common.collect.Maps;
@@ -34,6 +41,7 @@ import tech.units.indriya.AbstractUnit;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -43,6 +51,7 @@ public class EventMetricCollectorTest {
     private static final String NESTED_GROUP = "eventGroup2";
 
     private EventMetricCollector collector;
+    private Map<Object, EventCounters> perEventCounters;
     @Mock
     private StepMeasurementSink stepMeasurementSink;
     @Mock
@@ -54,10 +63,12 @@ public class EventMetricCollectorTest {
 
     @Before
     public void givenAnEventMetricCollector() {
-        Map<Object, EventCounters> perEventCounters = Maps.newHashMap();
+        perEventCounters = Maps.newHashMap();
         perEventCounters.put(TOP_LEVEL_GROUP, topLevelCounter);
         perEventCounters.put(NESTED_GROUP, nestedCounter);
-        collector = new EventMetricCollector(perEventCounters, newArrayList(stepMeasurementSink));
+        when(stepMeasurementSink.retainsMeasurements()).thenReturn(false);
+        collector = new EventMetricCollector(perEventCounters, newArrayList(stepMeasurementSink),
+                new EventMetricCollector.Options());
 
         when(topLevelCounter.getEventGroupName()).thenReturn(TOP_LEVEL_GROUP);
         when(nestedCounter.getEventGroupName()).thenReturn(NESTED_GROUP);
@@ -98,4 +109,75 @@ public class EventMetricCollectorTest {
         verify(nestedCounter, never()).getCounterForMetric(any(ThreadMetric.class));
     }
 
+    @Test
+    public void itShouldReuseMeasurementsForSubsequentTopLevelEvents() {
+        collector.startTiming(TOP_LEVEL_GROUP, "firstEvent");
+        collector.stopTiming();
+        collector.startTiming(TOP_LEVEL_GROUP, "secondEvent");
+        collector.stopTiming();
+
+        ArgumentCaptor<StepMeasurements> measurements = ArgumentCaptor.forClass(StepMeasurements.class);
+        verify(stepMeasurementSink, times(2)).handle(measurements.capture(), anyInt());
+        assertSame(measurements.getAllValues().get(0), measurements.getAllValues().get(1));
+        assertEquals(1, collector.getPooledFrameCount());
+        verify(topLevelMetricCounters, times(2)).incrementCounters(anyLong());
+    }
+
+    @Test
+    public void itShouldNotReuseMeasurementsHandedOutWhileInProgress() {
+        collector.startTiming(TOP_LEVEL_GROUP, "firstEvent");
+        StepMeasurements inProgress = collector.getInProgressMeasurements();
+        collector.stopTiming();
+        collector.startTiming(TOP_LEVEL_GROUP, "secondEvent");
+
+        assertNotSame(inProgress, collector.getInProgressMeasurements());
+        assertEquals("eventGroup1:firstEvent", inProgress.getBackTrace());
+        collector.stopTiming();
+        assertNull(collector.getInProgressMeasurements());
+    }
+
+    @Test
+    public void itShouldKeepSiblingStepsDistinctUntilTheTopLevelEventCompletes() {
+        final List<String> forwardTraces = newArrayList();
+        collector = new EventMetricCollector(perEventCounters, newArrayList(new StepMeasurementSink() {
+            @Override
+            public void handle(StepMeasurements measurements, int level) {
+                forwardTraces.add(measurements.getForwardTrace());
+            }
+
+            @Override
+            public boolean retainsMeasurements() {
+                return false;
+            }
+        }), new EventMetricCollector.Options());
+
+        collector.startTiming(TOP_LEVEL_GROUP, "topLevelEvent");
+        collector.startTiming(NESTED_GROUP, "first");
+        collector.stopTiming();
+        collector.startTiming(NESTED_GROUP, "second");
+        collector.stopTiming();
+        collector.stopTiming();
+
+        assertEquals("eventGroup1:topLevelEvent/{eventGroup2:first|eventGroup2:second}",
+                forwardTraces.get(2));
+        assertEquals(3, collector.getPooledFrameCount());
+    }
+
+    @Test
+    public void itShouldGiveSinksWhichRetainMeasurementsNewOnesForEveryEvent() {
+        final List<StepMeasurements> retained = newArrayList();
+        collector = new EventMetricCollector(perEventCounters,
+                newArrayList(stepMeasurementSink, (StepMeasurementSink) (measurements, level) -> retained.add(measurements)),
+                new EventMetricCollector.Options());
+
+        collector.startTiming(TOP_LEVEL_GROUP, "firstEvent");
+        collector.stopTiming();
+        collector.startTiming(TOP_LEVEL_GROUP, "secondEvent");
+        collector.stopTiming();
+
+        assertNotSame(retained.get(0), retained.get(1));
+        assertEquals("eventGroup1:firstEvent", retained.get(0).getBackTrace());
+        assertEquals(0, collector.getPooledFrameCount());
+    }
+
 }
@@ -16,10 +16,17 @@
 
 package io.pcp.parfait.timing;
 
+import java.time.Duration;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
+import io.pcp.parfait.AbstractMonitoredCounter;
+import io.pcp.parfait.Monitorable;
 import io.pcp.parfait.MonitorableRegistry;
+import io.pcp.parfait.MonitoredHistogram;
 import junit.framework.TestCase;
+import tech.units.indriya.AbstractUnit;
 
 public class EventTimerTest extends TestCase {
 
@@ -116,6 +123,312 @@ public class EventTimerTest extends TestCase {
 
     }
 
+    public void testHistogramsRecordEachTopLevelEventInOneBucket() {
+        MonitorableRegistry registry = new MonitorableRegistry();
+        EventTimer timer = new EventTimer("test", registry, ThreadMetricSuite.withDefaultMetrics(),
+                false, false);
+        timer.setHistogramsEnabled(true);
+        timer.registerMetric("/Logon");
+
+        EventMetricCollector collector = timer.getCollector();
+        collector.startTiming("/Logon", "logon");
+        collector.stopTiming();
+
+        MonitoredHistogram histogram = timer.getCounterSetForEventGroup("/Logon")
+                .getCounterForMetric(StandardThreadMetrics.CLOCK_TIME).getHistogram();
+        long recorded = 0;
+        for (int i = 0; i < histogram.getBuckets().getBucketCount(); i++) {
+            recorded += histogram.getBucketCount(i);
+        }
+        assertEquals(1, recorded);
+        assertEquals(1, histogram.getCount());
+        Set<String> names = new HashSet<String>();
+        for (Monitorable<?> monitorable : registry.getMonitorables()) {
+            names.add(monitorable.getName());
+        }
+        assertTrue(names.contains("test.Logon.histogram.time"));
+        assertTrue(names.contains("test.Logon.histogram.blocked.count"));
+    }
+
+    public void testHistogramsAreDisabledByDefault() {
+        metricFactory.registerMetric("/Logon");
+        assertNull(metricFactory.getCounterSetForEventGroup("/Logon")
+                .getCounterForMetric(StandardThreadMetrics.CLOCK_TIME).getHistogram());
+    }
+
+    public void testAccumulatedCountersArePublishedOnlyWhenFlushed() {
+        EventTimer timer = new EventTimer("test", new MonitorableRegistry(), ThreadMetricSuite.withDefaultMetrics(),
+                false, false);
+        timer.setAccumulationFlushInterval(Duration.ofHours(1));
+        timer.registerMetric("/Logon");
+        EventCounters counters = timer.getCounterSetForEventGroup("/Logon");
+
+        EventMetricCollector collector = timer.getCollector();
+        collector.startTiming("/Logon", "logon");
+        collector.stopTiming();
+        collector.startTiming("/Logon", "logon");
+        collector.stopTiming();
+
+        assertEquals(0L, counters.getInvocationCounter().getTotalCounter().get().longValue());
+        timer.flushAccumulatedCounters();
+        assertEquals(2L, counters.getInvocationCounter().getTotalCounter().get().longValue());
+        timer.flushAccumulatedCounters();
+        assertEquals(2L, counters.getInvocationCounter().getTotalCounter().get().longValue());
+        timer.stop();
+    }
+
+    public void testAccumulatorsOfFinishedThreadsAreFlushedThenForgotten() throws InterruptedException {
+        final EventTimer timer = new EventTimer("test", new MonitorableRegistry(), ThreadMetricSuite.blank(),
+                false, false);
+        timer.setAccumulationFlushInterval(Duration.ofHours(1));
+        timer.registerMetric("/Logon");
+        Thread thread = new Thread(() -> {
+            EventMetricCollector collector = timer.getCollector();
+            collector.startTiming("/Logon", "logon");
+            collector.stopTiming();
+        });
+        thread.start();
+        thread.join();
+
+        assertEquals(1, timer.getAccumulatorCount());
+        timer.flushAccumulatedCounters();
+        assertEquals(0, timer.getAccumulatorCount());
+        assertEquals(1L, timer.getCounterSetForEventGroup("/Logon").getInvocationCounter().getTotalCounter()
+                .get().longValue());
+        timer.stop();
+    }
+
+    public void testCountersAccumulatedAfterSwitchingBackToDirectIncrementsAreStillFlushed()
+            throws InterruptedException {
+        EventTimer timer = new EventTimer("test", new MonitorableRegistry(), ThreadMetricSuite.blank(),
+                false, false);
+        timer.setAccumulationFlushInterval(Duration.ofMillis(10));
+        timer.registerMetric("/Logon");
+        EventMetricCollector collector = timer.getCollector();
+        collector.startTiming("/Logon", "logon");
+        collector.stopTiming();
+
+        timer.setAccumulationFlushInterval(null);
+        AbstractMonitoredCounter invocations = timer.getCounterSetForEventGroup("/Logon").getInvocationCounter()
+                .getTotalCounter();
+        assertEquals(1L, invocations.get().longValue());
+        assertTrue(timer.isFlushing());
+
+        // This thread still accumulates, and the flusher keeps publishing what it adds
+        collector.startTiming("/Logon", "logon");
+        collector.stopTiming();
+        collector.startTiming("/Logon", "logon");
+        collector.stopTiming();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (invocations.get() < 3L && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3L, invocations.get().longValue());
+
+        // whereas new threads increment directly
+        Thread thread = new Thread(() -> {
+            EventMetricCollector direct = timer.getCollector();
+            direct.startTiming("/Logon", "logon");
+            direct.stopTiming();
+        });
+        thread.start();
+        thread.join();
+        assertEquals(4L, invocations.get().longValue());
+        assertEquals(1, timer.getAccumulatorCount());
+
+        timer.stop();
+        assertFalse(timer.isFlushing());
+    }
+
+    public void testFlusherStopsOnceNoThreadIsAccumulating() throws InterruptedException {
+        EventTimer timer = new EventTimer("test", new MonitorableRegistry(), ThreadMetricSuite.blank(),
+                false, false);
+        timer.setAccumulationFlushInterval(Duration.ofMillis(10));
+        timer.registerMetric("/Logon");
+        Thread thread = new Thread(() -> {
+            EventMetricCollector collector = timer.getCollector();
+            collector.startTiming("/Logon", "logon");
+            collector.stopTiming();
+        });
+        thread.start();
+        thread.join();
+
+        timer.setAccumulationFlushInterval(null);
+
+        assertFalse(timer.isFlushing());
+        assertEquals(0, timer.getAccumulatorCount());
+        assertEquals(1L, timer.getCounterSetForEventGroup("/Logon").getInvocationCounter().getTotalCounter()
+                .get().longValue());
+    }
+
+    public void testInFlightThreadTrackingOnlyListsThreadsWithAnEventInProgress() {
+        EventTimer timer = new EventTimer("test", new MonitorableRegistry(), ThreadMetricSuite.blank(),
+                false, false);
+        timer.setInFlightThreadTracking(true);
+        timer.registerMetric("/Logon");
+
+        EventMetricCollector collector = timer.getCollector();
+        assertTrue(timer.getCollectorThreadMap().isEmpty());
+        collector.startTiming("/Logon", "logon");
+        assertSame(collector, timer.getCollectorThreadMap().get(Thread.currentThread()));
+        collector.stopTiming();
+        assertTrue(timer.getCollectorThreadMap().isEmpty());
+        assertSame(collector, timer.getCollector());
+    }
+
+    public void testSnapshotSamplingReadsMetricsFromTheSharedSnapshot() {
+        CountingSnapshotMetric blocked = new CountingSnapshotMetric("blocked");
+        CountingSnapshotMetric waited = new CountingSnapshotMetric("waited");
+        ThreadMetricSuite suite = ThreadMetricSuite.blank();
+        suite.addMetric(blocked);
+        suite.addMetric(waited);
+        suite.setSnapshotSampling(true);
+        EventTimer timer = new EventTimer("snapshot", new MonitorableRegistry(), suite, false, false);
+        timer.registerMetric("/Logon");
+
+        EventMetricCollector collector = timer.getCollector();
+        collector.startTiming("/Logon", "logon");
+        collector.stopTiming();
+
+        // One read at start, and one each for the own and total values at stop
+        assertEquals(3, blocked.snapshotReads);
+        assertEquals(3, waited.snapshotReads);
+        assertEquals(0, blocked.directReads);
+        assertEquals(0, waited.directReads);
+    }
+
+    public void testOverheadGovernorMeasuresOnlyTheReducedMetricsOnceOverBudget() {
+        MetricCountingSink sink = new MetricCountingSink();
+        MonitorableRegistry registry = new MonitorableRegistry();
+        EventTimer timer = new EventTimer("test", registry, ThreadMetricSuite.withDefaultMetrics(), false,
+                false, Collections.<StepMeasurementSink>singletonList(sink));
+        OverheadGovernor governor = new OverheadGovernor(0.01);
+        timer.setOverheadGovernor(governor);
+        timer.registerMetric("/Logon");
+        EventMetricCollector collector = timer.getCollector();
+
+        collector.startTiming("/Logon", "logon");
+        collector.stopTiming();
+        assertEquals(ThreadMetricSuite.withDefaultMetrics().metrics().size(), sink.lastMetricCount);
+
+        governor.record(50, 100, 0);
+        governor.evaluate();
+        collector.startTiming("/Logon", "logon");
+        collector.stopTiming();
+
+        assertEquals(OverheadGovernor.Mode.REDUCED, governor.getMode());
+        assertEquals(1, sink.lastMetricCount);
+        EventCounters logon = timer.getCounterSetForEventGroup("/Logon");
+        assertEquals(2L, logon.getInvocationCounter().getTotalCounter().get().longValue());
+        assertEquals(2L, logon.getMeasuredCounterForMetric(StandardThreadMetrics.CLOCK_TIME).getTotalCounter()
+                .get().longValue());
+        assertEquals(1L, logon.getMeasuredCounterForMetric(StandardThreadMetrics.TOTAL_CPU_TIME).getTotalCounter()
+                .get().longValue());
+        Set<String> names = new HashSet<String>();
+        for (Monitorable<?> monitorable : registry.getMonitorables()) {
+            names.add(monitorable.getName());
+        }
+        assertTrue(names.contains("test.overhead.mode"));
+        assertTrue(names.contains("test.overhead.fraction"));
+        assertTrue(names.contains("test.Logon.measured.cputime"));
+    }
+
+    public void testOverheadGovernorCountsButDoesNotMeasureUnsampledEvents() {
+        MetricCountingSink sink = new MetricCountingSink();
+        EventTimer timer = new EventTimer("test", new MonitorableRegistry(), ThreadMetricSuite.withDefaultMetrics(),
+                false, false, Collections.<StepMeasurementSink>singletonList(sink));
+        OverheadGovernor governor = new OverheadGovernor(0.01);
+        governor.setSamplingInterval(3);
+        timer.setOverheadGovernor(governor);
+        timer.registerMetric("/Logon");
+        governor.record(50, 100, 0);
+        governor.evaluate();
+        governor.record(50, 100, 0);
+        governor.evaluate();
+        assertEquals(OverheadGovernor.Mode.SAMPLED, governor.getMode());
+
+        EventMetricCollector collector = timer.getCollector();
+        for (int i = 0; i < 6; i++) {
+            collector.startTiming("/Logon", "logon");
+            collector.startTiming("/Logon", "nested");
+            collector.stopTiming();
+            collector.stopTiming();
+        }
+
+        assertEquals(4, sink.handled);
+        EventCounters logon = timer.getCounterSetForEventGroup("/Logon");
+        assertEquals(6L, logon.getInvocationCounter().getTotalCounter().get().longValue());
+        assertEquals(2L, logon.getMeasuredCounterForMetric(StandardThreadMetrics.CLOCK_TIME).getTotalCounter()
+                .get().longValue());
+    }
+
+    public void testOverheadGovernorCountsMeasurementsWhenAccumulating() {
+        EventTimer timer = new EventTimer("test", new MonitorableRegistry(), ThreadMetricSuite.withDefaultMetrics(),
+                false, false);
+        OverheadGovernor governor = new OverheadGovernor(0.01);
+        timer.setOverheadGovernor(governor);
+        timer.setAccumulationFlushInterval(Duration.ofHours(1));
+        timer.registerMetric("/Logon");
+        governor.record(50, 100, 0);
+        governor.evaluate();
+
+        EventMetricCollector collector = timer.getCollector();
+        collector.startTiming("/Logon", "logon");
+        collector.stopTiming();
+        timer.stop();
+
+        EventCounters logon = timer.getCounterSetForEventGroup("/Logon");
+        assertEquals(1L, logon.getMeasuredCounterForMetric(StandardThreadMetrics.CLOCK_TIME).getTotalCounter()
+                .get().longValue());
+        assertEquals(0L, logon.getMeasuredCounterForMetric(StandardThreadMetrics.TOTAL_CPU_TIME).getTotalCounter()
+                .get().longValue());
+        assertEquals(0L, logon.getCounterForMetric(StandardThreadMetrics.TOTAL_CPU_TIME).getTotalCounter()
+                .get().longValue());
+    }
+
+    public void testOverheadGovernorMustBeSetBeforeEventGroupsAreRegistered() {
+        EventTimer timer = new EventTimer("test", new MonitorableRegistry(), ThreadMetricSuite.withDefaultMetrics(),
+                false, false);
+        timer.registerMetric("/Logon");
+        try {
+            timer.setOverheadGovernor(new OverheadGovernor(0.01));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private static class MetricCountingSink implements StepMeasurementSink {
+        private int handled;
+        private int lastMetricCount;
+
+        @Override
+        public void handle(StepMeasurements measurements, int level) {
+            handled++;
+            lastMetricCount = measurements.metricInstanceCount();
+        }
+    }
+
+    private static class CountingSnapshotMetric extends SnapshotThreadMetric {
+        private int snapshotReads;
+        private int directReads;
+
+        CountingSnapshotMetric(String name) {
+            super(name, AbstractUnit.ONE, name, name, ThreadSnapshot.THREAD_INFO);
+        }
+
+        @Override
+        public long getValue(ThreadSnapshot snapshot) {
+            snapshotReads++;
+            return snapshot.getBlockedCount();
+        }
+
+        @Override
+        public long getValueForThread(Thread t) {
+            directReads++;
+            return super.getValueForThread(t);
+        }
+    }
+
     public static class DummyTimeable implements Timeable {
         public void setEventTimer(EventTimer timer) {
         }
@@ -178,4 +178,15 @@ public class MetricMeasurementTest extends TestCase {
         assertTrue("Metric value should end with correct unit name", timing.ownTimeValue().toString()
                 .endsWith(StandardThreadMetrics.CLOCK_TIME.getUnit().toString()));
     }
+
+    public void testCanRestartAfterReset() {
+        MetricMeasurement timing = new MetricMeasurement(StandardThreadMetrics.CLOCK_TIME, Thread
+                .currentThread());
+        timing.startTimer();
+        timing.stopTimer();
+        timing.reset();
+        timing.startTimer();
+        timing.stopTimer();
+        assertTrue(timing.totalValue().getValue().longValue() >= 0);
+    }
 }
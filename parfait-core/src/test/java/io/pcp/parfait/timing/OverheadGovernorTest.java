@@ -0,0 +1,82 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.timing;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+
+import io.pcp.parfait.timing.OverheadGovernor.Mode;
+import org.junit.Test;
+
+public class OverheadGovernorTest {
+    private final OverheadGovernor governor = new OverheadGovernor(0.01);
+
+    @Test
+    public void stepsDownAModeEachTimeTheBudgetIsExceeded() {
+        evaluateWith(2, 100);
+        assertEquals(Mode.REDUCED, governor.getMode());
+        assertEquals(0.02, governor.getOverhead(), 1e-9);
+        evaluateWith(2, 100);
+        assertEquals(Mode.SAMPLED, governor.getMode());
+        evaluateWith(50, 100);
+        assertEquals(Mode.SAMPLED, governor.getMode());
+    }
+
+    @Test
+    public void allowsForUnmeasuredEventsWhenSampling() {
+        governor.setSamplingInterval(10);
+        evaluateWith(2, 100);
+        evaluateWith(2, 100);
+
+        evaluateWith(3, 100);
+        assertEquals(Mode.SAMPLED, governor.getMode());
+        assertEquals(0.003, governor.getOverhead(), 1e-9);
+    }
+
+    @Test
+    public void stepsBackUpOnlyWellUnderBudget() {
+        evaluateWith(2, 100);
+        evaluateWith(2, 100);
+
+        evaluateWith(6, 1000);
+        assertEquals(Mode.SAMPLED, governor.getMode());
+        evaluateWith(4, 1000);
+        assertEquals(Mode.REDUCED, governor.getMode());
+        evaluateWith(7, 1000);
+        assertEquals(Mode.REDUCED, governor.getMode());
+        evaluateWith(4, 1000);
+        assertEquals(Mode.FULL, governor.getMode());
+    }
+
+    @Test
+    public void evaluatesOncePerIntervalAsEventsAreRecorded() {
+        governor.setEvaluationInterval(Duration.ofNanos(1000));
+        governor.record(50, 100, 0);
+        governor.record(50, 100, 500);
+        assertEquals(Mode.FULL, governor.getMode());
+        governor.record(50, 100, 1000);
+        assertEquals(Mode.REDUCED, governor.getMode());
+        assertEquals(150, governor.getTotalOverhead());
+        assertEquals(300, governor.getTotalElapsed());
+    }
+
+    private void evaluateWith(long overhead, long elapsed) {
+        governor.record(overhead, elapsed, 0);
+        governor.evaluate();
+    }
+}
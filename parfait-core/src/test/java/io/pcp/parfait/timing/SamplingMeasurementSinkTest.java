@@ -16,6 +16,10 @@
 
 package io.pcp.parfait.timing;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 
@@ -48,6 +52,31 @@ public class SamplingMeasurementSinkTest {
         assertEventSinkCounts(sink, 1, counter, 0, 0, 0);
     }
 
+    @Test
+    public void concurrentEventsShouldNotBeLostFromTheCounts() throws InterruptedException {
+        final AtomicInteger sunk = new AtomicInteger();
+        final StepMeasurementSink sink = new SamplingMeasurementSink(new StepMeasurementSink() {
+            @Override
+            public void handle(StepMeasurements measurements, int level) {
+                sunk.incrementAndGet();
+            }
+        }, 1.0f);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    sink.handle(null, 0);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, sunk.get());
+    }
+
     private void assertEventSinkCounts(StepMeasurementSink sink, int eventLevel,
             CountingMeasurementSink counter, int... progressiveCounts) {
         int seen = 0;
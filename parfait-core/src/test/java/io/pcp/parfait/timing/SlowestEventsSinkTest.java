@@ -0,0 +1,117 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.timing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static tech.units.indriya.unit.Units.SECOND;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SlowestEventsSinkTest {
+    private final DummyThreadMetric clock = new DummyThreadMetric(SECOND);
+    private final List<String> forwarded = new ArrayList<String>();
+    private final StepMeasurementSink recorder = new StepMeasurementSink() {
+        @Override
+        public void handle(StepMeasurements measurements, int level) {
+            forwarded.add(measurements.getForwardTrace() + "=" + measurements.getMetricInstance(0).rawTotalValue());
+        }
+    };
+    private final SlowestEventsSink sink = new SlowestEventsSink(recorder, clock, 2);
+
+    @Test
+    public void keepsOnlyTheSlowestEventsOfEachGroup() {
+        sink.handle(event("search", "a", 5), 0);
+        sink.handle(event("search", "b", 9), 0);
+        sink.handle(event("search", "c", 1), 0);
+        sink.handle(event("search", "d", 7), 0);
+        sink.handle(event("checkout", "e", 3), 0);
+
+        assertTrue(forwarded.isEmpty());
+        sink.endWindow();
+
+        assertEquals(3, forwarded.size());
+        assertTrue(forwarded.contains("search:b/child=9"));
+        assertTrue(forwarded.contains("search:d/child=7"));
+        assertTrue(forwarded.contains("checkout:e/child=3"));
+        assertEquals("search:b/child", slowestOf("search").getForwardTrace());
+    }
+
+    @Test
+    public void startsEachWindowEmpty() {
+        sink.handle(event("search", "a", 5), 0);
+        sink.endWindow();
+        sink.handle(event("search", "b", 1), 0);
+
+        assertEquals(1, sink.getCurrentWindowEvents().size());
+        assertEquals(1, sink.getCurrentWindowEvents().get(0).getValue());
+        assertEquals(5, sink.getLastWindowEvents().get(0).getValue());
+
+        sink.endWindow();
+        assertEquals(1, sink.getLastWindowEvents().get(0).getValue());
+    }
+
+    @Test
+    public void ignoresNestedEventsAndThoseWithoutTheRankingMetric() {
+        sink.handle(event("search", "a", 5), 1);
+        sink.handle(new StepMeasurements(null, "search", "b"), 0);
+        sink.endWindow();
+
+        assertTrue(sink.getLastWindowEvents().isEmpty());
+    }
+
+    @Test
+    public void keepsTheSlowestEventsSeenByConcurrentThreads() throws InterruptedException {
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    sink.handle(event("search", "x", i * 4 + offset), 0);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        sink.endWindow();
+
+        assertEquals(3999, sink.getLastWindowEvents().get(0).getValue());
+        assertEquals(3998, sink.getLastWindowEvents().get(1).getValue());
+    }
+
+    private SlowEvent slowestOf(String group) {
+        for (SlowEvent event : sink.getLastWindowEvents()) {
+            if (event.getEventGroup().equals(group)) {
+                return event;
+            }
+        }
+        throw new AssertionError("No events for " + group);
+    }
+
+    private StepMeasurements event(String group, String action, long duration) {
+        StepMeasurements step = new StepMeasurements(null, group, action);
+        new StepMeasurements(step, "child", null);
+        step.addMetricInstance(MetricMeasurement.recorded(clock, duration, duration));
+        return step;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package io.pcp.parfait.timing;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class StandardThreadMetricsTest {
+
+    @Test
+    public void directReadsShouldMatchTheSnapshotOfAnIdleThread() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        try {
+            ThreadSnapshot snapshot = new ThreadSnapshot();
+            snapshot.capture(thread, ThreadSnapshot.THREAD_INFO | ThreadSnapshot.ALLOCATED_BYTES);
+
+            assertEquals(snapshot.getBlockedCount(), StandardThreadMetrics.BLOCKED_COUNT.getValueForThread(thread));
+            assertEquals(snapshot.getWaitedCount(), StandardThreadMetrics.WAITED_COUNT.getValueForThread(thread));
+            assertEquals(snapshot.getAllocatedBytes(), StandardThreadMetrics.HEAP_BYTES.getValueForThread(thread));
+        } finally {
+            release.countDown();
+            thread.join();
+        }
+    }
+
+    @Test
+    public void threadInfoMetricsOfAFinishedThreadShouldBeZero() throws InterruptedException {
+        Thread thread = new Thread(() -> { });
+        thread.start();
+        thread.join();
+
+        assertEquals(0L, StandardThreadMetrics.BLOCKED_COUNT.getValueForThread(thread));
+        assertEquals(0L, StandardThreadMetrics.WAITED_TIME.getValueForThread(thread));
+    }
+}
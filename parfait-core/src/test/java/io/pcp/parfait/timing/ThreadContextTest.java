@@ -81,4 +81,41 @@ public class ThreadContextTest extends TestCase {
         context.clear();
         assertNull("get() after clear should return null", context.get(testKey));
     }
+
+    public void testThreadLocalContextIsVisibleToOtherThreadsOnlyWhileNonEmpty() throws InterruptedException {
+        final ThreadContext threadLocalContext = ThreadContext.newThreadLocalContext();
+        final CountDownLatch populated = new CountDownLatch(1);
+        final CountDownLatch checked = new CountDownLatch(1);
+        final CountDownLatch cleared = new CountDownLatch(1);
+        final Thread otherThread = new Thread(new Runnable() {
+            public void run() {
+                threadLocalContext.put("sneaky", 42);
+                populated.countDown();
+                try {
+                    checked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                threadLocalContext.clear();
+                cleared.countDown();
+            }
+        });
+        otherThread.start();
+        populated.await();
+        assertEquals(42, threadLocalContext.getForThread(otherThread, "sneaky"));
+        assertTrue(threadLocalContext.allKeys().contains("sneaky"));
+        checked.countDown();
+        cleared.await();
+        assertEquals(0, threadLocalContext.forThread(otherThread).size());
+        assertTrue(threadLocalContext.allKeys().isEmpty());
+    }
+
+    public void testThreadLocalContextRetrievesPutValue() {
+        ThreadContext threadLocalContext = ThreadContext.newThreadLocalContext();
+        threadLocalContext.put("jokey", "smurf");
+        assertEquals("smurf", threadLocalContext.get("jokey"));
+        assertEquals("smurf", threadLocalContext.forThread(Thread.currentThread()).get("jokey"));
+        threadLocalContext.remove("jokey");
+        assertNull(threadLocalContext.get("jokey"));
+    }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import io.pcp.parfait.dxm.MetricName;
+import io.pcp.parfait.pcp.CachingMetricNameMapper;
+import io.pcp.parfait.pcp.MetricNameMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link CachingMetricNameMapper#map(String)} of names already in its cache, cycling through a
+ * set of them, against parsing each name afresh with {@link MetricNameMapper#PASSTHROUGH_MAPPER}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CachingMetricNameMapperBenchmark {
+    @Param({ "1000" })
+    public int nameCount;
+
+    private String[] names;
+    private MetricNameMapper caching;
+
+    @Setup
+    public void setUp() {
+        caching = new CachingMetricNameMapper(MetricNameMapper.PASSTHROUGH_MAPPER);
+        names = new String[nameCount];
+        for (int i = 0; i < nameCount; i++) {
+            names[i] = "benchmark.group" + (i % 10) + "[instance" + i + "].value";
+            caching.map(names[i]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        String nextName(CachingMetricNameMapperBenchmark benchmark) {
+            next = (next + 1) % benchmark.nameCount;
+            return benchmark.names[next];
+        }
+    }
+
+    @Benchmark
+    public MetricName cached(Cursor cursor) {
+        return caching.map(cursor.nextName(this));
+    }
+
+    @Benchmark
+    public MetricName uncached(Cursor cursor) {
+        return MetricNameMapper.PASSTHROUGH_MAPPER.map(cursor.nextName(this));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.jmh;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import io.pcp.parfait.MonitorableRegistry;
+import io.pcp.parfait.timing.EventMetricCollector;
+import io.pcp.parfait.timing.EventTimer;
+import io.pcp.parfait.timing.StepMeasurementSink;
+import io.pcp.parfait.timing.ThreadMetricSuite;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Timing a top-level event, and a top-level event with one nested event, with an
+ * {@link EventTimer} measuring the default {@link ThreadMetricSuite}. Each benchmark thread uses
+ * its own {@link EventMetricCollector}, as request threads do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventMetricCollectorBenchmark {
+    private static final String EVENT_GROUP = "/Benchmark";
+
+    @Param({ "false", "true" })
+    public boolean snapshotSampling;
+
+    private EventTimer timer;
+
+    @Setup
+    public void setUp() {
+        ThreadMetricSuite suite = ThreadMetricSuite.withDefaultMetrics();
+        suite.setSnapshotSampling(snapshotSampling);
+        timer = new EventTimer("benchmark", new MonitorableRegistry(), suite, true, true,
+                Collections.<StepMeasurementSink>emptyList());
+        timer.registerMetric(EVENT_GROUP);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadCollector {
+        private EventMetricCollector collector;
+
+        @Setup
+        public void setUp(EventMetricCollectorBenchmark benchmark) {
+            collector = benchmark.timer.getCollector();
+        }
+    }
+
+    @Benchmark
+    public void startStop(ThreadCollector thread) {
+        thread.collector.startTiming(EVENT_GROUP, "event");
+        thread.collector.stopTiming();
+    }
+
+    @Benchmark
+    public void startStopNested(ThreadCollector thread) {
+        EventMetricCollector collector = thread.collector;
+        collector.startTiming(EVENT_GROUP, "event");
+        collector.pauseForForward();
+        collector.startTiming(EVENT_GROUP, "nested");
+        collector.stopTiming();
+        collector.resumeAfterForward();
+        collector.stopTiming();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import io.pcp.parfait.MonitorableRegistry;
+import io.pcp.parfait.MonitoredCounter;
+import io.pcp.parfait.dxm.IdentifierSourceSet;
+import io.pcp.parfait.dxm.InMemoryByteBufferFactory;
+import io.pcp.parfait.dxm.PcpMmvWriter;
+import io.pcp.parfait.pcp.PcpMonitorBridge;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link MonitoredCounter#inc()} on its own, and with every increment written through a
+ * {@link PcpMonitorBridge} to an in-memory MMV file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MonitoredCounterBenchmark {
+    @Param({ "false", "true" })
+    public boolean bridged;
+
+    private MonitorableRegistry registry;
+    private MonitoredCounter counter;
+    private PcpMonitorBridge bridge;
+
+    @Setup
+    public void setUp() {
+        registry = new MonitorableRegistry();
+        counter = new MonitoredCounter("benchmark.counter", "Counter under benchmark", registry);
+        if (bridged) {
+            bridge = new PcpMonitorBridge(new PcpMmvWriter(new InMemoryByteBufferFactory(),
+                    IdentifierSourceSet.DEFAULT_SET));
+            bridge.startMonitoring(registry.getMonitorables());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (bridge != null) {
+            bridge.stopMonitoring(registry.getMonitorables());
+        }
+    }
+
+    @Benchmark
+    public void inc() {
+        counter.inc();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.jmh;
+
+import static tech.units.indriya.AbstractUnit.ONE;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.pcp.parfait.dxm.FileByteBufferFactory;
+import io.pcp.parfait.dxm.IdentifierSourceSet;
+import io.pcp.parfait.dxm.InMemoryByteBufferFactory;
+import io.pcp.parfait.dxm.MetricName;
+import io.pcp.parfait.dxm.PcpMmvWriter;
+import io.pcp.parfait.dxm.semantics.Semantics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link PcpMmvWriter#updateMetric(MetricName, Object)} under each of the writer's locking modes.
+ * Each benchmark thread updates its own metric (wrapping around once there are more threads than
+ * metrics), so the global lock is contended but the per-metric locks are not.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PcpMmvWriterBenchmark {
+    @Param({ "global", "perMetric", "lockFree" })
+    public String lockMode;
+
+    @Param({ "memory", "tmpfs" })
+    public String buffer;
+
+    @Param({ "64" })
+    public int metricCount;
+
+    private PcpMmvWriter writer;
+    private MetricName[] names;
+    private File file;
+    private final AtomicInteger nextThread = new AtomicInteger();
+
+    @Setup
+    public void setUp() throws IOException {
+        writer = newWriter();
+        writer.setPerMetricLock("perMetric".equals(lockMode));
+        writer.setLockFreeNumericUpdates("lockFree".equals(lockMode));
+        names = new MetricName[metricCount];
+        for (int i = 0; i < metricCount; i++) {
+            names[i] = MetricName.parse("benchmark.metric" + i);
+            writer.addMetric(names[i], Semantics.COUNTER, ONE, 0L);
+        }
+        writer.start();
+    }
+
+    private PcpMmvWriter newWriter() throws IOException {
+        if ("tmpfs".equals(buffer)) {
+            File shm = new File("/dev/shm");
+            file = File.createTempFile("parfait-jmh", ".mmv", shm.isDirectory() ? shm : null);
+            return new PcpMmvWriter(new FileByteBufferFactory(file), IdentifierSourceSet.DEFAULT_SET);
+        }
+        return new PcpMmvWriter(new InMemoryByteBufferFactory(), IdentifierSourceSet.DEFAULT_SET);
+    }
+
+    @TearDown
+    public void tearDown() {
+        writer.reset();
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadMetric {
+        private MetricName name;
+        private long value;
+
+        @Setup
+        public void setUp(PcpMmvWriterBenchmark benchmark) {
+            name = benchmark.names[benchmark.nextThread.getAndIncrement() % benchmark.metricCount];
+        }
+    }
+
+    @Benchmark
+    public void updateMetric(ThreadMetric metric) {
+        writer.updateMetric(metric.name, ++metric.value);
+    }
+}
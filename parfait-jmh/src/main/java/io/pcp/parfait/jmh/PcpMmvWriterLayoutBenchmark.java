@@ -0,0 +1,117 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.jmh;
+
+import static tech.units.indriya.AbstractUnit.ONE;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.pcp.parfait.dxm.FileByteBufferFactory;
+import io.pcp.parfait.dxm.IdentifierSourceSet;
+import io.pcp.parfait.dxm.MetricHandle;
+import io.pcp.parfait.dxm.MetricName;
+import io.pcp.parfait.dxm.PcpMmvWriter;
+import io.pcp.parfait.dxm.PcpMmvWriter.ValueLayout;
+import io.pcp.parfait.dxm.semantics.Semantics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * False sharing between hot counters in a memory-mapped MMV file, under each
+ * {@link ValueLayout}. Each benchmark thread updates its own hot counter through a
+ * {@link MetricHandle}. Alongside the counters sit as many constant (discrete) metrics. Packed, the
+ * hot values share cache lines with one another. Isolated, each hot value shares a line only with
+ * a constant. The file is mapped from tmpfs, so it is page- and hence cache-line-aligned. Run it at
+ * several thread counts:
+ *
+ * <pre>
+ * java -Dparfait.jmh.threads=1,2,4,8 -jar parfait-jmh/target/benchmarks.jar PcpMmvWriterLayoutBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PcpMmvWriterLayoutBenchmark {
+    @Param({ "PACKED", "CACHE_LINE_ISOLATED" })
+    public ValueLayout layout;
+
+    @Param({ "lockFree", "perMetric" })
+    public String lockMode;
+
+    @Param({ "16" })
+    public int hotMetricCount;
+
+    private PcpMmvWriter writer;
+    private MetricHandle[] handles;
+    private File file;
+    private final AtomicInteger nextThread = new AtomicInteger();
+
+    @Setup
+    public void setUp() throws IOException {
+        File shm = new File("/dev/shm");
+        file = File.createTempFile("parfait-jmh", ".mmv", shm.isDirectory() ? shm : null);
+        writer = new PcpMmvWriter(new FileByteBufferFactory(file), IdentifierSourceSet.DEFAULT_SET);
+        writer.setPerMetricLock("perMetric".equals(lockMode));
+        writer.setLockFreeNumericUpdates("lockFree".equals(lockMode));
+        writer.setValueLayout(layout);
+        writer.setHotMetrics(name -> name.getMetric().startsWith("layout.hot"));
+        handles = new MetricHandle[hotMetricCount];
+        for (int i = 0; i < hotMetricCount; i++) {
+            handles[i] = writer.addMetric(MetricName.parse("layout.hot" + i), Semantics.COUNTER, ONE, 0L);
+            writer.addMetric(MetricName.parse("layout.constant" + i), Semantics.DISCRETE, ONE, (long) i);
+        }
+        writer.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        writer.reset();
+        file.delete();
+    }
+
+    @State(Scope.Thread)
+    public static class HotCounter {
+        private MetricHandle handle;
+        private long value;
+
+        @Setup
+        public void setUp(PcpMmvWriterLayoutBenchmark benchmark) {
+            handle = benchmark.handles[benchmark.nextThread.getAndIncrement() % benchmark.hotMetricCount];
+        }
+    }
+
+    @Benchmark
+    public void updateHotCounter(HotCounter counter) {
+        counter.handle.set(++counter.value);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.jmh;
+
+import static tech.units.indriya.AbstractUnit.ONE;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import io.pcp.parfait.dxm.IdentifierSourceSet;
+import io.pcp.parfait.dxm.InMemoryByteBufferFactory;
+import io.pcp.parfait.dxm.MetricName;
+import io.pcp.parfait.dxm.MmvVersion;
+import io.pcp.parfait.dxm.PcpMmvWriter;
+import io.pcp.parfait.dxm.semantics.Semantics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The latency of {@link PcpMmvWriter#start()} -- laying out and writing the whole file, as happens
+ * on every restart of a dynamic monitoring view -- against the number of metrics in the file. The
+ * metrics are spread as instances across {@value #DOMAINS} instance domains, since the default
+ * identifier sources only allow 1024 distinct metric names. Each thread starts its own writer, so
+ * this is best run single-threaded:
+ *
+ * <pre>
+ * java -jar parfait-jmh/target/benchmarks.jar PcpMmvWriterStartBenchmark -t 1
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PcpMmvWriterStartBenchmark {
+    private static final int DOMAINS = 100;
+
+    @Param({ "1000", "10000", "100000", "500000" })
+    public int metricCount;
+
+    @Param({ "1", "2" })
+    public int mmvVersion;
+
+    @Param({ "false", "true" })
+    public boolean parallelSerialization;
+
+    private PcpMmvWriter writer;
+
+    @Setup
+    public void setUp() {
+        writer = new PcpMmvWriter(new InMemoryByteBufferFactory(), IdentifierSourceSet.DEFAULT_SET,
+                mmvVersion == 1 ? MmvVersion.MMV_VERSION1 : MmvVersion.MMV_VERSION2);
+        writer.setParallelSerialization(parallelSerialization);
+        for (int i = 0; i < metricCount; i++) {
+            writer.addMetric(MetricName.parse("domain" + (i % DOMAINS) + "[instance" + i + "].value"),
+                    Semantics.COUNTER, ONE, (long) i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        writer.reset();
+    }
+
+    @Benchmark
+    public PcpMmvWriter start() throws IOException {
+        writer.start();
+        return writer;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.jmh;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks selected on the command line (using the usual JMH options) once for each
+ * thread count given by the <code>parfait.jmh.threads</code> system property (by default 1, 2, 4
+ * and 8), so that contention shows up as throughput which fails to scale:
+ *
+ * <pre>
+ * java -Dparfait.jmh.threads=1,4,16 -jar parfait-jmh/target/benchmarks.jar PcpMmvWriter
+ * </pre>
+ *
+ * An explicit <code>-t</code> option runs just that thread count.
+ */
+public final class ThreadScalingRunner {
+    static final String THREADS_PROPERTY = "parfait.jmh.threads";
+    private static final String DEFAULT_THREADS = "1,2,4,8";
+
+    private ThreadScalingRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.getThreads().hasValue()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        List<RunResult> results = new ArrayList<RunResult>();
+        for (int threads : threadCounts(System.getProperty(THREADS_PROPERTY, DEFAULT_THREADS))) {
+            Options options = new OptionsBuilder().parent(commandLine).threads(threads).build();
+            Collection<RunResult> run = new Runner(options).run();
+            results.addAll(run);
+        }
+        System.out.println();
+        System.out.println("Benchmark\tThreads\tScore\tError\tUnits");
+        for (RunResult result : results) {
+            System.out.println(result.getParams().getBenchmark() + paramsOf(result) + "\t"
+                    + result.getParams().getThreads() + "\t"
+                    + String.format("%.3f\t%.3f\t%s", result.getPrimaryResult().getScore(),
+                            result.getPrimaryResult().getScoreError(), result.getPrimaryResult().getScoreUnit()));
+        }
+    }
+
+    private static String paramsOf(RunResult result) {
+        StringBuilder params = new StringBuilder();
+        for (String key : result.getParams().getParamsKeys()) {
+            params.append(params.length() == 0 ? " (" : ", ").append(key).append('=')
+                    .append(result.getParams().getParam(key));
+        }
+        return (params.length() == 0) ? "" : params.append(')').toString();
+    }
+
+    static int[] threadCounts(String spec) {
+        String[] parts = spec.split(",");
+        int[] counts = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            counts[i] = Integer.parseInt(parts[i].trim());
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import io.pcp.parfait.ConcurrentTimeWindowCounter;
+import io.pcp.parfait.Counter;
+import io.pcp.parfait.TimeWindow;
+import io.pcp.parfait.TimeWindowCounter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Incrementing a one-minute window (with a one-second resolution) using the synchronized
+ * {@link TimeWindowCounter} and the lock-free {@link ConcurrentTimeWindowCounter}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeWindowCounterBenchmark {
+    @Param({ "synchronized", "concurrent" })
+    public String implementation;
+
+    private Counter counter;
+
+    @Setup
+    public void setUp() {
+        TimeWindow window = TimeWindow.of(1000, 60000, "1m");
+        counter = "concurrent".equals(implementation) ? new ConcurrentTimeWindowCounter(window)
+                : new TimeWindowCounter(window);
+    }
+
+    @Benchmark
+    public void inc() {
+        counter.inc();
+    }
+}
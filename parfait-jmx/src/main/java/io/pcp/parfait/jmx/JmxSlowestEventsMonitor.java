@@ -0,0 +1,106 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.jmx;
+
+import java.util.List;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import io.pcp.parfait.timing.SlowEvent;
+import io.pcp.parfait.timing.SlowestEventsSink;
+import com.google.common.base.Function;
+
+@ManagedResource
+public class JmxSlowestEventsMonitor {
+    private static final String[] COLUMN_NAMES = { "Event group", "Rank", "Value", "Trace" };
+    private static final String[] COLUMN_DESCRIPTIONS = { "Event group", "Rank within the event group",
+            "Total value of the ranking metric", "Events forwarded to" };
+    private static final OpenType<?>[] COLUMN_TYPES = { SimpleType.STRING, SimpleType.INTEGER,
+            SimpleType.LONG, SimpleType.STRING };
+
+    static final Function<List<SlowEvent>, TabularData> TO_TABULAR_DATA = new Function<List<SlowEvent>, TabularData>() {
+        @Override
+        public TabularData apply(List<SlowEvent> from) {
+            try {
+                CompositeType rowType = new CompositeType("Slow event", "Slow event", COLUMN_NAMES,
+                        COLUMN_DESCRIPTIONS, COLUMN_TYPES);
+                TabularType type = new TabularType("Slowest events", "Slowest events", rowType,
+                        new String[] { "Event group", "Rank" });
+                TabularData data = new TabularDataSupport(type);
+
+                String group = null;
+                int rank = 0;
+                for (SlowEvent event : from) {
+                    rank = event.getEventGroup().equals(group) ? rank + 1 : 1;
+                    group = event.getEventGroup();
+                    data.put(new CompositeDataSupport(rowType, COLUMN_NAMES, new Object[] {
+                            group, rank, event.getValue(), event.getForwardTrace() }));
+                }
+                return data;
+            } catch (OpenDataException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
+
+    private final SlowestEventsSink sink;
+
+    public JmxSlowestEventsMonitor(SlowestEventsSink sink) {
+        this.sink = sink;
+    }
+
+    @ManagedAttribute
+    public String getRankingMetric() {
+        return sink.getRankingMetric().getMetricName() + " (" + sink.getRankingMetric().getUnit() + ")";
+    }
+
+    @ManagedAttribute
+    public TabularData getLastWindowEvents() {
+        return TO_TABULAR_DATA.apply(sink.getLastWindowEvents());
+    }
+
+    @ManagedAttribute
+    public TabularData getCurrentWindowEvents() {
+        return TO_TABULAR_DATA.apply(sink.getCurrentWindowEvents());
+    }
+
+    @ManagedAttribute
+    public String getLastWindowEventsAsString() {
+        StringBuilder builder = new StringBuilder();
+        for (SlowEvent event : sink.getLastWindowEvents()) {
+            builder.append(event).append('\n');
+        }
+        return builder.toString();
+    }
+
+    @ManagedOperation
+    public void endWindow() {
+        sink.endWindow();
+    }
+}
@@ -35,6 +35,7 @@ import javax.measure.Unit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.jmx.support.JmxUtils;
 
@@ -42,12 +43,11 @@ import io.pcp.parfait.Monitorable;
 import io.pcp.parfait.MonitorableRegistry;
 import io.pcp.parfait.MonitoredConstant;
 import io.pcp.parfait.MonitoredValue;
-import io.pcp.parfait.PollingMonitoredValue;
+import io.pcp.parfait.MBeanAttributePoller;
 import io.pcp.parfait.ValueSemantics;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
-import com.google.common.base.Supplier;
 
 /**
  * Factory bean that generates a monitor which tracks the value of the provided MBean attribute.
@@ -55,7 +55,7 @@ import com.google.common.base.Supplier;
  * Support is provided for monitoring simple attributes and also the data items of attributes that
  * are of type {@link CompositeData}.
  */
-public class MonitoredMBeanAttributeFactory<T> implements FactoryBean<Monitorable<T>> {
+public class MonitoredMBeanAttributeFactory<T> implements FactoryBean<Monitorable<T>>, DisposableBean {
 
     public static final Logger LOG = LoggerFactory.getLogger(MonitoredMBeanAttributeFactory.class.getName());
 
@@ -85,6 +85,12 @@ public class MonitoredMBeanAttributeFactory<T> implements FactoryBean<Monitorabl
 
     private MonitorableRegistry monitorableRegistry = MonitorableRegistry.DEFAULT_REGISTRY;
 
+    private MBeanAttributePoller attributePoller;
+
+    private boolean sharedAttributePoller;
+
+    private Monitorable<T> polledValue;
+
     public MonitoredMBeanAttributeFactory(String name, String description,
             String mBeanName, String attributeName) {
         this(name, description, mBeanName, attributeName, null,
@@ -130,6 +136,39 @@ public class MonitoredMBeanAttributeFactory<T> implements FactoryBean<Monitorabl
     public void setUnit(Unit<?> unit) {
         this.unit = unit;
     }
+
+    /**
+     * Sets the poller which batches this attribute with others from the same MBean, whose owner is
+     * responsible for shutting it down. Defaults to the poller
+     * {@link MBeanAttributePoller#acquire(MBeanServerConnection) shared} by every factory using the
+     * same server, so that their attributes are fetched together; this factory releases it when
+     * destroyed.
+     */
+    public synchronized void setAttributePoller(MBeanAttributePoller attributePoller) {
+        Preconditions.checkState(this.attributePoller == null, "Attribute poller is already in use");
+        this.attributePoller = Preconditions.checkNotNull(attributePoller);
+    }
+
+    synchronized MBeanAttributePoller getAttributePoller() {
+        if (attributePoller == null) {
+            attributePoller = MBeanAttributePoller.acquire(server);
+            sharedAttributePoller = true;
+        }
+        return attributePoller;
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (polledValue != null) {
+            attributePoller.stopPolling(polledValue);
+            polledValue = null;
+        }
+        if (sharedAttributePoller) {
+            attributePoller.release();
+            attributePoller = null;
+            sharedAttributePoller = false;
+        }
+    }
     
     public Monitorable<T> getObject() throws InstanceNotFoundException, IntrospectionException,
             ReflectionException, AttributeNotFoundException, MBeanException, IOException {
@@ -167,16 +206,16 @@ public class MonitoredMBeanAttributeFactory<T> implements FactoryBean<Monitorabl
         if (isConstant()) {
         	return new MonitoredConstant<T>(name, description, getAttributeValue());
         } else {
-        	return new PollingMonitoredValue<T>(name, description, monitorableRegistry, updateInterval, new Supplier<T>() {
-        		
-        		public T get() {
-        			return getAttributeValue();
-        		}
-        		
-        	}, semantics, unit);
+        	return poll();
         }
     }
 
+    private synchronized Monitorable<T> poll() {
+        polledValue = getAttributePoller().poll(name, description, monitorableRegistry, updateInterval,
+                mBeanName, attributeName, compositeDataItem, semantics, unit);
+        return polledValue;
+    }
+
     public Class<?> getObjectType() {
         return isConstant() ? MonitoredConstant.class : MonitoredValue.class;
     }
@@ -189,18 +228,8 @@ public class MonitoredMBeanAttributeFactory<T> implements FactoryBean<Monitorabl
         return true;
     }
 
-    @SuppressWarnings("unchecked")
     protected T getAttributeValue() {
-        try {
-            if (!Strings.isNullOrEmpty(compositeDataItem)) {
-                CompositeData data = (CompositeData) server.getAttribute(mBeanName, attributeName);
-                return (T) data.get(compositeDataItem);
-            } else {
-                return (T) server.getAttribute(mBeanName, attributeName);
-            }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        return getAttributePoller().getAttributeValue(mBeanName, attributeName, compositeDataItem);
     }
 
     private String registerBeanName(MBeanServerConnection server, String beanName) {
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.jmx;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import io.pcp.parfait.timing.SlowEvent;
+import org.junit.Test;
+
+public class JmxSlowestEventsMonitorTest {
+    @Test
+    public void ranksEventsWithinEachGroup() {
+        TabularData data = JmxSlowestEventsMonitor.TO_TABULAR_DATA.apply(Arrays.asList(
+                new SlowEvent("search", 9, "search/query"),
+                new SlowEvent("search", 7, "search"),
+                new SlowEvent("checkout", 3, "checkout/pay")));
+
+        assertEquals(3, data.size());
+        CompositeData second = data.get(new Object[] { "search", 2 });
+        assertEquals(7L, second.get("Value"));
+        assertEquals("search", second.get("Trace"));
+        assertEquals("checkout/pay", data.get(new Object[] { "checkout", 1 }).get("Trace"));
+    }
+}
@@ -26,6 +26,9 @@ import javax.management.ReflectionException;
 
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import io.pcp.parfait.MonitorableRegistry;
 
 public class MonitoredMBeanAttributeFactoryTest extends TestCase {
 
@@ -43,4 +46,21 @@ public class MonitoredMBeanAttributeFactoryTest extends TestCase {
                 "aconex.system.startTime", "", "java.lang:type=Runtime", "StartTime", "");
         assertEquals(ManagementFactory.getRuntimeMXBean().getStartTime(), f.getObject().get().longValue());
     }
+
+    public void testFactoriesForTheSameServerShareOnePoller() throws Exception {
+        MonitorableRegistry registry = new MonitorableRegistry();
+        MonitoredMBeanAttributeFactory<Long> used = new MonitoredMBeanAttributeFactory<Long>("heap.used",
+                "", "java.lang:type=Memory", "HeapMemoryUsage", "used");
+        MonitoredMBeanAttributeFactory<Long> max = new MonitoredMBeanAttributeFactory<Long>("heap.max",
+                "", "java.lang:type=Memory", "HeapMemoryUsage", "max");
+        for (MonitoredMBeanAttributeFactory<Long> factory : Arrays.asList(used, max)) {
+            factory.setMonitorableRegistry(registry);
+            factory.setUpdateInterval(1000);
+            factory.getObject();
+        }
+
+        assertSame(used.getAttributePoller(), max.getAttributePoller());
+        used.destroy();
+        max.destroy();
+    }
 }
@@ -16,10 +16,15 @@
 
 package io.pcp.parfait.pcp;
 
+import io.pcp.parfait.IncrementalMonitoringView;
+import io.pcp.parfait.LogLinearBuckets;
 import io.pcp.parfait.Monitor;
 import io.pcp.parfait.Monitorable;
-import io.pcp.parfait.MonitoringView;
+import io.pcp.parfait.MonitorableRegistry;
+import io.pcp.parfait.MonitoredHistogram;
+import io.pcp.parfait.PollingMonitoredValue;
 import io.pcp.parfait.ValueSemantics;
+import io.pcp.parfait.dxm.MetricHandle;
 import io.pcp.parfait.dxm.MetricName;
 import io.pcp.parfait.dxm.PcpWriter;
 import io.pcp.parfait.dxm.semantics.Semantics;
@@ -30,15 +35,36 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static javax.measure.MetricPrefix.NANO;
+import static tech.units.indriya.AbstractUnit.ONE;
+import static tech.units.indriya.unit.Units.SECOND;
 
 /**
  * PcpMonitorBridge bridges between the set of {@link Monitorable}s in the current system and a PCP
  * monitor agent. The bridge works by persisting any changes to a Monitorable into a section of
  * memory that is also mapped into the PCP monitor agents address space.
  *
+ * By default every change is written through on the thread making it. With
+ * {@link #setCoalescingUpdateInterval(Duration)} the changing thread only marks the Monitorable
+ * dirty, and a single background thread writes the latest value of each dirty Monitorable at the
+ * given cadence; as PCP only samples periodically, intermediate values are of no interest anyway.
+ *
  * NOTE: This class is not thread safe, it is expected that clients interacting with the
  * start/stop nature of this class do this with their own thread safety, or use {@link io.pcp.parfait.QuiescentRegistryListener}
  * as that'll manage it nicely for you..
@@ -46,23 +72,35 @@ import java.util.concurrent.ArrayBlockingQueue;
  * @see io.pcp.parfait.QuiescentRegistryListener
  */
 @NotThreadSafe
-public class PcpMonitorBridge implements MonitoringView {
+public class PcpMonitorBridge implements IncrementalMonitoringView {
 
     private static final Logger LOG = LoggerFactory.getLogger(PcpMonitorBridge.class);
     
     private static final TextSource DEFAULT_SHORT_TEXT_SOURCE = new MetricDescriptionTextSource();
     private static final TextSource DEFAULT_LONG_TEXT_SOURCE = new EmptyTextSource();
+    private static final String HISTOGRAM_COUNT_INSTANCE = "count";
+    private static final String HISTOGRAM_SUM_INSTANCE = "sum";
 
+    /**
+     * @deprecated no longer used; pending updates are bounded by the number of Monitorables, see
+     *             {@link #setCoalescingUpdateInterval(Duration)}
+     */
+    @Deprecated
     public static final int UPDATE_QUEUE_SIZE = 1024;
 
     private static final Map<ValueSemantics, Semantics> SEMANTICS_MAP = ImmutableMap.of(
             ValueSemantics.CONSTANT, Semantics.DISCRETE, ValueSemantics.FREE_RUNNING,
             Semantics.INSTANT, ValueSemantics.MONOTONICALLY_INCREASING, Semantics.COUNTER);
 
-    private final ArrayBlockingQueue<Monitorable<?>> monitorablesPendingUpdate = new ArrayBlockingQueue<Monitorable<?>>(
-            UPDATE_QUEUE_SIZE);
+    private final Queue<MetricHandleMonitor> monitorsPendingUpdate = new ConcurrentLinkedQueue<MetricHandleMonitor>();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushTimeNanos = new AtomicLong();
+    private final AtomicLong flushedUpdates = new AtomicLong();
+    private volatile int lastFlushSize;
+    private volatile Duration coalescingUpdateInterval;
+    private ScheduledExecutorService flusher;
 
-    private final Monitor monitor = new PcpMonitorBridgeMonitor();
+    private final Map<Monitorable<?>, Monitor> monitors = new ConcurrentHashMap<Monitorable<?>, Monitor>();
     private final MetricNameMapper mapper;
     private final TextSource shortTextSource;
     private final TextSource longTextSource;
@@ -88,9 +126,15 @@ public class PcpMonitorBridge implements MonitoringView {
     @Override
     public void stopMonitoring(Collection<Monitorable<?>> monitorables) {
         for (Monitorable<?> monitorable : monitorables) {
-            monitorable.removeMonitor(monitor);
+            detach(monitorable);
         }
+        monitors.clear();
         this.started = false;
+        if (flusher != null) {
+            flusher.shutdownNow();
+            flusher = null;
+        }
+        monitorsPendingUpdate.clear();
 
         pcpWriter.reset();
 
@@ -102,7 +146,94 @@ public class PcpMonitorBridge implements MonitoringView {
     }
 
     public boolean hasUpdatesPending() {
-        return monitorablesPendingUpdate.size() > 0;
+        return !monitorsPendingUpdate.isEmpty();
+    }
+
+    /**
+     * Switches between writing every change through immediately (the default, a null interval) and
+     * coalescing changes, writing only the latest value of each changed Monitorable once per interval
+     * from a single background thread. Must be called before {@link #startMonitoring(Collection)}.
+     *
+     * @param interval how often to write out changed Monitorables, or null to write through
+     */
+    public void setCoalescingUpdateInterval(Duration interval) {
+        Preconditions.checkState(!started, "Cannot change the update mode while monitoring");
+        Preconditions.checkArgument(interval == null || !interval.isNegative() && !interval.isZero(),
+                "Coalescing update interval must be positive");
+        this.coalescingUpdateInterval = interval;
+    }
+
+    /**
+     * Writes out the latest value of every Monitorable changed since the last flush. Called
+     * periodically when coalescing updates, but safe to call at any time.
+     */
+    public void flushPendingUpdates() {
+        long start = System.nanoTime();
+        int flushed = 0;
+        MetricHandleMonitor monitor;
+        while ((monitor = monitorsPendingUpdate.poll()) != null) {
+            monitor.flush();
+            flushed++;
+        }
+        lastFlushSize = flushed;
+        flushedUpdates.addAndGet(flushed);
+        flushTimeNanos.addAndGet(System.nanoTime() - start);
+        flushCount.incrementAndGet();
+    }
+
+    /**
+     * @return the number of times pending updates have been flushed
+     */
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    /**
+     * @return the total time spent flushing pending updates, in nanoseconds
+     */
+    public long getFlushTimeNanos() {
+        return flushTimeNanos.get();
+    }
+
+    /**
+     * @return the total number of Monitorable values written out by flushes
+     */
+    public long getFlushedUpdateCount() {
+        return flushedUpdates.get();
+    }
+
+    /**
+     * @return how many Monitorables were dirty (and so written out) in the most recent flush
+     */
+    public int getLastFlushSize() {
+        return lastFlushSize;
+    }
+
+    /**
+     * @return how many Monitorables are currently dirty and waiting for the next flush
+     */
+    public int getPendingUpdateCount() {
+        return monitorsPendingUpdate.size();
+    }
+
+    /**
+     * Registers the flush counts of this bridge as Monitorables named <code>prefix.flushes</code>,
+     * <code>prefix.flush.time</code>, <code>prefix.flush.updates</code>,
+     * <code>prefix.flush.last</code> and <code>prefix.pending</code>, polled every updateInterval
+     * milliseconds.
+     */
+    public void exportMetrics(MonitorableRegistry registry, String prefix, int updateInterval) {
+        new PollingMonitoredValue<Long>(prefix + ".flushes", "Flushes of pending updates", registry,
+                updateInterval, this::getFlushCount, ValueSemantics.MONOTONICALLY_INCREASING, ONE);
+        new PollingMonitoredValue<Long>(prefix + ".flush.time", "Total time spent flushing pending updates",
+                registry, updateInterval, this::getFlushTimeNanos, ValueSemantics.MONOTONICALLY_INCREASING,
+                NANO(SECOND));
+        new PollingMonitoredValue<Long>(prefix + ".flush.updates", "Values written out by flushes", registry,
+                updateInterval, this::getFlushedUpdateCount, ValueSemantics.MONOTONICALLY_INCREASING, ONE);
+        new PollingMonitoredValue<Integer>(prefix + ".flush.last", "Values written out by the latest flush",
+                registry, updateInterval, this::getLastFlushSize, ValueSemantics.FREE_RUNNING, ONE);
+        new PollingMonitoredValue<Integer>(prefix + ".pending", "Values waiting for the next flush",
+                registry, updateInterval, this::getPendingUpdateCount, ValueSemantics.FREE_RUNNING, ONE);
     }
 
     @Override
@@ -110,15 +241,10 @@ public class PcpMonitorBridge implements MonitoringView {
         Preconditions.checkArgument(!started, "Should have called stopMonitoring before calling start again");
         try {
             for (Monitorable<?> monitorable : monitorables) {
-                monitorable.attachMonitor(monitor);
-                MetricName metricName = mapper.map(monitorable.getName());
-                pcpWriter.addMetric(metricName,
-                        convertToPcpSemantics(monitorable.getSemantics()), monitorable.getUnit(),
-                        monitorable.get());
-                pcpWriter.setMetricHelpText(metricName.getMetric(), shortTextSource.getText(
-                        monitorable, metricName), longTextSource.getText(monitorable, metricName));
+                addMonitorable(monitorable);
             }
             pcpWriter.start();
+            startFlusher();
 
             this.started = true;
 
@@ -128,28 +254,225 @@ public class PcpMonitorBridge implements MonitoringView {
         }
     }
 
+    /**
+     * Adds the Monitorables to the running file without a restart, if the underlying writer
+     * {@link PcpWriter#canAddMetricsWhileStarted() supports it}. Should adding any of them fail,
+     * those already added are no longer monitored (though their metrics stay in the file) before
+     * the failure is rethrown.
+     */
+    @Override
+    public boolean addMonitorables(Collection<Monitorable<?>> monitorables) {
+        if (!started || !pcpWriter.canAddMetricsWhileStarted()) {
+            return false;
+        }
+        List<Monitorable<?>> attempted = new ArrayList<Monitorable<?>>(monitorables.size());
+        try {
+            for (Monitorable<?> monitorable : monitorables) {
+                attempted.add(monitorable);
+                addMonitorable(monitorable);
+            }
+        } catch (RuntimeException e) {
+            for (Monitorable<?> monitorable : attempted) {
+                detach(monitorable);
+            }
+            throw e;
+        }
+        LOG.info("Added " + monitorables.size() + " metrics to running PCP monitoring bridge for writer [" + pcpWriter + "]");
+        return true;
+    }
+
+    /**
+     * Stops monitoring the Monitorables and removes their metrics from the running file, if the
+     * underlying writer {@link PcpWriter#canRemoveMetrics() supports it}; the writer reclaims their
+     * space in a single pass for the whole batch.
+     */
+    @Override
+    public boolean removeMonitorables(Collection<Monitorable<?>> monitorables) {
+        if (!started || !pcpWriter.canRemoveMetrics()) {
+            return false;
+        }
+        List<MetricName> metricNames = new ArrayList<MetricName>();
+        for (Monitorable<?> monitorable : monitorables) {
+            if (detach(monitorable)) {
+                metricNames.addAll(metricNamesOf(monitorable));
+            }
+        }
+        pcpWriter.removeMetrics(metricNames);
+        LOG.info("Removed " + metricNames.size() + " metrics from running PCP monitoring bridge for writer [" + pcpWriter + "]");
+        return true;
+    }
+
+    private void addMonitorable(Monitorable<?> monitorable) {
+        if (monitorable instanceof MonitoredHistogram) {
+            addHistogram((MonitoredHistogram) monitorable);
+            return;
+        }
+        MetricName metricName = mapper.map(monitorable.getName());
+        MetricHandle handle = pcpWriter.addMetric(metricName,
+                convertToPcpSemantics(monitorable.getSemantics()), monitorable.getUnit(),
+                monitorable.get());
+        pcpWriter.setMetricHelpText(metricName.getMetric(), shortTextSource.getText(
+                monitorable, metricName), longTextSource.getText(monitorable, metricName));
+        attachMonitor(monitorable, new MetricHandleMonitor(monitorable, handle, coalescingUpdateInterval != null));
+    }
+
+    /**
+     * Lays a histogram out as a single counter metric with an instance domain of its buckets
+     * (named by {@link LogLinearBuckets#getLabel(int, javax.measure.Unit)}, e.g. "le_20ms") plus
+     * "count" and "sum" instances. Each bucket instance counts every value up to and including its
+     * bound, as in Prometheus, so "le_inf" always equals "count". As a PCP metric has a single unit
+     * for all its instances, the metric is dimensionless and the sum is the raw total in the
+     * histogram's own unit.
+     */
+    private void addHistogram(MonitoredHistogram histogram) {
+        List<MetricName> names = metricNamesOf(histogram);
+        long[] values = histogramValues(histogram);
+        MetricHandle[] handles = new MetricHandle[names.size()];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = pcpWriter.addMetric(names.get(i), Semantics.COUNTER, ONE, values[i]);
+        }
+        MetricName metricName = names.get(0);
+        pcpWriter.setMetricHelpText(metricName.getMetric(), shortTextSource.getText(
+                histogram, metricName), longTextSource.getText(histogram, metricName));
+        attachMonitor(histogram, new HistogramMonitor(histogram, handles, coalescingUpdateInterval != null));
+    }
+
+    private List<MetricName> metricNamesOf(Monitorable<?> monitorable) {
+        MetricName metricName = mapper.map(monitorable.getName());
+        if (!(monitorable instanceof MonitoredHistogram)) {
+            return Collections.singletonList(metricName);
+        }
+        MonitoredHistogram histogram = (MonitoredHistogram) monitorable;
+        LogLinearBuckets buckets = histogram.getBuckets();
+        List<MetricName> names = new ArrayList<MetricName>(buckets.getBucketCount() + 2);
+        for (int i = 0; i < buckets.getBucketCount(); i++) {
+            names.add(metricName.withInstance(buckets.getLabel(i, histogram.getUnit())));
+        }
+        names.add(metricName.withInstance(HISTOGRAM_COUNT_INSTANCE));
+        names.add(metricName.withInstance(HISTOGRAM_SUM_INSTANCE));
+        return names;
+    }
+
+    /**
+     * @return the value of each instance laid out by {@link #metricNamesOf(Monitorable)}; the count
+     *         is taken from the buckets rather than read separately, so that it matches them even
+     *         while values are being recorded
+     */
+    private static long[] histogramValues(MonitoredHistogram histogram) {
+        int bucketCount = histogram.getBuckets().getBucketCount();
+        long[] values = new long[bucketCount + 2];
+        long cumulative = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            cumulative += histogram.getBucketCount(i);
+            values[i] = cumulative;
+        }
+        values[bucketCount] = cumulative;
+        values[bucketCount + 1] = histogram.getSum();
+        return values;
+    }
+
     private Semantics convertToPcpSemantics(ValueSemantics semantics) {
         return SEMANTICS_MAP.get(semantics);
     }
 
+    private void startFlusher() {
+        Duration interval = coalescingUpdateInterval;
+        if (interval == null) {
+            return;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "PcpMonitorBridge-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalNanos = interval.toNanos();
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flushPendingUpdates();
+            } catch (RuntimeException e) {
+                LOG.error("Unable to flush pending PCP updates", e);
+            }
+        }, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
     /**
-     * Responsible for adding any Monitorables that change to the queue of Monitorables that are
-     * pending update. This class will never block, if the update queue is ever full then the we
-     * just do nothing.
+     * @return whether the Monitorable was being monitored
      */
-    private class PcpMonitorBridgeMonitor implements Monitor {
+    private boolean detach(Monitorable<?> monitorable) {
+        Monitor monitor = monitors.remove(monitorable);
+        if (monitor == null) {
+            return false;
+        }
+        monitorable.removeMonitor(monitor);
+        return true;
+    }
+
+    private void attachMonitor(Monitorable<?> monitorable, Monitor monitor) {
+        monitors.put(monitorable, monitor);
+        monitorable.attachMonitor(monitor);
+        // Catch any change made between reading the initial value and attaching the monitor
+        monitor.valueChanged(monitorable);
+    }
+
+    /**
+     * Writes changes to a single Monitorable through the {@link MetricHandle} resolved when its
+     * metric was added, so no name mapping or metric lookup happens per update. When coalescing, a
+     * change only queues the monitor for the next flush, and only if it is not already queued.
+     */
+    private class MetricHandleMonitor implements Monitor {
+        protected final Monitorable<?> monitorable;
+        private final MetricHandle handle;
+        private final boolean coalescing;
+        private final AtomicBoolean dirty = new AtomicBoolean();
+
+        MetricHandleMonitor(Monitorable<?> monitorable, MetricHandle handle, boolean coalescing) {
+            this.monitorable = monitorable;
+            this.handle = handle;
+            this.coalescing = coalescing;
+        }
 
         public void valueChanged(Monitorable<?> monitorable) {
-            writeUpdate(monitorable);
+            if (!coalescing) {
+                write();
+            } else if (dirty.compareAndSet(false, true)) {
+                monitorsPendingUpdate.offer(this);
+            }
+        }
+
+        void flush() {
+            // Clear first, so a change racing with the write below queues this monitor again
+            dirty.set(false);
+            write();
+        }
+
+        protected void write() {
+            if (monitorable instanceof LongSupplier) {
+                handle.set(((LongSupplier) monitorable).getAsLong());
+            } else {
+                handle.set(monitorable.get());
+            }
         }
     }
 
-    private void writeUpdate(Monitorable<?> monitorable) {
-        PcpWriter writerCopy = pcpWriter;
-        if (writerCopy == null) {
-            return;
+    /**
+     * Writes every bucket, the count and the sum of a histogram through their handles, in the
+     * order laid out by {@link #metricNamesOf(Monitorable)}.
+     */
+    private final class HistogramMonitor extends MetricHandleMonitor {
+        private final MetricHandle[] handles;
+
+        HistogramMonitor(MonitoredHistogram histogram, MetricHandle[] handles, boolean coalescing) {
+            super(histogram, handles[0], coalescing);
+            this.handles = handles;
+        }
+
+        @Override
+        protected void write() {
+            long[] values = histogramValues((MonitoredHistogram) monitorable);
+            for (int i = 0; i < handles.length; i++) {
+                handles[i].set(values[i]);
+            }
         }
-        writerCopy.updateMetric(mapper.map(monitorable.getName()), monitorable.get());
     }
 
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package io.pcp.parfait.pcp;
+
+import io.pcp.parfait.Monitorable;
+import io.pcp.parfait.MonitorableRegistry;
+import io.pcp.parfait.MonitoredCounter;
+import io.pcp.parfait.dxm.MetricName;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PcpMonitorBridgeCoalescingTest {
+    private static final MetricName JUMPS = MetricName.parse("sheep.jumps");
+    private static final MetricName NAPS = MetricName.parse("sheep.naps");
+    private static final String FLUSHER_THREAD = "PcpMonitorBridge-flusher";
+
+    private RecordingPcpWriter writer;
+    private PcpMonitorBridge bridge;
+    private MonitoredCounter jumps;
+    private MonitoredCounter naps;
+    private Collection<Monitorable<?>> monitorables;
+
+    @Before
+    public void setUp() {
+        MonitorableRegistry registry = new MonitorableRegistry();
+        writer = new RecordingPcpWriter();
+        bridge = new PcpMonitorBridge(writer);
+        jumps = new MonitoredCounter(JUMPS.toString(), "Sheep jumped", registry);
+        naps = new MonitoredCounter(NAPS.toString(), "Sheep napped", registry);
+        monitorables = Arrays.<Monitorable<?>>asList(jumps, naps);
+    }
+
+    @After
+    public void tearDown() {
+        if (bridge.isRunning()) {
+            bridge.stopMonitoring(monitorables);
+        }
+    }
+
+    @Test
+    public void shouldWriteManyChangesAsOneUpdatePerFlush() {
+        startCoalescing(Duration.ofHours(1));
+        bridge.flushPendingUpdates();
+        writer.writes.clear();
+
+        for (int i = 0; i < 100; i++) {
+            jumps.inc();
+        }
+        assertEquals(0, writer.writeCount(JUMPS));
+        bridge.flushPendingUpdates();
+
+        assertEquals(1, writer.writeCount(JUMPS));
+        assertEquals(100L, writer.values.get(JUMPS));
+    }
+
+    @Test
+    public void shouldRequeueAMonitorChangedWhileBeingFlushed() {
+        startCoalescing(Duration.ofHours(1));
+        bridge.flushPendingUpdates();
+        writer.writes.clear();
+        jumps.inc();
+        writer.duringWrite = () -> {
+            writer.duringWrite = null;
+            jumps.inc();
+        };
+
+        bridge.flushPendingUpdates();
+
+        assertEquals(2L, writer.values.get(JUMPS));
+        assertEquals(2, writer.writeCount(JUMPS));
+        assertFalse(bridge.hasUpdatesPending());
+    }
+
+    @Test
+    public void shouldCountFlushesAndTheUpdatesTheyWrite() {
+        startCoalescing(Duration.ofHours(1));
+        // Attaching queues each monitor once, to catch changes made while it was attached
+        assertEquals(2, bridge.getPendingUpdateCount());
+        bridge.flushPendingUpdates();
+        assertEquals(1L, bridge.getFlushCount());
+        assertEquals(2L, bridge.getFlushedUpdateCount());
+        assertEquals(2, bridge.getLastFlushSize());
+
+        jumps.inc();
+        jumps.inc();
+        assertEquals(1, bridge.getPendingUpdateCount());
+        bridge.flushPendingUpdates();
+        bridge.flushPendingUpdates();
+
+        assertEquals(3L, bridge.getFlushCount());
+        assertEquals(3L, bridge.getFlushedUpdateCount());
+        assertEquals(0, bridge.getLastFlushSize());
+        assertEquals(0, bridge.getPendingUpdateCount());
+    }
+
+    @Test
+    public void shouldWriteThroughWhenNotCoalescing() {
+        bridge.startMonitoring(monitorables);
+        writer.writes.clear();
+
+        jumps.inc();
+        jumps.inc();
+
+        assertEquals(2, writer.writeCount(JUMPS));
+        assertFalse(bridge.hasUpdatesPending());
+    }
+
+    @Test
+    public void shouldShutTheFlusherDownWhenMonitoringStops() throws InterruptedException {
+        startCoalescing(Duration.ofMillis(10));
+        assertTrue(waitForFlusherThread(true));
+
+        bridge.stopMonitoring(monitorables);
+
+        assertTrue(waitForFlusherThread(false));
+        long flushes = bridge.getFlushCount();
+        Thread.sleep(50);
+        assertEquals(flushes, bridge.getFlushCount());
+        assertEquals(1, writer.resetCount);
+    }
+
+    @Test
+    public void shouldExportFlushCounts() {
+        startCoalescing(Duration.ofHours(1));
+        jumps.inc();
+        naps.inc();
+        bridge.flushPendingUpdates();
+        jumps.inc();
+        MonitorableRegistry metrics = new MonitorableRegistry();
+
+        bridge.exportMetrics(metrics, "parfait.pcp", 1000);
+
+        assertEquals(bridge.getFlushCount(), valueOf(metrics, "parfait.pcp.flushes"));
+        assertEquals(bridge.getFlushTimeNanos(), valueOf(metrics, "parfait.pcp.flush.time"));
+        assertEquals(bridge.getFlushedUpdateCount(), valueOf(metrics, "parfait.pcp.flush.updates"));
+        assertEquals(2, valueOf(metrics, "parfait.pcp.flush.last"));
+        assertEquals(1, valueOf(metrics, "parfait.pcp.pending"));
+    }
+
+    private static Object valueOf(MonitorableRegistry registry, String name) {
+        for (Monitorable<?> monitorable : registry.getMonitorables()) {
+            if (monitorable.getName().equals(name)) {
+                return monitorable.get();
+            }
+        }
+        throw new AssertionError("No metric named " + name);
+    }
+
+    private void startCoalescing(Duration interval) {
+        bridge.setCoalescingUpdateInterval(interval);
+        bridge.startMonitoring(monitorables);
+    }
+
+    private static boolean waitForFlusherThread(boolean running) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            if (isFlusherThreadRunning() == running) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    private static boolean isFlusherThreadRunning() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(FLUSHER_THREAD) && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package io.pcp.parfait.pcp;
+
+import static org.junit.Assert.assertEquals;
+import static tech.units.indriya.AbstractUnit.ONE;
+
+import io.pcp.parfait.CounterSweeper;
+import io.pcp.parfait.LogLinearBuckets;
+import io.pcp.parfait.Monitorable;
+import io.pcp.parfait.MonitorableRegistry;
+import io.pcp.parfait.MonitoredHistogram;
+import io.pcp.parfait.dxm.MetricName;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class PcpMonitorBridgeHistogramTest {
+    private static final long NEVER = 3600000L;
+
+    private RecordingPcpWriter writer;
+    private PcpMonitorBridge bridge;
+    private MonitoredHistogram histogram;
+    private List<Monitorable<?>> monitorables;
+
+    @Before
+    public void setUp() {
+        writer = new RecordingPcpWriter();
+        bridge = new PcpMonitorBridge(writer);
+        histogram = new MonitoredHistogram("sheep.weight", "Sheep weighed", new MonitorableRegistry(), ONE,
+                new LogLinearBuckets(1L, 1), new CounterSweeper(NEVER));
+        monitorables = Collections.<Monitorable<?>>singletonList(histogram);
+    }
+
+    @After
+    public void tearDown() {
+        if (bridge.isRunning()) {
+            bridge.stopMonitoring(monitorables);
+        }
+    }
+
+    @Test
+    public void shouldExportBucketsThenCountThenSumAsInstances() {
+        bridge.startMonitoring(monitorables);
+
+        List<MetricName> expected = new ArrayList<MetricName>();
+        for (int bound = 1; bound <= 10; bound++) {
+            expected.add(instance("le_" + bound));
+        }
+        expected.add(instance("le_inf"));
+        expected.add(instance("count"));
+        expected.add(instance("sum"));
+        assertEquals(expected, writer.addedMetrics);
+    }
+
+    @Test
+    public void shouldExportRunningTotalsSoThatTheLastBucketMatchesTheCount() {
+        histogram.record(1L);
+        histogram.record(3L);
+        histogram.record(3L);
+        histogram.record(10L);
+        histogram.record(500L);
+        bridge.startMonitoring(monitorables);
+
+        assertEquals(1L, valueOf("le_1"));
+        assertEquals(1L, valueOf("le_2"));
+        assertEquals(3L, valueOf("le_3"));
+        assertEquals(3L, valueOf("le_9"));
+        assertEquals(4L, valueOf("le_10"));
+        assertEquals(5L, valueOf("le_inf"));
+        assertEquals(5L, valueOf("count"));
+        assertEquals(517L, valueOf("sum"));
+    }
+
+    @Test
+    public void shouldWriteEveryInstanceTogetherWhenPublished() {
+        bridge.startMonitoring(monitorables);
+        writer.writes.clear();
+
+        histogram.record(4L);
+        histogram.record(20L);
+        histogram.publish();
+
+        for (MetricName name : writer.addedMetrics) {
+            assertEquals(name.toString(), 1, writer.writeCount(name));
+        }
+        assertEquals(writer.addedMetrics.size(), writer.writes.size());
+        assertEquals(0L, valueOf("le_3"));
+        assertEquals(1L, valueOf("le_4"));
+        assertEquals(1L, valueOf("le_10"));
+        assertEquals(2L, valueOf("le_inf"));
+        assertEquals(2L, valueOf("count"));
+        assertEquals(24L, valueOf("sum"));
+    }
+
+    private Object valueOf(String instance) {
+        return writer.values.get(instance(instance));
+    }
+
+    private static MetricName instance(String instance) {
+        return MetricName.parse("sheep.weight[" + instance + "]");
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package io.pcp.parfait.pcp;
+
+import io.pcp.parfait.Monitorable;
+import io.pcp.parfait.MonitorableRegistry;
+import io.pcp.parfait.MonitoredCounter;
+import io.pcp.parfait.dxm.MetricName;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PcpMonitorBridgeIncrementalTest {
+    private static final MetricName JUMPS = MetricName.parse("sheep.jumps");
+    private static final MetricName NAPS = MetricName.parse("sheep.naps");
+    private static final MetricName BLEATS = MetricName.parse("sheep.bleats");
+
+    private RecordingPcpWriter writer;
+    private PcpMonitorBridge bridge;
+    private MonitoredCounter jumps;
+    private MonitoredCounter naps;
+    private MonitoredCounter bleats;
+
+    @Before
+    public void setUp() {
+        MonitorableRegistry registry = new MonitorableRegistry();
+        writer = new RecordingPcpWriter();
+        writer.resizable = true;
+        bridge = new PcpMonitorBridge(writer);
+        jumps = new MonitoredCounter(JUMPS.toString(), "Sheep jumped", registry);
+        naps = new MonitoredCounter(NAPS.toString(), "Sheep napped", registry);
+        bleats = new MonitoredCounter(BLEATS.toString(), "Sheep bleated", registry);
+        bridge.startMonitoring(Collections.<Monitorable<?>>singletonList(jumps));
+        writer.writes.clear();
+    }
+
+    @Test
+    public void shouldMonitorMetricsAddedWhileRunning() {
+        assertTrue(bridge.addMonitorables(Arrays.<Monitorable<?>>asList(naps, bleats)));
+
+        naps.inc();
+
+        assertEquals(Arrays.asList(JUMPS, NAPS, BLEATS), writer.addedMetrics);
+        assertEquals(1L, writer.values.get(NAPS));
+        assertEquals(0, writer.resetCount);
+    }
+
+    @Test
+    public void shouldStopMonitoringAndRemoveMetricsRemovedWhileRunning() {
+        assertTrue(bridge.removeMonitorables(Collections.<Monitorable<?>>singletonList(jumps)));
+
+        jumps.inc();
+
+        assertEquals(Collections.singletonList(JUMPS), writer.removedMetrics);
+        assertEquals(0, writer.writeCount(JUMPS));
+        assertTrue(bridge.isRunning());
+    }
+
+    @Test
+    public void shouldDeclineChangesTheWriterCannotMakeWhileRunning() {
+        writer.resizable = false;
+
+        assertFalse(bridge.addMonitorables(Collections.<Monitorable<?>>singletonList(naps)));
+        assertFalse(bridge.removeMonitorables(Collections.<Monitorable<?>>singletonList(jumps)));
+
+        naps.inc();
+        jumps.inc();
+
+        assertFalse(writer.addedMetrics.contains(NAPS));
+        assertEquals(0, writer.writeCount(NAPS));
+        assertEquals(1, writer.writeCount(JUMPS));
+    }
+
+    @Test
+    public void shouldStopMonitoringTheMetricsAlreadyAddedWhenAddingOneFails() {
+        writer.failingMetric = BLEATS;
+
+        try {
+            bridge.addMonitorables(Arrays.<Monitorable<?>>asList(naps, bleats));
+            fail("Expected the writer's failure to be rethrown");
+        } catch (IllegalStateException expected) {
+        }
+        writer.writes.clear();
+        naps.inc();
+        bleats.inc();
+        jumps.inc();
+
+        assertEquals(0, writer.writeCount(NAPS));
+        assertEquals(0, writer.writeCount(BLEATS));
+        assertEquals(1, writer.writeCount(JUMPS));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2009-2017 Aconex
+ *
+ * Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package io.pcp.parfait.pcp;
+
+import io.pcp.parfait.dxm.MetricHandle;
+import io.pcp.parfait.dxm.MetricName;
+import io.pcp.parfait.dxm.PcpWriter;
+import io.pcp.parfait.dxm.semantics.Semantics;
+import io.pcp.parfait.dxm.types.TypeHandler;
+
+import javax.measure.Unit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link PcpWriter} which just remembers the metrics added to it and every value written.
+ */
+class RecordingPcpWriter implements PcpWriter {
+    final List<MetricName> addedMetrics = Collections.synchronizedList(new ArrayList<MetricName>());
+    final Map<MetricName, Object> values = new ConcurrentHashMap<MetricName, Object>();
+    final List<MetricName> writes = Collections.synchronizedList(new ArrayList<MetricName>());
+    final List<MetricName> removedMetrics = Collections.synchronizedList(new ArrayList<MetricName>());
+    /**
+     * Whether metrics can be added and removed while started.
+     */
+    volatile boolean resizable;
+    /**
+     * Adding a metric of this name fails.
+     */
+    volatile MetricName failingMetric;
+    /**
+     * Run during each write through a handle, before it is recorded.
+     */
+    volatile Runnable duringWrite;
+    volatile int resetCount;
+
+    @Override
+    public MetricHandle addMetric(MetricName name, Semantics semantics, Unit<?> unit, Object initialValue) {
+        if (name.equals(failingMetric)) {
+            throw new IllegalStateException("Cannot add " + name);
+        }
+        addedMetrics.add(name);
+        values.put(name, initialValue);
+        return new RecordingHandle(name);
+    }
+
+    @Override
+    public <T> MetricHandle addMetric(MetricName name, Semantics semantics, Unit<?> unit, T initialValue,
+            TypeHandler<T> pcpType) {
+        return addMetric(name, semantics, unit, initialValue);
+    }
+
+    @Override
+    public void updateMetric(MetricName name, Object value) {
+        writes.add(name);
+        values.put(name, value);
+    }
+
+    @Override
+    public <T> void registerType(Class<T> runtimeClass, TypeHandler<T> handler) {
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void setInstanceDomainHelpText(String instanceDomain, String shortHelpText, String longHelpText) {
+    }
+
+    @Override
+    public void setMetricHelpText(String metricName, String shortHelpText, String longHelpText) {
+    }
+
+    @Override
+    public boolean canAddMetricsWhileStarted() {
+        return resizable;
+    }
+
+    @Override
+    public boolean canRemoveMetrics() {
+        return resizable;
+    }
+
+    @Override
+    public void removeMetrics(Collection<MetricName> names) {
+        removedMetrics.addAll(names);
+    }
+
+    @Override
+    public void reset() {
+        resetCount++;
+    }
+
+    int writeCount(MetricName name) {
+        synchronized (writes) {
+            return Collections.frequency(writes, name);
+        }
+    }
+
+    private final class RecordingHandle implements MetricHandle {
+        private final MetricName name;
+
+        RecordingHandle(MetricName name) {
+            this.name = name;
+        }
+
+        @Override
+        public MetricName getName() {
+            return name;
+        }
+
+        @Override
+        public void set(Object value) {
+            Runnable hook = duringWrite;
+            if (hook != null) {
+                hook.run();
+            }
+            updateMetric(name, value);
+        }
+
+        @Override
+        public void set(long value) {
+            set((Object) value);
+        }
+
+        @Override
+        public void set(int value) {
+            set((Object) value);
+        }
+
+        @Override
+        public void set(double value) {
+            set((Object) value);
+        }
+    }
+}